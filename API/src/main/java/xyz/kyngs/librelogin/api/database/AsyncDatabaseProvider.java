@@ -0,0 +1,28 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.api.database;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This interface supplies the executor the asynchronous methods of a provider run on.
+ *
+ * @author kyngs
+ */
+public interface AsyncDatabaseProvider {
+
+    /**
+     * This method returns the executor used by the asynchronous methods. Providers backed by a
+     * connection pool should return an executor which is sized to the pool.
+     *
+     * @return The executor.
+     */
+    default Executor getAsyncExecutor() {
+        return ForkJoinPool.commonPool();
+    }
+}
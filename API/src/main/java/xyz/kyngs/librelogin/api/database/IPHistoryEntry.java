@@ -0,0 +1,23 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.api.database;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * This record is used to store the use of an IP address by a player.
+ *
+ * @param uuid The UUID of the player.
+ * @param ip The IP address.
+ * @param firstSeen When the player has first been seen with the IP address.
+ * @param lastSeen When the player has last been seen with the IP address.
+ * @param hits How many times the player has been seen with the IP address.
+ * @author kyngs
+ */
+public record IPHistoryEntry(
+        UUID uuid, String ip, Timestamp firstSeen, Timestamp lastSeen, int hits) {}
@@ -0,0 +1,15 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.api.database;
+
+/**
+ * This record is the result of pruning a chunk of inactive players.
+ *
+ * @param selected The amount of players found inactive, fewer than the limit if none are left.
+ * @param deleted The amount of players deleted, fewer than selected if some have joined since.
+ */
+public record PruneResult(int selected, int deleted) {}
@@ -6,15 +6,26 @@
 
 package xyz.kyngs.librelogin.api.database;
 
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * This interface is used to read from the database.
  *
  * @author kyngs
  */
-public interface ReadDatabaseProvider {
+public interface ReadDatabaseProvider extends AsyncDatabaseProvider {
 
     /**
      * This method finds a player by their name.
@@ -40,6 +51,38 @@ public interface ReadDatabaseProvider {
      */
     User getByPremiumUUID(UUID uuid);
 
+    /**
+     * This method finds several players by their UUIDs. Implementations should fetch them in as few
+     * round-trips as possible.
+     *
+     * @param uuids The UUIDs of the players.
+     * @return The players which exist, keyed by their UUID.
+     */
+    default Map<UUID, User> getByUUIDs(Collection<UUID> uuids) {
+        var users = new HashMap<UUID, User>();
+        for (var uuid : uuids) {
+            var user = getByUUID(uuid);
+            if (user != null) users.put(uuid, user);
+        }
+        return users;
+    }
+
+    /**
+     * This method finds several players by their names. Implementations should fetch them in as few
+     * round-trips as possible.
+     *
+     * @param names The names of the players.
+     * @return The players which exist, keyed by the name they have been looked up by.
+     */
+    default Map<String, User> getByNames(Collection<String> names) {
+        var users = new HashMap<String, User>();
+        for (var name : names) {
+            var user = getByName(name);
+            if (user != null) users.put(name, user);
+        }
+        return users;
+    }
+
     /**
      * This method fetches all players. <b>Use this with caution.</b>
      *
@@ -47,6 +90,43 @@ public interface ReadDatabaseProvider {
      */
     Collection<User> getAllUsers();
 
+    /**
+     * This method passes all players to the consumer, one by one. Unlike {@link #getAllUsers()},
+     * implementations should not keep all the players in memory at once.
+     *
+     * @param consumer The consumer of the players.
+     */
+    default void forEachUser(Consumer<User> consumer) {
+        getAllUsers().forEach(consumer);
+    }
+
+    /**
+     * This method passes the players seen since the specified time to the consumer, one by one, the
+     * most recently seen first. At most the limit of players is held in memory at once.
+     *
+     * @param since The earliest time the players have been seen.
+     * @param limit The maximum amount of players, or 0 for no limit.
+     * @param consumer The consumer of the players.
+     */
+    default void forEachUserSeenSince(Timestamp since, int limit, Consumer<User> consumer) {
+        // Keeps the most recently seen players only, the least recently seen one on top
+        var seen =
+                new PriorityQueue<User>(
+                        limit > 0 ? limit + 1 : 11, Comparator.comparing(User::getLastSeen));
+        forEachUser(
+                user -> {
+                    if (user.getLastSeen() == null || user.getLastSeen().before(since)) return;
+                    seen.add(user);
+                    if (limit > 0 && seen.size() > limit) seen.poll();
+                });
+        var sorted = new ArrayList<User>(seen.size());
+        while (!seen.isEmpty()) {
+            sorted.add(seen.poll());
+        }
+        Collections.reverse(sorted);
+        sorted.forEach(consumer);
+    }
+
     /**
      * This method fetches all players which used the specified IP.
      *
@@ -54,4 +134,122 @@ public interface ReadDatabaseProvider {
      * @return A collection of all players which used the specified IP.
      */
     Collection<User> getByIP(String ip);
+
+    /**
+     * This method counts all players which used the specified IP.
+     *
+     * @param ip IP address.
+     * @return The amount of players which used the specified IP.
+     */
+    default int countByIP(String ip) {
+        return getByIP(ip).size();
+    }
+
+    /**
+     * This method finds the UUIDs of the players which have used any of the IPs the specified
+     * player has ever used, the most recently seen first. Providers which do not keep a history of
+     * the IPs only compare the last IP of the players.
+     *
+     * @param uuid The UUID of the player.
+     * @param offset The amount of players to skip.
+     * @param limit The maximum amount of players.
+     * @return The UUIDs of the players, not including the specified player.
+     */
+    default List<UUID> getAltUUIDs(UUID uuid, int offset, int limit) {
+        var user = getByUUID(uuid);
+        if (user == null || user.getIp() == null) return List.of();
+        return getByIP(user.getIp()).stream()
+                .filter(alt -> !alt.getUuid().equals(uuid))
+                .sorted(
+                        Comparator.comparing(
+                                User::getLastSeen,
+                                Comparator.nullsLast(Comparator.<Timestamp>reverseOrder())))
+                .skip(offset)
+                .limit(limit)
+                .map(User::getUuid)
+                .toList();
+    }
+
+    /**
+     * This method counts the players returned by {@link #getAltUUIDs(UUID, int, int)}.
+     *
+     * @param uuid The UUID of the player.
+     * @return The amount of players which share an IP with the specified player.
+     */
+    default int countAlts(UUID uuid) {
+        return getAltUUIDs(uuid, 0, Integer.MAX_VALUE).size();
+    }
+
+    /**
+     * This method finds the players which have used any of the IPs the specified player has ever
+     * used, the most recently seen first.
+     *
+     * @param uuid The UUID of the player.
+     * @param offset The amount of players to skip.
+     * @param limit The maximum amount of players.
+     * @return The players, not including the specified player.
+     * @see #getAltUUIDs(UUID, int, int)
+     */
+    default List<User> getAlts(UUID uuid, int offset, int limit) {
+        var uuids = getAltUUIDs(uuid, offset, limit);
+        var users = getByUUIDs(uuids);
+        return uuids.stream().map(users::get).filter(Objects::nonNull).toList();
+    }
+
+    /**
+     * This method finds a player by their name without blocking the calling thread.
+     *
+     * @param name The name of the player.
+     * @return A future completed with the player, or with null if the player does not exist.
+     * @see #getByName(String)
+     */
+    default CompletableFuture<User> getByNameAsync(String name) {
+        return CompletableFuture.supplyAsync(() -> getByName(name), getAsyncExecutor());
+    }
+
+    /**
+     * This method finds a player by their UUID without blocking the calling thread.
+     *
+     * @param uuid The UUID of the player.
+     * @return A future completed with the player, or with null if the player does not exist.
+     * @see #getByUUID(UUID)
+     */
+    default CompletableFuture<User> getByUUIDAsync(UUID uuid) {
+        return CompletableFuture.supplyAsync(() -> getByUUID(uuid), getAsyncExecutor());
+    }
+
+    /**
+     * This method finds a player by their premium UUID without blocking the calling thread.
+     *
+     * @param uuid The premium UUID of the player.
+     * @return A future completed with the player, or with null if the player does not exist.
+     * @see #getByPremiumUUID(UUID)
+     */
+    default CompletableFuture<User> getByPremiumUUIDAsync(UUID uuid) {
+        return CompletableFuture.supplyAsync(() -> getByPremiumUUID(uuid), getAsyncExecutor());
+    }
+
+    /**
+     * This method fetches all players which used the specified IP without blocking the calling
+     * thread.
+     *
+     * @param ip IP address.
+     * @return A future completed with all players which used the specified IP.
+     * @see #getByIP(String)
+     */
+    default CompletableFuture<Collection<User>> getByIPAsync(String ip) {
+        return CompletableFuture.supplyAsync(() -> getByIP(ip), getAsyncExecutor());
+    }
+
+    /**
+     * This method counts all players which used the specified IP without blocking the calling
+     * thread.
+     *
+     * @param ip IP address.
+     * @return A future completed with the amount of players which used the specified IP.
+     * @see #countByIP(String)
+     */
+    default CompletableFuture<Integer> countByIPAsync(String ip) {
+        return CompletableFuture.supplyAsync(() -> countByIP(ip), getAsyncExecutor());
+    }
 }
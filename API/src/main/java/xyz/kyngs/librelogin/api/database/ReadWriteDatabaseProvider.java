@@ -6,9 +6,84 @@
 
 package xyz.kyngs.librelogin.api.database;
 
+import java.sql.Timestamp;
+import java.util.ArrayList;
+
 /**
  * This interface is used to read and write to the database.
  *
  * @author kyngs
  */
-public interface ReadWriteDatabaseProvider extends ReadDatabaseProvider, WriteDatabaseProvider {}
+public interface ReadWriteDatabaseProvider extends ReadDatabaseProvider, WriteDatabaseProvider {
+
+    /**
+     * This method adds a player to the database, unless their UUID, premium UUID or name is already
+     * taken by another player. Providers backed by a database do this in a single statement, so two
+     * concurrent registrations of the same player cannot both succeed.
+     *
+     * @param user The player to add.
+     * @return True if the player has been added, false if they conflict with an existing player.
+     */
+    default boolean insertUserIfAbsent(User user) {
+        if (getByUUID(user.getUuid()) != null || getByName(user.getLastNickname()) != null) {
+            return false;
+        }
+        if (user.getPremiumUUID() != null && getByPremiumUUID(user.getPremiumUUID()) != null) {
+            return false;
+        }
+        insertUser(user);
+        return true;
+    }
+
+    /**
+     * This method adds a player to the database, or overwrites all the data of the player with the
+     * same UUID. The name and premium UUID of the player must not be taken by another player.
+     *
+     * @param user The player to add or overwrite.
+     */
+    default void upsertUser(User user) {
+        if (getByUUID(user.getUuid()) == null) {
+            insertUser(user);
+        } else {
+            updateUser(user);
+        }
+    }
+
+    /**
+     * This method gives a name to a player, deleting any other player registered under the same
+     * name (case-insensitively). Providers backed by a database do this in a single transaction.
+     *
+     * @param user The player claiming the name.
+     * @param name The name to claim.
+     */
+    default void claimName(User user, String name) {
+        var holder = getByName(name);
+        if (holder != null && !holder.getUuid().equals(user.getUuid())) deleteUser(holder);
+        user.setLastNickname(name);
+        upsertUser(user);
+    }
+
+    /**
+     * This method deletes players which have not been seen since the specified time and have
+     * neither a premium UUID nor an e-mail. Providers backed by a database delete them in bulk.
+     *
+     * @param lastSeenBefore The time the players must not have been seen since.
+     * @param limit The maximum amount of players to delete.
+     * @return The amount of players found inactive and deleted.
+     */
+    default PruneResult pruneInactiveUsers(Timestamp lastSeenBefore, int limit) {
+        var inactive = new ArrayList<User>();
+        forEachUser(
+                user -> {
+                    if (inactive.size() < limit
+                            && user.getLastSeen() != null
+                            && user.getLastSeen().before(lastSeenBefore)
+                            && user.getPremiumUUID() == null
+                            && user.getEmail() == null) {
+                        inactive.add(user);
+                    }
+                });
+        inactive.forEach(this::deleteUser);
+        return new PruneResult(inactive.size(), inactive.size());
+    }
+}
@@ -6,14 +6,16 @@
 
 package xyz.kyngs.librelogin.api.database;
 
+import java.sql.Timestamp;
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This interface is used to write to the database.
  *
  * @author kyngs
  */
-public interface WriteDatabaseProvider {
+public interface WriteDatabaseProvider extends AsyncDatabaseProvider {
 
     /**
      * This method adds a player to the database.
@@ -36,10 +38,72 @@ public interface WriteDatabaseProvider {
      */
     void updateUser(User user);
 
+    /**
+     * This method updates several players in the database.
+     *
+     * @param users The players to update.
+     */
+    default void updateUsers(Collection<User> users) {
+        users.forEach(this::updateUser);
+    }
+
     /**
      * This method deletes a player from the database.
      *
      * @param user The player to delete.
      */
     void deleteUser(User user);
+
+    /**
+     * This method adds uses of IPs to the history of the players. Providers which do not keep a
+     * history of the IPs ignore them.
+     *
+     * @param entries The uses, each of them is added to the entry of the same player and IP.
+     */
+    default void recordIPs(Collection<IPHistoryEntry> entries) {}
+
+    /**
+     * This method deletes the uses of IPs which have not been seen since the specified time from
+     * the history of the players. Providers which do not keep a history of the IPs delete nothing.
+     *
+     * @param lastSeenBefore The time the uses must not have been seen since.
+     * @param limit The maximum amount of uses to delete.
+     * @return The amount of uses found and deleted.
+     */
+    default PruneResult pruneIPHistory(Timestamp lastSeenBefore, int limit) {
+        return new PruneResult(0, 0);
+    }
+
+    /**
+     * This method adds a player to the database without blocking the calling thread.
+     *
+     * @param user The player to add.
+     * @return A future completed once the player has been added.
+     * @see #insertUser(User)
+     */
+    default CompletableFuture<Void> insertUserAsync(User user) {
+        return CompletableFuture.runAsync(() -> insertUser(user), getAsyncExecutor());
+    }
+
+    /**
+     * This method updates a player in the database without blocking the calling thread.
+     *
+     * @param user The player to update.
+     * @return A future completed once the player has been updated.
+     * @see #updateUser(User)
+     */
+    default CompletableFuture<Void> updateUserAsync(User user) {
+        return CompletableFuture.runAsync(() -> updateUser(user), getAsyncExecutor());
+    }
+
+    /**
+     * This method deletes a player from the database without blocking the calling thread.
+     *
+     * @param user The player to delete.
+     * @return A future completed once the player has been deleted.
+     * @see #deleteUser(User)
+     */
+    default CompletableFuture<Void> deleteUserAsync(User user) {
+        return CompletableFuture.runAsync(() -> deleteUser(user), getAsyncExecutor());
+    }
 }
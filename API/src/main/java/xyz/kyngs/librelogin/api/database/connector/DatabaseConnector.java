@@ -59,6 +59,20 @@ public interface DatabaseConnector<E extends Exception, I> {
      */
     <V> V runQuery(ThrowableFunction<I, V, E> function) throws IllegalStateException;
 
+    /**
+     * Runs a query which only reads from the database and handles the exception. Implementations
+     * may run it on a read-only connection, which does not wait for writes. <br>
+     * <b>This method closes the interface after the function has been run</b>
+     *
+     * @param function The function to run.
+     * @param <V> The return type of the function.
+     * @return The result of the function.
+     * @throws IllegalStateException If the database is not connected.
+     */
+    default <V> V runReadQuery(ThrowableFunction<I, V, E> function) throws IllegalStateException {
+        return runQuery(function);
+    }
+
     /**
      * Runs a query on the database and handles the exception. <br>
      * <b>This method closes the interface after the consumer has been run</b>
@@ -73,4 +87,20 @@ public interface DatabaseConnector<E extends Exception, I> {
                     return null;
                 });
     }
+
+    /**
+     * Runs a query which only reads from the database and handles the exception. <br>
+     * <b>This method closes the interface after the consumer has been run</b>
+     *
+     * @param consumer The consumer to run.
+     * @throws IllegalStateException If the database is not connected.
+     * @see #runReadQuery(ThrowableFunction)
+     */
+    default void runReadQuery(ThrowableConsumer<I, E> consumer) throws IllegalStateException {
+        runReadQuery(
+                (i) -> {
+                    consumer.accept(i);
+                    return null;
+                });
+    }
 }
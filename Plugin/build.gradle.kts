@@ -144,6 +144,25 @@ dependencies {
     implementation("xyz.kyngs.libby:libby-bukkit:1.6.0")
     implementation("xyz.kyngs.libby:libby-velocity:1.6.0")
     implementation("xyz.kyngs.libby:libby-paper:1.6.0")
+
+    //Tests
+    testImplementation(platform("org.junit:junit-bom:5.13.4"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testImplementation("org.mockito:mockito-core:5.14.2")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+configurations.testImplementation {
+    // The libraries are only downloaded by libby at runtime, the tests need them on the classpath
+    extendsFrom(configurations["libby"], configurations.compileOnly.get())
+}
+
+tasks.test {
+    useJUnitPlatform {
+        // The benchmarks take a while, run them with -Pbenchmark
+        if (!project.hasProperty("benchmark")) excludeTags("benchmark")
+    }
+    testLogging.showStandardStreams = project.hasProperty("benchmark")
 }
 
 tasks.withType<ProcessResources> {
@@ -20,11 +20,18 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import net.kyori.adventure.audience.Audience;
 import org.jetbrains.annotations.Nullable;
 import xyz.kyngs.librelogin.api.BiHolder;
@@ -58,12 +65,30 @@ import xyz.kyngs.librelogin.common.crypto.LogITMessageDigestCryptoProvider;
 import xyz.kyngs.librelogin.common.crypto.MessageDigestCryptoProvider;
 import xyz.kyngs.librelogin.common.database.AuthenticDatabaseProvider;
 import xyz.kyngs.librelogin.common.database.AuthenticUser;
+import xyz.kyngs.librelogin.common.database.CachedDatabaseProvider;
+import xyz.kyngs.librelogin.common.database.ForwardingDatabaseProvider;
+import xyz.kyngs.librelogin.common.database.IPHistoryRecorder;
+import xyz.kyngs.librelogin.common.database.InactiveUserPruner;
+import xyz.kyngs.librelogin.common.database.InvalidatingDatabaseProvider;
+import xyz.kyngs.librelogin.common.database.WriteBehindDatabaseProvider;
+import xyz.kyngs.librelogin.common.database.connector.AuthenticDatabaseConnector;
+import xyz.kyngs.librelogin.common.database.connector.AuthenticLogDatabaseConnector;
+import xyz.kyngs.librelogin.common.database.connector.AuthenticMemoryDatabaseConnector;
 import xyz.kyngs.librelogin.common.database.connector.AuthenticMySQLDatabaseConnector;
 import xyz.kyngs.librelogin.common.database.connector.AuthenticPostgreSQLDatabaseConnector;
+import xyz.kyngs.librelogin.common.database.connector.AuthenticSQLDatabaseConnector;
 import xyz.kyngs.librelogin.common.database.connector.AuthenticSQLiteDatabaseConnector;
+import xyz.kyngs.librelogin.common.database.connector.CircuitBreaker;
 import xyz.kyngs.librelogin.common.database.connector.DatabaseConnectorRegistration;
+import xyz.kyngs.librelogin.common.database.connector.PoolMetrics;
+import xyz.kyngs.librelogin.common.database.invalidation.ChangeLog;
+import xyz.kyngs.librelogin.common.database.invalidation.DatabaseInvalidationBus;
+import xyz.kyngs.librelogin.common.database.invalidation.InvalidationBus;
+import xyz.kyngs.librelogin.common.database.provider.LibreLoginLogDatabaseProvider;
+import xyz.kyngs.librelogin.common.database.provider.LibreLoginMemoryDatabaseProvider;
 import xyz.kyngs.librelogin.common.database.provider.LibreLoginMySQLDatabaseProvider;
 import xyz.kyngs.librelogin.common.database.provider.LibreLoginPostgreSQLDatabaseProvider;
+import xyz.kyngs.librelogin.common.database.provider.LibreLoginSQLDatabaseProvider;
 import xyz.kyngs.librelogin.common.database.provider.LibreLoginSQLiteDatabaseProvider;
 import xyz.kyngs.librelogin.common.event.AuthenticEventProvider;
 import xyz.kyngs.librelogin.common.image.AuthenticImageProjector;
@@ -87,6 +112,9 @@ public abstract class AuthenticLibreLogin<P, S> implements LibreLoginPlugin<P, S
             DateTimeFormatter.ofPattern("dd. MM. yyyy HH:mm");
     public static final ExecutorService EXECUTOR;
 
+    /** Pre-logins resolved at once, each may wait for the Mojang API and the database. */
+    private static final int LOGIN_THREADS = 32;
+
     static {
         EXECUTOR = new ForkJoinPool(4);
     }
@@ -110,8 +138,12 @@ public abstract class AuthenticLibreLogin<P, S> implements LibreLoginPlugin<P, S
     private HoconMessages messages;
     private AuthenticAuthorizationProvider<P, S> authorizationProvider;
     private CommandProvider<P, S> commandProvider;
+    private InactiveUserPruner inactiveUserPruner;
+    private @Nullable IPHistoryRecorder ipHistoryRecorder;
     private ReadWriteDatabaseProvider databaseProvider;
     private DatabaseConnector<?, ?> databaseConnector;
+    private ExecutorService databaseExecutor;
+    private @Nullable ExecutorService loginExecutor;
     private AuthenticEMailHandler eMailHandler;
     private LoginTryListener<P, S> loginTryListener;
 
@@ -323,6 +355,8 @@ public abstract class AuthenticLibreLogin<P, S> implements LibreLoginPlugin<P, S
 
         connectToDB();
 
+        warmUpCache();
+
         serverHandler = new AuthenticServerHandler<>(this);
 
         this.loginTryListener = new LoginTryListener<>(this);
@@ -346,6 +380,17 @@ public abstract class AuthenticLibreLogin<P, S> implements LibreLoginPlugin<P, S
 
         authorizationProvider = new AuthenticAuthorizationProvider<>(this);
         commandProvider = new CommandProvider<>(this);
+        inactiveUserPruner = new InactiveUserPruner(this);
+        loginExecutor = createLoginExecutor();
+        ipHistoryRecorder =
+                configuration.get(DATABASE_IP_HISTORY_ENABLED)
+                        ? new IPHistoryRecorder(
+                                this,
+                                Math.max(configuration.get(DATABASE_IP_HISTORY_FLUSH_INTERVAL), 1),
+                                Math.max(configuration.get(DATABASE_IP_HISTORY_MAX_QUEUE_SIZE), 1))
+                        : null;
+
+        schedulePruning();
 
         if (version.dev()) {
             logger.warn("!! YOU ARE RUNNING A DEVELOPMENT BUILD OF LIBRELOGIN !!");
@@ -408,6 +453,8 @@ public abstract class AuthenticLibreLogin<P, S> implements LibreLoginPlugin<P, S
                 connector.connect();
             }
 
+            databaseExecutor = createDatabaseExecutor(connector);
+
             var provider = registration.create(connector);
 
             if (provider instanceof ReadWriteDatabaseProvider casted) {
@@ -447,6 +494,289 @@ public abstract class AuthenticLibreLogin<P, S> implements LibreLoginPlugin<P, S
 
             logger.info("Schema validated");
         }
+
+        // Below the write-behind queue, other proxies must only be told once the change is written
+        var invalidationBus = createInvalidationBus();
+        if (invalidationBus != null) {
+            databaseProvider = new InvalidatingDatabaseProvider(databaseProvider, invalidationBus);
+        }
+
+        if (configuration.get(DATABASE_WRITE_BEHIND_ENABLED)) {
+            databaseProvider =
+                    new WriteBehindDatabaseProvider(
+                            databaseProvider,
+                            logger,
+                            configuration.get(DATABASE_WRITE_BEHIND_FLUSH_INTERVAL),
+                            configuration.get(DATABASE_WRITE_BEHIND_BATCH_SIZE),
+                            configuration.get(DATABASE_WRITE_BEHIND_MAX_QUEUE_SIZE));
+        }
+
+        if (configuration.get(DATABASE_CACHE_ENABLED)) {
+            databaseProvider =
+                    new CachedDatabaseProvider(
+                            databaseProvider,
+                            configuration.get(DATABASE_CACHE_MAXIMUM_SIZE),
+                            Duration.ofSeconds(
+                                    configuration.get(DATABASE_CACHE_EXPIRE_AFTER_ACCESS)));
+        }
+
+        if (invalidationBus != null) {
+            var cache =
+                    ForwardingDatabaseProvider.unwrap(
+                            databaseProvider, CachedDatabaseProvider.class);
+            var sql =
+                    ForwardingDatabaseProvider.unwrap(
+                            databaseProvider, LibreLoginSQLDatabaseProvider.class);
+            // Subscribed before the cache, so it loads the changed users from the primary. The
+            // cached state is pinned too, as the replicas may still return a renamed user under
+            // its previous name
+            if (sql != null) {
+                invalidationBus.subscribe(
+                        invalidation -> {
+                            sql.pin(invalidation);
+                            var previous = cache == null ? null : cache.getCached(invalidation);
+                            if (previous != null) sql.pin(previous);
+                        });
+            }
+            if (cache != null) invalidationBus.subscribe(cache::invalidate);
+
+            try {
+                invalidationBus.start();
+            } catch (Exception e) {
+                var cause = GeneralUtil.getFurthestCause(e);
+                logger.error(
+                        "Failed to start the invalidation bus! Cause: %s: %s"
+                                .formatted(cause.getClass().getSimpleName(), cause.getMessage()));
+                shutdownProxy(1);
+            }
+        }
+    }
+
+    private @Nullable InvalidationBus createInvalidationBus() {
+        var type = configuration.get(DATABASE_INVALIDATION_BUS).toLowerCase();
+        InvalidationBus bus =
+                switch (type) {
+                    case "auto" -> {
+                        var redisBungee = createRedisBungeeInvalidationBus();
+                        yield redisBungee != null ? redisBungee : createDatabaseInvalidationBus();
+                    }
+                    case "redisbungee" -> {
+                        var redisBungee = createRedisBungeeInvalidationBus();
+                        if (redisBungee == null) {
+                            logger.warn(
+                                    "The invalidation bus is set to RedisBungee, but RedisBungee is"
+                                            + " not installed, the caches of other proxies may"
+                                            + " serve stale users");
+                        }
+                        yield redisBungee;
+                    }
+                    case "database" -> {
+                        var database = createDatabaseInvalidationBus();
+                        if (database == null) {
+                            logger.warn(
+                                    "The invalidation bus is set to database, but database type %s"
+                                                    .formatted(configuration.get(DATABASE_TYPE))
+                                            + " does not support it");
+                        }
+                        yield database;
+                    }
+                    case "none" -> null;
+                    default -> {
+                        logger.warn("Unknown invalidation bus %s, disabling it".formatted(type));
+                        yield null;
+                    }
+                };
+        if (bus != null) {
+            logger.info(
+                    "Publishing user invalidations through %s"
+                            .formatted(bus.getClass().getSimpleName()));
+        }
+        return bus;
+    }
+
+    /**
+     * Creates the invalidation bus polling the change log of the database.
+     *
+     * @return The bus, or null if the database has no change log
+     */
+    private @Nullable InvalidationBus createDatabaseInvalidationBus() {
+        var changeLog = ForwardingDatabaseProvider.unwrap(databaseProvider, ChangeLog.class);
+        if (changeLog == null) return null;
+        var pollInterval = configuration.get(DATABASE_INVALIDATION_POLL_INTERVAL);
+        return new DatabaseInvalidationBus(logger, changeLog, Math.max(100, pollInterval));
+    }
+
+    /**
+     * Creates the invalidation bus using RedisBungee, if the platform supports it.
+     *
+     * @return The bus, or null if RedisBungee is not available
+     */
+    protected @Nullable InvalidationBus createRedisBungeeInvalidationBus() {
+        return null;
+    }
+
+    /** Loads the recently seen users into the cache, in the background. */
+    private void warmUpCache() {
+        var cache =
+                ForwardingDatabaseProvider.unwrap(databaseProvider, CachedDatabaseProvider.class);
+        var window = configuration.get(DATABASE_CACHE_WARM_UP_WINDOW);
+        if (cache == null || window <= 0) return;
+
+        var maximumSize = configuration.get(DATABASE_CACHE_MAXIMUM_SIZE);
+        var limit = configuration.get(DATABASE_CACHE_WARM_UP_MAXIMUM_SIZE);
+        var since = new Timestamp(System.currentTimeMillis() - window * 1000L);
+
+        getDatabaseExecutor()
+                .execute(
+                        () -> {
+                            var start = System.currentTimeMillis();
+                            try {
+                                var loaded =
+                                        cache.warmUp(
+                                                since,
+                                                limit > 0
+                                                        ? Math.min(limit, maximumSize)
+                                                        : maximumSize);
+                                logger.info(
+                                        "Warmed up the cache with %d users in %dms"
+                                                .formatted(
+                                                        loaded,
+                                                        System.currentTimeMillis() - start));
+                            } catch (Exception e) {
+                                logger.warn("Failed to warm up the cache: " + e.getMessage());
+                            }
+                        });
+    }
+
+    private void schedulePruning() {
+        var days = configuration.get(PRUNE_INACTIVE_DAYS);
+        if (days <= 0 && configuration.get(PRUNE_IP_HISTORY_DAYS) <= 0) return;
+
+        var interval = TimeUnit.HOURS.toMillis(Math.max(1, configuration.get(PRUNE_INTERVAL)));
+
+        // Give the server some time to start before the first prune
+        repeat(
+                () ->
+                        EXECUTOR.execute(
+                                () -> {
+                                    try {
+                                        inactiveUserPruner.prune(days);
+                                    } catch (Exception e) {
+                                        logger.warn(
+                                                "Failed to prune inactive accounts: "
+                                                        + e.getMessage());
+                                    }
+                                }),
+                TimeUnit.MINUTES.toMillis(10),
+                interval);
+    }
+
+    /**
+     * Creates the executor the asynchronous database methods run on. It has as many threads as the
+     * connector has connections, so queries never wait for a connection while holding a thread, and
+     * never hold up unrelated tasks of the shared {@link #EXECUTOR}.
+     */
+    private ExecutorService createDatabaseExecutor(@Nullable DatabaseConnector<?, ?> connector) {
+        var size =
+                connector instanceof AuthenticDatabaseConnector<?, ?> authentic
+                        ? Math.max(1, authentic.getPoolSize())
+                        : 1;
+        var counter = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(
+                size,
+                runnable -> {
+                    var thread =
+                            new Thread(
+                                    runnable, "LibreLogin Database #" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Creates the executor the pre-logins are resolved on. They wait for the Mojang API, so they
+     * are kept apart from the database executor, whose threads would otherwise all be held by slow
+     * lookups during a reconnect storm, queueing the database methods behind them. Idle threads are
+     * stopped.
+     */
+    private ExecutorService createLoginExecutor() {
+        var counter = new AtomicInteger();
+        var executor =
+                new ThreadPoolExecutor(
+                        LOGIN_THREADS,
+                        LOGIN_THREADS,
+                        60,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(),
+                        runnable -> {
+                            var thread =
+                                    new Thread(
+                                            runnable,
+                                            "LibreLogin Login #" + counter.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Returns the circuit breaker guarding the database connection.
+     *
+     * @return The circuit breaker, or null if the database is not backed by a connection pool
+     */
+    public @Nullable CircuitBreaker getDatabaseCircuitBreaker() {
+        return databaseConnector instanceof AuthenticSQLDatabaseConnector sql
+                ? sql.getCircuitBreaker()
+                : null;
+    }
+
+    /**
+     * Returns the metrics of the database connection pool.
+     *
+     * @return The metrics, or null if the database is not backed by a connection pool
+     */
+    public @Nullable PoolMetrics getDatabasePoolMetrics() {
+        return databaseConnector instanceof AuthenticSQLDatabaseConnector sql
+                ? sql.getPoolMetrics()
+                : null;
+    }
+
+    /**
+     * Returns the read replicas of the database.
+     *
+     * @return The replicas, empty if there are none
+     */
+    public List<AuthenticSQLDatabaseConnector.Replica> getDatabaseReplicas() {
+        return databaseConnector instanceof AuthenticSQLDatabaseConnector sql
+                ? sql.getReplicas()
+                : List.of();
+    }
+
+    /**
+     * Checks whether the database is believed to be reachable. While it is not, the plugin runs in
+     * a degraded mode, rejecting new logins and serving only cached users.
+     *
+     * @return Whether the database is available
+     */
+    public boolean isDatabaseAvailable() {
+        var breaker = getDatabaseCircuitBreaker();
+        return breaker == null || breaker.isAvailable();
+    }
+
+    public Executor getDatabaseExecutor() {
+        return databaseExecutor == null ? EXECUTOR : databaseExecutor;
+    }
+
+    /**
+     * Returns the executor the pre-logins are resolved on, which is never used for the database
+     * methods alone.
+     *
+     * @return The executor
+     */
+    public Executor getLoginExecutor() {
+        return loginExecutor == null ? EXECUTOR : loginExecutor;
     }
 
     private void loadConfigs() {
@@ -539,6 +869,18 @@ public abstract class AuthenticLibreLogin<P, S> implements LibreLoginPlugin<P, S
                         AuthenticPostgreSQLDatabaseConnector.Configuration.class,
                         "postgresql"),
                 PostgreSQLDatabaseConnector.class);
+        registerDatabaseConnector(
+                new DatabaseConnectorRegistration<>(
+                        prefix -> new AuthenticMemoryDatabaseConnector(this, prefix),
+                        AuthenticMemoryDatabaseConnector.Configuration.class,
+                        "memory"),
+                AuthenticMemoryDatabaseConnector.class);
+        registerDatabaseConnector(
+                new DatabaseConnectorRegistration<>(
+                        prefix -> new AuthenticLogDatabaseConnector(this, prefix),
+                        AuthenticLogDatabaseConnector.Configuration.class,
+                        "log"),
+                AuthenticLogDatabaseConnector.class);
 
         registerReadProvider(
                 new ReadDatabaseProviderRegistration<>(
@@ -555,6 +897,16 @@ public abstract class AuthenticLibreLogin<P, S> implements LibreLoginPlugin<P, S
                         connector -> new LibreLoginPostgreSQLDatabaseProvider(connector, this),
                         "librelogin-postgresql",
                         PostgreSQLDatabaseConnector.class));
+        registerReadProvider(
+                new ReadDatabaseProviderRegistration<>(
+                        connector -> new LibreLoginMemoryDatabaseProvider(connector, this),
+                        "librelogin-memory",
+                        AuthenticMemoryDatabaseConnector.class));
+        registerReadProvider(
+                new ReadDatabaseProviderRegistration<>(
+                        connector -> new LibreLoginLogDatabaseProvider(connector, this),
+                        "librelogin-log",
+                        AuthenticLogDatabaseConnector.class));
         registerReadProvider(
                 new ReadDatabaseProviderRegistration<>(
                         connector ->
@@ -622,7 +974,7 @@ public abstract class AuthenticLibreLogin<P, S> implements LibreLoginPlugin<P, S
                                         "premium",
                                         logger,
                                         connector,
-                                        databaseConnector,
+                                        getDatabaseProvider(),
                                         premiumProvider),
                         "fastlogin-mysql",
                         MySQLDatabaseConnector.class));
@@ -633,7 +985,7 @@ public abstract class AuthenticLibreLogin<P, S> implements LibreLoginPlugin<P, S
                                         "premium",
                                         logger,
                                         connector,
-                                        databaseConnector,
+                                        getDatabaseProvider(),
                                         premiumProvider),
                         "fastlogin-sqlite",
                         SQLiteDatabaseConnector.class));
@@ -796,6 +1148,31 @@ public abstract class AuthenticLibreLogin<P, S> implements LibreLoginPlugin<P, S
     }
 
     protected void disable() {
+        if (loginExecutor != null) {
+            loginExecutor.shutdown();
+        }
+        if (ipHistoryRecorder != null) {
+            // Flushed through the database provider, so before it is closed
+            ipHistoryRecorder.close();
+        }
+        if (databaseProvider instanceof ForwardingDatabaseProvider forwarding) {
+            try {
+                forwarding.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+                logger.error("Failed to close the database provider, ignoring...");
+            }
+        }
+        if (databaseExecutor != null) {
+            databaseExecutor.shutdown();
+            try {
+                if (!databaseExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    logger.warn("Some database tasks did not finish in time, ignoring...");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         if (databaseConnector != null) {
             try {
                 databaseConnector.disconnect();
@@ -867,6 +1244,14 @@ public abstract class AuthenticLibreLogin<P, S> implements LibreLoginPlugin<P, S
         return authorizationProvider;
     }
 
+    public InactiveUserPruner getInactiveUserPruner() {
+        return inactiveUserPruner;
+    }
+
+    public @Nullable IPHistoryRecorder getIPHistoryRecorder() {
+        return ipHistoryRecorder;
+    }
+
     @Override
     public CryptoProvider getCryptoProvider(String id) {
         return cryptoProviders.get(id);
@@ -884,10 +1269,44 @@ public abstract class AuthenticLibreLogin<P, S> implements LibreLoginPlugin<P, S
 
     @Override
     public void migrate(ReadDatabaseProvider from, WriteDatabaseProvider to) {
-        logger.info("Reading data...");
-        var users = from.getAllUsers();
-        logger.info("Data read, inserting into database...");
-        to.insertUsers(users);
+        migrate(from, to, null, null);
+    }
+
+    /**
+     * Migrates all users, optionally resuming from a checkpoint.
+     *
+     * @param from The provider to read from
+     * @param to The provider to write to
+     * @param checkpoint The file to store the progress in, or null to not store it
+     * @param source Identifies the source of the migration in the checkpoint
+     */
+    public void migrate(
+            ReadDatabaseProvider from,
+            WriteDatabaseProvider to,
+            @Nullable File checkpoint,
+            @Nullable String source) {
+        logger.info("Reading and inserting data...");
+
+        var writers = configuration.get(MIGRATION_WRITER_THREADS);
+
+        // SQLite only allows a single writer, more threads would just wait for the lock
+        if (to instanceof ReadWriteDatabaseProvider provider
+                && ForwardingDatabaseProvider.unwrap(
+                                provider, LibreLoginSQLiteDatabaseProvider.class)
+                        != null) {
+            writers = 1;
+        }
+
+        var migrated =
+                new MigrationPipeline(
+                                logger,
+                                configuration.get(MIGRATION_CHUNK_SIZE),
+                                writers,
+                                checkpoint,
+                                source)
+                        .run(from, to);
+
+        logger.info("Data migrated, %d users in total".formatted(migrated));
     }
 
     @Override
@@ -90,6 +90,11 @@ public class AuthenticAuthorizationProvider<P, S> extends AuthenticHandler<P, S>
         user.setIp(platformHandle.getIP(player));
         plugin.getDatabaseProvider().updateUser(user);
 
+        var ipHistory = plugin.getIPHistoryRecorder();
+        if (ipHistory != null && user.getIp() != null) {
+            ipHistory.record(user.getUuid(), user.getIp());
+        }
+
         var audience = platformHandle.getAudienceForPlayer(player);
 
         audience.clearTitle();
@@ -101,7 +106,7 @@ public class AuthenticAuthorizationProvider<P, S> extends AuthenticHandler<P, S>
         plugin.authorize(player, user, audience);
 
         if (plugin instanceof xyz.kyngs.librelogin.velocity.VelocityLibreLogin velocityPlugin) {
-            velocityPlugin.getListeners().resumeConnection(user.getUuid());
+            velocityPlugin.getListeners().resumeConnection(user);
         }
     }
 
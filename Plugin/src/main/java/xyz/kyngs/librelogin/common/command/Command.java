@@ -15,6 +15,7 @@ import xyz.kyngs.librelogin.api.Logger;
 import xyz.kyngs.librelogin.api.configuration.Messages;
 import xyz.kyngs.librelogin.api.crypto.CryptoProvider;
 import xyz.kyngs.librelogin.api.crypto.HashedPassword;
+import xyz.kyngs.librelogin.api.database.DatabaseUnavailableException;
 import xyz.kyngs.librelogin.api.database.ReadWriteDatabaseProvider;
 import xyz.kyngs.librelogin.api.database.User;
 import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
@@ -60,7 +61,14 @@ public class Command<P> extends BaseCommand {
     }
 
     public CompletionStage<Void> runAsync(Runnable runnable) {
-        return GeneralUtil.runAsync(runnable);
+        return GeneralUtil.runAsync(
+                () -> {
+                    try {
+                        runnable.run();
+                    } catch (DatabaseUnavailableException e) {
+                        throw new InvalidCommandArgument(getMessage("error-database-unavailable"));
+                    }
+                });
     }
 
     protected User getUser(P player) {
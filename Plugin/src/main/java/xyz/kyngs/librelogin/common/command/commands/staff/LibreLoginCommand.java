@@ -27,6 +27,7 @@ import xyz.kyngs.librelogin.api.database.User;
 import xyz.kyngs.librelogin.api.event.events.AuthenticatedEvent;
 import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
 import xyz.kyngs.librelogin.common.command.InvalidCommandArgument;
+import xyz.kyngs.librelogin.common.config.ConfigurationKeys;
 import xyz.kyngs.librelogin.common.database.AuthenticUser;
 import xyz.kyngs.librelogin.common.event.events.AuthenticPasswordChangeEvent;
 import xyz.kyngs.librelogin.common.event.events.AuthenticPremiumLoginSwitchEvent;
@@ -35,6 +36,8 @@ import xyz.kyngs.librelogin.common.util.GeneralUtil;
 @CommandAlias("librelogin")
 public class LibreLoginCommand<P> extends StaffCommand<P> {
 
+    private static final int ALTS_PAGE_SIZE = 10;
+
     public LibreLoginCommand(AuthenticLibreLogin<P, ?> plugin) {
         super(plugin);
     }
@@ -158,6 +161,78 @@ public class LibreLoginCommand<P> extends StaffCommand<P> {
 
                     dump.add("server", server);
 
+                    var database = new JsonObject();
+
+                    database.addProperty(
+                            "type", plugin.getConfiguration().get(ConfigurationKeys.DATABASE_TYPE));
+                    database.addProperty("available", plugin.isDatabaseAvailable());
+
+                    var breaker = plugin.getDatabaseCircuitBreaker();
+
+                    if (breaker != null) {
+                        var circuitBreaker = new JsonObject();
+
+                        circuitBreaker.addProperty("state", breaker.getState().name());
+                        circuitBreaker.addProperty("failures", breaker.getFailures());
+                        circuitBreaker.addProperty("lastFailure", breaker.getLastFailure());
+
+                        database.add("circuitBreaker", circuitBreaker);
+                    }
+
+                    var metrics = plugin.getDatabasePoolMetrics();
+
+                    if (metrics != null) {
+                        var pool = new JsonObject();
+
+                        pool.addProperty("active", metrics.getActiveConnections());
+                        pool.addProperty("idle", metrics.getIdleConnections());
+                        pool.addProperty("total", metrics.getTotalConnections());
+                        pool.addProperty("pendingThreads", metrics.getPendingThreads());
+                        pool.addProperty("created", metrics.getCreatedConnections());
+                        pool.addProperty("timeouts", metrics.getTimeouts());
+                        pool.addProperty("usageCount", metrics.getUsageCount());
+                        pool.addProperty("averageUsageMillis", metrics.getAverageUsageMillis());
+
+                        var acquire = new JsonObject();
+
+                        acquire.addProperty("count", metrics.getAcquireCount());
+                        acquire.addProperty("averageMillis", metrics.getAverageAcquireMillis());
+                        acquire.addProperty("maxMillis", metrics.getMaxAcquireMillis());
+
+                        var histogram = new JsonObject();
+                        var bounds = metrics.getAcquireBucketBounds();
+                        var counts = metrics.getAcquireHistogram();
+
+                        for (int i = 0; i < counts.length; i++) {
+                            histogram.addProperty(
+                                    i < bounds.length
+                                            ? "<=" + bounds[i] + "ms"
+                                            : ">" + bounds[bounds.length - 1] + "ms",
+                                    counts[i]);
+                        }
+
+                        acquire.add("histogram", histogram);
+                        pool.add("acquire", acquire);
+                        database.add("pool", pool);
+                    }
+
+                    var replicas = new JsonArray();
+
+                    for (var replica : plugin.getDatabaseReplicas()) {
+                        var replicaData = new JsonObject();
+
+                        replicaData.addProperty("address", replica.getAddress());
+                        replicaData.addProperty("healthy", replica.isHealthy());
+                        replicaData.addProperty("active", replica.getActiveConnections());
+                        replicaData.addProperty("idle", replica.getIdleConnections());
+
+                        replicas.add(replicaData);
+                    }
+
+                    database.add("replicas", replicas);
+
+                    dump.add("database", database);
+
                     try (var writer = new FileWriter(dumpFile)) {
                         writer.write(GSON.toJson(dump));
                     } catch (IOException e) {
@@ -169,6 +244,27 @@ public class LibreLoginCommand<P> extends StaffCommand<P> {
                 });
     }
 
+    @Subcommand("prune")
+    @CommandPermission("librelogin.prune")
+    @Syntax("{@@syntax.prune}")
+    public CompletionStage<Void> onPrune(Audience audience, int days) {
+        return runAsync(
+                () -> {
+                    if (days <= 0) throw new InvalidCommandArgument(getMessage("error-prune-days"));
+
+                    audience.sendMessage(
+                            getMessage("info-pruning", "%days%", String.valueOf(days)));
+
+                    var pruned = plugin.getInactiveUserPruner().prune(days);
+
+                    if (pruned < 0)
+                        throw new InvalidCommandArgument(getMessage("error-prune-running"));
+
+                    audience.sendMessage(
+                            getMessage("info-pruned", "%count%", String.valueOf(pruned)));
+                });
+    }
+
     @Subcommand("reload configuration")
     @CommandPermission("librepremium.reload.configuration")
     public CompletionStage<Void> onReloadConfiguration(Audience audience) {
@@ -454,7 +550,9 @@ public class LibreLoginCommand<P> extends StaffCommand<P> {
                                     null,
                                     null);
 
-                    getDatabaseProvider().insertUser(user);
+                    if (!getDatabaseProvider().insertUserIfAbsent(user)) {
+                        throw new InvalidCommandArgument(getMessage("error-occupied-user"));
+                    }
 
                     audience.sendMessage(getMessage("info-registered"));
                 });
@@ -567,20 +665,30 @@ public class LibreLoginCommand<P> extends StaffCommand<P> {
     @CommandPermission("librelogin.user.alts")
     @Syntax("{@@syntax.user-alts}")
     @CommandCompletion("%autocomplete.user-alts")
-    public CompletionStage<Void> onUserAlts(Audience audience, String name) {
+    public CompletionStage<Void> onUserAlts(
+            Audience audience, String name, @Default("1") int page) {
         return runAsync(
                 () -> {
                     var user = getUserOtherWiseInform(name);
 
-                    var alts = getDatabaseProvider().getByIP(user.getIp());
+                    var count = getDatabaseProvider().countAlts(user.getUuid());
 
-                    if (alts.isEmpty()) {
+                    if (count == 0) {
                         audience.sendMessage(getMessage("info-no-alts"));
                         return;
                     }
 
-                    audience.sendMessage(
-                            getMessage("info-alts", "%count%", String.valueOf(alts.size())));
+                    var pages = (count + ALTS_PAGE_SIZE - 1) / ALTS_PAGE_SIZE;
+                    var current = Math.min(Math.max(page, 1), pages);
+
+                    var alts =
+                            getDatabaseProvider()
+                                    .getAlts(
+                                            user.getUuid(),
+                                            (current - 1) * ALTS_PAGE_SIZE,
+                                            ALTS_PAGE_SIZE);
+
+                    audience.sendMessage(getMessage("info-alts", "%count%", String.valueOf(count)));
 
                     for (var alt : alts) {
                         audience.sendMessage(
@@ -589,8 +697,22 @@ public class LibreLoginCommand<P> extends StaffCommand<P> {
                                         "%name%",
                                         alt.getLastNickname(),
                                         "%last_seen%",
-                                        DATE_TIME_FORMATTER.format(
-                                                user.getLastSeen().toLocalDateTime())));
+                                        alt.getLastSeen() == null
+                                                ? "N/A"
+                                                : DATE_TIME_FORMATTER.format(
+                                                        alt.getLastSeen().toLocalDateTime())));
+                    }
+
+                    if (pages > 1) {
+                        audience.sendMessage(
+                                getMessage(
+                                        "info-alts-page",
+                                        "%page%",
+                                        String.valueOf(current),
+                                        "%pages%",
+                                        String.valueOf(pages),
+                                        "%name%",
+                                        user.getLastNickname()));
                     }
                 });
     }
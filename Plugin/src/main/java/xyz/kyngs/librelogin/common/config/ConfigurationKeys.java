@@ -201,9 +201,231 @@ The type of the database. Built-in types:
 librelogin-mysql - MySQL database, you must fill out the mysql section below.
 librelogin-postgresql - PostgreSQL database, you must fill out the postgresql section below.
 librelogin-sqlite - SQLite database, default file is "database.db", you can change it in the sqlite section below.
+librelogin-memory - Keeps all the data in memory, persisted to a snapshot file, you can change it in the memory section below. Useful for load testing.
+librelogin-log - Embedded storage in an append-only log with memory-mapped indexes, needs no database server. Only for a single proxy, you can change it in the log section below.
 """,
                     ConfigurateHelper::getString);
 
+    public static final ConfigurationKey<Boolean> DATABASE_CACHE_ENABLED =
+            new ConfigurationKey<>(
+                    "database.cache.enabled",
+                    true,
+                    "Should the users be cached in memory? This greatly reduces the load on the"
+                            + " database. Do not disable this unless instructed to do so.",
+                    ConfigurateHelper::getBoolean);
+
+    public static final ConfigurationKey<Integer> DATABASE_CACHE_MAXIMUM_SIZE =
+            new ConfigurationKey<>(
+                    "database.cache.maximum-size",
+                    10000,
+                    "The maximum amount of users kept in the cache.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Integer> DATABASE_CACHE_EXPIRE_AFTER_ACCESS =
+            new ConfigurationKey<>(
+                    "database.cache.expire-after-access",
+                    1800,
+                    "The amount of seconds after which an unused user is removed from the cache.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Integer> DATABASE_CACHE_WARM_UP_WINDOW =
+            new ConfigurationKey<>(
+                    "database.cache.warm-up.window",
+                    86400,
+                    """
+Users seen in this amount of seconds before the startup are loaded into the cache in the background.
+This spares the database a burst of lookups when players reconnect after a restart. Set to 0 to disable.\
+""",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Integer> DATABASE_CACHE_WARM_UP_MAXIMUM_SIZE =
+            new ConfigurationKey<>(
+                    "database.cache.warm-up.maximum-size",
+                    5000,
+                    "The maximum amount of users loaded into the cache on startup, the most"
+                            + " recently seen ones are loaded first. Set to 0 to only limit it by"
+                            + " the maximum size of the cache.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Boolean> DATABASE_WRITE_BEHIND_ENABLED =
+            new ConfigurationKey<>(
+                    "database.write-behind.enabled",
+                    false,
+                    """
+Should updates of the last seen time, the last server and the IP of users be written to the database in batches on a background thread?
+Multiple updates of the same user are merged into one. Other changes, e.g. of passwords, are always written right away.
+Queued updates are lost if the proxy crashes.\
+""",
+                    ConfigurateHelper::getBoolean);
+
+    public static final ConfigurationKey<Integer> DATABASE_WRITE_BEHIND_FLUSH_INTERVAL =
+            new ConfigurationKey<>(
+                    "database.write-behind.flush-interval",
+                    1000,
+                    "The maximum amount of milliseconds an update waits before being written.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Integer> DATABASE_WRITE_BEHIND_BATCH_SIZE =
+            new ConfigurationKey<>(
+                    "database.write-behind.batch-size",
+                    500,
+                    "The amount of queued updates which triggers an immediate write, and the"
+                            + " maximum amount of updates written in one batch.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Integer> DATABASE_WRITE_BEHIND_MAX_QUEUE_SIZE =
+            new ConfigurationKey<>(
+                    "database.write-behind.max-queue-size",
+                    10000,
+                    "The maximum amount of queued updates. Once reached, updates are written right"
+                            + " away until the queue drains.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<String> DATABASE_INVALIDATION_BUS =
+            new ConfigurationKey<>(
+                    "database.invalidation.bus",
+                    "auto",
+                    """
+How the proxies sharing the database tell each other which users have been changed, so their caches do not serve stale users. Only needed with multiple proxies.
+auto - RedisBungee if it is installed, database if the database supports it, none otherwise.
+redisbungee - Through a RedisBungee channel, the changes are seen right away.
+database - Through a table in the database, which every proxy polls. Needs no other service, only works with MySQL, PostgreSQL and SQLite.
+none - Disabled, do not use this with multiple proxies unless the cache is disabled.\
+""",
+                    ConfigurateHelper::getString);
+
+    public static final ConfigurationKey<Integer> DATABASE_INVALIDATION_POLL_INTERVAL =
+            new ConfigurationKey<>(
+                    "database.invalidation.poll-interval",
+                    1000,
+                    "How often, in milliseconds, the database bus checks for changes made by the"
+                            + " other proxies.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Boolean> DATABASE_IP_HISTORY_ENABLED =
+            new ConfigurationKey<>(
+                    "database.ip-history.enabled",
+                    true,
+                    "Should the IPs the players log in from be remembered? The alts command then"
+                            + " finds the players who have shared any of them, not just the last"
+                            + " one. Only supported by the SQL databases.",
+                    ConfigurateHelper::getBoolean);
+
+    public static final ConfigurationKey<Integer> DATABASE_IP_HISTORY_FLUSH_INTERVAL =
+            new ConfigurationKey<>(
+                    "database.ip-history.flush-interval",
+                    5000,
+                    "How often, in milliseconds, the logins are added to the IP history.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Integer> DATABASE_IP_HISTORY_MAX_QUEUE_SIZE =
+            new ConfigurationKey<>(
+                    "database.ip-history.max-queue-size",
+                    50000,
+                    "The maximum amount of logins waiting to be added to the IP history. While the"
+                            + " database is unavailable, the oldest ones are dropped beyond it.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Integer> DATABASE_FETCH_SIZE =
+            new ConfigurationKey<>(
+                    "database.fetch-size",
+                    1000,
+                    "The amount of rows fetched at once when reading whole tables, e.g. during"
+                            + " migration.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Boolean> DATABASE_BINARY_UUIDS =
+            new ConfigurationKey<>(
+                    "database.binary-uuids",
+                    false,
+                    """
+Store UUIDs in a compact binary format (BINARY(16) on MySQL, uuid on PostgreSQL, BLOB on SQLite) instead of strings.
+This more than halves the size of the indexes. The conversion cannot be reverted.
+Existing data requires every proxy sharing the database to be stopped: the first startup with this option schedules
+the conversion and stops, stop all the other proxies too, the next startup then converts the data in chunks.
+On MySQL the last step rebuilds the table, which cannot be used until it finishes, it is not an online operation.\
+""",
+                    ConfigurateHelper::getBoolean);
+
+    public static final ConfigurationKey<Integer> DATABASE_RETRY_ATTEMPTS =
+            new ConfigurationKey<>(
+                    "database.retry.attempts",
+                    2,
+                    "How many times to retry obtaining a database connection before giving up."
+                            + " Timeouts waiting for a free connection are not retried, and the"
+                            + " retries never take longer than the connection timeout.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Long> DATABASE_RETRY_BACKOFF =
+            new ConfigurationKey<>(
+                    "database.retry.backoff",
+                    200L,
+                    "The delay before the first retry in milliseconds, doubled with each attempt.",
+                    ConfigurateHelper::getLong);
+
+    public static final ConfigurationKey<Integer> DATABASE_CIRCUIT_BREAKER_FAILURE_THRESHOLD =
+            new ConfigurationKey<>(
+                    "database.circuit-breaker.failure-threshold",
+                    5,
+                    """
+After this many consecutive connection failures, the database is considered unavailable.
+While it is unavailable, new logins are rejected and only cached users are served.\
+""",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Long> DATABASE_CIRCUIT_BREAKER_OPEN_DURATION =
+            new ConfigurationKey<>(
+                    "database.circuit-breaker.open-duration",
+                    5000L,
+                    "How long to wait before checking whether an unavailable database is back, in"
+                            + " milliseconds.",
+                    ConfigurateHelper::getLong);
+
+    public static final ConfigurationKey<?> PRUNE =
+            ConfigurationKey.getComment(
+                    "prune",
+                    """
+Pruning deletes accounts which have not been seen for a long time and have neither a premium UUID nor an e-mail.
+They are deleted in small chunks, so the database is never locked for long. You can also run it manually with /librelogin prune.
+""");
+
+    public static final ConfigurationKey<Integer> PRUNE_INACTIVE_DAYS =
+            new ConfigurationKey<>(
+                    "prune.inactive-days",
+                    0,
+                    "Accounts not seen for this amount of days are pruned periodically. Set to 0 to"
+                            + " disable automatic pruning.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Integer> PRUNE_IP_HISTORY_DAYS =
+            new ConfigurationKey<>(
+                    "prune.ip-history-days",
+                    0,
+                    "Uses of IPs not seen for this amount of days are removed from the IP history"
+                            + " when pruning. Set to 0 to keep them forever.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Integer> PRUNE_INTERVAL =
+            new ConfigurationKey<>(
+                    "prune.interval",
+                    24,
+                    "How often to prune inactive accounts, in hours.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Integer> PRUNE_CHUNK_SIZE =
+            new ConfigurationKey<>(
+                    "prune.chunk-size",
+                    500,
+                    "The amount of accounts deleted at once.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Long> PRUNE_THROTTLE =
+            new ConfigurationKey<>(
+                    "prune.throttle",
+                    250L,
+                    "How long to pause between two chunks, in milliseconds.",
+                    ConfigurateHelper::getLong);
+
     public static final ConfigurationKey<?> MIGRATION =
             ConfigurationKey.getComment(
                     "migration",
@@ -246,6 +468,21 @@ librelogin-sqlite - Can convert from SQLite LibreLogin, useful for migrating to
 """,
                     ConfigurateHelper::getString);
 
+    public static final ConfigurationKey<Integer> MIGRATION_CHUNK_SIZE =
+            new ConfigurationKey<>(
+                    "migration.chunk-size",
+                    1000,
+                    "The amount of users inserted in a single transaction during migration.",
+                    ConfigurateHelper::getInt);
+
+    public static final ConfigurationKey<Integer> MIGRATION_WRITER_THREADS =
+            new ConfigurationKey<>(
+                    "migration.writer-threads",
+                    4,
+                    "The amount of threads inserting users during migration. SQLite always uses"
+                            + " a single thread.",
+                    ConfigurateHelper::getInt);
+
     public static final ConfigurationKey<String> MIGRATION_MYSQL_OLD_DATABASE_TABLE =
             new ConfigurationKey<>(
                     "migration.old-database.mysql.table",
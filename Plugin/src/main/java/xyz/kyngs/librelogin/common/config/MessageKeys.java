@@ -36,6 +36,14 @@ The error will be printed to the console\
 """,
                     ConfigurateHelper::getString);
 
+    public static final ConfigurationKey<String> KICK_DATABASE_UNAVAILABLE =
+            new ConfigurationKey<>(
+                    "kick-database-unavailable",
+                    "We are experiencing database issues, please try again in a moment.",
+                    "This message is displayed when a player tries to join while the database is"
+                            + " unavailable.",
+                    ConfigurateHelper::getString);
+
     public static final ConfigurationKey<String> KICK_PREMIUM_INFO_ENABLED =
             new ConfigurationKey<>(
                     "kick-premium-info-enabled",
@@ -414,6 +422,13 @@ The error will be printed to the console\
                     "This message is displayed when an unknown error occurs.",
                     ConfigurateHelper::getString);
 
+    public static final ConfigurationKey<String> ERROR_DATABASE_UNAVAILABLE =
+            new ConfigurationKey<>(
+                    "error-database-unavailable",
+                    "The database is currently unavailable, please try again in a moment.",
+                    "This message is displayed when a command cannot reach the database.",
+                    ConfigurateHelper::getString);
+
     public static final ConfigurationKey<String> ERROR_UNKNOWN_USER =
             new ConfigurationKey<>(
                     "error-unknown-user",
@@ -625,6 +640,36 @@ The error will be printed to the console\
                     "This message is displayed when a user executes /librelogin dump.",
                     ConfigurateHelper::getString);
 
+    public static final ConfigurationKey<String> INFO_PRUNING =
+            new ConfigurationKey<>(
+                    "info-pruning",
+                    "Pruning accounts not seen for %days% days, this may take a while...",
+                    "This message is displayed when a user executes /librelogin prune.",
+                    ConfigurateHelper::getString);
+
+    public static final ConfigurationKey<String> INFO_PRUNED =
+            new ConfigurationKey<>(
+                    "info-pruned",
+                    "Pruned %count% inactive accounts!",
+                    "This message is displayed when a user executes /librelogin prune.",
+                    ConfigurateHelper::getString);
+
+    public static final ConfigurationKey<String> ERROR_PRUNE_DAYS =
+            new ConfigurationKey<>(
+                    "error-prune-days",
+                    "The amount of days must be positive!",
+                    "This message is displayed when a user executes /librelogin prune with zero or"
+                            + " negative days.",
+                    ConfigurateHelper::getString);
+
+    public static final ConfigurationKey<String> ERROR_PRUNE_RUNNING =
+            new ConfigurationKey<>(
+                    "error-prune-running",
+                    "Inactive accounts are already being pruned!",
+                    "This message is displayed when a user executes /librelogin prune while"
+                            + " pruning is already in progress.",
+                    ConfigurateHelper::getString);
+
     public static final ConfigurationKey<String> INFO_DELETING =
             new ConfigurationKey<>(
                     "info-deleting",
@@ -723,6 +768,14 @@ This message is displayed when the player executes /librelogin about.
                     "This message is displayed when the player has alts.",
                     ConfigurateHelper::getString);
 
+    public static final ConfigurationKey<String> INFO_ALTS_PAGE =
+            new ConfigurationKey<>(
+                    "info-alts-page",
+                    "Page %page% of %pages%, use /librelogin user alts %name% <page> to see the"
+                            + " others.",
+                    "This message is displayed when the alts do not fit on a single page.",
+                    ConfigurateHelper::getString);
+
     public static final ConfigurationKey<String> INFO_MAIL_SENDING =
             new ConfigurationKey<>(
                     "info-mail-sending",
@@ -1049,11 +1102,19 @@ Disconnect to abort.\
     public static final ConfigurationKey<String> SYNTAX_USER_ALTS =
             new ConfigurationKey<>(
                     "syntax.user-alts",
-                    "<name>",
+                    "<name> [page]",
                     "This message is displayed when the player attempts to get alts of other user"
                             + " with wrong syntax.",
                     ConfigurateHelper::getString);
 
+    public static final ConfigurationKey<String> SYNTAX_PRUNE =
+            new ConfigurationKey<>(
+                    "syntax.prune",
+                    "<days>",
+                    "This message is displayed when the player attempts to prune inactive accounts"
+                            + " with wrong syntax.",
+                    ConfigurateHelper::getString);
+
     public static final ConfigurationKey<String> SYNTAX_USER_CHANGE_PASSWORD =
             new ConfigurationKey<>(
                     "syntax.user-pass-change",
@@ -6,6 +6,7 @@
 
 package xyz.kyngs.librelogin.common.database;
 
+import java.util.concurrent.Executor;
 import xyz.kyngs.librelogin.api.database.ReadWriteDatabaseProvider;
 import xyz.kyngs.librelogin.api.database.connector.DatabaseConnector;
 import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
@@ -22,4 +23,12 @@ public abstract class AuthenticDatabaseProvider<C extends DatabaseConnector<?, ?
     }
 
     public void validateSchema() {}
+
+    /** Prepares a database which is only read from, such as the old database of a migration. */
+    public void detectSchema() {}
+
+    @Override
+    public Executor getAsyncExecutor() {
+        return plugin.getDatabaseExecutor();
+    }
 }
@@ -7,13 +7,20 @@
 package xyz.kyngs.librelogin.common.database;
 
 import java.sql.Timestamp;
+import java.util.EnumSet;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 import xyz.kyngs.librelogin.api.crypto.HashedPassword;
 import xyz.kyngs.librelogin.api.database.User;
 
 public class AuthenticUser implements User {
 
+    private final Set<Field> dirty = EnumSet.allOf(Field.class);
+
+    /** Counts the changes of each field, so a write never cleans a field changed meanwhile. */
+    private final long[] versions = new long[Field.values().length];
+
     private final UUID uuid;
     private UUID premiumUUID;
     private HashedPassword hashedPassword;
@@ -25,6 +32,8 @@ public class AuthenticUser implements User {
     private Timestamp lastAuthentication;
     private String lastServer;
     private String email;
+    // The version of the stored row this user is based on, 0 if unknown
+    private volatile long rowVersion;
 
     public AuthenticUser(
             UUID uuid,
@@ -51,11 +60,173 @@ public class AuthenticUser implements User {
         this.email = email;
     }
 
+    /**
+     * Creates a detached copy of the given user. The copy has the same dirty fields as the
+     * original, all fields are dirty if the original is not an {@link AuthenticUser}.
+     *
+     * @param user The user to copy
+     */
+    public AuthenticUser(User user) {
+        this(
+                user.getUuid(),
+                user.getPremiumUUID(),
+                user.getHashedPassword(),
+                user.getLastNickname(),
+                user.getJoinDate(),
+                user.getLastSeen(),
+                user.getSecret(),
+                user.getIp(),
+                user.getLastAuthentication(),
+                user.getLastServer(),
+                user.getEmail());
+        if (user instanceof AuthenticUser authentic) {
+            synchronized (dirty) {
+                dirty.retainAll(authentic.getDirtyFields());
+            }
+            rowVersion = authentic.rowVersion;
+        }
+    }
+
+    /**
+     * Returns the fields which have changed since the user has been loaded from, or written to the
+     * database. Freshly created users have all fields dirty.
+     *
+     * @return A copy of the dirty fields
+     */
+    public Set<Field> getDirtyFields() {
+        synchronized (dirty) {
+            return dirty.isEmpty() ? EnumSet.noneOf(Field.class) : EnumSet.copyOf(dirty);
+        }
+    }
+
+    public boolean isDirty() {
+        synchronized (dirty) {
+            return !dirty.isEmpty();
+        }
+    }
+
+    public void markDirty(Set<Field> fields) {
+        synchronized (dirty) {
+            dirty.addAll(fields);
+            for (var field : fields) {
+                versions[field.ordinal()]++;
+            }
+        }
+    }
+
+    /**
+     * Returns the dirty fields along with their versions. Once the fields have been written, the
+     * changes are passed to {@link #markClean(Changes)}.
+     *
+     * @return The current changes
+     */
+    public Changes getChanges() {
+        synchronized (dirty) {
+            return new Changes(getDirtyFields(), versions.clone());
+        }
+    }
+
+    /** Marks the user as being in sync with the database. */
+    public void markClean() {
+        synchronized (dirty) {
+            dirty.clear();
+        }
+    }
+
+    /**
+     * Marks the written fields as being in sync with the database, except for the ones which have
+     * changed again since the changes have been taken.
+     *
+     * @param written The changes which have been written
+     */
+    public void markClean(Changes written) {
+        synchronized (dirty) {
+            for (var field : written.fields()) {
+                if (versions[field.ordinal()] == written.versions()[field.ordinal()]) {
+                    dirty.remove(field);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the version of the stored row this user has been loaded from, or written to. The
+     * database only accepts an update based on the current version, see {@link #rebase(User)}.
+     *
+     * @return The version, or 0 if it is unknown
+     */
+    public long getRowVersion() {
+        return rowVersion;
+    }
+
+    public void setRowVersion(long rowVersion) {
+        this.rowVersion = rowVersion;
+    }
+
+    /**
+     * Takes over the fields which are not dirty, and the version, from a newer state of the user.
+     * The dirty fields are kept, so they can be written on top of the newer state.
+     *
+     * @param stored The newer state
+     */
+    public void rebase(User stored) {
+        var dirty = getDirtyFields();
+        for (var field : Field.values()) {
+            if (dirty.contains(field)) continue;
+            switch (field) {
+                case PREMIUM_UUID -> premiumUUID = stored.getPremiumUUID();
+                case HASHED_PASSWORD -> hashedPassword = stored.getHashedPassword();
+                case LAST_NICKNAME -> lastNickname = stored.getLastNickname();
+                case JOIN_DATE -> joinDate = stored.getJoinDate();
+                case LAST_SEEN -> lastSeen = stored.getLastSeen();
+                case SECRET -> secret = stored.getSecret();
+                case IP -> ip = stored.getIp();
+                case LAST_AUTHENTICATION -> lastAuthentication = stored.getLastAuthentication();
+                case LAST_SERVER -> lastServer = stored.getLastServer();
+                case EMAIL -> email = stored.getEmail();
+            }
+        }
+        if (stored instanceof AuthenticUser authentic) rowVersion = authentic.rowVersion;
+    }
+
+    /**
+     * Copies the given fields from another state of the user, marking the changed ones as dirty.
+     *
+     * @param source The state to copy the fields from
+     * @param fields The fields to copy
+     */
+    public void apply(User source, Set<Field> fields) {
+        for (var field : fields) {
+            switch (field) {
+                case PREMIUM_UUID -> setPremiumUUID(source.getPremiumUUID());
+                case HASHED_PASSWORD -> setHashedPassword(source.getHashedPassword());
+                case LAST_NICKNAME -> setLastNickname(source.getLastNickname());
+                case JOIN_DATE -> setJoinDate(source.getJoinDate());
+                case LAST_SEEN -> setLastSeen(source.getLastSeen());
+                case SECRET -> setSecret(source.getSecret());
+                case IP -> setIp(source.getIp());
+                case LAST_AUTHENTICATION -> setLastAuthentication(source.getLastAuthentication());
+                case LAST_SERVER -> setLastServer(source.getLastServer());
+                case EMAIL -> setEmail(source.getEmail());
+            }
+        }
+    }
+
+    private void changed(Field field, Object oldValue, Object newValue) {
+        if (!Objects.equals(oldValue, newValue)) {
+            synchronized (dirty) {
+                dirty.add(field);
+                versions[field.ordinal()]++;
+            }
+        }
+    }
+
     public Timestamp getLastAuthentication() {
         return lastAuthentication;
     }
 
     public void setLastAuthentication(Timestamp lastAuthentication) {
+        changed(Field.LAST_AUTHENTICATION, this.lastAuthentication, lastAuthentication);
         this.lastAuthentication = lastAuthentication;
     }
 
@@ -64,6 +235,7 @@ public class AuthenticUser implements User {
     }
 
     public void setJoinDate(Timestamp joinDate) {
+        changed(Field.JOIN_DATE, this.joinDate, joinDate);
         this.joinDate = joinDate;
     }
 
@@ -72,6 +244,7 @@ public class AuthenticUser implements User {
     }
 
     public void setLastSeen(Timestamp lastSeen) {
+        changed(Field.LAST_SEEN, this.lastSeen, lastSeen);
         this.lastSeen = lastSeen;
     }
 
@@ -80,6 +253,7 @@ public class AuthenticUser implements User {
     }
 
     public void setHashedPassword(HashedPassword hashedPassword) {
+        changed(Field.HASHED_PASSWORD, this.hashedPassword, hashedPassword);
         this.hashedPassword = hashedPassword;
     }
 
@@ -92,6 +266,7 @@ public class AuthenticUser implements User {
     }
 
     public void setPremiumUUID(UUID premiumUUID) {
+        changed(Field.PREMIUM_UUID, this.premiumUUID, premiumUUID);
         this.premiumUUID = premiumUUID;
     }
 
@@ -100,6 +275,7 @@ public class AuthenticUser implements User {
     }
 
     public void setLastNickname(String lastNickname) {
+        changed(Field.LAST_NICKNAME, this.lastNickname, lastNickname);
         this.lastNickname = lastNickname;
     }
 
@@ -118,6 +294,7 @@ public class AuthenticUser implements User {
 
     @Override
     public void setEmail(String email) {
+        changed(Field.EMAIL, this.email, email);
         this.email = email;
     }
 
@@ -139,6 +316,7 @@ public class AuthenticUser implements User {
     }
 
     public void setSecret(String secret) {
+        changed(Field.SECRET, this.secret, secret);
         this.secret = secret;
     }
 
@@ -147,6 +325,7 @@ public class AuthenticUser implements User {
     }
 
     public void setIp(String ip) {
+        changed(Field.IP, this.ip, ip);
         this.ip = ip;
     }
 
@@ -155,6 +334,37 @@ public class AuthenticUser implements User {
     }
 
     public void setLastServer(String lastServer) {
+        changed(Field.LAST_SERVER, this.lastServer, lastServer);
         this.lastServer = lastServer;
     }
+
+    /**
+     * The dirty fields of a user at some point, see {@link #getChanges()}.
+     *
+     * @param fields The dirty fields
+     * @param versions The versions of all the fields, indexed by their ordinal
+     */
+    public record Changes(Set<Field> fields, long[] versions) {
+
+        /**
+         * @return The changes of a user which does not track them, all of its fields are dirty
+         */
+        public static Changes all() {
+            return new Changes(EnumSet.allOf(Field.class), new long[Field.values().length]);
+        }
+    }
+
+    /** The persisted fields of a user, used to track which of them have changed. */
+    public enum Field {
+        PREMIUM_UUID,
+        HASHED_PASSWORD,
+        LAST_NICKNAME,
+        JOIN_DATE,
+        LAST_SEEN,
+        SECRET,
+        IP,
+        LAST_AUTHENTICATION,
+        LAST_SERVER,
+        EMAIL
+    }
 }
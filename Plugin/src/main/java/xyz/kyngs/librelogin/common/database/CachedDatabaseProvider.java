@@ -0,0 +1,471 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.google.common.util.concurrent.Striped;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.api.database.PruneResult;
+import xyz.kyngs.librelogin.api.database.ReadWriteDatabaseProvider;
+import xyz.kyngs.librelogin.api.database.User;
+import xyz.kyngs.librelogin.common.database.invalidation.Invalidation;
+
+/**
+ * Read-through / write-through cache in front of any {@link ReadWriteDatabaseProvider}.
+ *
+ * <p>Users are stored once, keyed by their UUID. Lookups by name and premium UUID go through
+ * secondary indexes which only point to the primary key, so all three views always resolve to the
+ * same entry. Mutations of the indexes are serialized by a single monitor, writes to the same user
+ * are serialized by a striped lock, so the cache cannot be left in a state the database never was.
+ *
+ * <p>Callers always receive a copy of the cached user, so they can freely mutate it before passing
+ * it back to {@link #updateUser(User)}.
+ */
+public class CachedDatabaseProvider extends ForwardingDatabaseProvider {
+
+    private final Cache<UUID, User> byUUID;
+    private final Map<String, UUID> byName;
+    private final Map<UUID, UUID> byPremiumUUID;
+    private final Striped<Lock> writeLocks;
+    private final Object indexLock;
+    // Bumped on every mutation, loads which raced with a mutation are not cached
+    private final AtomicLong epoch;
+    private volatile @Nullable WarmUp warmUp;
+
+    public CachedDatabaseProvider(
+            ReadWriteDatabaseProvider delegate, long maximumSize, Duration expireAfterAccess) {
+        super(delegate);
+        this.byName = new ConcurrentHashMap<>();
+        this.byPremiumUUID = new ConcurrentHashMap<>();
+        this.writeLocks = Striped.lock(64);
+        this.indexLock = new Object();
+        this.epoch = new AtomicLong();
+        this.byUUID =
+                Caffeine.newBuilder()
+                        .maximumSize(maximumSize)
+                        .expireAfterAccess(expireAfterAccess)
+                        .evictionListener(
+                                (UUID uuid, User user, RemovalCause cause) -> {
+                                    if (uuid != null && user != null) removeIndexes(uuid, user);
+                                })
+                        .build();
+    }
+
+    private static String nameKey(String name) {
+        return name == null ? null : name.toLowerCase();
+    }
+
+    private static User copy(@Nullable User user) {
+        if (user == null) return null;
+        var copy = new AuthenticUser(user);
+        copy.markClean();
+        return copy;
+    }
+
+    private @Nullable User cachedByName(String name) {
+        var key = nameKey(name);
+        var uuid = byName.get(key);
+        if (uuid == null) return null;
+        var cached = byUUID.getIfPresent(uuid);
+        return cached != null && key.equals(nameKey(cached.getLastNickname())) ? cached : null;
+    }
+
+    private @Nullable User cachedByPremiumUUID(UUID uuid) {
+        var primary = byPremiumUUID.get(uuid);
+        if (primary == null) return null;
+        var cached = byUUID.getIfPresent(primary);
+        return cached != null && uuid.equals(cached.getPremiumUUID()) ? cached : null;
+    }
+
+    @Override
+    public User getByName(String name) {
+        var cached = cachedByName(name);
+        if (cached != null) return copy(cached);
+        return load(() -> delegate.getByName(name));
+    }
+
+    @Override
+    public User getByUUID(UUID uuid) {
+        var cached = byUUID.getIfPresent(uuid);
+        if (cached != null) return copy(cached);
+        return load(() -> delegate.getByUUID(uuid));
+    }
+
+    @Override
+    public User getByPremiumUUID(UUID uuid) {
+        var cached = cachedByPremiumUUID(uuid);
+        if (cached != null) return copy(cached);
+        return load(() -> delegate.getByPremiumUUID(uuid));
+    }
+
+    @Override
+    public Map<UUID, User> getByUUIDs(Collection<UUID> uuids) {
+        var users = new HashMap<UUID, User>();
+        var misses = new ArrayList<UUID>();
+        for (var uuid : uuids) {
+            var cached = byUUID.getIfPresent(uuid);
+            if (cached != null) {
+                users.put(uuid, copy(cached));
+            } else {
+                misses.add(uuid);
+            }
+        }
+        if (!misses.isEmpty()) users.putAll(loadAll(() -> delegate.getByUUIDs(misses)));
+        return users;
+    }
+
+    @Override
+    public Map<String, User> getByNames(Collection<String> names) {
+        var users = new HashMap<String, User>();
+        var misses = new ArrayList<String>();
+        for (var name : names) {
+            var cached = cachedByName(name);
+            if (cached != null) {
+                users.put(name, copy(cached));
+            } else {
+                misses.add(name);
+            }
+        }
+        if (!misses.isEmpty()) users.putAll(loadAll(() -> delegate.getByNames(misses)));
+        return users;
+    }
+
+    // Hits are answered right away, there is no point in hopping to the database executor
+
+    @Override
+    public CompletableFuture<User> getByNameAsync(String name) {
+        var cached = cachedByName(name);
+        if (cached != null) return CompletableFuture.completedFuture(copy(cached));
+        return super.getByNameAsync(name);
+    }
+
+    @Override
+    public CompletableFuture<User> getByUUIDAsync(UUID uuid) {
+        var cached = byUUID.getIfPresent(uuid);
+        if (cached != null) return CompletableFuture.completedFuture(copy(cached));
+        return super.getByUUIDAsync(uuid);
+    }
+
+    @Override
+    public CompletableFuture<User> getByPremiumUUIDAsync(UUID uuid) {
+        var cached = cachedByPremiumUUID(uuid);
+        if (cached != null) return CompletableFuture.completedFuture(copy(cached));
+        return super.getByPremiumUUIDAsync(uuid);
+    }
+
+    @Override
+    public void insertUser(User user) {
+        write(user, () -> delegate.insertUser(user), true);
+    }
+
+    @Override
+    public void insertUsers(Collection<User> users) {
+        // Bulk inserts may silently skip conflicting rows, so we cannot tell what ended up stored
+        epoch.incrementAndGet();
+        try {
+            delegate.insertUsers(users);
+        } finally {
+            users.forEach(user -> invalidate(user.getUuid()));
+        }
+    }
+
+    @Override
+    public void updateUser(User user) {
+        write(user, () -> delegate.updateUser(user), true);
+    }
+
+    @Override
+    public void updateUsers(Collection<User> users) {
+        var locks = writeLocks.bulkGet(users.stream().map(User::getUuid).toList());
+        locks.forEach(Lock::lock);
+        try {
+            epoch.incrementAndGet();
+            users.forEach(user -> touch(user.getUuid()));
+            try {
+                delegate.updateUsers(users);
+            } catch (RuntimeException e) {
+                users.forEach(user -> invalidate(user.getUuid()));
+                throw e;
+            }
+            synchronized (indexLock) {
+                epoch.incrementAndGet();
+                users.forEach(user -> put(copy(user)));
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+    }
+
+    @Override
+    public void deleteUser(User user) {
+        write(user, () -> delegate.deleteUser(user), false);
+    }
+
+    @Override
+    public boolean insertUserIfAbsent(User user) {
+        // If the user has not been inserted, whatever they conflicted with may be cached stale
+        return write(user, () -> delegate.insertUserIfAbsent(user));
+    }
+
+    @Override
+    public void upsertUser(User user) {
+        write(user, () -> delegate.upsertUser(user), true);
+    }
+
+    @Override
+    public void claimName(User user, String name) {
+        // Putting the claimant evicts the previous holder of the name through the name index
+        write(user, () -> delegate.claimName(user, name), true);
+    }
+
+    @Override
+    public PruneResult pruneInactiveUsers(Timestamp lastSeenBefore, int limit) {
+        var pruned = delegate.pruneInactiveUsers(lastSeenBefore, limit);
+        if (pruned.deleted() > 0) invalidateInactive(lastSeenBefore);
+        return pruned;
+    }
+
+    /**
+     * Applies an invalidation received from another proxy.
+     *
+     * @param invalidation The invalidation
+     */
+    public void invalidate(Invalidation invalidation) {
+        switch (invalidation.kind()) {
+            case USER -> invalidate(invalidation.uuid());
+            case NAME -> {
+                var uuid = byName.get(invalidation.key());
+                if (uuid != null) invalidate(uuid);
+            }
+            case INACTIVE -> invalidateInactive(invalidation.lastSeenBefore());
+            case ALL -> invalidateAll();
+        }
+    }
+
+    /**
+     * Returns the cached user an invalidation of a single user refers to.
+     *
+     * @param invalidation The invalidation
+     * @return The cached user, or null if the user is not cached
+     */
+    public @Nullable User getCached(Invalidation invalidation) {
+        var uuid =
+                switch (invalidation.kind()) {
+                    case USER -> invalidation.uuid();
+                    case NAME -> byName.get(invalidation.key());
+                    case INACTIVE, ALL -> null;
+                };
+        return uuid == null ? null : byUUID.getIfPresent(uuid);
+    }
+
+    private void invalidateInactive(Timestamp lastSeenBefore) {
+        // We do not know which users have been deleted, but the cached ones matching the
+        // condition were candidates
+        epoch.incrementAndGet();
+        for (var user : byUUID.asMap().values()) {
+            if (user.getLastSeen() != null
+                    && user.getLastSeen().before(lastSeenBefore)
+                    && user.getPremiumUUID() == null
+                    && user.getEmail() == null) {
+                invalidate(user.getUuid());
+            }
+        }
+    }
+
+    /** Drops everything from the cache, the next lookups will hit the database. */
+    public void invalidateAll() {
+        var warmUp = this.warmUp;
+        if (warmUp != null) warmUp.aborted = true;
+        synchronized (indexLock) {
+            epoch.incrementAndGet();
+            byUUID.invalidateAll();
+            byName.clear();
+            byPremiumUUID.clear();
+        }
+    }
+
+    /**
+     * Drops a single user from the cache.
+     *
+     * @param uuid The UUID of the user
+     */
+    public void invalidate(UUID uuid) {
+        touch(uuid);
+        synchronized (indexLock) {
+            epoch.incrementAndGet();
+            var old = byUUID.asMap().remove(uuid);
+            if (old != null) removeIndexes(uuid, old);
+        }
+    }
+
+    /**
+     * Loads the users seen since the given time into the cache, the most recently seen first. Users
+     * are streamed from the database, so they are never all held in memory at once.
+     *
+     * <p>The epoch cannot protect a load which takes this long, so users written in the meantime
+     * are tracked and skipped instead, as are users whose name or premium UUID is cached under a
+     * different user.
+     *
+     * @param since The earliest time the users have been seen
+     * @param limit The maximum amount of users to load
+     * @return The amount of users loaded
+     */
+    public int warmUp(Timestamp since, int limit) {
+        var warmUp = new WarmUp();
+        this.warmUp = warmUp;
+        var loaded = new int[1];
+        try {
+            delegate.forEachUserSeenSince(
+                    since,
+                    limit,
+                    user -> {
+                        if (warmUp.aborted) return;
+                        var uuid = user.getUuid();
+                        var name = nameKey(user.getLastNickname());
+                        var premiumUUID = user.getPremiumUUID();
+                        synchronized (indexLock) {
+                            if (warmUp.touched.contains(uuid)
+                                    || byUUID.getIfPresent(uuid) != null
+                                    || (name != null && byName.containsKey(name))
+                                    || (premiumUUID != null
+                                            && byPremiumUUID.containsKey(premiumUUID))) {
+                                return;
+                            }
+                            put(copy(user));
+                        }
+                        loaded[0]++;
+                    });
+        } finally {
+            this.warmUp = null;
+        }
+        return loaded[0];
+    }
+
+    private void touch(UUID uuid) {
+        var warmUp = this.warmUp;
+        if (warmUp != null) warmUp.touched.add(uuid);
+    }
+
+    public long size() {
+        return byUUID.estimatedSize();
+    }
+
+    private User load(Supplier<User> loader) {
+        var start = epoch.get();
+        var user = loader.get();
+        if (user == null) return null;
+        synchronized (indexLock) {
+            if (epoch.get() == start && byUUID.getIfPresent(user.getUuid()) == null) {
+                put(copy(user));
+            }
+        }
+        return user;
+    }
+
+    private <K> Map<K, User> loadAll(Supplier<Map<K, User>> loader) {
+        var start = epoch.get();
+        var users = loader.get();
+        synchronized (indexLock) {
+            if (epoch.get() == start) {
+                for (var user : users.values()) {
+                    if (byUUID.getIfPresent(user.getUuid()) == null) put(copy(user));
+                }
+            }
+        }
+        return users;
+    }
+
+    private void write(User user, Runnable action, boolean keep) {
+        write(
+                user,
+                () -> {
+                    action.run();
+                    return keep;
+                });
+    }
+
+    /**
+     * Runs a write of the user, afterward the user is cached if the action returns true and
+     * invalidated otherwise.
+     */
+    private boolean write(User user, BooleanSupplier action) {
+        var lock = writeLocks.get(user.getUuid());
+        lock.lock();
+        try {
+            epoch.incrementAndGet();
+            touch(user.getUuid());
+            boolean keep;
+            try {
+                keep = action.getAsBoolean();
+            } catch (RuntimeException e) {
+                // We have no idea whether the write made it through
+                invalidate(user.getUuid());
+                throw e;
+            }
+            if (keep) {
+                synchronized (indexLock) {
+                    epoch.incrementAndGet();
+                    put(copy(user));
+                }
+            } else {
+                invalidate(user.getUuid());
+            }
+            return keep;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called while holding indexLock
+    private void put(User user) {
+        var uuid = user.getUuid();
+        var old = byUUID.asMap().put(uuid, user);
+        if (old != null) removeIndexes(uuid, old);
+
+        var name = nameKey(user.getLastNickname());
+        if (name != null) claim(byName, name, uuid);
+        if (user.getPremiumUUID() != null) claim(byPremiumUUID, user.getPremiumUUID(), uuid);
+    }
+
+    // Must be called while holding indexLock
+    private <K> void claim(Map<K, UUID> index, K key, UUID uuid) {
+        var previous = index.put(key, uuid);
+        if (previous != null && !previous.equals(uuid)) {
+            // The key has been taken over by a different user, the old holder is stale
+            var stale = byUUID.asMap().remove(previous);
+            if (stale != null) removeIndexes(previous, stale);
+        }
+    }
+
+    private void removeIndexes(UUID uuid, User user) {
+        var name = nameKey(user.getLastNickname());
+        if (name != null) byName.remove(name, uuid);
+        if (user.getPremiumUUID() != null) byPremiumUUID.remove(user.getPremiumUUID(), uuid);
+    }
+
+    private static final class WarmUp {
+        // Users written while warming up, the streamed copies of them may be stale
+        private final Set<UUID> touched = ConcurrentHashMap.newKeySet();
+        private volatile boolean aborted = false;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import xyz.kyngs.librelogin.api.database.IPHistoryEntry;
+import xyz.kyngs.librelogin.api.database.PruneResult;
+import xyz.kyngs.librelogin.api.database.ReadWriteDatabaseProvider;
+import xyz.kyngs.librelogin.api.database.User;
+
+/**
+ * A provider which forwards all calls to another provider. Used as a base for layers (caching,
+ * write-behind...) stacked on top of the actual storage.
+ */
+public abstract class ForwardingDatabaseProvider implements ReadWriteDatabaseProvider {
+
+    protected final ReadWriteDatabaseProvider delegate;
+
+    protected ForwardingDatabaseProvider(ReadWriteDatabaseProvider delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Walks down the chain of forwarding providers and returns the first one of the given type.
+     *
+     * @param provider The top of the chain
+     * @param clazz The type to look for
+     * @return The provider, or null if there is no provider of the given type in the chain
+     */
+    public static <T> T unwrap(ReadWriteDatabaseProvider provider, Class<T> clazz) {
+        while (provider != null) {
+            if (clazz.isInstance(provider)) return clazz.cast(provider);
+            provider =
+                    provider instanceof ForwardingDatabaseProvider forwarding
+                            ? forwarding.delegate
+                            : null;
+        }
+        return null;
+    }
+
+    public ReadWriteDatabaseProvider getDelegate() {
+        return delegate;
+    }
+
+    /** Releases resources held by this layer and all the layers below it. */
+    public void close() {
+        if (delegate instanceof ForwardingDatabaseProvider forwarding) {
+            forwarding.close();
+        }
+    }
+
+    @Override
+    public Executor getAsyncExecutor() {
+        return delegate.getAsyncExecutor();
+    }
+
+    @Override
+    public User getByName(String name) {
+        return delegate.getByName(name);
+    }
+
+    @Override
+    public User getByUUID(UUID uuid) {
+        return delegate.getByUUID(uuid);
+    }
+
+    @Override
+    public User getByPremiumUUID(UUID uuid) {
+        return delegate.getByPremiumUUID(uuid);
+    }
+
+    @Override
+    public Map<UUID, User> getByUUIDs(Collection<UUID> uuids) {
+        return delegate.getByUUIDs(uuids);
+    }
+
+    @Override
+    public Map<String, User> getByNames(Collection<String> names) {
+        return delegate.getByNames(names);
+    }
+
+    @Override
+    public Collection<User> getAllUsers() {
+        return delegate.getAllUsers();
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> consumer) {
+        delegate.forEachUser(consumer);
+    }
+
+    @Override
+    public void forEachUserSeenSince(Timestamp since, int limit, Consumer<User> consumer) {
+        delegate.forEachUserSeenSince(since, limit, consumer);
+    }
+
+    @Override
+    public Collection<User> getByIP(String ip) {
+        return delegate.getByIP(ip);
+    }
+
+    @Override
+    public int countByIP(String ip) {
+        return delegate.countByIP(ip);
+    }
+
+    @Override
+    public List<UUID> getAltUUIDs(UUID uuid, int offset, int limit) {
+        return delegate.getAltUUIDs(uuid, offset, limit);
+    }
+
+    @Override
+    public int countAlts(UUID uuid) {
+        return delegate.countAlts(uuid);
+    }
+
+    @Override
+    public void insertUser(User user) {
+        delegate.insertUser(user);
+    }
+
+    @Override
+    public void insertUsers(Collection<User> users) {
+        delegate.insertUsers(users);
+    }
+
+    @Override
+    public void updateUser(User user) {
+        delegate.updateUser(user);
+    }
+
+    @Override
+    public void updateUsers(Collection<User> users) {
+        delegate.updateUsers(users);
+    }
+
+    @Override
+    public void deleteUser(User user) {
+        delegate.deleteUser(user);
+    }
+
+    @Override
+    public void recordIPs(Collection<IPHistoryEntry> entries) {
+        delegate.recordIPs(entries);
+    }
+
+    @Override
+    public PruneResult pruneIPHistory(Timestamp lastSeenBefore, int limit) {
+        return delegate.pruneIPHistory(lastSeenBefore, limit);
+    }
+
+    @Override
+    public boolean insertUserIfAbsent(User user) {
+        return delegate.insertUserIfAbsent(user);
+    }
+
+    @Override
+    public void upsertUser(User user) {
+        delegate.upsertUser(user);
+    }
+
+    @Override
+    public void claimName(User user, String name) {
+        delegate.claimName(user, name);
+    }
+
+    @Override
+    public PruneResult pruneInactiveUsers(Timestamp lastSeenBefore, int limit) {
+        return delegate.pruneInactiveUsers(lastSeenBefore, limit);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import xyz.kyngs.librelogin.api.database.IPHistoryEntry;
+import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
+
+/**
+ * Collects the IPs players log in from, and adds them to the IP history in batches on a background
+ * thread, so logins never wait for it.
+ *
+ * <p>Logins of the same player from the same IP before the next flush are merged into one entry.
+ * The queue is flushed when it reaches the batch size, periodically, and synchronously on {@link
+ * #close()}. Entries which fail to be written are put back, and retried on the next flush. While
+ * the database is unavailable, the queue is bounded by the maximum size, and the oldest entries are
+ * dropped beyond it.
+ */
+public class IPHistoryRecorder {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final AuthenticLibreLogin<?, ?> plugin;
+    private final int maxQueueSize;
+    // Guarded by itself, in the order the entries were first queued
+    private final LinkedHashMap<Key, IPHistoryEntry> pending;
+    private final AtomicLong dropped;
+    private final AtomicLong unreportedDrops;
+    private final Object flushLock;
+    private final AtomicBoolean flushScheduled;
+    private final ScheduledExecutorService scheduler;
+
+    public IPHistoryRecorder(
+            AuthenticLibreLogin<?, ?> plugin, long flushInterval, int maxQueueSize) {
+        this.plugin = plugin;
+        this.maxQueueSize = maxQueueSize;
+        this.pending = new LinkedHashMap<>();
+        this.dropped = new AtomicLong();
+        this.unreportedDrops = new AtomicLong();
+        this.flushLock = new Object();
+        this.flushScheduled = new AtomicBoolean();
+        this.scheduler =
+                Executors.newSingleThreadScheduledExecutor(
+                        runnable -> {
+                            var thread = new Thread(runnable, "LibreLogin IP History");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+
+        scheduler.scheduleWithFixedDelay(
+                this::flushSafely, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records a login of the player from the IP.
+     *
+     * @param uuid The UUID of the player
+     * @param ip The IP
+     */
+    public void record(UUID uuid, String ip) {
+        var now = new Timestamp(System.currentTimeMillis());
+        int size;
+
+        synchronized (pending) {
+            pending.merge(
+                    new Key(uuid, ip), new IPHistoryEntry(uuid, ip, now, now, 1), this::merge);
+            trim();
+            size = pending.size();
+        }
+
+        if (size >= BATCH_SIZE && flushScheduled.compareAndSet(false, true)) {
+            scheduler.execute(
+                    () -> {
+                        flushScheduled.set(false);
+                        flushSafely();
+                    });
+        }
+    }
+
+    /** Writes all the queued entries. */
+    public void flush() {
+        synchronized (flushLock) {
+            while (true) {
+                var batch = new ArrayList<IPHistoryEntry>();
+                synchronized (pending) {
+                    var iterator = pending.values().iterator();
+                    while (iterator.hasNext() && batch.size() < BATCH_SIZE) {
+                        batch.add(iterator.next());
+                        iterator.remove();
+                    }
+                }
+                if (batch.isEmpty()) break;
+                write(batch);
+            }
+        }
+    }
+
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reportDrops();
+        try {
+            flush();
+        } catch (Exception e) {
+            plugin.getLogger()
+                    .error(
+                            "Failed to write the IP history on shutdown, %d entries are lost: %s"
+                                    .formatted(getQueueSize(), e.getMessage()));
+        }
+    }
+
+    public int getQueueSize() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * @return The amount of entries dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void write(List<IPHistoryEntry> batch) {
+        try {
+            plugin.getDatabaseProvider().recordIPs(batch);
+        } catch (RuntimeException e) {
+            synchronized (pending) {
+                // Put the batch back in front, it is older than what was queued since
+                var newer = new ArrayList<>(pending.values());
+                pending.clear();
+                for (var entry : batch) {
+                    pending.merge(new Key(entry.uuid(), entry.ip()), entry, this::merge);
+                }
+                for (var entry : newer) {
+                    pending.merge(new Key(entry.uuid(), entry.ip()), entry, this::merge);
+                }
+                trim();
+            }
+            throw e;
+        }
+    }
+
+    // Must hold the lock of pending
+    private void trim() {
+        var iterator = pending.values().iterator();
+        while (pending.size() > maxQueueSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            dropped.incrementAndGet();
+            unreportedDrops.incrementAndGet();
+        }
+    }
+
+    private void reportDrops() {
+        var drops = unreportedDrops.getAndSet(0);
+        if (drops > 0) {
+            plugin.getLogger()
+                    .warn(
+                            "Dropped %d IP history entries, the queue of %d entries was full"
+                                    .formatted(drops, maxQueueSize));
+        }
+    }
+
+    private void flushSafely() {
+        reportDrops();
+        try {
+            flush();
+        } catch (Exception e) {
+            plugin.getLogger()
+                    .warn(
+                            "Failed to write %d IP history entries, retrying later: %s"
+                                    .formatted(getQueueSize(), e.getMessage()));
+        }
+    }
+
+    private IPHistoryEntry merge(IPHistoryEntry first, IPHistoryEntry second) {
+        return new IPHistoryEntry(
+                first.uuid(),
+                first.ip(),
+                first.firstSeen().before(second.firstSeen())
+                        ? first.firstSeen()
+                        : second.firstSeen(),
+                first.lastSeen().after(second.lastSeen()) ? first.lastSeen() : second.lastSeen(),
+                first.hits() + second.hits());
+    }
+
+    private record Key(UUID uuid, String ip) {}
+}
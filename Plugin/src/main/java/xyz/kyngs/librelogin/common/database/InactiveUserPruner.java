@@ -0,0 +1,125 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database;
+
+import static xyz.kyngs.librelogin.common.config.ConfigurationKeys.PRUNE_CHUNK_SIZE;
+import static xyz.kyngs.librelogin.common.config.ConfigurationKeys.PRUNE_IP_HISTORY_DAYS;
+import static xyz.kyngs.librelogin.common.config.ConfigurationKeys.PRUNE_THROTTLE;
+
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import xyz.kyngs.librelogin.api.database.PruneResult;
+import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
+import xyz.kyngs.librelogin.common.database.provider.LibreLoginSQLDatabaseProvider;
+
+/**
+ * Deletes accounts which have not been seen for a long time, and the uses of IPs which have not
+ * been seen for a long time from the IP history.
+ *
+ * <p>Only accounts without a premium UUID and an e-mail are pruned. They are deleted in chunks with
+ * a pause in between, so a large prune never holds locks on the user table for long, and never
+ * starves logins of database connections. Proxies sharing a database never prune it at the same
+ * time.
+ */
+public class InactiveUserPruner {
+
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+
+    private final AuthenticLibreLogin<?, ?> plugin;
+    private final AtomicBoolean running;
+
+    public InactiveUserPruner(AuthenticLibreLogin<?, ?> plugin) {
+        this.plugin = plugin;
+        this.running = new AtomicBoolean();
+    }
+
+    /**
+     * Prunes the accounts not seen for the given amount of days, and the IP history if {@link
+     * xyz.kyngs.librelogin.common.config.ConfigurationKeys#PRUNE_IP_HISTORY_DAYS} is set. Blocks
+     * until done.
+     *
+     * @param inactiveDays The amount of days, accounts are not pruned if not positive
+     * @return The amount of accounts pruned, or -1 if a prune is already in progress, on this or
+     *     another proxy sharing the database
+     */
+    public int prune(int inactiveDays) {
+        if (!running.compareAndSet(false, true)) return -1;
+
+        try {
+            var sql =
+                    ForwardingDatabaseProvider.unwrap(
+                            plugin.getDatabaseProvider(), LibreLoginSQLDatabaseProvider.class);
+            if (sql == null) return pruneAll(inactiveDays);
+
+            Integer total = sql.runPruneExclusively(() -> pruneAll(inactiveDays));
+            if (total == null) {
+                plugin.getLogger().info("Another proxy is pruning inactive accounts, skipping");
+                return -1;
+            }
+            return total;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private int pruneAll(int inactiveDays) {
+        var total = 0;
+        var database = plugin.getDatabaseProvider();
+
+        if (inactiveDays > 0) {
+            total = pruneChunks("accounts", inactiveDays, database::pruneInactiveUsers);
+        }
+
+        var ipHistoryDays = plugin.getConfiguration().get(PRUNE_IP_HISTORY_DAYS);
+        if (ipHistoryDays > 0) {
+            pruneChunks("IP history entries", ipHistoryDays, database::pruneIPHistory);
+        }
+
+        return total;
+    }
+
+    private int pruneChunks(
+            String what, int days, BiFunction<Timestamp, Integer, PruneResult> pruner) {
+        var logger = plugin.getLogger();
+        var configuration = plugin.getConfiguration();
+        var chunkSize = Math.max(1, configuration.get(PRUNE_CHUNK_SIZE));
+        var throttle = configuration.get(PRUNE_THROTTLE);
+        var before = new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days));
+
+        logger.info("Pruning " + what + " not seen for " + days + " days...");
+
+        var total = 0;
+        var lastProgress = System.currentTimeMillis();
+
+        while (true) {
+            var result = pruner.apply(before, chunkSize);
+            total += result.deleted();
+
+            // Some of a full chunk may have been seen in the meantime, more may be left
+            if (result.selected() < chunkSize) break;
+
+            if (System.currentTimeMillis() - lastProgress >= PROGRESS_INTERVAL) {
+                logger.info("Pruned " + total + " " + what + " so far...");
+                lastProgress = System.currentTimeMillis();
+            }
+
+            if (throttle > 0) {
+                try {
+                    Thread.sleep(throttle);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        logger.info("Pruned " + total + " " + what);
+        return total;
+    }
+}
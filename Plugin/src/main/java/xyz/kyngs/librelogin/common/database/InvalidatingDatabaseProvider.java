@@ -0,0 +1,122 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import xyz.kyngs.librelogin.api.database.PruneResult;
+import xyz.kyngs.librelogin.api.database.ReadWriteDatabaseProvider;
+import xyz.kyngs.librelogin.api.database.User;
+import xyz.kyngs.librelogin.common.database.invalidation.Invalidation;
+import xyz.kyngs.librelogin.common.database.invalidation.InvalidationBus;
+
+/**
+ * Publishes the users changed by every write to the {@link InvalidationBus}, so the caches of the
+ * other proxies drop them.
+ *
+ * <p>Stacked directly on top of the actual storage, below the write-behind queue, so the
+ * invalidations are only published once the changes have been written. Otherwise, another proxy
+ * could reload the old state before the queue is flushed. Both the UUID and the name of a user are
+ * published, the name evicts whichever user another proxy has cached under it, e.g. the previous
+ * holder of a claimed name.
+ */
+public class InvalidatingDatabaseProvider extends ForwardingDatabaseProvider {
+
+    private final InvalidationBus bus;
+
+    public InvalidatingDatabaseProvider(ReadWriteDatabaseProvider delegate, InvalidationBus bus) {
+        super(delegate);
+        this.bus = bus;
+    }
+
+    public InvalidationBus getBus() {
+        return bus;
+    }
+
+    @Override
+    public void insertUser(User user) {
+        delegate.insertUser(user);
+        publish(List.of(user));
+    }
+
+    @Override
+    public void insertUsers(Collection<User> users) {
+        try {
+            delegate.insertUsers(users);
+        } finally {
+            // Some of the users may have been inserted before the failure
+            publish(users);
+        }
+    }
+
+    @Override
+    public void updateUser(User user) {
+        delegate.updateUser(user);
+        publish(List.of(user));
+    }
+
+    @Override
+    public void updateUsers(Collection<User> users) {
+        try {
+            delegate.updateUsers(users);
+        } finally {
+            publish(users);
+        }
+    }
+
+    @Override
+    public void deleteUser(User user) {
+        delegate.deleteUser(user);
+        publish(List.of(user));
+    }
+
+    @Override
+    public boolean insertUserIfAbsent(User user) {
+        var inserted = delegate.insertUserIfAbsent(user);
+        if (inserted) publish(List.of(user));
+        return inserted;
+    }
+
+    @Override
+    public void upsertUser(User user) {
+        delegate.upsertUser(user);
+        publish(List.of(user));
+    }
+
+    @Override
+    public void claimName(User user, String name) {
+        delegate.claimName(user, name);
+        publish(List.of(user));
+    }
+
+    @Override
+    public PruneResult pruneInactiveUsers(Timestamp lastSeenBefore, int limit) {
+        var pruned = delegate.pruneInactiveUsers(lastSeenBefore, limit);
+        if (pruned.deleted() > 0) bus.publish(List.of(Invalidation.inactive(lastSeenBefore)));
+        return pruned;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        bus.close();
+    }
+
+    private void publish(Collection<User> users) {
+        if (users.isEmpty()) return;
+        var invalidations = new ArrayList<Invalidation>(users.size() * 2);
+        for (var user : users) {
+            invalidations.add(Invalidation.user(user.getUuid()));
+            if (user.getLastNickname() != null) {
+                invalidations.add(Invalidation.name(user.getLastNickname()));
+            }
+        }
+        bus.publish(invalidations);
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.api.Logger;
+import xyz.kyngs.librelogin.api.database.DatabaseUnavailableException;
+import xyz.kyngs.librelogin.api.database.PruneResult;
+import xyz.kyngs.librelogin.api.database.ReadWriteDatabaseProvider;
+import xyz.kyngs.librelogin.api.database.User;
+import xyz.kyngs.librelogin.common.database.AuthenticUser.Field;
+
+/**
+ * Defers user updates and writes them in batches on a background thread.
+ *
+ * <p>Only the fields which change on every join ({@link #DEFERRED_FIELDS}) are deferred. Updates
+ * which change anything else, e.g. the password, the secret, the premium UUID or the email, are
+ * written synchronously, so they are durable and visible to the other proxies once the update
+ * returns. Updates of the same user which happen before the next flush are coalesced into one, only
+ * the latest state is written. The queue is flushed when it reaches the batch size, periodically,
+ * and synchronously on {@link #close()}. Once the queue reaches its maximum size, the callers write
+ * their updates themselves.
+ *
+ * <p>A failed batch is retried row by row, so a single bad row does not hold back the others. A row
+ * which keeps failing is dropped after {@link #MAX_ATTEMPTS} attempts.
+ *
+ * <p>Lookups by UUID, name and premium UUID see the queued updates, so a caller always reads its
+ * own writes, even if the user is not cached. Bulk reads ({@link #getAllUsers()}, {@link
+ * #forEachUser}, {@link #getByIP(String)}, {@link #getByUUIDs}, {@link #getByNames}) flush the
+ * queue first.
+ */
+public class WriteBehindDatabaseProvider extends ForwardingDatabaseProvider {
+
+    /** The fields whose updates may be deferred, everything else is written synchronously. */
+    public static final Set<Field> DEFERRED_FIELDS =
+            EnumSet.of(Field.LAST_SEEN, Field.LAST_SERVER, Field.IP);
+
+    /** Times a row is written before its update is dropped. */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final Logger logger;
+    private final int batchSize;
+    private final int maxQueueSize;
+    private final Map<UUID, AuthenticUser> pending;
+    // Updates which have been taken from the queue, but have not been written yet
+    private final Map<UUID, AuthenticUser> inFlight;
+    // Failed attempts of the rows which are being retried
+    private final Map<UUID, Integer> failures;
+    // Held while writing, so updates of the same user never overtake each other
+    private final Object flushLock;
+    private final AtomicBoolean flushScheduled;
+    private final ScheduledExecutorService scheduler;
+
+    public WriteBehindDatabaseProvider(
+            ReadWriteDatabaseProvider delegate,
+            Logger logger,
+            long flushInterval,
+            int batchSize,
+            int maxQueueSize) {
+        super(delegate);
+        this.logger = logger;
+        this.batchSize = batchSize;
+        this.maxQueueSize = maxQueueSize;
+        this.pending = new ConcurrentHashMap<>();
+        this.inFlight = new ConcurrentHashMap<>();
+        this.failures = new ConcurrentHashMap<>();
+        this.flushLock = new Object();
+        this.flushScheduled = new AtomicBoolean();
+        this.scheduler =
+                Executors.newSingleThreadScheduledExecutor(
+                        runnable -> {
+                            var thread = new Thread(runnable, "LibreLogin Write-Behind");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+
+        scheduler.scheduleWithFixedDelay(
+                this::flushSafely, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void updateUser(User user) {
+        // Taken before the copy, so a field changed while copying stays dirty
+        var changes = user instanceof AuthenticUser authentic ? authentic.getChanges() : null;
+        var snapshot = new AuthenticUser(user);
+        var fields = snapshot.getDirtyFields();
+        if (fields.isEmpty()) return;
+
+        var uuid = snapshot.getUuid();
+        if (!DEFERRED_FIELDS.containsAll(fields)
+                || pending.size() >= maxQueueSize && !pending.containsKey(uuid)) {
+            writeNow(snapshot);
+        } else {
+            enqueue(snapshot);
+        }
+        // The caller's copy is now in sync with what has been, or will be written
+        if (user instanceof AuthenticUser authentic) authentic.markClean(changes);
+
+        if (pending.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            scheduler.execute(
+                    () -> {
+                        flushScheduled.set(false);
+                        flushSafely();
+                    });
+        }
+    }
+
+    @Override
+    public void updateUsers(Collection<User> users) {
+        users.forEach(this::updateUser);
+    }
+
+    @Override
+    public void insertUser(User user) {
+        // Only the deferred fields are queued, a queued update never frees a name
+        delegate.insertUser(user);
+    }
+
+    @Override
+    public void insertUsers(Collection<User> users) {
+        delegate.insertUsers(users);
+    }
+
+    @Override
+    public void deleteUser(User user) {
+        synchronized (flushLock) {
+            discard(user.getUuid());
+            delegate.deleteUser(user);
+        }
+    }
+
+    @Override
+    public boolean insertUserIfAbsent(User user) {
+        flush(user.getUuid());
+        return delegate.insertUserIfAbsent(user);
+    }
+
+    @Override
+    public void upsertUser(User user) {
+        synchronized (flushLock) {
+            delegate.upsertUser(withQueued(user));
+        }
+        if (user instanceof AuthenticUser authentic) authentic.markClean();
+    }
+
+    @Override
+    public void claimName(User user, String name) {
+        user.setLastNickname(name);
+        synchronized (flushLock) {
+            delegate.claimName(withQueued(user), name);
+            // The previous holder of the name has been deleted along with it
+            pending.values()
+                    .removeIf(
+                            queued ->
+                                    queued.getLastNickname().equalsIgnoreCase(name)
+                                            && !queued.getUuid().equals(user.getUuid()));
+        }
+        if (user instanceof AuthenticUser authentic) authentic.markClean();
+    }
+
+    @Override
+    public PruneResult pruneInactiveUsers(Timestamp lastSeenBefore, int limit) {
+        // A queued update may be the proof the user is not inactive
+        flush();
+        return delegate.pruneInactiveUsers(lastSeenBefore, limit);
+    }
+
+    @Override
+    public User getByUUID(UUID uuid) {
+        var queued = getQueued(uuid);
+        return queued != null ? queued : delegate.getByUUID(uuid);
+    }
+
+    @Override
+    public User getByName(String name) {
+        return lookup(
+                user -> user.getLastNickname().equalsIgnoreCase(name),
+                () -> delegate.getByName(name));
+    }
+
+    @Override
+    public User getByPremiumUUID(UUID uuid) {
+        return lookup(
+                user -> uuid.equals(user.getPremiumUUID()), () -> delegate.getByPremiumUUID(uuid));
+    }
+
+    @Override
+    public Map<UUID, User> getByUUIDs(Collection<UUID> uuids) {
+        flush();
+        return delegate.getByUUIDs(uuids);
+    }
+
+    @Override
+    public Map<String, User> getByNames(Collection<String> names) {
+        flush();
+        return delegate.getByNames(names);
+    }
+
+    @Override
+    public Collection<User> getAllUsers() {
+        flush();
+        return delegate.getAllUsers();
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> consumer) {
+        flush();
+        delegate.forEachUser(consumer);
+    }
+
+    @Override
+    public void forEachUserSeenSince(Timestamp since, int limit, Consumer<User> consumer) {
+        flush();
+        delegate.forEachUserSeenSince(since, limit, consumer);
+    }
+
+    @Override
+    public Collection<User> getByIP(String ip) {
+        flush();
+        return delegate.getByIP(ip);
+    }
+
+    /**
+     * Writes all the queued updates, blocking until done. Rows which fail are queued again, and
+     * retried on the next flush.
+     *
+     * @throws DatabaseUnavailableException If the database cannot be reached, the updates are
+     *     queued again
+     */
+    public void flush() {
+        var retries = new HashMap<UUID, AuthenticUser>();
+        try {
+            while (true) {
+                synchronized (flushLock) {
+                    var batch = new ArrayList<AuthenticUser>(Math.min(pending.size(), batchSize));
+
+                    for (var uuid : pending.keySet()) {
+                        var user = pending.remove(uuid);
+                        if (user == null) continue;
+                        inFlight.put(uuid, user);
+                        batch.add(user);
+                        if (batch.size() >= batchSize) break;
+                    }
+
+                    if (batch.isEmpty()) break;
+
+                    write(batch, retries);
+                }
+            }
+        } finally {
+            retries.values().forEach(this::requeue);
+        }
+    }
+
+    /**
+     * Writes the queued update of a single user, blocking until done.
+     *
+     * @param uuid The UUID of the user
+     */
+    public void flush(UUID uuid) {
+        synchronized (flushLock) {
+            var user = pending.remove(uuid);
+            if (user == null) return;
+            inFlight.put(uuid, user);
+
+            var retries = new HashMap<UUID, AuthenticUser>();
+            try {
+                write(List.of(user), retries);
+            } finally {
+                retries.values().forEach(this::requeue);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.error(
+                    "Failed to write the queued user updates on shutdown, %d of them are lost."
+                                    .formatted(pending.size())
+                            + " Cause: "
+                            + e.getMessage());
+        } finally {
+            if (!pending.isEmpty()) {
+                logger.error(
+                        "%d queued user updates could not be written on shutdown and are lost"
+                                .formatted(pending.size()));
+            }
+            super.close();
+        }
+    }
+
+    public int getQueueSize() {
+        return pending.size();
+    }
+
+    /**
+     * Writes a batch, falling back to writing the rows one by one if it fails. Must be called while
+     * holding the {@link #flushLock}, with the batch in {@link #inFlight}.
+     *
+     * @param batch The updates
+     * @param retries Collects the rows which have failed, but should be retried
+     */
+    private void write(List<AuthenticUser> batch, Map<UUID, AuthenticUser> retries) {
+        try {
+            delegate.updateUsers(List.copyOf(batch));
+            for (var user : batch) {
+                failures.remove(user.getUuid());
+            }
+        } catch (DatabaseUnavailableException e) {
+            // Nothing can be written right now, the whole queue waits for the database
+            batch.forEach(this::requeue);
+            throw e;
+        } catch (RuntimeException e) {
+            if (batch.size() > 1) {
+                // Find the bad rows, so the others are not held back by them
+                for (var i = 0; i < batch.size(); i++) {
+                    try {
+                        write(List.of(batch.get(i)), retries);
+                    } catch (DatabaseUnavailableException unavailable) {
+                        batch.subList(i + 1, batch.size()).forEach(this::requeue);
+                        throw unavailable;
+                    }
+                }
+                return;
+            }
+
+            var user = batch.get(0);
+            var attempts = failures.merge(user.getUuid(), 1, Integer::sum);
+            if (attempts >= MAX_ATTEMPTS) {
+                failures.remove(user.getUuid());
+                logger.error(
+                        "Dropping the queued update of user %s (%s) after %d failed attempts: %s"
+                                .formatted(
+                                        user.getLastNickname(),
+                                        user.getUuid(),
+                                        attempts,
+                                        e.getMessage()));
+            } else {
+                logger.warn(
+                        "Failed to write the queued update of user %s (%s), retrying later: %s"
+                                .formatted(user.getLastNickname(), user.getUuid(), e.getMessage()));
+                retries.put(user.getUuid(), user);
+            }
+        } finally {
+            for (var user : batch) {
+                inFlight.remove(user.getUuid(), user);
+            }
+        }
+    }
+
+    /** Writes an update right away, together with the queued update of the same user. */
+    private void writeNow(AuthenticUser snapshot) {
+        synchronized (flushLock) {
+            var queued = pending.remove(snapshot.getUuid());
+            // The snapshot is newer, it only has to write the queued fields too
+            if (queued != null) snapshot.markDirty(queued.getDirtyFields());
+            try {
+                delegate.updateUser(snapshot);
+            } catch (RuntimeException e) {
+                if (queued != null) requeue(queued);
+                throw e;
+            }
+            failures.remove(snapshot.getUuid());
+        }
+    }
+
+    /**
+     * Applies the queued update of the user to a copy of it, and removes it from the queue. Must be
+     * called while holding the {@link #flushLock}.
+     */
+    private User withQueued(User user) {
+        var queued = pending.remove(user.getUuid());
+        failures.remove(user.getUuid());
+        if (queued == null) return user;
+        // The queued fields are newer, unless the caller has changed them since
+        var merged = new AuthenticUser(user);
+        merged.markClean();
+        var fields = queued.getDirtyFields();
+        if (user instanceof AuthenticUser authentic) fields.removeAll(authentic.getDirtyFields());
+        merged.apply(queued, fields);
+        return merged;
+    }
+
+    private void discard(UUID uuid) {
+        pending.remove(uuid);
+        failures.remove(uuid);
+    }
+
+    private void enqueue(AuthenticUser snapshot) {
+        pending.merge(
+                snapshot.getUuid(),
+                snapshot,
+                (older, newer) -> {
+                    newer.markDirty(older.getDirtyFields());
+                    return newer;
+                });
+    }
+
+    /** Puts a failed update back, a newer update still has to write the failed fields. */
+    private void requeue(AuthenticUser failed) {
+        pending.merge(
+                failed.getUuid(),
+                failed,
+                (newer, older) -> {
+                    newer.markDirty(older.getDirtyFields());
+                    return newer;
+                });
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (DatabaseUnavailableException e) {
+            // Already reported by the connector, the updates stay queued until it recovers
+        } catch (Exception e) {
+            logger.error(
+                    "Failed to write %d queued user updates, retrying later. Cause: %s"
+                            .formatted(pending.size(), e.getMessage()));
+        }
+    }
+
+    @Nullable
+    private User getQueued(UUID uuid) {
+        var user = pending.get(uuid);
+        if (user == null) user = inFlight.get(uuid);
+        if (user == null) return null;
+        var copy = new AuthenticUser(user);
+        copy.markClean();
+        return copy;
+    }
+
+    private User lookup(Predicate<User> matches, Supplier<User> loader) {
+        for (var queue : List.of(pending, inFlight)) {
+            for (var user : queue.values()) {
+                if (!matches.test(user)) continue;
+                var queued = getQueued(user.getUuid());
+                if (queued != null && matches.test(queued)) return queued;
+            }
+        }
+
+        var user = loader.get();
+        if (user == null) return null;
+
+        var queued = getQueued(user.getUuid());
+        if (queued == null) return user;
+
+        // The stored row is stale, only return it if the queued state still matches
+        return matches.test(queued) ? queued : null;
+    }
+}
@@ -27,6 +27,15 @@ public abstract class AuthenticDatabaseConnector<E extends Exception, I>
         return connected;
     }
 
+    /**
+     * Returns the maximum amount of connections this connector keeps open at once.
+     *
+     * @return The size of the connection pool
+     */
+    public int getPoolSize() {
+        return 1;
+    }
+
     public <T> T get(ConfigurationKey<T> key) {
         var value = key.getter().apply(plugin.getConfiguration().getHelper(), prefix + key.key());
         return value == null ? key.defaultValue() : value;
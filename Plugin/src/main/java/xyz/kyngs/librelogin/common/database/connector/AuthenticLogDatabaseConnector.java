@@ -0,0 +1,102 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.connector;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.api.util.ThrowableFunction;
+import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
+import xyz.kyngs.librelogin.common.config.ConfigurateHelper;
+import xyz.kyngs.librelogin.common.config.key.ConfigurationKey;
+
+/** Connector to an embedded {@link LogStore}, which needs no database server. */
+public class AuthenticLogDatabaseConnector
+        extends AuthenticDatabaseConnector<IOException, LogStore> {
+
+    private final Path directory;
+    private final long compactionThreshold;
+    private final boolean syncWrites;
+    private @Nullable LogStore store;
+
+    public AuthenticLogDatabaseConnector(AuthenticLibreLogin<?, ?> plugin, String prefix) {
+        super(plugin, prefix);
+
+        this.directory = plugin.getDataFolder().toPath().resolve(get(Configuration.DIRECTORY));
+        this.compactionThreshold = Math.max(1, get(Configuration.COMPACTION_THRESHOLD));
+        this.syncWrites = get(Configuration.SYNC_WRITES);
+        this.connected = false;
+    }
+
+    @Override
+    public int getPoolSize() {
+        // Lookups are served from the page cache, they are bound by the CPU
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    public void connect() throws IOException {
+        store = LogStore.open(directory, plugin.getLogger(), compactionThreshold, syncWrites);
+        connected = true;
+    }
+
+    @Override
+    public void disconnect() throws IOException {
+        connected = false;
+        var current = store;
+        store = null;
+        if (current != null) current.close();
+    }
+
+    @Override
+    public LogStore obtainInterface() throws IllegalStateException {
+        var current = store;
+        if (!connected() || current == null) {
+            throw new IllegalStateException("Not connected to the database!");
+        }
+        return current;
+    }
+
+    @Override
+    public <V> V runQuery(ThrowableFunction<LogStore, V, IOException> function)
+            throws IllegalStateException {
+        try {
+            return function.apply(obtainInterface());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static final class Configuration {
+        public static final ConfigurationKey<String> DIRECTORY =
+                new ConfigurationKey<>(
+                        "directory",
+                        "user-data",
+                        "Path to the directory with the log and the indexes. Relative to plugin"
+                                + " datafolder.",
+                        ConfigurateHelper::getString);
+
+        public static final ConfigurationKey<Long> COMPACTION_THRESHOLD =
+                new ConfigurationKey<>(
+                        "compaction-threshold",
+                        100000L,
+                        "The log grows with every write. Once it holds this many superseded"
+                                + " records, and at least as many as there are users, the current"
+                                + " records are copied to a new log in the background.",
+                        ConfigurateHelper::getLong);
+
+        public static final ConfigurationKey<Boolean> SYNC_WRITES =
+                new ConfigurationKey<>(
+                        "sync-writes",
+                        true,
+                        "Whether a write waits until it is on the disk. Writes made at the same"
+                                + " time share one flush. Disabling this makes writes faster, but"
+                                + " the writes of the last few seconds may be lost if the machine"
+                                + " crashes.",
+                        ConfigurateHelper::getBoolean);
+    }
+}
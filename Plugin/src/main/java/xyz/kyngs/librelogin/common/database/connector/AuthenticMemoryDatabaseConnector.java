@@ -0,0 +1,132 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.connector;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.api.util.ThrowableFunction;
+import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
+import xyz.kyngs.librelogin.common.config.ConfigurateHelper;
+import xyz.kyngs.librelogin.common.config.key.ConfigurationKey;
+
+/**
+ * Connector of the in-memory database. The data itself is held by the provider, this connector only
+ * manages the optional {@link MemorySnapshot} file the data is persisted to.
+ */
+public class AuthenticMemoryDatabaseConnector
+        extends AuthenticDatabaseConnector<IOException, MemorySnapshot> {
+
+    private final @Nullable Path snapshotPath;
+    private final long compactionThreshold;
+    private final boolean syncWrites;
+    private @Nullable MemorySnapshot snapshot;
+
+    public AuthenticMemoryDatabaseConnector(AuthenticLibreLogin<?, ?> plugin, String prefix) {
+        super(plugin, prefix);
+
+        var file = get(Configuration.SNAPSHOT);
+        this.snapshotPath = file.isBlank() ? null : plugin.getDataFolder().toPath().resolve(file);
+        this.compactionThreshold = Math.max(1, get(Configuration.COMPACTION_THRESHOLD));
+        this.syncWrites = get(Configuration.SYNC_WRITES);
+        this.connected = false;
+    }
+
+    /**
+     * Returns whether the data is persisted to a snapshot file.
+     *
+     * @return Whether there is a snapshot file
+     */
+    public boolean isPersistent() {
+        return snapshotPath != null;
+    }
+
+    /**
+     * Returns after how many superseded records the snapshot file should be rewritten.
+     *
+     * @return The amount of records
+     */
+    public long getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    @Override
+    public int getPoolSize() {
+        // Nothing waits for I/O, the queries are bound by the CPU
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (snapshotPath != null) {
+            var parent = snapshotPath.getParent();
+            if (parent != null) Files.createDirectories(parent);
+            snapshot = new MemorySnapshot(snapshotPath, plugin.getLogger(), syncWrites);
+        }
+        connected = true;
+    }
+
+    @Override
+    public void disconnect() throws IOException {
+        connected = false;
+        var current = snapshot;
+        snapshot = null;
+        if (current != null) current.close();
+    }
+
+    @Override
+    public MemorySnapshot obtainInterface() throws IllegalStateException {
+        if (!connected()) throw new IllegalStateException("Not connected to the database!");
+        if (snapshot == null) throw new IllegalStateException("The database is not persistent!");
+        return snapshot;
+    }
+
+    @Override
+    public <V> V runQuery(ThrowableFunction<MemorySnapshot, V, IOException> function)
+            throws IllegalStateException {
+        var current = obtainInterface();
+        // Records must reach the file one at a time, and in the order they were made
+        synchronized (current) {
+            try {
+                return function.apply(current);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    public static final class Configuration {
+        public static final ConfigurationKey<String> SNAPSHOT =
+                new ConfigurationKey<>(
+                        "snapshot",
+                        "user-data.snapshot",
+                        "Path to the file the data is persisted to. Relative to plugin datafolder."
+                                + " Leave empty to keep the data in memory only, it is then lost"
+                                + " on every restart.",
+                        ConfigurateHelper::getString);
+
+        public static final ConfigurationKey<Long> COMPACTION_THRESHOLD =
+                new ConfigurationKey<>(
+                        "compaction-threshold",
+                        100000L,
+                        "The snapshot file grows with every write. Once it holds this many"
+                                + " superseded records, it is rewritten with just the current"
+                                + " data.",
+                        ConfigurateHelper::getLong);
+
+        public static final ConfigurationKey<Boolean> SYNC_WRITES =
+                new ConfigurationKey<>(
+                        "sync-writes",
+                        true,
+                        "Whether a write waits until it is in the snapshot file on the disk."
+                                + " Writes made at the same time share one flush. Disabling this"
+                                + " makes writes faster, but the writes of the last few seconds"
+                                + " may be lost if the machine crashes.",
+                        ConfigurateHelper::getBoolean);
+    }
+}
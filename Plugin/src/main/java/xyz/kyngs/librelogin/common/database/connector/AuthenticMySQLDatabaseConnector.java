@@ -6,34 +6,20 @@
 
 package xyz.kyngs.librelogin.common.database.connector;
 
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
-import java.sql.Connection;
-import java.sql.SQLException;
-import java.sql.SQLTransientConnectionException;
 import xyz.kyngs.librelogin.api.database.connector.MySQLDatabaseConnector;
-import xyz.kyngs.librelogin.api.util.ThrowableFunction;
 import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
 import xyz.kyngs.librelogin.common.config.ConfigurateHelper;
 import xyz.kyngs.librelogin.common.config.key.ConfigurationKey;
 
-public class AuthenticMySQLDatabaseConnector
-        extends AuthenticDatabaseConnector<SQLException, Connection>
+public class AuthenticMySQLDatabaseConnector extends AuthenticSQLDatabaseConnector
         implements MySQLDatabaseConnector {
 
-    private final HikariConfig hikariConfig;
-    private HikariDataSource dataSource;
-
     public AuthenticMySQLDatabaseConnector(AuthenticLibreLogin<?, ?> plugin, String prefix) {
-        super(plugin, prefix);
-
-        this.hikariConfig = new HikariConfig();
+        super(plugin, prefix, "MySQL");
 
-        hikariConfig.setPoolName("LibreLogin MySQL Pool");
         hikariConfig.setDriverClassName("xyz.kyngs.librelogin.lib.mariadb.jdbc.Driver");
-        hikariConfig.addDataSourceProperty("cachePrepStmts", "true");
-        hikariConfig.addDataSourceProperty("prepStmtCacheSize", "250");
-        hikariConfig.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        // Sends whole batches in a single round-trip on MariaDB servers
+        hikariConfig.addDataSourceProperty("useBulkStmts", "true");
         hikariConfig.setUsername(get(Configuration.USER));
         hikariConfig.setPassword(get(Configuration.PASSWORD));
         hikariConfig.setJdbcUrl(
@@ -42,49 +28,17 @@ public class AuthenticMySQLDatabaseConnector
                         .replace("%port%", String.valueOf(get(Configuration.PORT)))
                         .replace("%database%", get(Configuration.NAME)));
         hikariConfig.setMaxLifetime(get(Configuration.MAX_LIFE_TIME));
-    }
-
-    @Override
-    public void connect() throws SQLException {
-        dataSource = new HikariDataSource(hikariConfig);
-        obtainInterface().close(); // Verify connection
-        connected = true;
-    }
-
-    @Override
-    public void disconnect() throws SQLException {
-        connected = false;
-        dataSource.close();
-    }
-
-    @Override
-    public Connection obtainInterface() throws SQLException, IllegalStateException {
-        if (!connected()) throw new IllegalStateException("Not connected to the database!");
-        return dataSource.getConnection();
-    }
 
-    @Override
-    public <V> V runQuery(ThrowableFunction<Connection, V, SQLException> function)
-            throws IllegalStateException {
-        try {
-            try (var connection = obtainInterface()) {
-                return function.apply(connection);
-            }
-        } catch (SQLTransientConnectionException e) {
-            plugin.getLogger()
-                    .error(
-                            "!! LOST CONNECTION TO THE DATABASE, THE PROXY IS GOING TO SHUT DOWN TO"
-                                    + " PREVENT DAMAGE !!");
-            e.printStackTrace();
-            System.exit(1);
-            // Won't return anyway
-            return null;
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        addReplicas(
+                (host, port) ->
+                        get(Configuration.JDBC_URL)
+                                .replace("%host%", host)
+                                .replace("%port%", String.valueOf(port))
+                                .replace("%database%", get(Configuration.NAME)),
+                3306);
     }
 
-    public static final class Configuration {
+    public static final class Configuration extends ReplicaConfiguration {
 
         public static final ConfigurationKey<String> HOST =
                 new ConfigurationKey<>(
@@ -6,91 +6,40 @@
 
 package xyz.kyngs.librelogin.common.database.connector;
 
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
-import java.sql.Connection;
-import java.sql.SQLException;
-import java.sql.SQLTransientConnectionException;
 import xyz.kyngs.librelogin.api.database.connector.PostgreSQLDatabaseConnector;
-import xyz.kyngs.librelogin.api.util.ThrowableFunction;
 import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
 import xyz.kyngs.librelogin.common.config.ConfigurateHelper;
 import xyz.kyngs.librelogin.common.config.key.ConfigurationKey;
 
-public class AuthenticPostgreSQLDatabaseConnector
-        extends AuthenticDatabaseConnector<SQLException, Connection>
+public class AuthenticPostgreSQLDatabaseConnector extends AuthenticSQLDatabaseConnector
         implements PostgreSQLDatabaseConnector {
 
-    private final HikariConfig hikariConfig;
-    private HikariDataSource dataSource;
-
     public AuthenticPostgreSQLDatabaseConnector(AuthenticLibreLogin<?, ?> plugin, String prefix) {
-        super(plugin, prefix);
-
-        this.hikariConfig = new HikariConfig();
+        super(plugin, prefix, "PostgreSQL");
 
-        hikariConfig.setPoolName("LibreLogin PostgreSQL Pool");
         hikariConfig.setDriverClassName("org.postgresql.Driver");
-        hikariConfig.addDataSourceProperty("cachePrepStmts", "true");
-        hikariConfig.addDataSourceProperty("prepStmtCacheSize", "250");
-        hikariConfig.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
         hikariConfig.addDataSourceProperty("ssl", "false");
         hikariConfig.addDataSourceProperty("sslmode", "disable");
 
         hikariConfig.setUsername(get(Configuration.USER));
         hikariConfig.setPassword(get(Configuration.PASSWORD));
-        hikariConfig.setJdbcUrl(
-                "jdbc:postgresql://"
-                        + get(Configuration.HOST)
-                        + ":"
-                        + get(Configuration.PORT)
-                        + "/"
-                        + get(Configuration.NAME)
-                        + "?sslmode=disable&autoReconnect=true&zeroDateTimeBehavior=convertToNull&ssl=false");
+        hikariConfig.setJdbcUrl(createUrl(get(Configuration.HOST), get(Configuration.PORT)));
         hikariConfig.setMaxLifetime(get(Configuration.MAX_LIFE_TIME));
-    }
-
-    @Override
-    public void connect() throws SQLException {
-        dataSource = new HikariDataSource(hikariConfig);
-        obtainInterface().close(); // Verify connection
-        connected = true;
-    }
-
-    @Override
-    public void disconnect() throws SQLException {
-        connected = false;
-        dataSource.close();
-    }
 
-    @Override
-    public Connection obtainInterface() throws SQLException, IllegalStateException {
-        if (!connected()) throw new IllegalStateException("Not connected to the database!");
-        return dataSource.getConnection();
+        addReplicas(this::createUrl, 5432);
     }
 
-    @Override
-    public <V> V runQuery(ThrowableFunction<Connection, V, SQLException> function)
-            throws IllegalStateException {
-        try {
-            try (var connection = obtainInterface()) {
-                return function.apply(connection);
-            }
-        } catch (SQLTransientConnectionException e) {
-            plugin.getLogger()
-                    .error(
-                            "!! LOST CONNECTION TO THE DATABASE, THE PROXY IS GOING TO SHUT DOWN TO"
-                                    + " PREVENT DAMAGE !!");
-            e.printStackTrace();
-            System.exit(1);
-            // Won't return anyway
-            return null;
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+    private String createUrl(String host, int port) {
+        return "jdbc:postgresql://"
+                + host
+                + ":"
+                + port
+                + "/"
+                + get(Configuration.NAME)
+                + "?sslmode=disable&autoReconnect=true&zeroDateTimeBehavior=convertToNull&ssl=false";
     }
 
-    public static final class Configuration {
+    public static final class Configuration extends ReplicaConfiguration {
 
         public static final ConfigurationKey<String> HOST =
                 new ConfigurationKey<>(
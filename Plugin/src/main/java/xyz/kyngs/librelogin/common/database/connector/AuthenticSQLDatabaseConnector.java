@@ -0,0 +1,484 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.connector;
+
+import static xyz.kyngs.librelogin.common.config.ConfigurationKeys.*;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.api.database.DatabaseUnavailableException;
+import xyz.kyngs.librelogin.api.util.ThrowableFunction;
+import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
+import xyz.kyngs.librelogin.common.config.ConfigurateHelper;
+import xyz.kyngs.librelogin.common.config.key.ConfigurationKey;
+
+/**
+ * Base of the connectors backed by a Hikari pool. Connection failures are retried with an
+ * exponential backoff and counted by a {@link CircuitBreaker}, while it is open, queries fail right
+ * away with a {@link DatabaseUnavailableException}.
+ */
+public abstract class AuthenticSQLDatabaseConnector
+        extends AuthenticDatabaseConnector<SQLException, Connection> {
+
+    protected final HikariConfig hikariConfig;
+    protected HikariDataSource dataSource;
+    private final PoolMetrics poolMetrics;
+    private final CircuitBreaker circuitBreaker;
+    private final int retries;
+    private final long backoff;
+    private final List<Replica> replicas;
+    private final AtomicInteger nextReplica;
+    private @Nullable ScheduledExecutorService healthChecker;
+
+    protected AuthenticSQLDatabaseConnector(
+            AuthenticLibreLogin<?, ?> plugin, String prefix, String name) {
+        super(plugin, prefix);
+
+        this.hikariConfig = new HikariConfig();
+
+        hikariConfig.setPoolName("LibreLogin " + name + " Pool");
+        hikariConfig.addDataSourceProperty("cachePrepStmts", "true");
+        hikariConfig.addDataSourceProperty("prepStmtCacheSize", "250");
+        hikariConfig.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        hikariConfig.setMaximumPoolSize(get(PoolConfiguration.MAXIMUM_POOL_SIZE));
+        hikariConfig.setConnectionTimeout(get(PoolConfiguration.CONNECTION_TIMEOUT));
+        hikariConfig.setLeakDetectionThreshold(get(PoolConfiguration.LEAK_DETECTION_THRESHOLD));
+
+        var minimumIdle = get(PoolConfiguration.MINIMUM_IDLE);
+        // Hikari treats a negative value as "same as the maximum pool size"
+        if (minimumIdle >= 0) hikariConfig.setMinimumIdle(minimumIdle);
+
+        this.poolMetrics = new PoolMetrics();
+        hikariConfig.setMetricsTrackerFactory(poolMetrics);
+
+        var configuration = plugin.getConfiguration();
+
+        this.retries = Math.max(0, configuration.get(DATABASE_RETRY_ATTEMPTS));
+        this.backoff = Math.max(0, configuration.get(DATABASE_RETRY_BACKOFF));
+        this.circuitBreaker =
+                new CircuitBreaker(
+                        configuration.get(DATABASE_CIRCUIT_BREAKER_FAILURE_THRESHOLD),
+                        configuration.get(DATABASE_CIRCUIT_BREAKER_OPEN_DURATION),
+                        this::onStateChange);
+        this.replicas = new ArrayList<>();
+        this.nextReplica = new AtomicInteger();
+    }
+
+    private static boolean isConnectionFailure(SQLException e) {
+        var state = e.getSQLState();
+        return e instanceof SQLTransientConnectionException
+                || e instanceof SQLNonTransientConnectionException
+                || e instanceof SQLRecoverableException
+                || (state != null && state.startsWith("08"));
+    }
+
+    @Override
+    public int getPoolSize() {
+        return hikariConfig.getMaximumPoolSize() * (1 + replicas.size());
+    }
+
+    /**
+     * Registers the read replicas listed in the configuration, must be called by subclasses once
+     * the primary has been configured. Each replica gets its own pool with the primary's settings.
+     *
+     * @param urlFactory Creates the JDBC URL of a replica from its host and port
+     * @param defaultPort The port used if a replica does not specify one
+     */
+    protected void addReplicas(BiFunction<String, Integer, String> urlFactory, int defaultPort) {
+        for (String address : get(ReplicaConfiguration.REPLICAS)) {
+            var separator = address.lastIndexOf(':');
+            var host = separator < 0 ? address : address.substring(0, separator);
+            var port =
+                    separator < 0
+                            ? defaultPort
+                            : Integer.parseInt(address.substring(separator + 1));
+
+            var config = new HikariConfig();
+
+            config.setPoolName(hikariConfig.getPoolName() + " (replica " + address + ")");
+            config.setDriverClassName(hikariConfig.getDriverClassName());
+            config.setJdbcUrl(urlFactory.apply(host, port));
+            config.setUsername(hikariConfig.getUsername());
+            config.setPassword(hikariConfig.getPassword());
+            config.setMaxLifetime(hikariConfig.getMaxLifetime());
+            config.setMaximumPoolSize(hikariConfig.getMaximumPoolSize());
+            if (hikariConfig.getMinimumIdle() >= 0) {
+                config.setMinimumIdle(hikariConfig.getMinimumIdle());
+            }
+            config.setConnectionTimeout(hikariConfig.getConnectionTimeout());
+            config.setLeakDetectionThreshold(hikariConfig.getLeakDetectionThreshold());
+            config.setReadOnly(true);
+            // A replica which is down during startup must not prevent the plugin from starting
+            config.setInitializationFailTimeout(-1);
+            hikariConfig.getDataSourceProperties().forEach(config.getDataSourceProperties()::put);
+
+            replicas.add(new Replica(address, config));
+        }
+    }
+
+    public boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    public List<Replica> getReplicas() {
+        return Collections.unmodifiableList(replicas);
+    }
+
+    /**
+     * Returns for how long the reads of a user should go to the primary after the user has been
+     * written, so they do not observe a replica which has not caught up yet.
+     *
+     * @return The duration in milliseconds
+     */
+    public long getReadAfterWriteWindow() {
+        return hasReplicas() ? get(ReplicaConfiguration.READ_AFTER_WRITE_WINDOW) : 0;
+    }
+
+    public PoolMetrics getPoolMetrics() {
+        return poolMetrics;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    @Override
+    public void connect() throws SQLException {
+        dataSource = new HikariDataSource(hikariConfig);
+        obtainInterface().close(); // Verify connection
+        connected = true;
+
+        if (replicas.isEmpty()) return;
+
+        for (Replica replica : replicas) {
+            replica.dataSource = new HikariDataSource(replica.config);
+        }
+
+        checkReplicas();
+
+        var interval = get(ReplicaConfiguration.HEALTH_CHECK_INTERVAL);
+
+        healthChecker =
+                Executors.newSingleThreadScheduledExecutor(
+                        runnable -> {
+                            var thread = new Thread(runnable, "LibreLogin Replica Health Check");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        healthChecker.scheduleWithFixedDelay(
+                this::checkReplicas, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void disconnect() throws SQLException {
+        connected = false;
+        if (healthChecker != null) healthChecker.shutdownNow();
+        for (Replica replica : replicas) {
+            if (replica.dataSource != null) replica.dataSource.close();
+        }
+        dataSource.close();
+    }
+
+    private void checkReplicas() {
+        for (Replica replica : replicas) {
+            boolean healthy;
+            try (var connection = replica.dataSource.getConnection()) {
+                healthy = connection.isValid(2);
+            } catch (SQLException e) {
+                healthy = false;
+            }
+            replica.setHealthy(healthy);
+        }
+    }
+
+    private @Nullable Replica nextHealthyReplica() {
+        var size = replicas.size();
+        if (size == 0) return null;
+
+        var start = Math.floorMod(nextReplica.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            var replica = replicas.get((start + i) % size);
+            if (replica.healthy) return replica;
+        }
+        return null;
+    }
+
+    @Override
+    public Connection obtainInterface() throws SQLException, IllegalStateException {
+        if (!connected()) throw new IllegalStateException("Not connected to the database!");
+        return dataSource.getConnection();
+    }
+
+    @Override
+    public <V> V runQuery(ThrowableFunction<Connection, V, SQLException> function)
+            throws IllegalStateException {
+        return run(this::obtainInterface, function);
+    }
+
+    /**
+     * Runs the query on a healthy replica, picked round-robin. Falls back to the primary if there
+     * are no healthy replicas, or the replica fails, so the function may run twice and must not
+     * have side effects. See {@link #streamReadQuery(ThrowableFunction)} for the ones which do.
+     */
+    @Override
+    public <V> V runReadQuery(ThrowableFunction<Connection, V, SQLException> function)
+            throws IllegalStateException {
+        var replica = nextHealthyReplica();
+        if (replica == null) return runQuery(function);
+
+        try (var connection = replica.dataSource.getConnection()) {
+            return function.apply(connection);
+        } catch (SQLException e) {
+            if (isConnectionFailure(e)) replica.setHealthy(false);
+            return runQuery(function);
+        }
+    }
+
+    /**
+     * Runs a query which passes the rows to a consumer as they are read, on a healthy replica.
+     * Unlike {@link #runReadQuery(ThrowableFunction)}, the query is not run again on the primary
+     * once the replica fails midway, the consumer has already received some of the rows.
+     */
+    public <V> V streamReadQuery(ThrowableFunction<Connection, V, SQLException> function)
+            throws IllegalStateException {
+        var replica = nextHealthyReplica();
+        if (replica == null) return runQuery(function);
+
+        Connection connection;
+        try {
+            connection = replica.dataSource.getConnection();
+        } catch (SQLException e) {
+            replica.setHealthy(false);
+            return runQuery(function);
+        }
+
+        try (connection) {
+            return function.apply(connection);
+        } catch (SQLException e) {
+            if (isConnectionFailure(e)) {
+                replica.setHealthy(false);
+                throw new DatabaseUnavailableException("Lost connection to a replica", e);
+            }
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Runs the function on a connection from the given source, retrying to obtain the connection
+     * and tracking failures in the circuit breaker.
+     *
+     * @param source Supplies the connection
+     * @param function The function to run
+     * @return The result of the function
+     * @throws DatabaseUnavailableException If the database cannot be reached
+     */
+    protected <V> V run(
+            ConnectionSource source, ThrowableFunction<Connection, V, SQLException> function) {
+        if (!circuitBreaker.allowRequest()) {
+            throw new DatabaseUnavailableException(
+                    "The database is unavailable, not attempting to connect");
+        }
+
+        // Every call let through records an outcome, a half-open breaker would stay so otherwise
+        var reached = false;
+
+        try {
+            var connection = acquire(source);
+            reached = true;
+            try (connection) {
+                return function.apply(connection);
+            }
+        } catch (SQLException e) {
+            if (isConnectionFailure(e)) {
+                reached = false;
+                throw new DatabaseUnavailableException("Lost connection to the database", e);
+            }
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseUnavailableException("Interrupted while connecting", e);
+        } finally {
+            if (reached) {
+                circuitBreaker.recordSuccess();
+            } else {
+                circuitBreaker.recordFailure();
+            }
+        }
+    }
+
+    /**
+     * Obtains a connection, retrying connection failures. A timeout of the pool is not retried, the
+     * pool has already waited for the whole connection timeout, and the retries of other failures
+     * never wait past it either.
+     */
+    private Connection acquire(ConnectionSource source) throws SQLException, InterruptedException {
+        var deadline = System.currentTimeMillis() + hikariConfig.getConnectionTimeout();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return source.get();
+            } catch (SQLException e) {
+                if (attempt >= retries
+                        || !isConnectionFailure(e)
+                        || e instanceof SQLTransientConnectionException) {
+                    throw e;
+                }
+                var delay = backoff << attempt;
+                if (System.currentTimeMillis() + delay >= deadline) throw e;
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    private void onStateChange(CircuitBreaker.State from, CircuitBreaker.State to) {
+        var logger = plugin.getLogger();
+        switch (to) {
+            case OPEN -> {
+                if (from == CircuitBreaker.State.CLOSED) {
+                    logger.error(
+                            "!! LOST CONNECTION TO THE DATABASE, NEW LOGINS ARE REJECTED UNTIL IT"
+                                    + " RECOVERS !!");
+                }
+            }
+            case HALF_OPEN -> logger.info("Checking whether the database is reachable again...");
+            case CLOSED -> logger.info("Connection to the database has been restored");
+        }
+    }
+
+    /** A read replica with its own connection pool. */
+    public final class Replica {
+
+        private final String address;
+        private final HikariConfig config;
+        private volatile HikariDataSource dataSource;
+        private volatile boolean healthy;
+
+        private Replica(String address, HikariConfig config) {
+            this.address = address;
+            this.config = config;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        public int getActiveConnections() {
+            HikariPoolMXBean mxBean = dataSource == null ? null : dataSource.getHikariPoolMXBean();
+            return mxBean == null ? 0 : mxBean.getActiveConnections();
+        }
+
+        public int getIdleConnections() {
+            HikariPoolMXBean mxBean = dataSource == null ? null : dataSource.getHikariPoolMXBean();
+            return mxBean == null ? 0 : mxBean.getIdleConnections();
+        }
+
+        private void setHealthy(boolean healthy) {
+            if (this.healthy == healthy) return;
+            this.healthy = healthy;
+            if (healthy) {
+                plugin.getLogger().info("Read replica %s is available".formatted(address));
+            } else {
+                plugin.getLogger()
+                        .warn(
+                                "Read replica %s is unavailable, reading from the primary instead"
+                                        .formatted(address));
+            }
+        }
+    }
+
+    @FunctionalInterface
+    protected interface ConnectionSource {
+        Connection get() throws SQLException;
+    }
+
+    /**
+     * Pool settings shared by all the pooled connectors, their configuration classes extend this
+     * one.
+     */
+    public static class PoolConfiguration {
+
+        public static final ConfigurationKey<Integer> MAXIMUM_POOL_SIZE =
+                new ConfigurationKey<>(
+                        "maximum-pool-size",
+                        10,
+                        "The maximum amount of connections kept open at once. When several"
+                                + " proxies share a database, their pools add up.",
+                        ConfigurateHelper::getInt);
+
+        public static final ConfigurationKey<Integer> MINIMUM_IDLE =
+                new ConfigurationKey<>(
+                        "minimum-idle",
+                        -1,
+                        "The minimum amount of idle connections kept open. -1 keeps the pool at"
+                                + " its maximum size.",
+                        ConfigurateHelper::getInt);
+
+        public static final ConfigurationKey<Long> CONNECTION_TIMEOUT =
+                new ConfigurationKey<>(
+                        "connection-timeout",
+                        10000L,
+                        "How long to wait for a free connection before failing, in"
+                                + " milliseconds.",
+                        ConfigurateHelper::getLong);
+
+        public static final ConfigurationKey<Long> LEAK_DETECTION_THRESHOLD =
+                new ConfigurationKey<>(
+                        "leak-detection-threshold",
+                        0L,
+                        "How long a connection may be borrowed before a possible leak is logged,"
+                                + " in milliseconds. 0 disables the detection.",
+                        ConfigurateHelper::getLong);
+    }
+
+    /** Read replica settings of the connectors which support them. */
+    public static class ReplicaConfiguration extends PoolConfiguration {
+
+        public static final ConfigurationKey<List<String>> REPLICAS =
+                new ConfigurationKey<>(
+                        "replicas",
+                        List.of(),
+                        """
+Read replicas in the host:port format, they share the credentials and pool settings of the primary.
+Lookups of users are spread across the healthy replicas, writes always go to the primary.\
+""",
+                        ConfigurateHelper::getStringList);
+
+        public static final ConfigurationKey<Long> HEALTH_CHECK_INTERVAL =
+                new ConfigurationKey<>(
+                        "replica-health-check-interval",
+                        5000L,
+                        "How often to check whether the replicas are reachable, in milliseconds.",
+                        ConfigurateHelper::getLong);
+
+        public static final ConfigurationKey<Long> READ_AFTER_WRITE_WINDOW =
+                new ConfigurationKey<>(
+                        "replica-read-after-write-window",
+                        5000L,
+                        "For how long the reads of a user go to the primary after the user has"
+                                + " been written, in milliseconds. Should exceed the replication"
+                                + " lag.",
+                        ConfigurateHelper::getLong);
+    }
+}
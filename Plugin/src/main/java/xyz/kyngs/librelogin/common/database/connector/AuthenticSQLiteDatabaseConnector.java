@@ -10,85 +10,317 @@ import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.jetbrains.annotations.Nullable;
 import xyz.kyngs.librelogin.api.database.connector.SQLiteDatabaseConnector;
 import xyz.kyngs.librelogin.api.util.ThrowableFunction;
 import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
 import xyz.kyngs.librelogin.common.config.ConfigurateHelper;
 import xyz.kyngs.librelogin.common.config.key.ConfigurationKey;
 
-public class AuthenticSQLiteDatabaseConnector
-        extends AuthenticDatabaseConnector<SQLException, Connection>
+/**
+ * Connector to an SQLite database file.
+ *
+ * <p>In the performance mode, the database is switched to WAL journaling. SQLite allows only a
+ * single writer at a time, so all writes are passed to one writer thread, which runs the queued
+ * writes in a shared transaction, each in its own savepoint. Reads use a separate pool of read-only
+ * connections, which do not wait for the writer.
+ */
+public class AuthenticSQLiteDatabaseConnector extends AuthenticSQLDatabaseConnector
         implements SQLiteDatabaseConnector {
 
-    private final HikariConfig hikariConfig;
-    private HikariDataSource dataSource;
+    private static final int MAX_WRITE_BATCH = 128;
+
+    private final boolean performanceMode;
+    private final @Nullable HikariConfig readConfig;
+    private final BlockingQueue<WriteTask<?>> writeQueue;
+    private @Nullable HikariDataSource readDataSource;
+    private @Nullable Thread writerThread;
+    private @Nullable Connection writerConnection;
+    private boolean writing;
 
     public AuthenticSQLiteDatabaseConnector(AuthenticLibreLogin<?, ?> plugin, String prefix) {
-        super(plugin, prefix);
+        super(plugin, prefix, "SQLite");
 
-        this.hikariConfig = new HikariConfig();
+        var url =
+                "jdbc:sqlite:"
+                        + plugin.getDataFolder().getAbsolutePath()
+                        + "/"
+                        + get(Configuration.PATH);
 
-        hikariConfig.setPoolName("LibreLogin SQLite Pool");
         hikariConfig.setDriverClassName("org.sqlite.JDBC");
         hikariConfig.setMaxLifetime(60000);
-        hikariConfig.addDataSourceProperty("cachePrepStmts", "true");
-        hikariConfig.addDataSourceProperty("prepStmtCacheSize", "250");
-        hikariConfig.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        hikariConfig.setJdbcUrl(url);
 
-        hikariConfig.setJdbcUrl(
-                "jdbc:sqlite:"
-                        + plugin.getDataFolder().getAbsolutePath()
-                        + "/"
-                        + get(Configuration.PATH));
+        this.performanceMode = get(Configuration.PERFORMANCE_MODE);
+        this.writeQueue = new LinkedBlockingQueue<>();
+
+        if (performanceMode) {
+            readConfig = new HikariConfig();
+            readConfig.setPoolName("LibreLogin SQLite Read Pool");
+            readConfig.setDriverClassName("org.sqlite.JDBC");
+            readConfig.setMaxLifetime(60000);
+            readConfig.setJdbcUrl(url);
+            readConfig.setMaximumPoolSize(hikariConfig.getMaximumPoolSize());
+            if (hikariConfig.getMinimumIdle() >= 0) {
+                readConfig.setMinimumIdle(hikariConfig.getMinimumIdle());
+            }
+            readConfig.setConnectionTimeout(hikariConfig.getConnectionTimeout());
+            readConfig.setLeakDetectionThreshold(hikariConfig.getLeakDetectionThreshold());
+            // Waits for a connection happen in the read pool, the writer never waits
+            readConfig.setMetricsTrackerFactory(getPoolMetrics());
+            applyPragmas(readConfig);
+            // SQLITE_OPEN_READONLY, the driver refuses to change the flag once connected, so Hikari
+            // must expect it as well
+            readConfig.addDataSourceProperty("open_mode", "1");
+            readConfig.setReadOnly(true);
+
+            hikariConfig.setMetricsTrackerFactory(null);
+            hikariConfig.setMaximumPoolSize(1);
+            hikariConfig.setMinimumIdle(1);
+            applyPragmas(hikariConfig);
+            hikariConfig.addDataSourceProperty("journal_mode", "WAL");
+        } else {
+            readConfig = null;
+        }
+    }
+
+    private void applyPragmas(HikariConfig config) {
+        config.addDataSourceProperty("synchronous", "NORMAL");
+        config.addDataSourceProperty(
+                "busy_timeout", String.valueOf(get(Configuration.BUSY_TIMEOUT)));
+        config.addDataSourceProperty("cache_size", String.valueOf(get(Configuration.CACHE_SIZE)));
+        config.addDataSourceProperty("mmap_size", String.valueOf(get(Configuration.MMAP_SIZE)));
+    }
+
+    @Override
+    public int getPoolSize() {
+        return readConfig == null ? super.getPoolSize() : readConfig.getMaximumPoolSize() + 1;
     }
 
     @Override
     public void connect() throws SQLException {
-        dataSource = new HikariDataSource(hikariConfig);
-        obtainInterface().close(); // Verify connection
-        connected = true;
+        super.connect();
+
+        if (!performanceMode) return;
+
+        readDataSource = new HikariDataSource(readConfig);
+
+        var thread = new Thread(this::writeLoop, "LibreLogin SQLite Writer");
+        thread.setDaemon(true);
+        writerThread = thread;
+        writing = true;
+        thread.start();
     }
 
     @Override
     public void disconnect() throws SQLException {
-        connected = false;
-        dataSource.close();
+        var thread = writerThread;
+        if (thread != null) {
+            synchronized (writeQueue) {
+                writing = false;
+                writeQueue.add(WriteTask.STOP);
+            }
+            try {
+                thread.join(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        super.disconnect();
+
+        if (readDataSource != null) readDataSource.close();
     }
 
     @Override
-    public Connection obtainInterface() throws SQLException, IllegalStateException {
+    public <V> V runReadQuery(ThrowableFunction<Connection, V, SQLException> function)
+            throws IllegalStateException {
+        if (readDataSource == null) return runQuery(function);
         if (!connected()) throw new IllegalStateException("Not connected to the database!");
-        return dataSource.getConnection();
+        return run(readDataSource::getConnection, function);
+    }
+
+    @Override
+    public <V> V streamReadQuery(ThrowableFunction<Connection, V, SQLException> function)
+            throws IllegalStateException {
+        return runReadQuery(function);
     }
 
     @Override
     public <V> V runQuery(ThrowableFunction<Connection, V, SQLException> function)
             throws IllegalStateException {
+        if (writerThread != null && Thread.currentThread() == writerThread) {
+            // Nested call from a write, it has to share the connection of the running batch
+            try {
+                return function.apply(writerConnection);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        var task = new WriteTask<>(function);
+
+        synchronized (writeQueue) {
+            if (!writing) return super.runQuery(function);
+            writeQueue.add(task);
+        }
+
         try {
-            try (var connection = obtainInterface()) {
-                return function.apply(connection);
+            return task.future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            if (e.getCause() instanceof Error error) throw error;
+            throw e;
+        }
+    }
+
+    private void writeLoop() {
+        var batch = new ArrayList<WriteTask<?>>(MAX_WRITE_BATCH);
+        var running = true;
+
+        while (running) {
+            try {
+                batch.add(writeQueue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            writeQueue.drainTo(batch, MAX_WRITE_BATCH - 1);
+
+            // Finish the writes queued before the stop request, reject the ones after it
+            var stop = batch.indexOf(WriteTask.STOP);
+            if (stop >= 0) {
+                running = false;
+                batch.subList(stop, batch.size()).clear();
+            }
+
+            if (!batch.isEmpty()) writeBatch(batch);
+            batch.clear();
+        }
+
+        var rejected = new ArrayList<WriteTask<?>>();
+        writeQueue.drainTo(rejected);
+        for (WriteTask<?> task : rejected) {
+            task.future.completeExceptionally(
+                    new IllegalStateException("Not connected to the database!"));
+        }
+    }
+
+    private void writeBatch(List<WriteTask<?>> batch) {
+        try {
+            run(
+                    this::obtainInterface,
+                    connection -> {
+                        writerConnection = connection;
+                        try {
+                            connection.setAutoCommit(false);
+                            try {
+                                for (WriteTask<?> task : batch) {
+                                    task.run(connection);
+                                }
+                                connection.commit();
+                            } catch (SQLException e) {
+                                connection.rollback();
+                                throw e;
+                            } finally {
+                                connection.setAutoCommit(true);
+                            }
+                        } finally {
+                            writerConnection = null;
+                        }
+                        return null;
+                    });
+        } catch (Throwable e) {
+            for (WriteTask<?> task : batch) {
+                task.failure = e;
+            }
+        }
+
+        // Only report the results once they have been committed
+        for (WriteTask<?> task : batch) {
+            task.complete();
+        }
+    }
+
+    /** A write waiting for the writer thread. */
+    private static final class WriteTask<V> {
+
+        private static final WriteTask<?> STOP = new WriteTask<>(connection -> null);
+
+        private final ThrowableFunction<Connection, V, SQLException> function;
+        private final CompletableFuture<V> future;
+        private V result;
+        private Throwable failure;
+
+        private WriteTask(ThrowableFunction<Connection, V, SQLException> function) {
+            this.function = function;
+            this.future = new CompletableFuture<>();
+        }
+
+        private void run(Connection connection) throws SQLException {
+            var savepoint = connection.setSavepoint();
+            try {
+                result = function.apply(connection);
+                connection.releaseSavepoint(savepoint);
+            } catch (SQLException | RuntimeException e) {
+                // Undo just this write, the others in the batch are unaffected
+                connection.rollback(savepoint);
+                failure = e instanceof SQLException ? new RuntimeException(e) : e;
+            }
+        }
+
+        private void complete() {
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                future.complete(result);
             }
-        } catch (SQLTransientConnectionException e) {
-            plugin.getLogger()
-                    .error(
-                            "!! LOST CONNECTION TO THE DATABASE, THE PROXY IS GOING TO SHUT DOWN TO"
-                                    + " PREVENT DAMAGE !!");
-            e.printStackTrace();
-            System.exit(1);
-            // Won't return anyway
-            return null;
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
         }
     }
 
-    public static final class Configuration {
+    public static final class Configuration extends PoolConfiguration {
         public static final ConfigurationKey<String> PATH =
                 new ConfigurationKey<>(
                         "path",
                         "user-data.db",
                         "Path to SQLite database file. Relative to plugin datafolder.",
                         ConfigurateHelper::getString);
+
+        public static final ConfigurationKey<Boolean> PERFORMANCE_MODE =
+                new ConfigurationKey<>(
+                        "performance-mode",
+                        true,
+                        "Whether to use WAL journaling with a single writer thread and a pool of"
+                                + " read-only connections. Greatly improves concurrent logins.",
+                        ConfigurateHelper::getBoolean);
+
+        public static final ConfigurationKey<Integer> BUSY_TIMEOUT =
+                new ConfigurationKey<>(
+                        "busy-timeout",
+                        5000,
+                        "How long to wait for a locked database in milliseconds. Only used in the"
+                                + " performance mode.",
+                        ConfigurateHelper::getInt);
+
+        public static final ConfigurationKey<Integer> CACHE_SIZE =
+                new ConfigurationKey<>(
+                        "cache-size",
+                        -16000,
+                        "The page cache size of each connection. Negative values are in KiB,"
+                                + " positive in pages. Only used in the performance mode.",
+                        ConfigurateHelper::getInt);
+
+        public static final ConfigurationKey<Long> MMAP_SIZE =
+                new ConfigurationKey<>(
+                        "mmap-size",
+                        268435456L,
+                        "How many bytes of the database file to memory-map, 0 disables it. Only"
+                                + " used in the performance mode.",
+                        ConfigurateHelper::getLong);
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.connector;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Stops calls to the database after several consecutive connection failures. After the open
+ * duration elapses, a single call is let through to probe the database, if it succeeds, the breaker
+ * closes again.
+ */
+public class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openDuration;
+    private final BiConsumer<State, State> listener;
+    private State state;
+    private int failures;
+    private long openedAt;
+    private long lastFailure;
+
+    /**
+     * @param failureThreshold The amount of consecutive failures which opens the breaker
+     * @param openDuration How long the breaker stays open before probing, in milliseconds
+     * @param listener Called with the old and the new state whenever the state changes
+     */
+    public CircuitBreaker(
+            int failureThreshold, long openDuration, BiConsumer<State, State> listener) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDuration = openDuration;
+        this.listener = listener;
+        this.state = State.CLOSED;
+    }
+
+    /**
+     * Checks whether a call may proceed. Moves an open breaker to half-open once the open duration
+     * has elapsed, only the caller which made the transition is allowed through.
+     *
+     * @return Whether the call may proceed
+     */
+    public boolean allowRequest() {
+        State old;
+        synchronized (this) {
+            if (state == State.CLOSED) return true;
+            if (state == State.HALF_OPEN || System.currentTimeMillis() - openedAt < openDuration) {
+                return false;
+            }
+            old = transition(State.HALF_OPEN);
+        }
+        listener.accept(old, State.HALF_OPEN);
+        return true;
+    }
+
+    /**
+     * Checks whether a call would currently be allowed, without changing the state.
+     *
+     * @return Whether the database is believed to be reachable
+     */
+    public synchronized boolean isAvailable() {
+        return state == State.CLOSED
+                || (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration);
+    }
+
+    public void recordSuccess() {
+        State old;
+        synchronized (this) {
+            failures = 0;
+            if (state == State.CLOSED) return;
+            old = transition(State.CLOSED);
+        }
+        listener.accept(old, State.CLOSED);
+    }
+
+    public void recordFailure() {
+        State old;
+        synchronized (this) {
+            failures++;
+            lastFailure = System.currentTimeMillis();
+            if (state == State.OPEN) return;
+            if (state == State.CLOSED && failures < failureThreshold) return;
+            openedAt = lastFailure;
+            old = transition(State.OPEN);
+        }
+        listener.accept(old, State.OPEN);
+    }
+
+    private State transition(State state) {
+        var old = this.state;
+        this.state = state;
+        return old;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return The time of the last failure in milliseconds since the epoch, or 0 if there was none
+     */
+    public synchronized long getLastFailure() {
+        return lastFailure;
+    }
+
+    public enum State {
+        /** Calls pass through. */
+        CLOSED,
+        /** Calls are rejected right away. */
+        OPEN,
+        /** A single call is probing whether the database is back. */
+        HALF_OPEN
+    }
+}
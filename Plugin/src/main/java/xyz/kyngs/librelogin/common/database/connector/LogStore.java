@@ -0,0 +1,697 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.connector;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.api.Logger;
+import xyz.kyngs.librelogin.api.database.User;
+import xyz.kyngs.librelogin.common.database.AuthenticUser;
+
+/**
+ * An embedded storage of users, made of a {@link UserLog} and {@link MappedHashIndex}es by UUID,
+ * lowercase name, premium UUID and IP.
+ *
+ * <p>Every write appends the full state of the user, or a tombstone, to the log, and points the
+ * indexes to it. A write is only on the disk after {@link #sync()}, writers waiting for it
+ * concurrently share a single flush. A lookup is a probe of the mapped index and a single read of
+ * the log, both usually served from the page cache. The indexes are only trusted if they have been
+ * closed cleanly, otherwise they are rebuilt by replaying the log, which also cuts off a torn
+ * record left by a crash.
+ *
+ * <p>Once enough records have been superseded, the live records are copied to a new generation of
+ * files in the background, while reads and writes continue on the current one. Writes made during
+ * the copy are replayed to the new generation, which then replaces the current one. The {@code
+ * CURRENT} file names the generation in use, so a crash during the compaction leaves the previous
+ * generation intact.
+ */
+public class LogStore implements Closeable {
+
+    private static final Pattern GENERATION_FILE = Pattern.compile("[a-z]+-(\\d+)\\.(log|idx)");
+
+    private final Path directory;
+    private final Logger logger;
+    private final long compactionThreshold;
+    private final boolean syncWrites;
+    private final ReentrantReadWriteLock lock;
+    // Held while flushing the log, and while closing a log which has been replaced
+    private final Object syncLock;
+    private final ExecutorService compactor;
+    private final AtomicBoolean compacting;
+    private volatile Generation current;
+
+    private LogStore(
+            Path directory,
+            Logger logger,
+            long compactionThreshold,
+            boolean syncWrites,
+            Generation current) {
+        this.directory = directory;
+        this.logger = logger;
+        this.compactionThreshold = compactionThreshold;
+        this.syncWrites = syncWrites;
+        this.lock = new ReentrantReadWriteLock();
+        this.syncLock = new Object();
+        this.compactor =
+                Executors.newSingleThreadExecutor(
+                        runnable -> {
+                            var thread = new Thread(runnable, "LibreLogin Log Compactor");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        this.compacting = new AtomicBoolean();
+        this.current = current;
+    }
+
+    /**
+     * Opens the store in the given directory, recovering it if it has not been closed cleanly.
+     *
+     * @param directory The directory
+     * @param logger The logger
+     * @param compactionThreshold After how many superseded records to compact the log
+     * @param syncWrites Whether {@link #sync()} waits for the writes to reach the disk
+     * @return The store
+     * @throws IOException If the store cannot be opened
+     */
+    public static LogStore open(
+            Path directory, Logger logger, long compactionThreshold, boolean syncWrites)
+            throws IOException {
+        Files.createDirectories(directory);
+
+        var pointer = directory.resolve("CURRENT");
+        long generation;
+        if (Files.exists(pointer)) {
+            generation = Long.parseLong(Files.readString(pointer).trim());
+        } else {
+            generation = 0;
+            writePointer(directory, generation);
+        }
+
+        deleteOtherGenerations(directory, generation);
+
+        var opened = Generation.open(directory, generation, logger);
+        var store = new LogStore(directory, logger, compactionThreshold, syncWrites, opened);
+        store.compactIfNeeded();
+        return store;
+    }
+
+    public @Nullable AuthenticUser getByUUID(UUID uuid) throws IOException {
+        lock.readLock().lock();
+        try {
+            return current.getByUUID(uuid);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up a user by their name.
+     *
+     * @param name The lowercase name
+     * @return The user, or null if there is no such user
+     * @throws IOException If the log cannot be read
+     */
+    public @Nullable AuthenticUser getByName(String name) throws IOException {
+        lock.readLock().lock();
+        try {
+            return current.getByName(name);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public @Nullable AuthenticUser getByPremiumUUID(UUID premiumUUID) throws IOException {
+        lock.readLock().lock();
+        try {
+            return current.getByPremiumUUID(premiumUUID);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up the users with an IP.
+     *
+     * @param ip The IP
+     * @return The users
+     * @throws IOException If the log cannot be read
+     */
+    public List<AuthenticUser> getByIP(String ip) throws IOException {
+        lock.readLock().lock();
+        try {
+            return current.getByIP(ip);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads all the users, in the order of the log. Writes wait until all the users have been read.
+     *
+     * @param consumer Receives the users
+     * @throws IOException If the log cannot be read
+     */
+    public void forEach(Consumer<AuthenticUser> consumer) throws IOException {
+        lock.readLock().lock();
+        try {
+            for (var offset : current.uuids.offsets()) {
+                consumer.accept(current.readUser(offset));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return current.uuids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a user, replacing the one with the same UUID. The caller ensures no other user holds
+     * the same name or premium UUID. The user is on the disk after the next {@link #sync()}.
+     *
+     * @param user The user
+     * @throws IOException If the user cannot be written
+     */
+    public void put(User user) throws IOException {
+        var payload = UserCodec.encode(user);
+        lock.writeLock().lock();
+        try {
+            current.append(UserLog.PUT, payload);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Removes a user, if it exists. The removal is on the disk after the next {@link #sync()}.
+     *
+     * @param uuid The UUID of the user
+     * @throws IOException If the tombstone cannot be written
+     */
+    public void delete(UUID uuid) throws IOException {
+        var bytes = new ByteArrayOutputStream(16);
+        UserCodec.writeUUID(new DataOutputStream(bytes), uuid);
+        lock.writeLock().lock();
+        try {
+            if (current.offsetOf(uuid) == 0) return;
+            current.append(UserLog.DELETE, bytes.toByteArray());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Waits until all the writes made so far are on the disk, unless syncing the writes has been
+     * disabled. Writers which wait concurrently share a single flush.
+     *
+     * @throws IOException If the log cannot be written
+     */
+    public void sync() throws IOException {
+        if (!syncWrites) return;
+        var generation = current;
+        var upTo = generation.log.end();
+        synchronized (syncLock) {
+            // A compaction has written the records to the new generation, and flushed it
+            if (generation != current) return;
+            generation.log.sync(upTo);
+        }
+    }
+
+    /** Waits for a running compaction, then writes everything to the disk and closes the files. */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            if (!compactor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("The log compaction did not finish in time, it will be redone");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        lock.writeLock().lock();
+        try {
+            current.checkpoint();
+            current.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void compactIfNeeded() {
+        var generation = current;
+        var garbage = generation.log.records() - generation.uuids.size();
+        if (garbage < compactionThreshold || garbage < generation.uuids.size()) return;
+        if (!compacting.compareAndSet(false, true)) return;
+
+        try {
+            compactor.execute(
+                    () -> {
+                        try {
+                            compact();
+                        } catch (IOException | UncheckedIOException e) {
+                            logger.warn("Failed to compact the user log: " + e.getMessage());
+                        } finally {
+                            compacting.set(false);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            // The store is being closed
+            compacting.set(false);
+        }
+    }
+
+    private void compact() throws IOException {
+        var source = current;
+        long end;
+
+        lock.readLock().lock();
+        try {
+            end = source.log.end();
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        var target = Generation.create(directory, source.log.generation() + 1);
+
+        try {
+            // The records before the end never change, only the indexes need the lock
+            source.log.scan(
+                    UserLog.HEADER_SIZE,
+                    end,
+                    (offset, type, payload) -> {
+                        if (type != UserLog.PUT) return;
+                        boolean live;
+                        lock.readLock().lock();
+                        try {
+                            live = source.offsetOf(readUUID(payload)) == offset;
+                        } finally {
+                            lock.readLock().unlock();
+                        }
+                        if (live) target.append(type, payload);
+                    });
+
+            lock.writeLock().lock();
+            try {
+                // Catch up with the writes made during the copy
+                source.log.scan(
+                        end,
+                        source.log.end(),
+                        (offset, type, payload) -> target.append(type, payload));
+
+                target.checkpoint();
+                target.markDirty();
+                writePointer(directory, target.log.generation());
+                current = target;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            target.close();
+            target.deleteFiles();
+            throw e;
+        }
+
+        logger.info(
+                "Compacted the user log from %s to %s records"
+                        .formatted(source.log.records(), target.log.records()));
+
+        synchronized (syncLock) {
+            source.close();
+        }
+        source.deleteFiles();
+    }
+
+    private static void writePointer(Path directory, long generation) throws IOException {
+        var temp = directory.resolve("CURRENT.tmp");
+        Files.writeString(temp, String.valueOf(generation), StandardCharsets.UTF_8);
+        Files.move(
+                temp,
+                directory.resolve("CURRENT"),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void deleteOtherGenerations(Path directory, long generation) throws IOException {
+        try (var files = Files.list(directory)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                var matcher = GENERATION_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches() && Long.parseLong(matcher.group(1)) != generation) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static UUID readUUID(byte[] payload) throws IOException {
+        return UserCodec.readUUID(new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+
+    private static AuthenticUser decodeUser(byte[] payload) throws IOException {
+        return UserCodec.decode(new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+
+    private static long hash(UUID uuid) {
+        return mix(uuid.getMostSignificantBits() * 31 + uuid.getLeastSignificantBits());
+    }
+
+    private static long hash(String name) {
+        // FNV-1a
+        var hash = 0xcbf29ce484222325L;
+        for (var i = 0; i < name.length(); i++) {
+            hash ^= name.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static @Nullable String nameKey(User user) {
+        return user.getLastNickname() == null ? null : user.getLastNickname().toLowerCase();
+    }
+
+    /** A log with its indexes. */
+    private static final class Generation implements Closeable {
+
+        private final Path directory;
+        private final UserLog log;
+        private final MappedHashIndex uuids;
+        private final MappedHashIndex names;
+        private final MappedHashIndex premiumUUIDs;
+        private final MappedHashIndex ips;
+
+        private Generation(
+                Path directory,
+                UserLog log,
+                MappedHashIndex uuids,
+                MappedHashIndex names,
+                MappedHashIndex premiumUUIDs,
+                MappedHashIndex ips) {
+            this.directory = directory;
+            this.log = log;
+            this.uuids = uuids;
+            this.names = names;
+            this.premiumUUIDs = premiumUUIDs;
+            this.ips = ips;
+        }
+
+        private static Generation open(Path directory, long generation, Logger logger)
+                throws IOException {
+            var opened = openFiles(directory, generation);
+            var log = opened.log;
+            var complete =
+                    opened.uuids.isComplete(generation, log.end())
+                            && opened.names.isComplete(generation, log.end())
+                            && opened.premiumUUIDs.isComplete(generation, log.end())
+                            && opened.ips.isComplete(generation, log.end());
+
+            if (complete) {
+                log.setRecords(opened.uuids.checkpointRecords());
+            } else if (log.end() == UserLog.HEADER_SIZE) {
+                // A new log, the indexes have just been created as well
+                opened.clear();
+            } else {
+                logger.info("The user log has not been closed cleanly, replaying it...");
+                opened.clear();
+                var recovery = log.recover(UserLog.HEADER_SIZE, opened::index);
+                if (recovery.skipped() > 0) {
+                    logger.error(
+                            ("Skipped %s bytes of damaged records in the user log, the users"
+                                            + " written there may have reverted to an older"
+                                            + " state")
+                                    .formatted(recovery.skipped()));
+                }
+                if (recovery.cutOff() > 0) {
+                    logger.warn(
+                            "Cut off a torn record of %s bytes at the end of the user log"
+                                    .formatted(recovery.cutOff()));
+                }
+                logger.info(
+                        "Replayed %s records of %s users"
+                                .formatted(log.records(), opened.uuids.size()));
+            }
+
+            opened.markDirty();
+            return opened;
+        }
+
+        private static Generation create(Path directory, long generation) throws IOException {
+            deleteFiles(directory, generation);
+            var created = openFiles(directory, generation);
+            created.markDirty();
+            return created;
+        }
+
+        private static Generation openFiles(Path directory, long generation) throws IOException {
+            var log = UserLog.open(path(directory, "users", generation, "log"), generation);
+            try {
+                return new Generation(
+                        directory,
+                        log,
+                        MappedHashIndex.open(path(directory, "uuid", generation, "idx")),
+                        MappedHashIndex.open(path(directory, "name", generation, "idx")),
+                        MappedHashIndex.open(path(directory, "premium", generation, "idx")),
+                        MappedHashIndex.open(path(directory, "ip", generation, "idx")));
+            } catch (IOException | RuntimeException e) {
+                log.close();
+                throw e;
+            }
+        }
+
+        private static Path path(Path directory, String name, long generation, String type) {
+            return directory.resolve(name + "-" + generation + "." + type);
+        }
+
+        private void append(byte type, byte[] payload) throws IOException {
+            index(log.append(type, payload), type, payload);
+        }
+
+        /** Points the indexes to a record, which is the latest state of its user. */
+        private void index(long offset, byte type, byte[] payload) throws IOException {
+            if (type == UserLog.PUT) {
+                var user = decodeUser(payload);
+                var previousOffset = offsetOf(user.getUuid());
+                var previous = previousOffset == 0 ? null : readUser(previousOffset);
+
+                uuids.put(hash(user.getUuid()), offset, previousOffset);
+
+                var previousName = previous == null ? null : nameKey(previous);
+                var name = nameKey(user);
+                if (previousName != null && !previousName.equals(name)) {
+                    names.remove(hash(previousName), previousOffset);
+                }
+                if (name != null) {
+                    names.put(hash(name), offset, name.equals(previousName) ? previousOffset : 0);
+                }
+
+                var previousPremium = previous == null ? null : previous.getPremiumUUID();
+                var premium = user.getPremiumUUID();
+                if (previousPremium != null && !previousPremium.equals(premium)) {
+                    premiumUUIDs.remove(hash(previousPremium), previousOffset);
+                }
+                if (premium != null) {
+                    premiumUUIDs.put(
+                            hash(premium),
+                            offset,
+                            premium.equals(previousPremium) ? previousOffset : 0);
+                }
+
+                var previousIP = previous == null ? null : previous.getIp();
+                var ip = user.getIp();
+                if (previousIP != null && !previousIP.equals(ip)) {
+                    ips.remove(hash(previousIP), previousOffset);
+                }
+                if (ip != null) {
+                    ips.put(hash(ip), offset, ip.equals(previousIP) ? previousOffset : 0);
+                }
+            } else if (type == UserLog.DELETE) {
+                var uuid = readUUID(payload);
+                var previousOffset = offsetOf(uuid);
+                if (previousOffset == 0) return;
+                var previous = readUser(previousOffset);
+
+                uuids.remove(hash(uuid), previousOffset);
+                var name = nameKey(previous);
+                if (name != null) names.remove(hash(name), previousOffset);
+                if (previous.getPremiumUUID() != null) {
+                    premiumUUIDs.remove(hash(previous.getPremiumUUID()), previousOffset);
+                }
+                if (previous.getIp() != null) ips.remove(hash(previous.getIp()), previousOffset);
+            } else {
+                throw new IOException("Unknown log record type " + type);
+            }
+        }
+
+        /** Returns the offset of the latest record of a user, or 0 if there is no such user. */
+        private long offsetOf(UUID uuid) {
+            var offset =
+                    uuids.find(
+                            hash(uuid),
+                            candidate ->
+                                    uuid.equals(readUUID(readPayload(candidate)))
+                                            ? candidate
+                                            : null);
+            return offset == null ? 0 : offset;
+        }
+
+        private @Nullable AuthenticUser getByUUID(UUID uuid) {
+            return uuids.find(
+                    hash(uuid),
+                    offset -> {
+                        var user = readUserUnchecked(offset);
+                        return uuid.equals(user.getUuid()) ? user : null;
+                    });
+        }
+
+        private @Nullable AuthenticUser getByName(String name) {
+            return names.find(
+                    hash(name),
+                    offset -> {
+                        var user = readUserUnchecked(offset);
+                        return name.equals(nameKey(user)) ? user : null;
+                    });
+        }
+
+        private @Nullable AuthenticUser getByPremiumUUID(UUID premiumUUID) {
+            return premiumUUIDs.find(
+                    hash(premiumUUID),
+                    offset -> {
+                        var user = readUserUnchecked(offset);
+                        return premiumUUID.equals(user.getPremiumUUID()) ? user : null;
+                    });
+        }
+
+        private List<AuthenticUser> getByIP(String ip) {
+            var users = new ArrayList<AuthenticUser>();
+            ips.forEach(
+                    hash(ip),
+                    offset -> {
+                        var user = readUserUnchecked(offset);
+                        if (ip.equals(user.getIp())) users.add(user);
+                    });
+            return users;
+        }
+
+        private AuthenticUser readUser(long offset) throws IOException {
+            var record = log.read(offset);
+            if (record.type() != UserLog.PUT) {
+                throw new IOException("The index points to a tombstone at offset " + offset);
+            }
+            return decodeUser(record.payload());
+        }
+
+        private AuthenticUser readUserUnchecked(long offset) {
+            try {
+                return readUser(offset);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private byte[] readPayload(long offset) {
+            try {
+                return log.read(offset).payload();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static UUID readUUID(byte[] payload) {
+            try {
+                return LogStore.readUUID(payload);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void clear() {
+            uuids.clear();
+            names.clear();
+            premiumUUIDs.clear();
+            ips.clear();
+        }
+
+        private void markDirty() {
+            uuids.markDirty();
+            names.markDirty();
+            premiumUUIDs.markDirty();
+            ips.markDirty();
+        }
+
+        /** Writes the log and the indexes to the disk, and marks the indexes as complete. */
+        private void checkpoint() throws IOException {
+            log.force();
+            var generation = log.generation();
+            uuids.checkpoint(generation, log.end(), log.records());
+            names.checkpoint(generation, log.end(), log.records());
+            premiumUUIDs.checkpoint(generation, log.end(), log.records());
+            ips.checkpoint(generation, log.end(), log.records());
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (log;
+                    uuids;
+                    names;
+                    premiumUUIDs;
+                    ips) {
+                // Closes all of them, even if one fails
+            }
+        }
+
+        private void deleteFiles() {
+            try {
+                deleteFiles(directory, log.generation());
+            } catch (IOException e) {
+                // Deleted on the next startup
+            }
+        }
+
+        private static void deleteFiles(Path directory, long generation) throws IOException {
+            for (var name : new String[] {"users", "uuid", "name", "premium", "ip"}) {
+                Files.deleteIfExists(
+                        path(directory, name, generation, name.equals("users") ? "log" : "idx"));
+            }
+        }
+    }
+}
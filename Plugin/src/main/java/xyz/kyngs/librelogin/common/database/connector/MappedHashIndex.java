@@ -0,0 +1,333 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.connector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A memory-mapped hash table from 64-bit key hashes to log offsets.
+ *
+ * <p>The table uses open addressing with linear probing. Keys themselves are not stored, so
+ * different keys may share a hash, the caller verifies the key against the record at the offset. A
+ * key may also have several entries, as long as they point to different offsets. The header
+ * remembers up to which offset of which log generation the table is complete, and whether it has
+ * been closed cleanly. A table which has not been closed cleanly cannot be trusted, it has to be
+ * rebuilt from the log.
+ */
+final class MappedHashIndex implements Closeable {
+
+    private static final int MAGIC = 0x4C4C4958;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final double MAX_LOAD = 0.7;
+
+    private static final long EMPTY = 0;
+    // Offsets are always past the log header, so neither marker is a valid offset
+    private static final long DELETED = -1;
+
+    private static final int MAGIC_POSITION = 0;
+    private static final int VERSION_POSITION = 4;
+    private static final int CAPACITY_POSITION = 8;
+    private static final int CLEAN_POSITION = 12;
+    private static final int GENERATION_POSITION = 16;
+    private static final int CHECKPOINT_POSITION = 24;
+    private static final int RECORDS_POSITION = 32;
+
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int size;
+    // Slots which are not empty, deleted ones included
+    private int used;
+
+    private MappedHashIndex(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Opens a table, creating it if it does not exist.
+     *
+     * @param path The file
+     * @return The table
+     * @throws IOException If the file cannot be opened
+     */
+    static MappedHashIndex open(Path path) throws IOException {
+        var channel =
+                FileChannel.open(
+                        path,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+        try {
+            var index = new MappedHashIndex(channel);
+            index.load();
+            return index;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void load() throws IOException {
+        var fileSize = channel.size();
+        if (fileSize >= HEADER_SIZE) {
+            var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            var storedCapacity = header.getInt(CAPACITY_POSITION);
+            if (header.getInt(MAGIC_POSITION) == MAGIC
+                    && header.getInt(VERSION_POSITION) == VERSION
+                    && storedCapacity >= INITIAL_CAPACITY
+                    && Integer.bitCount(storedCapacity) == 1
+                    && fileSize == HEADER_SIZE + (long) storedCapacity * SLOT_SIZE) {
+                map(storedCapacity);
+                countSlots();
+                return;
+            }
+        }
+        // Unknown contents, start over, the caller rebuilds it as it is not clean
+        channel.truncate(0);
+        map(INITIAL_CAPACITY);
+        buffer.putInt(MAGIC_POSITION, MAGIC);
+        buffer.putInt(VERSION_POSITION, VERSION);
+    }
+
+    private void map(int capacity) throws IOException {
+        this.capacity = capacity;
+        this.buffer =
+                channel.map(
+                        FileChannel.MapMode.READ_WRITE,
+                        0,
+                        HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        buffer.putInt(CAPACITY_POSITION, capacity);
+    }
+
+    private void countSlots() {
+        size = 0;
+        used = 0;
+        for (var slot = 0; slot < capacity; slot++) {
+            var offset = offsetAt(slot);
+            if (offset == EMPTY) continue;
+            used++;
+            if (offset != DELETED) size++;
+        }
+    }
+
+    /**
+     * Returns whether the table has been closed cleanly, and covers exactly the given log.
+     *
+     * @param generation The generation of the log
+     * @param end The end of the log
+     * @return Whether the table can be used as is
+     */
+    boolean isComplete(long generation, long end) {
+        return buffer.getInt(CLEAN_POSITION) == 1
+                && buffer.getLong(GENERATION_POSITION) == generation
+                && buffer.getLong(CHECKPOINT_POSITION) == end;
+    }
+
+    /** Returns the amount of log records, superseded included, the table was checkpointed at. */
+    long checkpointRecords() {
+        return buffer.getLong(RECORDS_POSITION);
+    }
+
+    /** Marks the table as being modified, until the next {@link #checkpoint}. */
+    void markDirty() {
+        buffer.putInt(CLEAN_POSITION, 0);
+        buffer.force();
+    }
+
+    /**
+     * Writes the table to the disk, and marks it as complete up to the given end of the log.
+     *
+     * @param generation The generation of the log
+     * @param end The end of the log
+     * @param records The amount of records in the log
+     */
+    void checkpoint(long generation, long end, long records) {
+        buffer.putLong(GENERATION_POSITION, generation);
+        buffer.putLong(CHECKPOINT_POSITION, end);
+        buffer.putLong(RECORDS_POSITION, records);
+        buffer.force();
+        buffer.putInt(CLEAN_POSITION, 1);
+        buffer.force();
+    }
+
+    /** Removes all the entries. */
+    void clear() {
+        for (var slot = 0; slot < capacity; slot++) {
+            setSlot(slot, 0, EMPTY);
+        }
+        size = 0;
+        used = 0;
+    }
+
+    /**
+     * Looks up the entries with the given hash.
+     *
+     * @param hash The hash of the key
+     * @param match Returns the value for the offset of a matching entry, or null if the entry
+     *     belongs to a different key
+     * @return The value of the first matching entry, or null if there is none
+     * @param <T> The type of the value
+     */
+    @Nullable
+    <T> T find(long hash, LongFunction<T> match) {
+        for (var slot = slotOf(hash); ; slot = next(slot)) {
+            var offset = offsetAt(slot);
+            if (offset == EMPTY) return null;
+            if (offset == DELETED || hashAt(slot) != hash) continue;
+            var value = match.apply(offset);
+            if (value != null) return value;
+        }
+    }
+
+    /**
+     * Passes the offsets of all the entries with the given hash to the consumer. The caller
+     * verifies the key of each.
+     *
+     * @param hash The hash of the key
+     * @param consumer Receives the offsets
+     */
+    void forEach(long hash, LongConsumer consumer) {
+        for (var slot = slotOf(hash); ; slot = next(slot)) {
+            var offset = offsetAt(slot);
+            if (offset == EMPTY) return;
+            if (offset != DELETED && hashAt(slot) == hash) consumer.accept(offset);
+        }
+    }
+
+    /**
+     * Points the entry of a key to a new offset, or adds it.
+     *
+     * @param hash The hash of the key
+     * @param offset The new offset
+     * @param previous The offset the entry of the key points to, or 0 if there is no entry
+     * @throws IOException If the table has to grow, and the file cannot be extended
+     */
+    void put(long hash, long offset, long previous) throws IOException {
+        if (previous != EMPTY) {
+            var slot = locate(hash, previous);
+            if (slot >= 0) {
+                setSlot(slot, hash, offset);
+                return;
+            }
+        }
+
+        if (used + 1 > capacity * MAX_LOAD) grow();
+
+        var slot = slotOf(hash);
+        while (offsetAt(slot) != EMPTY && offsetAt(slot) != DELETED) {
+            slot = next(slot);
+        }
+        if (offsetAt(slot) == EMPTY) used++;
+        setSlot(slot, hash, offset);
+        size++;
+    }
+
+    /**
+     * Removes the entry of a key.
+     *
+     * @param hash The hash of the key
+     * @param offset The offset the entry points to
+     */
+    void remove(long hash, long offset) {
+        var slot = locate(hash, offset);
+        if (slot < 0) return;
+        setSlot(slot, hash, DELETED);
+        size--;
+    }
+
+    /** Returns the offsets of all the entries, in ascending order. */
+    long[] offsets() {
+        var offsets = new long[size];
+        var count = 0;
+        for (var slot = 0; slot < capacity && count < offsets.length; slot++) {
+            var offset = offsetAt(slot);
+            if (offset != EMPTY && offset != DELETED) offsets[count++] = offset;
+        }
+        // Sequential reads of the log are much faster than random ones
+        Arrays.sort(offsets, 0, count);
+        return count == offsets.length ? offsets : Arrays.copyOf(offsets, count);
+    }
+
+    int size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int locate(long hash, long offset) {
+        for (var slot = slotOf(hash); ; slot = next(slot)) {
+            var current = offsetAt(slot);
+            if (current == EMPTY) return -1;
+            if (current == offset && hashAt(slot) == hash) return slot;
+        }
+    }
+
+    private void grow() throws IOException {
+        // Take out the entries, remap the file twice as large, and put them back
+        var hashes = new long[size];
+        var offsets = new long[size];
+        var count = 0;
+        for (var slot = 0; slot < capacity; slot++) {
+            var offset = offsetAt(slot);
+            if (offset == EMPTY || offset == DELETED) continue;
+            hashes[count] = hashAt(slot);
+            offsets[count++] = offset;
+        }
+
+        // Tombstones alone may fill the table, then there is no need to grow
+        var newCapacity = count + 1 > capacity * MAX_LOAD / 2 ? capacity * 2 : capacity;
+
+        clear();
+        if (newCapacity != capacity) map(newCapacity);
+
+        for (var i = 0; i < count; i++) {
+            var slot = slotOf(hashes[i]);
+            while (offsetAt(slot) != EMPTY) {
+                slot = next(slot);
+            }
+            setSlot(slot, hashes[i], offsets[i]);
+        }
+        size = count;
+        used = count;
+    }
+
+    private int slotOf(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & (capacity - 1);
+    }
+
+    private int next(int slot) {
+        return (slot + 1) & (capacity - 1);
+    }
+
+    private long hashAt(int slot) {
+        return buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private long offsetAt(int slot) {
+        return buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE + 8);
+    }
+
+    private void setSlot(int slot, long hash, long offset) {
+        buffer.putLong(HEADER_SIZE + slot * SLOT_SIZE, hash);
+        buffer.putLong(HEADER_SIZE + slot * SLOT_SIZE + 8, offset);
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.connector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.api.Logger;
+import xyz.kyngs.librelogin.api.database.User;
+import xyz.kyngs.librelogin.common.database.AuthenticUser;
+
+/**
+ * An append-only file persisting the users of the in-memory database.
+ *
+ * <p>Every write appends a checksummed record with the full state of the user, or a tombstone if
+ * the user has been deleted. Replaying the file from the start restores the latest state. A record
+ * cut short by a crash, or damaged otherwise, ends the replay, the file is cut off there. A write
+ * is only on the disk after {@link #sync()}, writers waiting for it concurrently share a single
+ * flush.
+ *
+ * <p>{@link #rewrite(Iterable)} replaces the file with one record per user, so the file does not
+ * grow forever. {@link #rewriteInBackground(Iterable)} does the same without blocking the writes,
+ * the records appended meanwhile are copied to the new file before it replaces the current one.
+ *
+ * <p>Except for {@link #sync()} and {@link #close()}, the methods must be called while holding the
+ * monitor of the snapshot.
+ */
+public class MemorySnapshot implements AutoCloseable {
+
+    private static final int MAGIC = 0x4C4C4D53;
+    // Version 1 had no checksums, it is still replayed
+    private static final byte VERSION = 2;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int HEADER_SIZE = 5;
+    // Users are a few hundred bytes, anything larger than this is garbage
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private final Path path;
+    private final Logger logger;
+    private final boolean syncWrites;
+    private final ExecutorService rewriter;
+    // Held while flushing the file, and while replacing it
+    private final Object syncLock;
+    private volatile @Nullable FileChannel output;
+    private long records;
+    // The records appended since a background rewrite started
+    private @Nullable List<byte[]> appendedDuringRewrite;
+    private volatile long appended;
+    private long synced;
+
+    /**
+     * Creates a snapshot, the file is not opened until it is {@link #rewrite(Iterable) rewritten}.
+     *
+     * @param path The file
+     * @param logger The logger
+     * @param syncWrites Whether {@link #sync()} waits for the writes to reach the disk
+     */
+    public MemorySnapshot(Path path, Logger logger, boolean syncWrites) {
+        this.path = path;
+        this.logger = logger;
+        this.syncWrites = syncWrites;
+        this.rewriter =
+                Executors.newSingleThreadExecutor(
+                        runnable -> {
+                            var thread = new Thread(runnable, "LibreLogin Snapshot Rewriter");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        this.syncLock = new Object();
+    }
+
+    /**
+     * Replays the file. Nothing is replayed if the file does not exist yet. The file is cut off at
+     * the first damaged record.
+     *
+     * @param put Receives the users which have been written
+     * @param delete Receives the UUIDs of the users which have been deleted
+     * @return The amount of records which have been replayed
+     * @throws IOException If the file cannot be read, or is not a snapshot
+     */
+    public long replay(Consumer<AuthenticUser> put, Consumer<UUID> delete) throws IOException {
+        if (!Files.exists(path)) return 0;
+
+        var replayed = 0L;
+        long valid = HEADER_SIZE;
+
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (input.readInt() != MAGIC) throw new IOException(path + " is not a snapshot");
+            var version = input.readByte();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            var checksummed = version != 1;
+
+            while (true) {
+                byte type;
+                try {
+                    type = input.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                var record = readRecord(input, type, checksummed);
+                if (record == null) {
+                    cutOff(valid);
+                    break;
+                }
+
+                try {
+                    var payload = new DataInputStream(new ByteArrayInputStream(record));
+                    switch (type) {
+                        case PUT -> put.accept(UserCodec.decode(payload));
+                        case DELETE -> delete.accept(UserCodec.readUUID(payload));
+                        default -> throw new IOException("Unknown record type " + type);
+                    }
+                } catch (IOException e) {
+                    logger.warn("Damaged snapshot record: " + e.getMessage());
+                    cutOff(valid);
+                    break;
+                }
+
+                valid += 1 + 4 + (checksummed ? 4 : 0) + record.length;
+                replayed++;
+            }
+        } catch (EOFException e) {
+            // The header is incomplete, there are no records
+        }
+
+        return replayed;
+    }
+
+    /**
+     * Reads the rest of a record after its type.
+     *
+     * @return The payload, or null if the record is torn or damaged
+     */
+    private static byte @Nullable [] readRecord(
+            DataInputStream input, byte type, boolean checksummed) throws IOException {
+        try {
+            var length = input.readInt();
+            // Checked before allocating, a damaged length may be huge
+            if (length < 0 || length > MAX_RECORD_SIZE) return null;
+            var checksum = checksummed ? input.readInt() : 0;
+            var payload = new byte[length];
+            input.readFully(payload);
+            if (checksummed && checksum(type, payload) != checksum) return null;
+            return payload;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private void cutOff(long size) throws IOException {
+        logger.warn(
+                "The snapshot is damaged or has not been written completely, the records after"
+                        + " byte %s are dropped".formatted(size));
+        try (var channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Replaces the file with one containing just the given users, and opens it for appending.
+     *
+     * @param users The users to write
+     * @throws IOException If the file cannot be written
+     */
+    public void rewrite(Iterable<? extends User> users) throws IOException {
+        var temp = temp();
+        var written = writeUsers(temp, users);
+        replace(temp, written, List.of());
+    }
+
+    /**
+     * Starts replacing the file with one containing just the given users, unless a rewrite is
+     * running already. Appends continue on the current file meanwhile. The users must contain every
+     * record appended so far, later changes to them may be missed.
+     *
+     * @param users The users to write
+     */
+    public void rewriteInBackground(Iterable<? extends User> users) {
+        if (appendedDuringRewrite != null) return;
+        var appendedMeanwhile = new ArrayList<byte[]>();
+        appendedDuringRewrite = appendedMeanwhile;
+
+        try {
+            rewriter.execute(
+                    () -> {
+                        var temp = temp();
+                        try {
+                            var written = writeUsers(temp, users);
+                            synchronized (this) {
+                                if (output == null) return;
+                                replace(temp, written, appendedMeanwhile);
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            logger.warn("Failed to rewrite the snapshot: " + e.getMessage());
+                            try {
+                                Files.deleteIfExists(temp);
+                            } catch (IOException ignored) {
+                                // Replaced by the next rewrite
+                            }
+                        } finally {
+                            synchronized (this) {
+                                appendedDuringRewrite = null;
+                            }
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            // The snapshot is being closed
+            appendedDuringRewrite = null;
+        }
+    }
+
+    /**
+     * Appends the current state of a user.
+     *
+     * @param user The user
+     * @throws IOException If the record cannot be written
+     */
+    public void appendPut(User user) throws IOException {
+        append(PUT, UserCodec.encode(user));
+    }
+
+    /**
+     * Appends a tombstone of a user.
+     *
+     * @param uuid The UUID of the deleted user
+     * @throws IOException If the record cannot be written
+     */
+    public void appendDelete(UUID uuid) throws IOException {
+        var bytes = new ByteArrayOutputStream(16);
+        UserCodec.writeUUID(new DataOutputStream(bytes), uuid);
+        append(DELETE, bytes.toByteArray());
+    }
+
+    /**
+     * Waits until all the records appended so far are on the disk, unless syncing the writes has
+     * been disabled. Writers which wait concurrently share a single flush. Must not be called while
+     * holding the monitor of the snapshot, or the writers cannot share it.
+     *
+     * @throws IOException If the file cannot be written
+     */
+    public void sync() throws IOException {
+        if (!syncWrites) return;
+        var upTo = appended;
+        synchronized (syncLock) {
+            if (synced >= upTo) return;
+            var out = output;
+            if (out == null) throw new IOException("The snapshot is not open");
+            var target = appended;
+            out.force(false);
+            synced = target;
+        }
+    }
+
+    /**
+     * Returns the amount of records in the file, including the superseded ones.
+     *
+     * @return The amount of records
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /** Waits for a running rewrite, then closes the file. Must not hold the monitor. */
+    @Override
+    public void close() throws IOException {
+        rewriter.shutdown();
+        try {
+            if (!rewriter.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("The snapshot rewrite did not finish in time, it will be redone");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            synchronized (syncLock) {
+                var out = output;
+                output = null;
+                if (out != null) {
+                    out.force(false);
+                    out.close();
+                }
+            }
+        }
+    }
+
+    private void append(byte type, byte[] payload) throws IOException {
+        var out = output;
+        if (out == null) throw new IOException("The snapshot is not open");
+
+        var record = ByteBuffer.allocate(1 + 4 + 4 + payload.length);
+        record.put(type).putInt(payload.length).putInt(checksum(type, payload)).put(payload);
+        // Hand the record over to the OS, so it survives a crash of the server
+        writeFully(out, record.flip());
+
+        records++;
+        if (appendedDuringRewrite != null) appendedDuringRewrite.add(record.array());
+        appended++;
+    }
+
+    private Path temp() {
+        return path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    /** Writes a new file with the users, and returns the amount of records. */
+    private static long writeUsers(Path file, Iterable<? extends User> users) throws IOException {
+        var written = 0L;
+        try (var out =
+                new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            for (User user : users) {
+                var payload = UserCodec.encode(user);
+                out.writeByte(PUT);
+                out.writeInt(payload.length);
+                out.writeInt(checksum(PUT, payload));
+                out.write(payload);
+                written++;
+            }
+        }
+        return written;
+    }
+
+    /** Appends the records to the new file, and puts it in place of the current one. */
+    private void replace(Path temp, long written, List<byte[]> appendedMeanwhile)
+            throws IOException {
+        try (var channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            var position = channel.size();
+            for (var record : appendedMeanwhile) {
+                var buffer = ByteBuffer.wrap(record);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+            channel.force(true);
+        }
+
+        synchronized (syncLock) {
+            Files.move(
+                    temp,
+                    path,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+
+            var previous = output;
+            output = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            records = written + appendedMeanwhile.size();
+            // Everything appended so far is in the new file, which is on the disk
+            synced = appended;
+            if (previous != null) previous.close();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static int checksum(byte type, byte[] payload) {
+        var crc = new CRC32C();
+        crc.update(type);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
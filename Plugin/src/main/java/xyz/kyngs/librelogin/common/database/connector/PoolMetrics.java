@@ -0,0 +1,159 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.connector;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Collects the metrics of a Hikari pool. Connection acquire times are recorded into a histogram
+ * with fixed buckets, so the wait for a connection can be watched without any external metrics
+ * library.
+ */
+public class PoolMetrics implements MetricsTrackerFactory {
+
+    /** Upper bounds of the acquire time buckets in milliseconds, the last bucket is unbounded. */
+    private static final long[] BUCKETS = {1, 5, 10, 50, 100, 500, 1000, 5000};
+
+    private final LongAdder[] acquireBuckets;
+    private final LongAdder acquireCount;
+    private final LongAdder acquireNanos;
+    private final LongAccumulator acquireMaxNanos;
+    private final LongAdder usageCount;
+    private final LongAdder usageMillis;
+    private final LongAdder created;
+    private final LongAdder timeouts;
+    private volatile @Nullable PoolStats poolStats;
+
+    public PoolMetrics() {
+        this.acquireBuckets = new LongAdder[BUCKETS.length + 1];
+        for (int i = 0; i < acquireBuckets.length; i++) {
+            acquireBuckets[i] = new LongAdder();
+        }
+        this.acquireCount = new LongAdder();
+        this.acquireNanos = new LongAdder();
+        this.acquireMaxNanos = new LongAccumulator(Math::max, 0);
+        this.usageCount = new LongAdder();
+        this.usageMillis = new LongAdder();
+        this.created = new LongAdder();
+        this.timeouts = new LongAdder();
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+        return new Tracker();
+    }
+
+    public int getActiveConnections() {
+        var stats = poolStats;
+        return stats == null ? 0 : stats.getActiveConnections();
+    }
+
+    public int getIdleConnections() {
+        var stats = poolStats;
+        return stats == null ? 0 : stats.getIdleConnections();
+    }
+
+    public int getTotalConnections() {
+        var stats = poolStats;
+        return stats == null ? 0 : stats.getTotalConnections();
+    }
+
+    public int getPendingThreads() {
+        var stats = poolStats;
+        return stats == null ? 0 : stats.getPendingThreads();
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+    public double getAverageAcquireMillis() {
+        var count = acquireCount.sum();
+        return count == 0 ? 0 : acquireNanos.sum() / (double) count / 1_000_000;
+    }
+
+    public double getMaxAcquireMillis() {
+        return acquireMaxNanos.get() / 1_000_000D;
+    }
+
+    public long getUsageCount() {
+        return usageCount.sum();
+    }
+
+    public double getAverageUsageMillis() {
+        var count = usageCount.sum();
+        return count == 0 ? 0 : usageMillis.sum() / (double) count;
+    }
+
+    public long getCreatedConnections() {
+        return created.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Returns the upper bounds of the acquire time histogram buckets.
+     *
+     * @return The bounds in milliseconds, the last bucket of the histogram has no bound
+     */
+    public long[] getAcquireBucketBounds() {
+        return BUCKETS.clone();
+    }
+
+    /**
+     * Returns the acquire time histogram.
+     *
+     * @return The amount of acquisitions in each bucket, one more than there are bounds
+     */
+    public long[] getAcquireHistogram() {
+        var histogram = new long[acquireBuckets.length];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = acquireBuckets[i].sum();
+        }
+        return histogram;
+    }
+
+    private final class Tracker implements IMetricsTracker {
+
+        @Override
+        public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+            created.increment();
+        }
+
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+            acquireCount.increment();
+            acquireNanos.add(elapsedAcquiredNanos);
+            acquireMaxNanos.accumulate(elapsedAcquiredNanos);
+
+            var millis = TimeUnit.NANOSECONDS.toMillis(elapsedAcquiredNanos);
+            var bucket = 0;
+            while (bucket < BUCKETS.length && millis > BUCKETS[bucket]) bucket++;
+            acquireBuckets[bucket].increment();
+        }
+
+        @Override
+        public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+            usageCount.increment();
+            usageMillis.add(elapsedBorrowedMillis);
+        }
+
+        @Override
+        public void recordConnectionTimeout() {
+            timeouts.increment();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.connector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.UUID;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.api.crypto.HashedPassword;
+import xyz.kyngs.librelogin.api.database.User;
+import xyz.kyngs.librelogin.common.database.AuthenticUser;
+
+/** The binary form of a user, shared by the file based storages. Starts with the UUID. */
+final class UserCodec {
+
+    private UserCodec() {}
+
+    static byte[] encode(User user) throws IOException {
+        var bytes = new ByteArrayOutputStream(256);
+        var out = new DataOutputStream(bytes);
+        var password = user.getHashedPassword();
+
+        writeUUID(out, user.getUuid());
+        writeNullableUUID(out, user.getPremiumUUID());
+        writeString(out, password == null ? null : password.hash());
+        writeString(out, password == null ? null : password.salt());
+        writeString(out, password == null ? null : password.algo());
+        writeString(out, user.getLastNickname());
+        writeTimestamp(out, user.getJoinDate());
+        writeTimestamp(out, user.getLastSeen());
+        writeString(out, user.getSecret());
+        writeString(out, user.getIp());
+        writeTimestamp(out, user.getLastAuthentication());
+        writeString(out, user.getLastServer());
+        writeString(out, user.getEmail());
+
+        return bytes.toByteArray();
+    }
+
+    static AuthenticUser decode(DataInput in) throws IOException {
+        var uuid = readUUID(in);
+        var premiumUUID = in.readBoolean() ? readUUID(in) : null;
+        var hash = readString(in);
+        var salt = readString(in);
+        var algo = readString(in);
+
+        var user =
+                new AuthenticUser(
+                        uuid,
+                        premiumUUID,
+                        hash == null ? null : new HashedPassword(hash, salt, algo),
+                        readString(in),
+                        readTimestamp(in),
+                        readTimestamp(in),
+                        readString(in),
+                        readString(in),
+                        readTimestamp(in),
+                        readString(in),
+                        readString(in));
+        user.markClean();
+        return user;
+    }
+
+    static void writeUUID(DataOutput out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    static UUID readUUID(DataInput in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeNullableUUID(DataOutput out, @Nullable UUID uuid) throws IOException {
+        out.writeBoolean(uuid != null);
+        if (uuid != null) writeUUID(out, uuid);
+    }
+
+    private static void writeString(DataOutput out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static @Nullable String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeTimestamp(DataOutput out, @Nullable Timestamp value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeLong(value.getTime());
+    }
+
+    private static @Nullable Timestamp readTimestamp(DataInput in) throws IOException {
+        return in.readBoolean() ? new Timestamp(in.readLong()) : null;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.connector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only file of checksummed records.
+ *
+ * <p>Each record is a header with the length and CRC32C checksum of its body, and the body, which
+ * is a type byte followed by the payload. Records are never modified, a record is addressed by its
+ * offset in the file. Appends are written to the OS right away, but only reach the disk on {@link
+ * #sync(long)} or {@link #force()}. A crash of the machine may leave a torn record at the end,
+ * which {@link #recover(long, RecordVisitor)} cuts off, or damage records in the middle, which it
+ * skips.
+ */
+final class UserLog implements Closeable {
+
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+
+    private static final int MAGIC = 0x4C4C4C47;
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+    // Users are a few hundred bytes, anything larger than this is garbage
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    // Most records fit, so a read usually takes a single system call
+    private static final int READ_AHEAD = 512;
+    // How much of the log is searched at once for the next record after a damaged one
+    private static final int RESYNC_WINDOW = 1 << 16;
+
+    private final FileChannel channel;
+    private final long generation;
+    private volatile long end;
+    private long records;
+    private long synced;
+
+    private UserLog(FileChannel channel, long generation, long end) {
+        this.channel = channel;
+        this.generation = generation;
+        this.end = end;
+    }
+
+    /**
+     * Opens a log, creating it if it does not exist. The records are not verified, see {@link
+     * #recover(long, RecordVisitor)}.
+     *
+     * @param path The file
+     * @param generation The generation the log must belong to
+     * @return The log
+     * @throws IOException If the file cannot be opened, or belongs to a different generation
+     */
+    static UserLog open(Path path, long generation) throws IOException {
+        var channel =
+                FileChannel.open(
+                        path,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+        try {
+            var header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.size() < HEADER_SIZE) {
+                header.putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+                channel.truncate(0);
+                writeFully(channel, header, 0);
+                channel.force(true);
+            } else {
+                readFully(channel, header, 0);
+                header.flip();
+                if (header.getInt() != MAGIC) throw new IOException(path + " is not a user log");
+                var version = header.getInt();
+                if (version != VERSION) throw new IOException("Unsupported log version " + version);
+                var actual = header.getLong();
+                if (actual != generation) {
+                    throw new IOException(
+                            "%s belongs to generation %s, expected %s"
+                                    .formatted(path, actual, generation));
+                }
+            }
+            var log = new UserLog(channel, generation, channel.size());
+            log.synced = log.end;
+            return log;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the records from the given offset to the end. A damaged record is skipped up to the
+     * next valid one, if there is one, otherwise the log is cut off at the damaged record.
+     *
+     * @param from The offset of the first record
+     * @param visitor Receives the valid records
+     * @return What has been skipped and cut off
+     * @throws IOException If the log cannot be read
+     */
+    Recovery recover(long from, RecordVisitor visitor) throws IOException {
+        var offset = from;
+        var size = channel.size();
+        var skipped = 0L;
+
+        while (offset < size) {
+            var record = tryRead(offset, size);
+            if (record == null) {
+                var next = findRecord(offset + 1, size);
+                if (next == size) {
+                    channel.truncate(offset);
+                    channel.force(true);
+                    end = offset;
+                    synced = offset;
+                    return new Recovery(skipped, size - offset);
+                }
+                skipped += next - offset;
+                offset = next;
+                continue;
+            }
+            visitor.visit(offset, record.type(), record.payload());
+            records++;
+            offset = record.next();
+        }
+
+        end = offset;
+        synced = offset;
+        return new Recovery(skipped, 0);
+    }
+
+    /**
+     * Reads the records between the given offsets. The records must have been recovered or appended
+     * by this log, damaged records are skipped like {@link #recover} did.
+     *
+     * @param from The offset of the first record
+     * @param to The offset to stop at
+     * @param visitor Receives the records
+     * @throws IOException If the log cannot be read
+     */
+    void scan(long from, long to, RecordVisitor visitor) throws IOException {
+        var offset = from;
+        while (offset < to) {
+            var record = tryRead(offset, to);
+            if (record == null) {
+                offset = findRecord(offset + 1, to);
+                continue;
+            }
+            visitor.visit(offset, record.type(), record.payload());
+            offset = record.next();
+        }
+    }
+
+    /**
+     * Reads a record.
+     *
+     * @param offset The offset of the record
+     * @return The record
+     * @throws IOException If the log cannot be read, or the record is corrupted
+     */
+    Record read(long offset) throws IOException {
+        var record = tryRead(offset, end);
+        if (record == null) throw new IOException("Corrupted log record at offset " + offset);
+        return record;
+    }
+
+    /**
+     * Appends a record. Must not be called concurrently.
+     *
+     * @param type The type of the record
+     * @param payload The payload
+     * @return The offset of the record
+     * @throws IOException If the record cannot be written
+     */
+    long append(byte type, byte[] payload) throws IOException {
+        var buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + 1 + payload.length);
+        buffer.putInt(payload.length + 1).putInt(checksum(type, payload)).put(type).put(payload);
+        buffer.flip();
+
+        var offset = end;
+        writeFully(channel, buffer, offset);
+        end = offset + buffer.capacity();
+        records++;
+        return offset;
+    }
+
+    /** Writes the appended records to the disk. */
+    void force() throws IOException {
+        var target = end;
+        channel.force(false);
+        synced = target;
+    }
+
+    /**
+     * Writes the appended records to the disk, unless the records up to the given offset are there
+     * already. Must not be called concurrently, the callers which wait meanwhile are then usually
+     * covered by a single flush.
+     *
+     * @param upTo The end of the last record which has to be on the disk
+     * @throws IOException If the records cannot be written
+     */
+    void sync(long upTo) throws IOException {
+        if (synced < upTo) force();
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    /** Returns the offset the next record will be appended at. */
+    long end() {
+        return end;
+    }
+
+    /** Returns the amount of records, including the superseded ones. */
+    long records() {
+        return records;
+    }
+
+    void setRecords(long records) {
+        this.records = records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private Record tryRead(long offset, long limit) throws IOException {
+        if (offset < HEADER_SIZE || offset + RECORD_HEADER_SIZE + 1 > limit) return null;
+
+        var available = (int) Math.min(READ_AHEAD, limit - offset);
+        var buffer = ByteBuffer.allocate(available);
+        readFully(channel, buffer, offset);
+        buffer.flip();
+
+        var length = buffer.getInt();
+        var checksum = buffer.getInt();
+        if (length < 1 || length > MAX_RECORD_SIZE) return null;
+        if (offset + RECORD_HEADER_SIZE + length > limit) return null;
+
+        if (RECORD_HEADER_SIZE + length > buffer.limit()) {
+            var larger = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+            larger.put(buffer.rewind());
+            readFully(channel, larger, offset);
+            larger.flip().position(RECORD_HEADER_SIZE);
+            buffer = larger;
+        }
+
+        var type = buffer.get();
+        var payload = new byte[length - 1];
+        buffer.get(payload);
+
+        if (checksum(type, payload) != checksum) return null;
+
+        return new Record(type, payload, offset + RECORD_HEADER_SIZE + length);
+    }
+
+    /**
+     * Searches for the first valid record from the given offset, the end of a damaged record is not
+     * known. Returns the limit if there is none.
+     */
+    private long findRecord(long from, long limit) throws IOException {
+        var window = ByteBuffer.allocate(RESYNC_WINDOW);
+        for (var start = Math.max(from, HEADER_SIZE); start < limit; ) {
+            window.clear().limit((int) Math.min(RESYNC_WINDOW, limit - start));
+            readFully(channel, window, start);
+
+            var candidates = window.limit() - RECORD_HEADER_SIZE;
+            for (var position = 0; position < candidates; position++) {
+                // Most positions are ruled out by the length, without reading anything more
+                var length = window.getInt(position);
+                if (length < 1 || length > MAX_RECORD_SIZE) continue;
+                if (start + position + RECORD_HEADER_SIZE + length > limit) continue;
+                if (tryRead(start + position, limit) != null) return start + position;
+            }
+
+            if (start + window.limit() >= limit) break;
+            start += Math.max(1, candidates);
+        }
+        return limit;
+    }
+
+    private static int checksum(byte type, byte[] payload) {
+        var crc = new CRC32C();
+        crc.update(type);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            var read = channel.read(buffer, position + buffer.position());
+            if (read < 0) throw new IOException("Unexpected end of the log");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * A record of the log.
+     *
+     * @param type The type
+     * @param payload The payload
+     * @param next The offset of the record after this one
+     */
+    record Record(byte type, byte[] payload, long next) {}
+
+    /**
+     * The outcome of {@link #recover(long, RecordVisitor)}.
+     *
+     * @param skipped The amount of bytes of damaged records which have been skipped
+     * @param cutOff The amount of bytes cut off the end of the log
+     */
+    record Recovery(long skipped, long cutOff) {}
+
+    @FunctionalInterface
+    interface RecordVisitor {
+        void visit(long offset, byte type, byte[] payload) throws IOException;
+    }
+}
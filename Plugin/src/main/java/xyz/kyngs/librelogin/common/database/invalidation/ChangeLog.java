@@ -0,0 +1,58 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.invalidation;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A table of the invalidations published by the proxies, shared through the database. Every change
+ * has an increasing id, though the ids may be committed out of order, and may have gaps.
+ */
+public interface ChangeLog {
+
+    /**
+     * @return The id of the latest change, or 0 if there is none
+     */
+    long getLatestChange();
+
+    /**
+     * Appends changes to the log.
+     *
+     * @param origin The origin of the proxy publishing the changes
+     * @param invalidations The invalidations
+     */
+    void appendChanges(String origin, Collection<Invalidation> invalidations);
+
+    /**
+     * Reads the changes with ids between the given ones, exclusive.
+     *
+     * @param after The id to start after
+     * @param before The id to stop before
+     * @param limit The maximum amount of changes
+     * @return The changes, in the order of their ids
+     */
+    List<Change> readChanges(long after, long before, int limit);
+
+    /**
+     * Deletes the old changes.
+     *
+     * @param before The time the changes have been published before
+     * @return The amount of changes deleted
+     */
+    int pruneChanges(Timestamp before);
+
+    /**
+     * A change of the log.
+     *
+     * @param id The id
+     * @param origin The origin of the proxy which published the change
+     * @param invalidation The invalidation
+     */
+    record Change(long id, String origin, Invalidation invalidation) {}
+}
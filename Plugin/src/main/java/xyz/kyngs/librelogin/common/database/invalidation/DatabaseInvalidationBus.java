@@ -0,0 +1,146 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.invalidation;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import xyz.kyngs.librelogin.api.Logger;
+
+/**
+ * Exchanges the invalidations through a {@link ChangeLog} in the database, which every proxy polls.
+ * Needs no service besides the database.
+ *
+ * <p>Ids are assigned on insert, but become visible on commit, so a change may show up after one
+ * with a higher id. Skipped ids are remembered for a while and looked up again, as they are usually
+ * committed a moment later. Ids which never show up belong to inserts which have been rolled back.
+ *
+ * <p>The changes are pruned after an hour. If this proxy has not polled for so long that it may
+ * have missed pruned changes, e.g. because the database was unreachable, it drops its whole cache.
+ */
+public class DatabaseInvalidationBus extends InvalidationBus {
+
+    private static final int BATCH_SIZE = 1000;
+    // Skipped ids are looked up again for this long
+    private static final long GAP_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    // Bounds the lookups if the ids are not consecutive at all, e.g. in a Galera cluster
+    private static final int MAX_GAPS = 1000;
+    private static final long RETENTION = TimeUnit.HOURS.toMillis(1);
+    private static final long PRUNE_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+    // Leaves a margin for the clocks of the proxies pruning the changes
+    private static final long MAX_POLL_GAP = RETENTION / 2;
+
+    private final ChangeLog log;
+    private final LongSupplier clock;
+    private final long pollInterval;
+    private final ScheduledExecutorService scheduler;
+    // Only accessed by the scheduler thread
+    private final TreeMap<Long, Long> gaps;
+    private long highest;
+    private long lastPrune;
+    private long lastPoll;
+
+    public DatabaseInvalidationBus(Logger logger, ChangeLog log, long pollInterval) {
+        this(logger, log, pollInterval, System::currentTimeMillis);
+    }
+
+    DatabaseInvalidationBus(Logger logger, ChangeLog log, long pollInterval, LongSupplier clock) {
+        super(logger);
+        this.log = log;
+        this.clock = clock;
+        this.pollInterval = pollInterval;
+        this.gaps = new TreeMap<>();
+        this.scheduler =
+                Executors.newSingleThreadScheduledExecutor(
+                        runnable -> {
+                            var thread = new Thread(runnable, "LibreLogin Invalidation");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+    }
+
+    @Override
+    public void start() {
+        // Changes published before the startup do not matter, the cache is empty
+        highest = log.getLatestChange();
+        lastPrune = clock.getAsLong();
+        lastPoll = lastPrune;
+        scheduler.scheduleWithFixedDelay(
+                this::pollSafely, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void send(Collection<Invalidation> invalidations) {
+        log.appendChanges(origin, invalidations);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        super.close();
+    }
+
+    private void pollSafely() {
+        retryUnsent();
+        try {
+            poll();
+        } catch (Exception e) {
+            logger.warn("Failed to poll the invalidations: " + e.getMessage());
+        }
+    }
+
+    /** Polls the changes, called by the scheduler. Visible for the tests. */
+    void poll() {
+        var now = clock.getAsLong();
+        var sinceLastPoll = now - lastPoll;
+
+        if (!gaps.isEmpty()) {
+            var late = log.readChanges(gaps.firstKey() - 1, gaps.lastKey() + 1, BATCH_SIZE);
+            for (var change : late) {
+                if (gaps.remove(change.id()) != null) {
+                    receive(change.origin(), change.invalidation());
+                }
+            }
+            gaps.values().removeIf(noticed -> now - noticed > GAP_TIMEOUT);
+        }
+
+        while (true) {
+            var changes = log.readChanges(highest, Long.MAX_VALUE, BATCH_SIZE);
+            for (var change : changes) {
+                for (var id = highest + 1; id < change.id() && gaps.size() < MAX_GAPS; id++) {
+                    gaps.put(id, now);
+                }
+                highest = change.id();
+                receive(change.origin(), change.invalidation());
+            }
+            if (changes.size() < BATCH_SIZE) break;
+        }
+
+        lastPoll = now;
+        if (sinceLastPoll > MAX_POLL_GAP) {
+            logger.warn(
+                    "The invalidations have not been polled for %d minutes, some may have been"
+                                    .formatted(TimeUnit.MILLISECONDS.toMinutes(sinceLastPoll))
+                            + " pruned already, dropping the whole cache");
+            deliver(Invalidation.all());
+        }
+
+        if (now - lastPrune >= PRUNE_INTERVAL) {
+            lastPrune = now;
+            log.pruneChanges(new Timestamp(now - RETENTION));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.invalidation;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Tells the caches which users have been changed by another proxy.
+ *
+ * @param kind What the key identifies
+ * @param key The UUID, the lowercase name, or the last seen time in milliseconds, depending on the
+ *     kind. Empty for {@link Kind#ALL}
+ */
+public record Invalidation(Kind kind, String key) {
+
+    public static Invalidation user(UUID uuid) {
+        return new Invalidation(Kind.USER, uuid.toString());
+    }
+
+    public static Invalidation name(String name) {
+        return new Invalidation(Kind.NAME, name.toLowerCase());
+    }
+
+    /**
+     * The users matching the condition of {@link
+     * xyz.kyngs.librelogin.api.database.WriteDatabaseProvider#pruneInactiveUsers(Timestamp, int)}
+     * may have been deleted.
+     */
+    public static Invalidation inactive(Timestamp lastSeenBefore) {
+        return new Invalidation(Kind.INACTIVE, Long.toString(lastSeenBefore.getTime()));
+    }
+
+    public static Invalidation all() {
+        return new Invalidation(Kind.ALL, "");
+    }
+
+    /**
+     * Parses an invalidation encoded by {@link #encode()}.
+     *
+     * @param encoded The encoded invalidation
+     * @return The invalidation
+     * @throws IllegalArgumentException If the invalidation is malformed
+     */
+    public static Invalidation decode(String encoded) {
+        var separator = encoded.indexOf(':');
+        if (separator < 0) throw new IllegalArgumentException("Malformed invalidation " + encoded);
+        return new Invalidation(
+                Kind.valueOf(encoded.substring(0, separator)), encoded.substring(separator + 1));
+    }
+
+    public String encode() {
+        return kind + ":" + key;
+    }
+
+    public UUID uuid() {
+        return UUID.fromString(key);
+    }
+
+    public Timestamp lastSeenBefore() {
+        return new Timestamp(Long.parseLong(key));
+    }
+
+    public enum Kind {
+        /** A single user, by their UUID. */
+        USER,
+        /** Whichever user holds the name. */
+        NAME,
+        /** The inactive users which may have been pruned. */
+        INACTIVE,
+        /** Everything. */
+        ALL
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.invalidation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import xyz.kyngs.librelogin.api.Logger;
+
+/**
+ * Broadcasts the users changed by this proxy to the other proxies sharing the database, so their
+ * caches do not serve stale users.
+ *
+ * <p>Every proxy is identified by a random origin, which is sent along with the invalidations, so a
+ * proxy never receives its own ones. Its own cache is already up to date.
+ *
+ * <p>Invalidations which fail to be sent are kept and sent along with the next ones. If too many
+ * pile up, they are replaced by a single {@link Invalidation#all()}.
+ */
+public abstract class InvalidationBus {
+
+    private static final int MAX_UNSENT = 10000;
+
+    protected final Logger logger;
+    protected final String origin;
+    private final List<Consumer<Invalidation>> subscribers;
+    private final Object unsentLock = new Object();
+    private List<Invalidation> unsent = new ArrayList<>();
+
+    protected InvalidationBus(Logger logger) {
+        this.logger = logger;
+        this.origin = UUID.randomUUID().toString();
+        this.subscribers = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Registers a subscriber, which receives the invalidations published by the other proxies.
+     * Subscribers may be called from any thread.
+     *
+     * @param subscriber The subscriber
+     */
+    public void subscribe(Consumer<Invalidation> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    /**
+     * Publishes the invalidations to the other proxies. Called once the change has been written to
+     * the database.
+     *
+     * @param invalidations The invalidations
+     */
+    public void publish(Collection<Invalidation> invalidations) {
+        if (invalidations.isEmpty()) return;
+        Collection<Invalidation> batch = invalidations;
+        synchronized (unsentLock) {
+            if (!unsent.isEmpty()) {
+                unsent.addAll(invalidations);
+                batch = takeUnsent();
+            }
+        }
+        trySend(batch);
+    }
+
+    /**
+     * Sends the invalidations to the other proxies.
+     *
+     * @param invalidations The invalidations, never empty
+     * @throws RuntimeException If the invalidations could not be sent
+     */
+    protected abstract void send(Collection<Invalidation> invalidations);
+
+    /** Tries to send the invalidations which have failed to be sent before, if there are any. */
+    protected void retryUnsent() {
+        List<Invalidation> batch;
+        synchronized (unsentLock) {
+            if (unsent.isEmpty()) return;
+            batch = takeUnsent();
+        }
+        trySend(batch);
+    }
+
+    private List<Invalidation> takeUnsent() {
+        var taken = unsent;
+        unsent = new ArrayList<>();
+        return taken;
+    }
+
+    private boolean trySend(Collection<Invalidation> invalidations) {
+        try {
+            send(invalidations);
+            return true;
+        } catch (RuntimeException e) {
+            synchronized (unsentLock) {
+                if (unsent.size() + invalidations.size() > MAX_UNSENT) {
+                    unsent.clear();
+                    unsent.add(Invalidation.all());
+                } else if (unsent.isEmpty() || unsent.get(0).kind() != Invalidation.Kind.ALL) {
+                    unsent.addAll(invalidations);
+                }
+            }
+            logger.warn(
+                    "Failed to publish %d invalidations, retrying with the next ones: %s"
+                            .formatted(invalidations.size(), e.getMessage()));
+            return false;
+        }
+    }
+
+    /** Starts receiving the invalidations of the other proxies. */
+    public void start() {}
+
+    /**
+     * Stops receiving the invalidations and releases the resources of the bus. The unsent
+     * invalidations are tried once more, subclasses must call this before they stop sending.
+     */
+    public void close() {
+        List<Invalidation> batch;
+        synchronized (unsentLock) {
+            if (unsent.isEmpty()) return;
+            batch = takeUnsent();
+        }
+        if (!trySend(batch)) {
+            logger.error(
+                    ("Lost %d invalidations on shutdown, other proxies may serve stale users"
+                                    + " until their caches expire")
+                            .formatted(batch.size()));
+        }
+    }
+
+    /**
+     * Passes an invalidation to the subscribers, unless it has been published by this proxy.
+     *
+     * @param origin The origin of the proxy which published the invalidation
+     * @param invalidation The invalidation
+     */
+    protected void receive(String origin, Invalidation invalidation) {
+        if (this.origin.equals(origin)) return;
+        deliver(invalidation);
+    }
+
+    /**
+     * Passes an invalidation to the subscribers, regardless of its origin.
+     *
+     * @param invalidation The invalidation
+     */
+    protected void deliver(Invalidation invalidation) {
+        for (var subscriber : subscribers) {
+            try {
+                subscriber.accept(invalidation);
+            } catch (Exception e) {
+                logger.warn("Failed to apply invalidation %s: %s".formatted(invalidation, e));
+            }
+        }
+    }
+}
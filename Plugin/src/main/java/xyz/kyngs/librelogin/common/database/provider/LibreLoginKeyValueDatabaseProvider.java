@@ -0,0 +1,319 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.provider;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.api.database.PruneResult;
+import xyz.kyngs.librelogin.api.database.User;
+import xyz.kyngs.librelogin.api.database.connector.DatabaseConnector;
+import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
+import xyz.kyngs.librelogin.common.database.AuthenticDatabaseProvider;
+import xyz.kyngs.librelogin.common.database.AuthenticUser;
+import xyz.kyngs.librelogin.common.database.AuthenticUser.Changes;
+import xyz.kyngs.librelogin.common.database.AuthenticUser.Field;
+
+/**
+ * Base of the providers which store users by their UUID, and look them up through their own
+ * indexes, instead of a database.
+ *
+ * <p>Writes are serialized, so the unique names and premium UUIDs are enforced the same way the SQL
+ * schema does. Implementations only load, store and remove whole users.
+ *
+ * @param <C> The type of the connector
+ */
+public abstract class LibreLoginKeyValueDatabaseProvider<C extends DatabaseConnector<?, ?>>
+        extends AuthenticDatabaseProvider<C> {
+
+    /** Held while checking the unique keys and writing, so no two writes interleave. */
+    protected final Object writeLock = new Object();
+
+    protected LibreLoginKeyValueDatabaseProvider(C connector, AuthenticLibreLogin<?, ?> plugin) {
+        super(connector, plugin);
+    }
+
+    /**
+     * Loads a user.
+     *
+     * @param uuid The UUID of the user
+     * @return A clean user owned by the caller, or null if there is no such user
+     */
+    protected abstract @Nullable AuthenticUser load(UUID uuid);
+
+    /**
+     * Loads a user by their name.
+     *
+     * @param name The lowercase name of the user
+     * @return A clean user owned by the caller, or null if there is no such user
+     */
+    protected abstract @Nullable AuthenticUser loadByName(String name);
+
+    /**
+     * Loads a user by their premium UUID.
+     *
+     * @param premiumUUID The premium UUID of the user
+     * @return A clean user owned by the caller, or null if there is no such user
+     */
+    protected abstract @Nullable AuthenticUser loadByPremiumUUID(UUID premiumUUID);
+
+    /**
+     * Loads all the users.
+     *
+     * @param consumer Receives clean users owned by the consumer
+     */
+    protected abstract void loadAll(Consumer<AuthenticUser> consumer);
+
+    /**
+     * Loads the users with the given IP, without scanning all of them.
+     *
+     * @param ip The IP
+     * @return Clean users owned by the caller
+     */
+    protected abstract Collection<AuthenticUser> loadByIP(String ip);
+
+    /**
+     * Stores a user, replacing the one with the same UUID. Called while holding the {@link
+     * #writeLock}, the unique keys have been checked.
+     *
+     * @param user A clean copy of the user, owned by the implementation from now on
+     */
+    protected abstract void store(AuthenticUser user);
+
+    /**
+     * Removes a user, if it exists. Called while holding the {@link #writeLock}.
+     *
+     * @param uuid The UUID of the user
+     */
+    protected abstract void remove(UUID uuid);
+
+    /**
+     * Waits until the stored and removed users are on the disk. Called after releasing the {@link
+     * #writeLock}, so concurrent writes can share a flush. Does nothing by default.
+     */
+    protected void sync() {}
+
+    @Override
+    public User getByName(String name) {
+        plugin.reportMainThread();
+        return loadByName(name.toLowerCase());
+    }
+
+    @Override
+    public User getByUUID(UUID uuid) {
+        plugin.reportMainThread();
+        return load(uuid);
+    }
+
+    @Override
+    public User getByPremiumUUID(UUID uuid) {
+        plugin.reportMainThread();
+        return loadByPremiumUUID(uuid);
+    }
+
+    @Override
+    public Collection<User> getAllUsers() {
+        var all = new ArrayList<User>();
+        forEachUser(all::add);
+        return all;
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> consumer) {
+        plugin.reportMainThread();
+        loadAll(consumer::accept);
+    }
+
+    @Override
+    public Collection<User> getByIP(String ip) {
+        plugin.reportMainThread();
+        return new ArrayList<>(loadByIP(ip));
+    }
+
+    @Override
+    public int countByIP(String ip) {
+        plugin.reportMainThread();
+        return loadByIP(ip).size();
+    }
+
+    @Override
+    public void insertUser(User user) {
+        plugin.reportMainThread();
+        var changes = getChanges(user);
+        synchronized (writeLock) {
+            if (load(user.getUuid()) != null || conflicts(user)) {
+                throw new IllegalStateException("User " + user.getUuid() + " already exists");
+            }
+            store(copy(user));
+        }
+        sync();
+        markClean(user, changes);
+    }
+
+    @Override
+    public void insertUsers(Collection<User> users) {
+        plugin.reportMainThread();
+        for (var user : users) {
+            synchronized (writeLock) {
+                // Conflicting users are skipped, like the database providers do
+                if (load(user.getUuid()) == null && !conflicts(user)) store(copy(user));
+            }
+        }
+        sync();
+    }
+
+    @Override
+    public boolean insertUserIfAbsent(User user) {
+        plugin.reportMainThread();
+        var changes = getChanges(user);
+        synchronized (writeLock) {
+            if (load(user.getUuid()) != null || conflicts(user)) return false;
+            store(copy(user));
+        }
+        sync();
+        markClean(user, changes);
+        return true;
+    }
+
+    @Override
+    public void upsertUser(User user) {
+        plugin.reportMainThread();
+        var changes = getChanges(user);
+        synchronized (writeLock) {
+            requireNoConflict(user);
+            store(copy(user));
+        }
+        sync();
+        markClean(user, changes);
+    }
+
+    @Override
+    public void claimName(User user, String name) {
+        plugin.reportMainThread();
+        user.setLastNickname(name);
+        var changes = getChanges(user);
+        synchronized (writeLock) {
+            var holder = loadByName(name.toLowerCase());
+            if (holder != null && !holder.getUuid().equals(user.getUuid())) {
+                remove(holder.getUuid());
+            }
+            requireNoConflict(user);
+            store(copy(user));
+        }
+        sync();
+        markClean(user, changes);
+    }
+
+    @Override
+    public PruneResult pruneInactiveUsers(Timestamp lastSeenBefore, int limit) {
+        plugin.reportMainThread();
+        int pruned;
+        synchronized (writeLock) {
+            var inactive = new ArrayList<UUID>();
+            loadAll(
+                    user -> {
+                        if (inactive.size() < limit
+                                && user.getLastSeen() != null
+                                && user.getLastSeen().before(lastSeenBefore)
+                                && user.getPremiumUUID() == null
+                                && user.getEmail() == null) {
+                            inactive.add(user.getUuid());
+                        }
+                    });
+            inactive.forEach(this::remove);
+            pruned = inactive.size();
+        }
+        sync();
+        return new PruneResult(pruned, pruned);
+    }
+
+    @Override
+    public void updateUser(User user) {
+        plugin.reportMainThread();
+        var changes = getChanges(user);
+        var fields = changes.fields();
+        if (fields.isEmpty()) return;
+        synchronized (writeLock) {
+            var stored = load(user.getUuid());
+            // Like an UPDATE, a user which does not exist is not created
+            if (stored != null) {
+                merge(stored, user, fields);
+                requireNoConflict(stored);
+                store(stored);
+            }
+        }
+        sync();
+        markClean(user, changes);
+    }
+
+    @Override
+    public void deleteUser(User user) {
+        plugin.reportMainThread();
+        synchronized (writeLock) {
+            remove(user.getUuid());
+        }
+        sync();
+    }
+
+    /** Whether another user holds the name or premium UUID. Must hold the write lock. */
+    private boolean conflicts(User user) {
+        if (user.getLastNickname() != null) {
+            var holder = loadByName(user.getLastNickname().toLowerCase());
+            if (holder != null && !holder.getUuid().equals(user.getUuid())) return true;
+        }
+        if (user.getPremiumUUID() != null) {
+            var holder = loadByPremiumUUID(user.getPremiumUUID());
+            return holder != null && !holder.getUuid().equals(user.getUuid());
+        }
+        return false;
+    }
+
+    private void requireNoConflict(User user) {
+        if (conflicts(user)) {
+            throw new IllegalStateException(
+                    "The name or premium UUID of " + user.getUuid() + " is taken");
+        }
+    }
+
+    protected static AuthenticUser copy(User user) {
+        var copy = new AuthenticUser(user);
+        copy.markClean();
+        return copy;
+    }
+
+    /** Applies the given fields of the user to the stored user, which is then clean again. */
+    private static void merge(AuthenticUser stored, User user, Set<Field> fields) {
+        for (var field : fields) {
+            switch (field) {
+                case PREMIUM_UUID -> stored.setPremiumUUID(user.getPremiumUUID());
+                case HASHED_PASSWORD -> stored.setHashedPassword(user.getHashedPassword());
+                case LAST_NICKNAME -> stored.setLastNickname(user.getLastNickname());
+                case JOIN_DATE -> stored.setJoinDate(user.getJoinDate());
+                case LAST_SEEN -> stored.setLastSeen(user.getLastSeen());
+                case SECRET -> stored.setSecret(user.getSecret());
+                case IP -> stored.setIp(user.getIp());
+                case LAST_AUTHENTICATION ->
+                        stored.setLastAuthentication(user.getLastAuthentication());
+                case LAST_SERVER -> stored.setLastServer(user.getLastServer());
+                case EMAIL -> stored.setEmail(user.getEmail());
+            }
+        }
+        stored.markClean();
+    }
+
+    private static Changes getChanges(User user) {
+        return user instanceof AuthenticUser authentic ? authentic.getChanges() : Changes.all();
+    }
+
+    private static void markClean(User user, Changes changes) {
+        if (user instanceof AuthenticUser authentic) authentic.markClean(changes);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.provider;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.function.Consumer;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
+import xyz.kyngs.librelogin.common.database.AuthenticUser;
+import xyz.kyngs.librelogin.common.database.connector.AuthenticLogDatabaseConnector;
+import xyz.kyngs.librelogin.common.database.connector.LogStore;
+
+/**
+ * Stores the users in an embedded log, see {@link
+ * xyz.kyngs.librelogin.common.database.connector.LogStore}. Lookups by UUID, name and premium UUID
+ * go through its indexes, lookups by IP scan all the users.
+ */
+public class LibreLoginLogDatabaseProvider
+        extends LibreLoginKeyValueDatabaseProvider<AuthenticLogDatabaseConnector> {
+
+    public LibreLoginLogDatabaseProvider(
+            AuthenticLogDatabaseConnector connector, AuthenticLibreLogin<?, ?> plugin) {
+        super(connector, plugin);
+    }
+
+    @Override
+    protected @Nullable AuthenticUser load(UUID uuid) {
+        return connector.runQuery((LogStore store) -> store.getByUUID(uuid));
+    }
+
+    @Override
+    protected @Nullable AuthenticUser loadByName(String name) {
+        return connector.runQuery((LogStore store) -> store.getByName(name));
+    }
+
+    @Override
+    protected @Nullable AuthenticUser loadByPremiumUUID(UUID premiumUUID) {
+        return connector.runQuery((LogStore store) -> store.getByPremiumUUID(premiumUUID));
+    }
+
+    @Override
+    protected void loadAll(Consumer<AuthenticUser> consumer) {
+        connector.runQuery(
+                (LogStore store) -> {
+                    store.forEach(consumer);
+                });
+    }
+
+    @Override
+    protected Collection<AuthenticUser> loadByIP(String ip) {
+        return connector.runQuery((LogStore store) -> store.getByIP(ip));
+    }
+
+    @Override
+    protected void store(AuthenticUser user) {
+        connector.runQuery(
+                (LogStore store) -> {
+                    store.put(user);
+                });
+    }
+
+    @Override
+    protected void remove(UUID uuid) {
+        connector.runQuery(
+                (LogStore store) -> {
+                    store.delete(uuid);
+                });
+    }
+
+    @Override
+    protected void sync() {
+        connector.runQuery(
+                (LogStore store) -> {
+                    store.sync();
+                });
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.provider;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.api.database.User;
+import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
+import xyz.kyngs.librelogin.common.database.AuthenticUser;
+import xyz.kyngs.librelogin.common.database.connector.AuthenticMemoryDatabaseConnector;
+
+/**
+ * Keeps all the users in memory, with indexes by lowercase name, premium UUID and IP.
+ *
+ * <p>Reads never block. Users are copied on the way in and out, callers never share an instance
+ * with the store. If the connector is persistent, every write is appended to the snapshot file
+ * before it is applied, and the file is replayed on startup.
+ */
+public class LibreLoginMemoryDatabaseProvider
+        extends LibreLoginKeyValueDatabaseProvider<AuthenticMemoryDatabaseConnector> {
+
+    private final Map<UUID, AuthenticUser> users;
+    private final Map<String, UUID> names;
+    private final Map<UUID, UUID> premiumUUIDs;
+    private final Map<String, Set<UUID>> ips;
+
+    public LibreLoginMemoryDatabaseProvider(
+            AuthenticMemoryDatabaseConnector connector, AuthenticLibreLogin<?, ?> plugin) {
+        super(connector, plugin);
+        this.users = new ConcurrentHashMap<>();
+        this.names = new ConcurrentHashMap<>();
+        this.premiumUUIDs = new ConcurrentHashMap<>();
+        this.ips = new ConcurrentHashMap<>();
+
+        if (connector.isPersistent()) replay();
+    }
+
+    private void replay() {
+        connector.runQuery(
+                snapshot -> {
+                    var records =
+                            snapshot.replay(
+                                    this::put,
+                                    uuid -> {
+                                        var removed = users.remove(uuid);
+                                        if (removed != null) unindex(removed, null);
+                                    });
+
+                    // Start with a compact file, the superseded records are not needed anymore
+                    snapshot.rewrite(users.values());
+
+                    plugin.getLogger()
+                            .info(
+                                    "Loaded %s users from %s snapshot records"
+                                            .formatted(users.size(), records));
+                });
+    }
+
+    @Override
+    protected @Nullable AuthenticUser load(UUID uuid) {
+        var user = users.get(uuid);
+        return user == null ? null : copy(user);
+    }
+
+    @Override
+    protected @Nullable AuthenticUser loadByName(String name) {
+        var uuid = names.get(name);
+        var user = uuid == null ? null : users.get(uuid);
+        // The user may have been renamed since the index was read
+        return user != null && name.equals(nameKey(user)) ? copy(user) : null;
+    }
+
+    @Override
+    protected @Nullable AuthenticUser loadByPremiumUUID(UUID premiumUUID) {
+        var uuid = premiumUUIDs.get(premiumUUID);
+        var user = uuid == null ? null : users.get(uuid);
+        return user != null && premiumUUID.equals(user.getPremiumUUID()) ? copy(user) : null;
+    }
+
+    @Override
+    protected void loadAll(Consumer<AuthenticUser> consumer) {
+        for (var user : users.values()) {
+            consumer.accept(copy(user));
+        }
+    }
+
+    @Override
+    protected Collection<AuthenticUser> loadByIP(String ip) {
+        var found = new ArrayList<AuthenticUser>();
+        for (var uuid : ips.getOrDefault(ip, Set.of())) {
+            var user = users.get(uuid);
+            if (user != null && ip.equals(user.getIp())) found.add(copy(user));
+        }
+        return found;
+    }
+
+    @Override
+    protected void store(AuthenticUser user) {
+        if (connector.isPersistent()) {
+            connector.runQuery(
+                    snapshot -> {
+                        snapshot.appendPut(user);
+                    });
+        }
+        put(user);
+        compactIfNeeded();
+    }
+
+    @Override
+    protected void remove(UUID uuid) {
+        if (!users.containsKey(uuid)) return;
+        if (connector.isPersistent()) {
+            connector.runQuery(
+                    snapshot -> {
+                        snapshot.appendDelete(uuid);
+                    });
+        }
+        var removed = users.remove(uuid);
+        if (removed != null) unindex(removed, null);
+        compactIfNeeded();
+    }
+
+    @Override
+    protected void sync() {
+        if (!connector.isPersistent()) return;
+        try {
+            // Outside of runQuery, which would make the writers wait for each other's flush
+            connector.obtainInterface().sync();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Called while holding the write lock, so the users contain every record of the file. */
+    private void compactIfNeeded() {
+        if (!connector.isPersistent()) return;
+        connector.runQuery(
+                snapshot -> {
+                    if (snapshot.getRecords() - users.size()
+                            >= connector.getCompactionThreshold()) {
+                        snapshot.rewriteInBackground(users.values());
+                    }
+                });
+    }
+
+    private void put(AuthenticUser user) {
+        var previous = users.put(user.getUuid(), user);
+        // Index first, so a lookup never misses a user which keeps its name
+        index(user);
+        if (previous != null) unindex(previous, user);
+    }
+
+    private void index(User user) {
+        var name = nameKey(user);
+        if (name != null) names.put(name, user.getUuid());
+        if (user.getPremiumUUID() != null) premiumUUIDs.put(user.getPremiumUUID(), user.getUuid());
+        if (user.getIp() != null) {
+            ips.computeIfAbsent(user.getIp(), x -> ConcurrentHashMap.newKeySet())
+                    .add(user.getUuid());
+        }
+    }
+
+    /** Removes the index entries of the previous state, which the current state does not share. */
+    private void unindex(User previous, @Nullable User current) {
+        var uuid = previous.getUuid();
+
+        var name = nameKey(previous);
+        if (name != null && (current == null || !name.equals(nameKey(current)))) {
+            names.remove(name, uuid);
+        }
+
+        var premiumUUID = previous.getPremiumUUID();
+        if (premiumUUID != null
+                && (current == null || !premiumUUID.equals(current.getPremiumUUID()))) {
+            premiumUUIDs.remove(premiumUUID, uuid);
+        }
+
+        var ip = previous.getIp();
+        if (ip != null && (current == null || !ip.equals(current.getIp()))) {
+            ips.computeIfPresent(
+                    ip,
+                    (x, set) -> {
+                        set.remove(uuid);
+                        return set.isEmpty() ? null : set;
+                    });
+        }
+    }
+
+    private static @Nullable String nameKey(User user) {
+        return user.getLastNickname() == null ? null : user.getLastNickname().toLowerCase();
+    }
+}
@@ -10,11 +10,15 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import xyz.kyngs.librelogin.api.database.User;
 import xyz.kyngs.librelogin.api.database.connector.MySQLDatabaseConnector;
 import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
 import xyz.kyngs.librelogin.common.database.connector.AuthenticMySQLDatabaseConnector;
 
 public class LibreLoginMySQLDatabaseProvider extends LibreLoginSQLDatabaseProvider {
+
+    private volatile boolean lowercaseNameColumn = false;
+
     public LibreLoginMySQLDatabaseProvider(
             MySQLDatabaseConnector connector, AuthenticLibreLogin<?, ?> plugin) {
         super(connector, plugin);
@@ -43,12 +47,173 @@ public class LibreLoginMySQLDatabaseProvider extends LibreLoginSQLDatabaseProvid
     }
 
     @Override
-    protected String getIgnoreSyntax() {
-        return "IGNORE";
+    protected void addLowercaseNameIndex(Connection connection, List<String> columns)
+            throws SQLException {
+        // MariaDB does not support functional indexes, so we use an indexed virtual column
+        // instead. A virtual column is never materialized in the rows, so adding it does not
+        // rewrite the table, and the index is built online.
+        try {
+            if (!columns.contains("last_nickname_lower")) {
+                connection
+                        .prepareStatement(
+                                "ALTER TABLE librepremium_data ADD COLUMN last_nickname_lower"
+                                        + " VARCHAR(255) AS (LOWER(last_nickname)) VIRTUAL")
+                        .executeUpdate();
+            }
+        } catch (SQLException e) {
+            plugin.getLogger()
+                    .warn(
+                            "Failed to add the lowercase name column, name lookups will be slower."
+                                    + " Cause: "
+                                    + e.getMessage());
+            return;
+        }
+
+        try {
+            connection
+                    .prepareStatement(
+                            "CREATE INDEX last_nickname_lower_index ON"
+                                    + " librepremium_data(last_nickname_lower) ALGORITHM=INPLACE"
+                                    + " LOCK=NONE")
+                    .executeUpdate();
+        } catch (SQLException ignored) {
+            // The index already exists
+        }
+    }
+
+    @Override
+    protected void onSchemaMigrated(Connection connection) throws SQLException {
+        // The column may be missing if the server does not support virtual columns
+        lowercaseNameColumn = getColumnNames(connection).contains("last_nickname_lower");
+    }
+
+    @Override
+    protected void lockSchema(Connection connection) throws SQLException {
+        var rs =
+                connection
+                        .prepareStatement("SELECT GET_LOCK('librelogin_schema', 300)")
+                        .executeQuery();
+
+        if (!rs.next() || rs.getInt(1) != 1) {
+            throw new SQLException("Timed out waiting for another proxy to migrate the schema");
+        }
+    }
+
+    @Override
+    protected void unlockSchema(Connection connection) throws SQLException {
+        connection.prepareStatement("SELECT RELEASE_LOCK('librelogin_schema')").executeQuery();
+    }
+
+    @Override
+    protected boolean tryLockPruning(Connection connection) throws SQLException {
+        var rs =
+                connection
+                        .prepareStatement("SELECT GET_LOCK('librelogin_prune', 0)")
+                        .executeQuery();
+
+        return rs.next() && rs.getInt(1) == 1;
+    }
+
+    @Override
+    protected void unlockPruning(Connection connection) throws SQLException {
+        connection.prepareStatement("SELECT RELEASE_LOCK('librelogin_prune')").executeQuery();
+    }
+
+    @Override
+    protected String getNameColumn() {
+        return lowercaseNameColumn ? "last_nickname_lower" : super.getNameColumn();
+    }
+
+    @Override
+    protected String getIgnoreSuffix() {
+        // Unlike INSERT IGNORE, only skips the duplicates, other errors are still reported
+        return " ON DUPLICATE KEY UPDATE uuid=uuid";
+    }
+
+    @Override
+    protected boolean insertIfAbsent(Connection connection, User user) throws SQLException {
+        // The affected rows of ON DUPLICATE KEY UPDATE depend on the flags of the driver
+        try {
+            insert(connection, user);
+            return true;
+        } catch (SQLException e) {
+            if (isDuplicateKey(e)) return false;
+            throw e;
+        }
+    }
+
+    @Override
+    protected void upsert(Connection connection, User user) throws SQLException {
+        // ON DUPLICATE KEY UPDATE cannot target a single key, it would overwrite the row of
+        // another user holding the premium UUID. Only the row with the UUID is overwritten.
+        try {
+            insert(connection, user);
+        } catch (SQLException e) {
+            if (!isDuplicateKey(e) || !overwrite(connection, user)) throw e;
+        }
+    }
+
+    private static boolean isDuplicateKey(SQLException e) {
+        // ER_DUP_ENTRY and ER_DUP_ENTRY_WITH_KEY_NAME, the SQL state also covers other violations
+        return "23000".equals(e.getSQLState())
+                && (e.getErrorCode() == 1062 || e.getErrorCode() == 1586);
+    }
+
+    @Override
+    protected String getIPHistoryUpsertSuffix() {
+        return " ON DUPLICATE KEY UPDATE last_seen=VALUES(last_seen), hits=hits+VALUES(hits)";
+    }
+
+    @Override
+    protected String getBinaryUUIDType() {
+        return "BINARY(16)";
+    }
+
+    @Override
+    protected String toBinaryUUID(String column) {
+        return "UNHEX(REPLACE(%s, '-', ''))".formatted(column);
+    }
+
+    /**
+     * Swaps the columns while the table is locked, so no row is written between the last conversion
+     * and the swap. Changing the primary key rebuilds the whole table, so unlike the chunks before
+     * it, this step is not online, the table cannot be read or written until it finishes.
+     */
+    @Override
+    protected void finishBinaryUUIDConversion(Connection connection) throws SQLException {
+        connection.prepareStatement("LOCK TABLES librepremium_data WRITE").execute();
+        try {
+            connection
+                    .prepareStatement(
+                            ("UPDATE librepremium_data SET uuid_bin=%s, premium_uuid_bin=%s WHERE"
+                                            + " uuid_bin IS NULL OR NOT (premium_uuid_bin <=> %s)")
+                                    .formatted(
+                                            toBinaryUUID("uuid"),
+                                            toBinaryUUID("premium_uuid"),
+                                            toBinaryUUID("premium_uuid")))
+                    .executeUpdate();
+
+            // A single statement, so the table is never left without a primary key
+            connection
+                    .prepareStatement(
+                            "ALTER TABLE librepremium_data DROP COLUMN uuid, DROP COLUMN"
+                                    + " premium_uuid, CHANGE uuid_bin uuid BINARY(16) NOT NULL,"
+                                    + " CHANGE premium_uuid_bin premium_uuid BINARY(16) NULL"
+                                    + " DEFAULT NULL, ADD PRIMARY KEY (uuid), ADD UNIQUE INDEX"
+                                    + " premium_uuid_index (premium_uuid)")
+                    .executeUpdate();
+        } finally {
+            connection.prepareStatement("UNLOCK TABLES").execute();
+        }
     }
 
     @Override
     protected String addUnique(String column) {
         return "CREATE UNIQUE INDEX %s_index ON librepremium_data(%s)".formatted(column, column);
     }
+
+    @Override
+    protected String getAutoIncrementKey(String column) {
+        return column + " BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY";
+    }
 }
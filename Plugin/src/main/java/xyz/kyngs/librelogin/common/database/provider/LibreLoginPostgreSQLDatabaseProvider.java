@@ -7,13 +7,34 @@
 package xyz.kyngs.librelogin.common.database.provider;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.jetbrains.annotations.Nullable;
 import xyz.kyngs.librelogin.api.database.connector.PostgreSQLDatabaseConnector;
 import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
+import xyz.kyngs.librelogin.common.util.SQLUtil;
 
 public class LibreLoginPostgreSQLDatabaseProvider extends LibreLoginSQLDatabaseProvider {
+
+    /** Key of the advisory lock held while migrating the schema. */
+    private static final long SCHEMA_LOCK = 0x4C4C_5343_4845_4D41L;
+
+    /** Key of the advisory lock held while pruning inactive users. */
+    private static final long PRUNE_LOCK = 0x4C4C_5052_554E_4521L;
+
+    /** The indexes built concurrently by the migrations, by their name. */
+    private static final Map<String, String> CONCURRENT_INDEXES =
+            Map.of(
+                    "last_nickname_lower_index", "LOWER(last_nickname)",
+                    "last_seen_index", "last_seen",
+                    "ip_index", "ip");
+
     public LibreLoginPostgreSQLDatabaseProvider(
             PostgreSQLDatabaseConnector connector, AuthenticLibreLogin<?, ?> plugin) {
         super(connector, plugin);
@@ -41,6 +62,184 @@ public class LibreLoginPostgreSQLDatabaseProvider extends LibreLoginSQLDatabaseP
         return " ON CONFLICT DO NOTHING";
     }
 
+    @Override
+    protected void addLowercaseNameIndex(Connection connection, List<String> columns)
+            throws SQLException {
+        // Expression index matching the condition of getByName
+        buildIndex(connection, "last_nickname_lower_index");
+    }
+
+    @Override
+    protected void createIndex(Connection connection, String column) throws SQLException {
+        buildIndex(connection, column + "_index");
+    }
+
+    @Override
+    protected void onSchemaMigrated(Connection connection) throws SQLException {
+        // Repairs the indexes whose build has failed, e.g. because the proxy has been stopped
+        for (var name : CONCURRENT_INDEXES.keySet()) {
+            if (Boolean.TRUE.equals(isIndexValid(connection, name))) continue;
+            lockSchema(connection);
+            try {
+                buildIndex(connection, name);
+            } finally {
+                unlockSchema(connection);
+            }
+        }
+    }
+
+    /**
+     * Builds one of the {@link #CONCURRENT_INDEXES} without locking the table. A failed build
+     * leaves an invalid index behind, which is dropped and built again. Failures are logged instead
+     * of aborting the startup, as the lookups still work without the index, and the build is
+     * retried on the next startup.
+     */
+    private void buildIndex(Connection connection, String name) {
+        try {
+            var valid = isIndexValid(connection, name);
+            if (Boolean.TRUE.equals(valid)) return;
+
+            if (valid != null) {
+                plugin.getLogger().warn("Index %s is invalid, building it again".formatted(name));
+                connection.prepareStatement("DROP INDEX CONCURRENTLY " + name).executeUpdate();
+            }
+
+            connection
+                    .prepareStatement(
+                            "CREATE INDEX CONCURRENTLY %s ON librepremium_data(%s)"
+                                    .formatted(name, CONCURRENT_INDEXES.get(name)))
+                    .executeUpdate();
+        } catch (SQLException e) {
+            plugin.getLogger()
+                    .error(
+                            "Failed to build index %s, it will be retried on the next startup: %s"
+                                    .formatted(name, e.getMessage()));
+        }
+    }
+
+    /**
+     * @return Whether the index is valid, or null if it does not exist
+     */
+    private static @Nullable Boolean isIndexValid(Connection connection, String name)
+            throws SQLException {
+        var ps =
+                connection.prepareStatement(
+                        "SELECT indisvalid FROM pg_index WHERE indexrelid=to_regclass(?)");
+
+        ps.setString(1, name);
+
+        var rs = ps.executeQuery();
+
+        return rs.next() ? rs.getBoolean(1) : null;
+    }
+
+    @Override
+    protected void lockSchema(Connection connection) throws SQLException {
+        // Session-level lock, released on unlock or when the connection dies
+        connection.prepareStatement("SELECT pg_advisory_lock(" + SCHEMA_LOCK + ")").executeQuery();
+    }
+
+    @Override
+    protected void unlockSchema(Connection connection) throws SQLException {
+        connection
+                .prepareStatement("SELECT pg_advisory_unlock(" + SCHEMA_LOCK + ")")
+                .executeQuery();
+    }
+
+    @Override
+    protected boolean tryLockPruning(Connection connection) throws SQLException {
+        var rs =
+                connection
+                        .prepareStatement("SELECT pg_try_advisory_lock(" + PRUNE_LOCK + ")")
+                        .executeQuery();
+
+        return rs.next() && rs.getBoolean(1);
+    }
+
+    @Override
+    protected void unlockPruning(Connection connection) throws SQLException {
+        connection.prepareStatement("SELECT pg_advisory_unlock(" + PRUNE_LOCK + ")").executeQuery();
+    }
+
+    @Override
+    protected String getBinaryUUIDType() {
+        return "UUID";
+    }
+
+    @Override
+    protected String toBinaryUUID(String column) {
+        return "CAST(%s AS UUID)".formatted(column);
+    }
+
+    @Override
+    protected void finishBinaryUUIDConversion(Connection connection) throws SQLException {
+        // DDL is transactional in PostgreSQL, other proxies never see a half-swapped table
+        SQLUtil.inTransaction(
+                connection,
+                x -> {
+                    // No row may be written between the last conversion and the swap
+                    connection
+                            .prepareStatement(
+                                    "LOCK TABLE librepremium_data IN ACCESS EXCLUSIVE MODE")
+                            .execute();
+                    connection
+                            .prepareStatement(
+                                    ("UPDATE librepremium_data SET uuid_bin=%s,"
+                                                    + " premium_uuid_bin=%s WHERE uuid_bin IS NULL"
+                                                    + " OR premium_uuid_bin IS DISTINCT FROM %s")
+                                            .formatted(
+                                                    toBinaryUUID("uuid"),
+                                                    toBinaryUUID("premium_uuid"),
+                                                    toBinaryUUID("premium_uuid")))
+                            .executeUpdate();
+                    for (var statement :
+                            List.of(
+                                    "ALTER TABLE librepremium_data DROP COLUMN uuid, DROP COLUMN"
+                                            + " premium_uuid",
+                                    "ALTER TABLE librepremium_data RENAME COLUMN uuid_bin TO uuid",
+                                    "ALTER TABLE librepremium_data RENAME COLUMN"
+                                            + " premium_uuid_bin TO premium_uuid",
+                                    "ALTER TABLE librepremium_data ADD PRIMARY KEY (uuid), ADD"
+                                            + " CONSTRAINT premium_uuid_index UNIQUE"
+                                            + " (premium_uuid)")) {
+                        connection.prepareStatement(statement).executeUpdate();
+                    }
+                    return null;
+                });
+    }
+
+    @Override
+    protected void setUUID(PreparedStatement ps, int index, @Nullable UUID uuid)
+            throws SQLException {
+        if (!isBinaryUUIDs()) {
+            super.setUUID(ps, index, uuid);
+        } else if (uuid == null) {
+            ps.setNull(index, Types.OTHER);
+        } else {
+            ps.setObject(index, uuid);
+        }
+    }
+
+    @Override
+    protected @Nullable UUID getUUID(ResultSet rs, int column) throws SQLException {
+        return isBinaryUUIDs() ? rs.getObject(column, UUID.class) : super.getUUID(rs, column);
+    }
+
+    @Override
+    protected String getInCondition(String expression, int count) {
+        // A single array parameter, so the statement is the same for any amount of values
+        return expression + " = ANY(?)";
+    }
+
+    @Override
+    protected int bindInValues(PreparedStatement ps, int index, List<?> values)
+            throws SQLException {
+        var uuids = isBinaryUUIDs() && !values.isEmpty() && values.get(0) instanceof UUID;
+        var array = values.stream().map(value -> uuids ? value : value.toString()).toArray();
+        ps.setArray(index, ps.getConnection().createArrayOf(uuids ? "uuid" : "varchar", array));
+        return index + 1;
+    }
+
     @Override
     protected String addUnique(String column) {
         return "CREATE UNIQUE INDEX %s_index ON librepremium_data(%s)".formatted(column, column);
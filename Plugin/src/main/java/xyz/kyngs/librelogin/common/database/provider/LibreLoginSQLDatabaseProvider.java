@@ -6,38 +6,274 @@
 
 package xyz.kyngs.librelogin.common.database.provider;
 
+import static xyz.kyngs.librelogin.common.config.ConfigurationKeys.DATABASE_BINARY_UUIDS;
+import static xyz.kyngs.librelogin.common.config.ConfigurationKeys.DATABASE_FETCH_SIZE;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.Iterables;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import org.jetbrains.annotations.Nullable;
 import xyz.kyngs.librelogin.api.crypto.HashedPassword;
+import xyz.kyngs.librelogin.api.database.IPHistoryEntry;
+import xyz.kyngs.librelogin.api.database.PruneResult;
 import xyz.kyngs.librelogin.api.database.User;
 import xyz.kyngs.librelogin.api.database.connector.SQLDatabaseConnector;
+import xyz.kyngs.librelogin.api.util.ThrowableConsumer;
+import xyz.kyngs.librelogin.api.util.ThrowableFunction;
 import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
 import xyz.kyngs.librelogin.common.database.AuthenticDatabaseProvider;
 import xyz.kyngs.librelogin.common.database.AuthenticUser;
+import xyz.kyngs.librelogin.common.database.AuthenticUser.Changes;
+import xyz.kyngs.librelogin.common.database.AuthenticUser.Field;
+import xyz.kyngs.librelogin.common.database.connector.AuthenticSQLDatabaseConnector;
+import xyz.kyngs.librelogin.common.database.invalidation.ChangeLog;
+import xyz.kyngs.librelogin.common.database.invalidation.Invalidation;
+import xyz.kyngs.librelogin.common.migrate.KeysetReadProvider;
+import xyz.kyngs.librelogin.common.util.GeneralUtil;
+import xyz.kyngs.librelogin.common.util.SQLUtil;
 
 public abstract class LibreLoginSQLDatabaseProvider
-        extends AuthenticDatabaseProvider<SQLDatabaseConnector> {
+        extends AuthenticDatabaseProvider<SQLDatabaseConnector>
+        implements ChangeLog, KeysetReadProvider {
+
+    /** Columns written by {@link #insertToStatement(PreparedStatement, User)}, in order. */
+    private static final List<String> COLUMNS =
+            List.of(
+                    "uuid",
+                    "premium_uuid",
+                    "hashed_password",
+                    "salt",
+                    "algo",
+                    "last_nickname",
+                    "joined",
+                    "last_seen",
+                    "secret",
+                    "ip",
+                    "last_authentication",
+                    "last_server",
+                    "email",
+                    "version");
+
+    private static final String INSERT_INTO =
+            "INTO librepremium_data("
+                    + String.join(", ", COLUMNS)
+                    + ") VALUES ("
+                    + "?, ".repeat(COLUMNS.size() - 1)
+                    + "?)";
+
+    /** Keys looked up by a single query of the batch lookups. */
+    private static final int BATCH_LOOKUP_SIZE = 500;
+
+    /** Rows converted at once when switching to binary UUIDs. */
+    private static final int UUID_CONVERSION_CHUNK_SIZE = 5000;
+
+    /**
+     * The version recorded in the schema table while a conversion to binary UUIDs waits for all the
+     * proxies to be stopped. Not a migration, those start at 1.
+     */
+    private static final int UUID_CONVERSION_SCHEDULED = -1;
+
+    /** Users whose last IP is added to the IP history at once when creating it. */
+    private static final int IP_HISTORY_BACKFILL_CHUNK_SIZE = 5000;
+
+    /** Joins the IP history of the player passed as the first two parameters with the others. */
+    private static final String ALTS_JOIN =
+            " FROM librelogin_ip_history own JOIN librelogin_ip_history other ON other.ip=own.ip"
+                    + " WHERE own.uuid=? AND other.uuid<>?";
+
+    /** Times an update is rebased onto a concurrently changed row before giving up. */
+    private static final int MAX_UPDATE_ATTEMPTS = 5;
+
+    private final Map<Set<Field>, String> updateStatements = new ConcurrentHashMap<>();
+
+    /** Whether the UUID columns use the binary format, detected on startup. */
+    private volatile boolean binaryUUIDs = false;
+
+    /**
+     * Selects the {@link #COLUMNS}, in order, as expected by {@link #mapUser(ResultSet)}. The
+     * columns missing in the schema of a migrated database are selected as null.
+     */
+    private volatile String selectUsers = buildSelect(COLUMNS);
+
+    /**
+     * Keys (UUIDs and lowercase names) of recently written users, their reads go to the primary.
+     * Null if the connector has no replicas.
+     */
+    private final @Nullable Cache<Object, Boolean> pinned;
+
+    private final long readAfterWriteWindow;
+
+    /** Until when every lookup runs on the primary, see {@link #pin(Invalidation)}. */
+    private volatile long pinnedAllUntil;
+
+    /**
+     * The latest update of each recently updated user, done by this proxy. An update based on the
+     * version before it catches up without reading the row again, which is the case for users
+     * cached above the write-behind queue, as the queue writes copies of them.
+     */
+    private final Cache<UUID, Update> lastUpdates =
+            Caffeine.newBuilder()
+                    .maximumSize(10000)
+                    .expireAfterWrite(Duration.ofMinutes(10))
+                    .build();
 
     public LibreLoginSQLDatabaseProvider(
             SQLDatabaseConnector connector, AuthenticLibreLogin<?, ?> plugin) {
         super(connector, plugin);
+
+        readAfterWriteWindow =
+                connector instanceof AuthenticSQLDatabaseConnector sql && sql.hasReplicas()
+                        ? sql.getReadAfterWriteWindow()
+                        : 0;
+        pinned =
+                readAfterWriteWindow > 0
+                        ? Caffeine.newBuilder()
+                                .expireAfterWrite(Duration.ofMillis(readAfterWriteWindow))
+                                .build()
+                        : null;
+    }
+
+    /**
+     * Runs a lookup of a single user, on the primary if the user has been written recently, on a
+     * replica otherwise.
+     */
+    private <V> V readUser(Object key, ThrowableFunction<Connection, V, SQLException> function) {
+        return isPinned(key) ? connector.runQuery(function) : connector.runReadQuery(function);
+    }
+
+    /** Runs a lookup of several users, see {@link #readUser(Object, ThrowableFunction)}. */
+    private <V> V readUsers(
+            Collection<?> keys, ThrowableFunction<Connection, V, SQLException> function) {
+        return keys.stream().anyMatch(this::isPinned)
+                ? connector.runQuery(function)
+                : connector.runReadQuery(function);
+    }
+
+    private boolean isPinned(Object key) {
+        return pinned != null
+                && (pinned.getIfPresent(key) != null
+                        || System.currentTimeMillis() < pinnedAllUntil);
+    }
+
+    /** Whether any of the keys of a user has been pinned, regardless of {@link #pinnedAllUntil}. */
+    private boolean isPinned(User user) {
+        if (pinned == null) return false;
+        var name = user.getLastNickname();
+        return pinned.getIfPresent(user.getUuid()) != null
+                || (user.getPremiumUUID() != null
+                        && pinned.getIfPresent(user.getPremiumUUID()) != null)
+                || (name != null && pinned.getIfPresent(name.toLowerCase()) != null);
+    }
+
+    /**
+     * Pins the users changed by another proxy to the primary for a while, as the replicas may not
+     * have caught up with the change when the invalidated cache loads them again.
+     *
+     * @param invalidation The invalidation received from another proxy
+     */
+    public void pin(Invalidation invalidation) {
+        if (pinned == null) return;
+        switch (invalidation.kind()) {
+            case USER -> pinned.put(invalidation.uuid(), true);
+            case NAME -> pinned.put(invalidation.key(), true);
+            case INACTIVE, ALL ->
+                    pinnedAllUntil = System.currentTimeMillis() + readAfterWriteWindow;
+        }
+    }
+
+    /**
+     * Pins the keys of a user to the primary for a while.
+     *
+     * @param user The user, as written or as known before the change
+     */
+    public void pin(User user) {
+        if (pinned == null) return;
+        pinned.put(user.getUuid(), true);
+        if (user.getPremiumUUID() != null) pinned.put(user.getPremiumUUID(), true);
+        if (user.getLastNickname() != null) pinned.put(user.getLastNickname().toLowerCase(), true);
+    }
+
+    /**
+     * Pins the stored name and premium UUID of a user about to be changed, as the replicas keep
+     * returning the user under them until they catch up.
+     *
+     * @param name Also pins the user currently holding the name, if not null
+     */
+    private void pinStored(Connection connection, UUID uuid, @Nullable String name)
+            throws SQLException {
+        if (pinned == null) return;
+        var ps =
+                connection.prepareStatement(
+                        "SELECT uuid, premium_uuid, last_nickname FROM librepremium_data"
+                                + " WHERE uuid=?"
+                                + (name == null ? "" : " OR " + getNameCondition()));
+
+        setUUID(ps, 1, uuid);
+        if (name != null) ps.setString(2, name);
+
+        var rs = ps.executeQuery();
+
+        while (rs.next()) {
+            pinned.put(getUUID(rs, 1), true);
+            var premiumUUID = getUUID(rs, 2);
+            if (premiumUUID != null) pinned.put(premiumUUID, true);
+            var lastNickname = rs.getString(3);
+            if (lastNickname != null) pinned.put(lastNickname.toLowerCase(), true);
+        }
+    }
+
+    private static boolean changesKeys(Set<Field> fields) {
+        return fields.contains(Field.LAST_NICKNAME) || fields.contains(Field.PREMIUM_UUID);
+    }
+
+    /**
+     * Runs a query which passes the users to a consumer as they are read, on a replica. It is not
+     * run again on the primary if the replica fails midway.
+     */
+    private void stream(ThrowableConsumer<Connection, SQLException> consumer) {
+        if (connector instanceof AuthenticSQLDatabaseConnector sql) {
+            sql.streamReadQuery(
+                    connection -> {
+                        consumer.accept(connection);
+                        return null;
+                    });
+        } else {
+            connector.runReadQuery(consumer);
+        }
     }
 
     @Override
     public Collection<User> getByIP(String ip) {
         plugin.reportMainThread();
-        return connector.runQuery(
+        return connector.runReadQuery(
                 connection -> {
-                    var ps =
-                            connection.prepareStatement(
-                                    "SELECT * FROM librepremium_data WHERE ip=?");
+                    var ps = connection.prepareStatement(selectUsers + " WHERE ip=?");
 
                     ps.setString(1, ip);
 
@@ -56,14 +292,78 @@ public abstract class LibreLoginSQLDatabaseProvider
     }
 
     @Override
-    public User getByName(String name) {
+    public int countByIP(String ip) {
         plugin.reportMainThread();
+        // Limits the accounts per IP, a lagging replica would let more through
         return connector.runQuery(
                 connection -> {
                     var ps =
                             connection.prepareStatement(
-                                    "SELECT * FROM librepremium_data WHERE"
-                                            + " LOWER(last_nickname)=LOWER(?)");
+                                    "SELECT COUNT(*) FROM librepremium_data WHERE ip=?");
+
+                    ps.setString(1, ip);
+
+                    var rs = ps.executeQuery();
+
+                    return rs.next() ? rs.getInt(1) : 0;
+                });
+    }
+
+    @Override
+    public List<UUID> getAltUUIDs(UUID uuid, int offset, int limit) {
+        plugin.reportMainThread();
+        return connector.runReadQuery(
+                connection -> {
+                    var ps =
+                            connection.prepareStatement(
+                                    "SELECT other.uuid, MAX(other.last_seen) AS seen"
+                                            + ALTS_JOIN
+                                            + " GROUP BY other.uuid ORDER BY seen DESC, other.uuid"
+                                            + " LIMIT "
+                                            + limit
+                                            + " OFFSET "
+                                            + offset);
+
+                    ps.setString(1, uuid.toString());
+                    ps.setString(2, uuid.toString());
+
+                    var rs = ps.executeQuery();
+
+                    var uuids = new ArrayList<UUID>();
+                    while (rs.next()) {
+                        uuids.add(UUID.fromString(rs.getString(1)));
+                    }
+                    return uuids;
+                });
+    }
+
+    @Override
+    public int countAlts(UUID uuid) {
+        plugin.reportMainThread();
+        return connector.runReadQuery(
+                connection -> {
+                    var ps =
+                            connection.prepareStatement(
+                                    "SELECT COUNT(DISTINCT other.uuid)" + ALTS_JOIN);
+
+                    ps.setString(1, uuid.toString());
+                    ps.setString(2, uuid.toString());
+
+                    var rs = ps.executeQuery();
+
+                    return rs.next() ? rs.getInt(1) : 0;
+                });
+    }
+
+    @Override
+    public User getByName(String name) {
+        plugin.reportMainThread();
+        return readUser(
+                name.toLowerCase(),
+                connection -> {
+                    var ps =
+                            connection.prepareStatement(
+                                    selectUsers + " WHERE " + getNameCondition());
 
                     ps.setString(1, name);
 
@@ -74,53 +374,177 @@ public abstract class LibreLoginSQLDatabaseProvider
     }
 
     @Override
-    public Collection<User> getAllUsers() {
+    public Map<UUID, User> getByUUIDs(Collection<UUID> uuids) {
         plugin.reportMainThread();
-        return connector.runQuery(
+        var users = new HashMap<UUID, User>();
+        for (var chunk : Iterables.partition(new LinkedHashSet<>(uuids), BATCH_LOOKUP_SIZE)) {
+            for (var user : selectIn("uuid", chunk)) {
+                users.put(user.getUuid(), user);
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public Map<String, User> getByNames(Collection<String> names) {
+        plugin.reportMainThread();
+        // The same name may have been requested in several casings
+        var requested = new HashMap<String, List<String>>();
+        for (var name : names) {
+            requested.computeIfAbsent(name.toLowerCase(), x -> new ArrayList<>()).add(name);
+        }
+
+        var users = new HashMap<String, User>();
+        for (var chunk : Iterables.partition(requested.keySet(), BATCH_LOOKUP_SIZE)) {
+            for (var user : selectIn(getNameColumn(), chunk)) {
+                var keys = requested.get(user.getLastNickname().toLowerCase());
+                if (keys != null) keys.forEach(key -> users.put(key, user));
+            }
+        }
+        return users;
+    }
+
+    private List<User> selectIn(String expression, List<?> keys) {
+        return readUsers(
+                keys,
                 connection -> {
-                    var ps = connection.prepareStatement("SELECT * FROM librepremium_data");
+                    var ps =
+                            connection.prepareStatement(
+                                    selectUsers
+                                            + " WHERE "
+                                            + getInCondition(expression, keys.size()));
+
+                    bindInValues(ps, 1, keys);
 
                     var rs = ps.executeQuery();
 
-                    var users = new ArrayList<User>();
+                    var users = new ArrayList<User>(keys.size());
+
+                    while (rs.next()) {
+                        users.add(mapUser(rs));
+                    }
+
+                    return users;
+                });
+    }
+
+    @Override
+    public Collection<User> getAllUsers() {
+        var users = new ArrayList<User>();
+        forEachUser(users::add);
+        return users;
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> consumer) {
+        plugin.reportMainThread();
+        stream(
+                connection -> {
+                    var ps =
+                            SQLUtil.prepareStreaming(
+                                    connection,
+                                    selectUsers,
+                                    plugin.getConfiguration().get(DATABASE_FETCH_SIZE));
+
+                    var rs = ps.executeQuery();
 
                     User user;
 
                     while ((user = getUserFromResult(rs)) != null) {
-                        users.add(user);
+                        consumer.accept(user);
                     }
-
-                    return users;
                 });
     }
 
     @Override
-    public User getByUUID(UUID uuid) {
+    public void forEachUserAfter(@Nullable UUID after, Consumer<User> consumer) {
         plugin.reportMainThread();
-        return connector.runQuery(
+        stream(
                 connection -> {
                     var ps =
-                            connection.prepareStatement(
-                                    "SELECT * FROM librepremium_data WHERE uuid=?");
+                            SQLUtil.prepareStreaming(
+                                    connection,
+                                    selectUsers
+                                            + (after == null ? "" : " WHERE uuid>?")
+                                            + " ORDER BY uuid",
+                                    plugin.getConfiguration().get(DATABASE_FETCH_SIZE));
 
-                    ps.setString(1, uuid.toString());
+                    if (after != null) setUUID(ps, 1, after);
 
                     var rs = ps.executeQuery();
 
-                    return getUserFromResult(rs);
+                    User user;
+
+                    while ((user = getUserFromResult(rs)) != null) {
+                        consumer.accept(user);
+                    }
                 });
     }
 
     @Override
-    public User getByPremiumUUID(UUID uuid) {
+    public void forEachUserSeenSince(Timestamp since, int limit, Consumer<User> consumer) {
         plugin.reportMainThread();
-        return connector.runQuery(
+        ThrowableConsumer<Connection, SQLException> query =
                 connection -> {
                     var ps =
-                            connection.prepareStatement(
-                                    "SELECT * FROM librepremium_data WHERE premium_uuid=?");
+                            SQLUtil.prepareStreaming(
+                                    connection,
+                                    selectUsers
+                                            + " WHERE last_seen>=? ORDER BY last_seen DESC"
+                                            + (limit > 0 ? " LIMIT " + limit : ""),
+                                    plugin.getConfiguration().get(DATABASE_FETCH_SIZE));
 
-                    ps.setString(1, uuid.toString());
+                    ps.setTimestamp(1, since);
+
+                    var rs = ps.executeQuery();
+
+                    User user;
+
+                    while ((user = getUserFromResult(rs)) != null) {
+                        // The replica may not have caught up with a recent write of the user
+                        if (isPinned(user)) {
+                            var uuid = user.getUuid();
+                            user =
+                                    connector.runQuery(
+                                            (Connection primary) -> selectByUUID(primary, uuid));
+                            if (user == null) continue;
+                        }
+                        consumer.accept(user);
+                    }
+                };
+
+        if (System.currentTimeMillis() < pinnedAllUntil) {
+            connector.runQuery(query);
+        } else {
+            stream(query);
+        }
+    }
+
+    @Override
+    public User getByUUID(UUID uuid) {
+        plugin.reportMainThread();
+        return readUser(uuid, connection -> selectByUUID(connection, uuid));
+    }
+
+    private @Nullable User selectByUUID(Connection connection, UUID uuid) throws SQLException {
+        var ps = connection.prepareStatement(selectUsers + " WHERE uuid=?");
+
+        setUUID(ps, 1, uuid);
+
+        var rs = ps.executeQuery();
+
+        return getUserFromResult(rs);
+    }
+
+    @Override
+    public User getByPremiumUUID(UUID uuid) {
+        plugin.reportMainThread();
+        return readUser(
+                uuid,
+                connection -> {
+                    var ps = connection.prepareStatement(selectUsers + " WHERE premium_uuid=?");
+
+                    setUUID(ps, 1, uuid);
 
                     var rs = ps.executeQuery();
 
@@ -130,65 +554,55 @@ public abstract class LibreLoginSQLDatabaseProvider
 
     @Nullable
     private User getUserFromResult(ResultSet rs) throws SQLException {
-        if (rs.next()) {
-            var id = UUID.fromString(rs.getString("uuid"));
-            var premiumUUID = rs.getString("premium_uuid");
-            var hashedPassword = rs.getString("hashed_password");
-            var salt = rs.getString("salt");
-            var algo = rs.getString("algo");
-            var lastNickname = rs.getString("last_nickname");
-            var joinDate = rs.getTimestamp("joined");
-            var lastSeen = rs.getTimestamp("last_seen");
-
-            return new AuthenticUser(
-                    id,
-                    premiumUUID == null ? null : UUID.fromString(premiumUUID),
-                    hashedPassword == null ? null : new HashedPassword(hashedPassword, salt, algo),
-                    lastNickname,
-                    joinDate,
-                    lastSeen,
-                    rs.getString("secret"),
-                    rs.getString("ip"),
-                    rs.getTimestamp("last_authentication"),
-                    rs.getString("last_server"),
-                    rs.getString("email"));
-        } else return null;
+        return rs.next() ? mapUser(rs) : null;
+    }
+
+    /**
+     * Maps the current row of a result set selected by {@link #selectUsers}. Columns are read by
+     * their position, so the driver does not have to resolve their names for every row.
+     */
+    User mapUser(ResultSet rs) throws SQLException {
+        var hash = rs.getString(3);
+        var hashedPassword =
+                hash == null ? null : new HashedPassword(hash, rs.getString(4), rs.getString(5));
+
+        var user =
+                new AuthenticUser(
+                        getUUID(rs, 1),
+                        getUUID(rs, 2),
+                        hashedPassword,
+                        rs.getString(6),
+                        rs.getTimestamp(7),
+                        rs.getTimestamp(8),
+                        rs.getString(9),
+                        rs.getString(10),
+                        rs.getTimestamp(11),
+                        rs.getString(12),
+                        rs.getString(13));
+        user.setRowVersion(rs.getLong(14));
+        user.markClean();
+        return user;
     }
 
     @Override
     public void insertUser(User user) {
         plugin.reportMainThread();
+        var changes = getChanges(user);
+        pin(user);
         connector.runQuery(
                 connection -> {
-                    var ps =
-                            connection.prepareStatement(
-                                    "INSERT INTO librepremium_data(uuid, premium_uuid,"
-                                        + " hashed_password, salt, algo, last_nickname, joined,"
-                                        + " last_seen, secret, ip, last_authentication,"
-                                        + " last_server, email) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?,"
-                                        + " ?, ?, ?, ?)");
-
-                    insertToStatement(ps, user);
-
-                    ps.executeUpdate();
+                    insert(connection, user);
                 });
+        markClean(user, changes);
     }
 
     @Override
     public void insertUsers(Collection<User> users) {
         plugin.reportMainThread();
+        users.forEach(this::pin);
         connector.runQuery(
                 connection -> {
-                    var ps =
-                            connection.prepareStatement(
-                                    "INSERT "
-                                            + getIgnoreSyntax()
-                                            + " INTO librepremium_data(uuid, premium_uuid,"
-                                            + " hashed_password, salt, algo, last_nickname, joined,"
-                                            + " last_seen, secret, ip, last_authentication,"
-                                            + " last_server, email) VALUES (?, ?, ?, ?, ?, ?, ?, ?,"
-                                            + " ?, ?, ?, ?, ?)"
-                                            + getIgnoreSuffix());
+                    var ps = connection.prepareStatement(getInsertIgnoreStatement());
 
                     for (User user : users) {
                         insertToStatement(ps, user);
@@ -196,13 +610,236 @@ public abstract class LibreLoginSQLDatabaseProvider
                         ps.addBatch();
                     }
 
-                    ps.executeBatch();
+                    SQLUtil.inTransaction(connection, x -> ps.executeBatch());
+                });
+    }
+
+    @Override
+    public boolean insertUserIfAbsent(User user) {
+        plugin.reportMainThread();
+        var changes = getChanges(user);
+        pin(user);
+        // The unique constraints decide, so there is no window between a check and the insert
+        boolean inserted =
+                connector.runQuery((Connection connection) -> insertIfAbsent(connection, user));
+        if (inserted) markClean(user, changes);
+        return inserted;
+    }
+
+    @Override
+    public void upsertUser(User user) {
+        plugin.reportMainThread();
+        var changes = getChanges(user);
+        pin(user);
+        connector.runQuery(
+                connection -> {
+                    pinStored(connection, user.getUuid(), null);
+                    upsert(connection, user);
+                });
+        markClean(user, changes);
+    }
+
+    @Override
+    public void claimName(User user, String name) {
+        plugin.reportMainThread();
+        user.setLastNickname(name);
+        var changes = getChanges(user);
+        pin(user);
+        connector.runQuery(
+                connection -> {
+                    var delete =
+                            connection.prepareStatement(
+                                    "DELETE FROM librepremium_data WHERE "
+                                            + getNameCondition()
+                                            + " AND uuid<>?");
+
+                    delete.setString(1, name);
+                    setUUID(delete, 2, user.getUuid());
+
+                    pinStored(connection, user.getUuid(), name);
+
+                    // The name is released and taken over atomically
+                    SQLUtil.inTransaction(
+                            connection,
+                            x -> {
+                                delete.executeUpdate();
+                                upsert(connection, user);
+                                return null;
+                            });
+                });
+        markClean(user, changes);
+    }
+
+    /**
+     * Runs a prune of inactive users, unless another proxy sharing the database is running one. The
+     * connection holding the lock is kept for the whole prune. A database which cannot be shared
+     * needs no lock, so no connection is held, and every chunk of the prune commits on its own.
+     *
+     * @param prune The prune
+     * @return The result of the prune, or null if another proxy is pruning
+     */
+    public <V> @Nullable V runPruneExclusively(Supplier<V> prune) {
+        if (!isShared()) return prune.get();
+        return connector.runQuery(
+                connection -> {
+                    if (!tryLockPruning(connection)) return null;
+                    try {
+                        return prune.get();
+                    } finally {
+                        unlockPruning(connection);
+                    }
+                });
+    }
+
+    @Override
+    public PruneResult pruneInactiveUsers(Timestamp lastSeenBefore, int limit) {
+        plugin.reportMainThread();
+        var condition = "last_seen<? AND premium_uuid IS NULL AND email IS NULL";
+        return connector.runQuery(
+                connection -> {
+                    var select =
+                            connection.prepareStatement(
+                                    "SELECT uuid FROM librepremium_data WHERE "
+                                            + condition
+                                            + " LIMIT "
+                                            + limit);
+
+                    select.setTimestamp(1, lastSeenBefore);
+
+                    var rs = select.executeQuery();
+
+                    var uuids = new ArrayList<UUID>(limit);
+
+                    while (rs.next()) {
+                        uuids.add(getUUID(rs, 1));
+                    }
+
+                    var selected = uuids.size();
+                    if (selected == 0) return new PruneResult(0, 0);
+
+                    // The condition is checked again, the users may have joined in the meantime
+                    var delete =
+                            connection.prepareStatement(
+                                    "DELETE FROM librepremium_data WHERE "
+                                            + getInCondition("uuid", uuids.size())
+                                            + " AND "
+                                            + condition);
+
+                    var index = bindInValues(delete, 1, uuids);
+                    delete.setTimestamp(index, lastSeenBefore);
+
+                    // Only the history of the users which are really gone is deleted
+                    var remaining =
+                            connection.prepareStatement(
+                                    "SELECT uuid FROM librepremium_data WHERE "
+                                            + getInCondition("uuid", uuids.size()));
+
+                    bindInValues(remaining, 1, uuids);
+
+                    // A user registering again in between must not lose the new history
+                    var pruned =
+                            SQLUtil.inTransaction(
+                                    connection,
+                                    x -> {
+                                        var deleted = delete.executeUpdate();
+
+                                        var remainingRs = remaining.executeQuery();
+
+                                        while (remainingRs.next()) {
+                                            uuids.remove(getUUID(remainingRs, 1));
+                                        }
+
+                                        if (!uuids.isEmpty()) deleteIPHistory(connection, uuids);
+
+                                        return deleted;
+                                    });
+
+                    return new PruneResult(selected, pruned);
                 });
     }
 
+    private String getInsertIgnoreStatement() {
+        return "INSERT " + INSERT_INTO + getIgnoreSuffix();
+    }
+
+    private String getUpsertStatement() {
+        return "INSERT " + INSERT_INTO + getUpsertSuffix(COLUMNS.subList(1, COLUMNS.size()));
+    }
+
+    /**
+     * Inserts the user, unless a row conflicts with any of its unique keys.
+     *
+     * @param connection The connection
+     * @param user The user
+     * @return Whether the user has been inserted
+     */
+    protected boolean insertIfAbsent(Connection connection, User user) throws SQLException {
+        var ps = connection.prepareStatement(getInsertIgnoreStatement());
+
+        insertToStatement(ps, user);
+
+        return ps.executeUpdate() > 0;
+    }
+
+    /**
+     * Inserts the user, or overwrites the row with its UUID. The rows of other users are never
+     * touched, a conflict with another unique key fails.
+     *
+     * @param connection The connection
+     * @param user The user
+     */
+    protected void upsert(Connection connection, User user) throws SQLException {
+        var ps = connection.prepareStatement(getUpsertStatement());
+
+        insertToStatement(ps, user);
+
+        ps.executeUpdate();
+    }
+
+    /**
+     * Inserts the user with a plain insert, which fails on any conflict.
+     *
+     * @param connection The connection
+     * @param user The user
+     */
+    protected void insert(Connection connection, User user) throws SQLException {
+        var ps = connection.prepareStatement("INSERT " + INSERT_INTO);
+
+        insertToStatement(ps, user);
+
+        ps.executeUpdate();
+    }
+
+    /**
+     * Overwrites every column of the row with the UUID of the user.
+     *
+     * @param connection The connection
+     * @param user The user
+     * @return Whether the row exists
+     */
+    protected boolean overwrite(Connection connection, User user) throws SQLException {
+        var fields = EnumSet.allOf(Field.class);
+        var ps =
+                connection.prepareStatement(
+                        "UPDATE librepremium_data SET "
+                                + getAssignments(fields)
+                                + ", version=? WHERE uuid=?");
+
+        updateToStatement(ps, user, fields, nextVersion(user));
+
+        if (ps.executeUpdate() > 0) return true;
+
+        // Some drivers report the changed rows only, an unchanged row counts as zero
+        var exists = connection.prepareStatement("SELECT 1 FROM librepremium_data WHERE uuid=?");
+
+        setUUID(exists, 1, user.getUuid());
+
+        return exists.executeQuery().next();
+    }
+
     private void insertToStatement(PreparedStatement ps, User user) throws SQLException {
-        ps.setString(1, user.getUuid().toString());
-        ps.setString(2, user.getPremiumUUID() == null ? null : user.getPremiumUUID().toString());
+        setUUID(ps, 1, user.getUuid());
+        setUUID(ps, 2, user.getPremiumUUID());
         ps.setString(3, user.getHashedPassword() == null ? null : user.getHashedPassword().hash());
         ps.setString(4, user.getHashedPassword() == null ? null : user.getHashedPassword().salt());
         ps.setString(5, user.getHashedPassword() == null ? null : user.getHashedPassword().algo());
@@ -214,144 +851,1037 @@ public abstract class LibreLoginSQLDatabaseProvider
         ps.setTimestamp(11, user.getLastAuthentication());
         ps.setString(12, user.getLastServer());
         ps.setString(13, user.getEmail());
+        ps.setLong(14, nextVersion(user));
+    }
+
+    /** Assigns the user a new version, which is written along with it. */
+    private static long nextVersion(User user) {
+        var version = newVersion();
+        if (user instanceof AuthenticUser authentic) authentic.setRowVersion(version);
+        return version;
+    }
+
+    /**
+     * Versions are random instead of counted up, so the version read back after a batch, whose row
+     * counts some drivers do not report, tells whether the batch or a concurrent update wrote it.
+     */
+    private static long newVersion() {
+        long version;
+        do {
+            version = ThreadLocalRandom.current().nextLong();
+        } while (version == 0);
+        return version;
     }
 
     @Override
     public void updateUser(User user) {
         plugin.reportMainThread();
+        var changes = getChanges(user);
+        var fields = changes.fields();
+        if (fields.isEmpty()) return;
+        pin(user);
+        var authentic = toAuthentic(user);
         connector.runQuery(
                 connection -> {
-                    var ps =
-                            connection.prepareStatement(
-                                    "UPDATE librepremium_data SET premium_uuid=?,"
-                                            + " hashed_password=?, salt=?, algo=?, last_nickname=?,"
-                                            + " joined=?, last_seen=?, secret=?, ip=?,"
-                                            + " last_authentication=?, last_server=?, email=? WHERE"
-                                            + " uuid=?");
-
-                    ps.setString(
-                            1,
-                            user.getPremiumUUID() == null
-                                    ? null
-                                    : user.getPremiumUUID().toString());
-                    ps.setString(
-                            2,
-                            user.getHashedPassword() == null
-                                    ? null
-                                    : user.getHashedPassword().hash());
-                    ps.setString(
-                            3,
-                            user.getHashedPassword() == null
-                                    ? null
-                                    : user.getHashedPassword().salt());
-                    ps.setString(
-                            4,
-                            user.getHashedPassword() == null
-                                    ? null
-                                    : user.getHashedPassword().algo());
-                    ps.setString(5, user.getLastNickname());
-                    ps.setTimestamp(6, user.getJoinDate());
-                    ps.setTimestamp(7, user.getLastSeen());
-                    ps.setString(8, user.getSecret());
-                    ps.setString(9, user.getIp());
-                    ps.setTimestamp(10, user.getLastAuthentication());
-                    ps.setString(11, user.getLastServer());
-                    ps.setString(12, user.getEmail());
-                    ps.setString(13, user.getUuid().toString());
-                    ps.executeUpdate();
+                    if (changesKeys(fields)) pinStored(connection, user.getUuid(), null);
+
+                    update(connection, authentic, fields);
+                });
+        markClean(user, changes);
+    }
+
+    @Override
+    public void updateUsers(Collection<User> users) {
+        plugin.reportMainThread();
+        // Users with the same dirty fields share a statement, so they can be batched together
+        var groups = new HashMap<Set<Field>, List<AuthenticUser>>();
+        var changes = new IdentityHashMap<User, Changes>();
+        for (User user : users) {
+            var userChanges = getChanges(user);
+            if (userChanges.fields().isEmpty()) continue;
+            changes.put(user, userChanges);
+            groups.computeIfAbsent(userChanges.fields(), x -> new ArrayList<>())
+                    .add(toAuthentic(user));
+            pin(user);
+        }
+        if (groups.isEmpty()) return;
+        connector.runQuery(
+                connection -> {
+                    for (var group : groups.entrySet()) {
+                        var fields = group.getKey();
+                        var batch = group.getValue();
+                        var ps = connection.prepareStatement(getUpdateStatement(fields));
+
+                        var expected = new long[batch.size()];
+                        var next = new long[batch.size()];
+                        for (var i = 0; i < batch.size(); i++) {
+                            var user = batch.get(i);
+                            if (changesKeys(fields)) pinStored(connection, user.getUuid(), null);
+                            catchUp(user);
+                            expected[i] = user.getRowVersion();
+                            next[i] = newVersion();
+
+                            var index = updateToStatement(ps, user, fields, next[i]);
+                            ps.setLong(index, expected[i]);
+
+                            ps.addBatch();
+                        }
+
+                        var counts = ps.executeBatch();
+
+                        var unknown = new ArrayList<UUID>();
+                        for (var i = 0; i < counts.length; i++) {
+                            if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                                unknown.add(batch.get(i).getUuid());
+                            }
+                        }
+                        var versions = selectVersions(connection, unknown);
+
+                        for (var i = 0; i < batch.size(); i++) {
+                            var user = batch.get(i);
+                            var written =
+                                    counts[i] == Statement.SUCCESS_NO_INFO
+                                            ? versions.getOrDefault(user.getUuid(), 0L) == next[i]
+                                            : counts[i] > 0;
+                            if (written) {
+                                updated(user, expected[i], next[i]);
+                            } else {
+                                // Someone else has updated the user since it has been loaded
+                                update(connection, user, fields);
+                            }
+                        }
+                    }
                 });
+        changes.forEach(LibreLoginSQLDatabaseProvider::markClean);
+    }
+
+    /**
+     * Users of other implementations do not know their version, so they are copied with all their
+     * fields dirty. The update is then rebased onto whatever is stored.
+     */
+    private static AuthenticUser toAuthentic(User user) {
+        return user instanceof AuthenticUser authentic ? authentic : new AuthenticUser(user);
+    }
+
+    /**
+     * Writes the fields of the user, if the stored row is still at the version of the user.
+     * Otherwise, the user is rebased onto the stored row, and the write is retried, so only the
+     * fields changed by the caller overwrite the stored ones.
+     */
+    private void update(Connection connection, AuthenticUser user, Set<Field> fields)
+            throws SQLException {
+        var ps = connection.prepareStatement(getUpdateStatement(fields));
+        for (var attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+            catchUp(user);
+            var expected = user.getRowVersion();
+            var next = newVersion();
+
+            var index = updateToStatement(ps, user, fields, next);
+            ps.setLong(index, expected);
+
+            if (ps.executeUpdate() > 0) {
+                updated(user, expected, next);
+                return;
+            }
+
+            var stored = selectByUUID(connection, user.getUuid());
+            // Like any UPDATE, a user which does not exist is not created
+            if (stored == null) return;
+            plugin.getLogger()
+                    .debug(
+                            "User %s has been updated concurrently, writing %s on top"
+                                    .formatted(user.getUuid(), fields));
+            user.rebase(stored);
+        }
+        throw new IllegalStateException(
+                "User %s is being updated concurrently, gave up after %d attempts"
+                        .formatted(user.getUuid(), MAX_UPDATE_ATTEMPTS));
+    }
+
+    /** Applies the latest update of this proxy, if the user is based on the version before it. */
+    private void catchUp(AuthenticUser user) {
+        var update = lastUpdates.getIfPresent(user.getUuid());
+        if (update != null && update.previous() == user.getRowVersion()) {
+            user.rebase(update.state());
+        }
+    }
+
+    private void updated(AuthenticUser user, long previous, long version) {
+        user.setRowVersion(version);
+        var state = new AuthenticUser(user);
+        state.markClean();
+        lastUpdates.put(user.getUuid(), new Update(previous, state));
+    }
+
+    private Map<UUID, Long> selectVersions(Connection connection, List<UUID> uuids)
+            throws SQLException {
+        var versions = new HashMap<UUID, Long>();
+        for (var chunk : Iterables.partition(uuids, BATCH_LOOKUP_SIZE)) {
+            var ps =
+                    connection.prepareStatement(
+                            "SELECT uuid, version FROM librepremium_data WHERE "
+                                    + getInCondition("uuid", chunk.size()));
+
+            bindInValues(ps, 1, chunk);
+
+            var rs = ps.executeQuery();
+            while (rs.next()) {
+                versions.put(getUUID(rs, 1), rs.getLong(2));
+            }
+        }
+        return versions;
+    }
+
+    private static Changes getChanges(User user) {
+        return user instanceof AuthenticUser authentic ? authentic.getChanges() : Changes.all();
+    }
+
+    private static void markClean(User user, Changes changes) {
+        if (user instanceof AuthenticUser authentic) authentic.markClean(changes);
+    }
+
+    /** The update of the fields, applied only if the row is still at the expected version. */
+    private String getUpdateStatement(Set<Field> fields) {
+        return updateStatements.computeIfAbsent(
+                fields,
+                x ->
+                        "UPDATE librepremium_data SET "
+                                + getAssignments(fields)
+                                + ", version=? WHERE uuid=? AND version=?");
+    }
+
+    private static String getAssignments(Set<Field> fields) {
+        var columns = new StringJoiner(", ");
+        for (var field : fields) {
+            switch (field) {
+                case PREMIUM_UUID -> columns.add("premium_uuid=?");
+                case HASHED_PASSWORD -> columns.add("hashed_password=?, salt=?, algo=?");
+                case LAST_NICKNAME -> columns.add("last_nickname=?");
+                case JOIN_DATE -> columns.add("joined=?");
+                case LAST_SEEN -> columns.add("last_seen=?");
+                case SECRET -> columns.add("secret=?");
+                case IP -> columns.add("ip=?");
+                case LAST_AUTHENTICATION -> columns.add("last_authentication=?");
+                case LAST_SERVER -> columns.add("last_server=?");
+                case EMAIL -> columns.add("email=?");
+            }
+        }
+        return columns.toString();
+    }
+
+    /**
+     * Binds the fields, the new version and the UUID of the user.
+     *
+     * @return The index of the next parameter
+     */
+    private int updateToStatement(PreparedStatement ps, User user, Set<Field> fields, long version)
+            throws SQLException {
+        var i = 1;
+        for (var field : fields) {
+            switch (field) {
+                case PREMIUM_UUID -> setUUID(ps, i++, user.getPremiumUUID());
+                case HASHED_PASSWORD -> {
+                    var password = user.getHashedPassword();
+                    ps.setString(i++, password == null ? null : password.hash());
+                    ps.setString(i++, password == null ? null : password.salt());
+                    ps.setString(i++, password == null ? null : password.algo());
+                }
+                case LAST_NICKNAME -> ps.setString(i++, user.getLastNickname());
+                case JOIN_DATE -> ps.setTimestamp(i++, user.getJoinDate());
+                case LAST_SEEN -> ps.setTimestamp(i++, user.getLastSeen());
+                case SECRET -> ps.setString(i++, user.getSecret());
+                case IP -> ps.setString(i++, user.getIp());
+                case LAST_AUTHENTICATION -> ps.setTimestamp(i++, user.getLastAuthentication());
+                case LAST_SERVER -> ps.setString(i++, user.getLastServer());
+                case EMAIL -> ps.setString(i++, user.getEmail());
+            }
+        }
+        ps.setLong(i++, version);
+        setUUID(ps, i++, user.getUuid());
+        return i;
     }
 
     @Override
     public void deleteUser(User user) {
         plugin.reportMainThread();
+        pin(user);
         connector.runQuery(
                 connection -> {
                     var ps =
                             connection.prepareStatement(
                                     "DELETE FROM librepremium_data WHERE uuid=?");
 
-                    ps.setString(1, user.getUuid().toString());
+                    setUUID(ps, 1, user.getUuid());
 
-                    ps.executeUpdate();
+                    SQLUtil.inTransaction(
+                            connection,
+                            x -> {
+                                ps.executeUpdate();
+                                deleteIPHistory(connection, List.of(user.getUuid()));
+                                return null;
+                            });
                 });
     }
 
     @Override
-    public void validateSchema() {
+    public void recordIPs(Collection<IPHistoryEntry> entries) {
+        if (entries.isEmpty()) return;
+        plugin.reportMainThread();
+        // A consistent order, so concurrent batches do not deadlock on the rows
+        var sorted =
+                entries.stream()
+                        .sorted(
+                                Comparator.comparing(IPHistoryEntry::uuid)
+                                        .thenComparing(IPHistoryEntry::ip))
+                        .toList();
         connector.runQuery(
                 connection -> {
-                    connection
-                            .prepareStatement(
-                                    "CREATE TABLE IF NOT EXISTS librepremium_data("
-                                            + "uuid VARCHAR(255) NOT NULL PRIMARY KEY,"
-                                            + "premium_uuid VARCHAR(255) UNIQUE,"
-                                            + "hashed_password VARCHAR(255),"
-                                            + "salt VARCHAR(255),"
-                                            + "algo VARCHAR(255),"
-                                            + "last_nickname VARCHAR(255) NOT NULL UNIQUE,"
-                                            + "joined TIMESTAMP NULL DEFAULT NULL,"
-                                            + "last_seen TIMESTAMP NULL DEFAULT NULL,"
-                                            + "last_server VARCHAR(255)"
-                                            + ")")
-                            .executeUpdate();
-
-                    var columns = getColumnNames(connection);
+                    var ps = connection.prepareStatement(getIPHistoryUpsertStatement());
 
-                    try {
-                        connection.prepareStatement(addUnique("premium_uuid")).executeUpdate();
-                    } catch (SQLException ignored) {
+                    for (var entry : sorted) {
+                        bindIPHistory(ps, entry);
+                        ps.addBatch();
                     }
 
-                    if (!columns.contains("secret"))
-                        connection
-                                .prepareStatement(
-                                        "ALTER TABLE librepremium_data ADD COLUMN secret"
-                                                + " VARCHAR(255) NULL DEFAULT NULL")
-                                .executeUpdate();
-                    if (!columns.contains("ip"))
-                        connection
-                                .prepareStatement(
-                                        "ALTER TABLE librepremium_data ADD COLUMN ip VARCHAR(255)"
-                                                + " NULL DEFAULT NULL")
-                                .executeUpdate();
-                    if (!columns.contains("last_authentication"))
-                        connection
-                                .prepareStatement(
-                                        "ALTER TABLE librepremium_data ADD COLUMN"
-                                            + " last_authentication TIMESTAMP NULL DEFAULT NULL")
-                                .executeUpdate();
-                    if (!columns.contains("last_server")) {
-                        connection
-                                .prepareStatement(
-                                        "ALTER TABLE librepremium_data ADD COLUMN last_server"
-                                                + " VARCHAR(255) NULL DEFAULT NULL")
-                                .executeUpdate();
+                    SQLUtil.inTransaction(connection, x -> ps.executeBatch());
+                });
+    }
+
+    @Override
+    public PruneResult pruneIPHistory(Timestamp lastSeenBefore, int limit) {
+        plugin.reportMainThread();
+        return connector.runQuery(
+                connection -> {
+                    var select =
+                            connection.prepareStatement(
+                                    "SELECT uuid, ip FROM librelogin_ip_history WHERE last_seen<?"
+                                            + " LIMIT "
+                                            + limit);
+
+                    select.setTimestamp(1, lastSeenBefore);
+
+                    var rs = select.executeQuery();
+
+                    // The condition is checked again, the player may have logged in meanwhile
+                    var delete =
+                            connection.prepareStatement(
+                                    "DELETE FROM librelogin_ip_history WHERE uuid=? AND ip=? AND"
+                                            + " last_seen<?");
+
+                    var selected = 0;
+
+                    while (rs.next()) {
+                        delete.setString(1, rs.getString(1));
+                        delete.setString(2, rs.getString(2));
+                        delete.setTimestamp(3, lastSeenBefore);
+                        delete.addBatch();
+                        selected++;
                     }
-                    if (!columns.contains("email")) {
-                        connection
-                                .prepareStatement(
-                                        "ALTER TABLE librepremium_data ADD COLUMN email"
-                                                + " VARCHAR(255) NULL DEFAULT NULL")
-                                .executeUpdate();
+
+                    if (selected == 0) return new PruneResult(0, 0);
+
+                    var counts = SQLUtil.inTransaction(connection, x -> delete.executeBatch());
+                    var deleted = 0;
+                    for (var count : counts) {
+                        // Some drivers do not report the count of each statement
+                        deleted += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
                     }
 
-                    try {
-                        connection.prepareStatement(addUnique("last_nickname")).executeUpdate();
-                    } catch (SQLException ignored) {
+                    return new PruneResult(selected, deleted);
+                });
+    }
+
+    private String getIPHistoryUpsertStatement() {
+        return "INSERT INTO librelogin_ip_history(uuid, ip, first_seen, last_seen, hits) VALUES"
+                + " (?, ?, ?, ?, ?)"
+                + getIPHistoryUpsertSuffix();
+    }
+
+    private static void bindIPHistory(PreparedStatement ps, IPHistoryEntry entry)
+            throws SQLException {
+        // The history always stores the UUIDs as strings, so it is not affected by their format
+        ps.setString(1, entry.uuid().toString());
+        ps.setString(2, entry.ip());
+        ps.setTimestamp(3, entry.firstSeen());
+        ps.setTimestamp(4, entry.lastSeen());
+        ps.setInt(5, entry.hits());
+    }
+
+    private static void deleteIPHistory(Connection connection, List<UUID> uuids)
+            throws SQLException {
+        var ps =
+                connection.prepareStatement(
+                        "DELETE FROM librelogin_ip_history WHERE uuid IN ("
+                                + "?, ".repeat(uuids.size() - 1)
+                                + "?)");
+
+        for (var i = 0; i < uuids.size(); i++) {
+            ps.setString(i + 1, uuids.get(i).toString());
+        }
+
+        ps.executeUpdate();
+    }
+
+    @Override
+    public long getLatestChange() {
+        return connector.runQuery(
+                connection -> {
+                    var rs =
+                            connection
+                                    .prepareStatement("SELECT MAX(id) FROM librelogin_changes")
+                                    .executeQuery();
+                    return rs.next() ? rs.getLong(1) : 0L;
+                });
+    }
+
+    @Override
+    public void appendChanges(String origin, Collection<Invalidation> invalidations) {
+        var changed = new Timestamp(System.currentTimeMillis());
+        connector.runQuery(
+                connection -> {
+                    var ps =
+                            connection.prepareStatement(
+                                    "INSERT INTO librelogin_changes(origin, kind, user_key,"
+                                            + " changed) VALUES (?, ?, ?, ?)");
+
+                    for (var invalidation : invalidations) {
+                        ps.setString(1, origin);
+                        ps.setString(2, invalidation.kind().name());
+                        ps.setString(3, invalidation.key());
+                        ps.setTimestamp(4, changed);
+                        ps.addBatch();
                     }
+
+                    ps.executeBatch();
                 });
     }
 
-    protected abstract List<String> getColumnNames(Connection connection) throws SQLException;
+    @Override
+    public List<Change> readChanges(long after, long before, int limit) {
+        return connector.runQuery(
+                connection -> {
+                    var ps =
+                            connection.prepareStatement(
+                                    "SELECT id, origin, kind, user_key FROM librelogin_changes"
+                                            + " WHERE id>? AND id<? ORDER BY id LIMIT "
+                                            + limit);
 
-    protected String getIgnoreSyntax() {
-        return "";
+                    ps.setLong(1, after);
+                    ps.setLong(2, before);
+
+                    var rs = ps.executeQuery();
+
+                    var changes = new ArrayList<Change>();
+                    while (rs.next()) {
+                        changes.add(
+                                new Change(
+                                        rs.getLong("id"),
+                                        rs.getString("origin"),
+                                        new Invalidation(
+                                                Invalidation.Kind.valueOf(rs.getString("kind")),
+                                                rs.getString("user_key"))));
+                    }
+                    return changes;
+                });
+    }
+
+    @Override
+    public int pruneChanges(Timestamp before) {
+        return connector.runQuery(
+                connection -> {
+                    var ps =
+                            connection.prepareStatement(
+                                    "DELETE FROM librelogin_changes WHERE changed<?");
+
+                    ps.setTimestamp(1, before);
+
+                    return ps.executeUpdate();
+                });
+    }
+
+    @Override
+    public void validateSchema() {
+        var migrator = new SchemaMigrator(plugin.getLogger(), this::lockSchema, this::unlockSchema);
+        connector.runQuery(
+                connection -> {
+                    migrator.migrate(connection, getMigrations());
+
+                    var binary = isBinaryUUIDFormat(connection);
+                    var wanted = plugin.getConfiguration().get(DATABASE_BINARY_UUIDS);
+                    if (binary == null) {
+                        // Nothing is stored yet, so there is nothing to convert
+                        binary = wanted;
+                    } else if (!binary && wanted) {
+                        lockSchema(connection);
+                        try {
+                            if (!isBinaryUUIDFormat(connection)) {
+                                if (requiresOfflineUUIDConversion()
+                                        && !isUUIDConversionScheduled(connection)) {
+                                    scheduleUUIDConversion(connection);
+                                    throw new IllegalStateException(
+                                            "Stop every proxy sharing the database, then start"
+                                                    + " them again to convert the UUIDs");
+                                }
+                                convertToBinaryUUIDs(connection);
+                            }
+                        } finally {
+                            unlockSchema(connection);
+                        }
+                        binary = true;
+                    } else if (!binary && isUUIDConversionScheduled(connection)) {
+                        // This proxy would keep writing string UUIDs after the conversion
+                        throw new IllegalStateException(
+                                "A conversion to binary UUIDs is scheduled, enable"
+                                        + " database.binary-uuids on every proxy");
+                    }
+                    binaryUUIDs = binary;
+
+                    onSchemaMigrated(connection);
+                });
+    }
+
+    /**
+     * Detects the schema of a database which is only read from, such as the old database of a
+     * migration, without migrating it. The database may have been created by any older version, so
+     * only the existing columns are selected and the UUIDs are read in their stored format.
+     */
+    @Override
+    public void detectSchema() {
+        connector.runQuery(
+                connection -> {
+                    var existing = new HashSet<String>();
+                    for (var column : getColumnNames(connection)) {
+                        existing.add(column.toLowerCase(Locale.ROOT));
+                    }
+
+                    var columns = new ArrayList<String>(COLUMNS.size());
+                    for (var column : COLUMNS) {
+                        columns.add(existing.contains(column) ? column : "NULL");
+                    }
+                    selectUsers = buildSelect(columns);
+
+                    binaryUUIDs = Boolean.TRUE.equals(isBinaryUUIDFormat(connection));
+                });
+    }
+
+    private static String buildSelect(List<String> columns) {
+        return "SELECT " + String.join(", ", columns) + " FROM librepremium_data";
+    }
+
+    /**
+     * Whether the conversion to binary UUIDs requires every proxy sharing the database to be
+     * stopped. Proxies which are still running would keep using string UUIDs.
+     *
+     * @return True unless the database cannot be shared
+     */
+    protected boolean requiresOfflineUUIDConversion() {
+        return true;
+    }
+
+    private boolean isUUIDConversionScheduled(Connection connection) throws SQLException {
+        var ps = connection.prepareStatement("SELECT 1 FROM librelogin_schema WHERE version=?");
+        ps.setInt(1, UUID_CONVERSION_SCHEDULED);
+        return ps.executeQuery().next();
+    }
+
+    /**
+     * Records that the UUIDs are converted on the next startup. The proxies which are running
+     * cannot be told, so the conversion waits until they have all been restarted, and proxies which
+     * would keep using string UUIDs refuse to start meanwhile.
+     */
+    private void scheduleUUIDConversion(Connection connection) throws SQLException {
+        var ps =
+                connection.prepareStatement(
+                        "INSERT INTO librelogin_schema(version, description, checksum, applied)"
+                                + " VALUES (?, ?, 0, ?)");
+        ps.setInt(1, UUID_CONVERSION_SCHEDULED);
+        ps.setString(2, "Convert the UUIDs to binary");
+        ps.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+        ps.executeUpdate();
+
+        var logger = plugin.getLogger();
+        logger.error("The UUIDs will be converted to the binary format on the next startup.");
+        logger.error(
+                "Proxies which are running keep using string UUIDs, so every proxy sharing the"
+                        + " database has to be stopped first. Stop all of them, then start them"
+                        + " again with database.binary-uuids enabled.");
+    }
+
+    /**
+     * Converts the UUID columns to the binary format. The rows are converted in chunks, each in its
+     * own transaction, and an interrupted conversion is resumed on the next startup. The last step
+     * blocks the writes to the table while the columns are swapped.
+     */
+    private void convertToBinaryUUIDs(Connection connection) throws SQLException {
+        var logger = plugin.getLogger();
+        logger.info("Converting the stored UUIDs to the binary format, this may take a while...");
+
+        prepareBinaryUUIDConversion(connection);
+
+        var boundary =
+                connection.prepareStatement(
+                        "SELECT uuid FROM librepremium_data WHERE uuid>? AND "
+                                + getUnconvertedUUIDCondition()
+                                + " ORDER BY uuid LIMIT 1 OFFSET "
+                                + (UUID_CONVERSION_CHUNK_SIZE - 1));
+        var conversion = getBinaryUUIDConversion();
+        var chunk = connection.prepareStatement(conversion + " AND uuid<=?");
+        var last = connection.prepareStatement(conversion);
+
+        var lower = "";
+        var converted = 0L;
+        while (true) {
+            boundary.setString(1, lower);
+            var rs = boundary.executeQuery();
+            var upper = rs.next() ? rs.getString(1) : null;
+
+            var statement = upper == null ? last : chunk;
+            statement.setString(1, lower);
+            if (upper != null) statement.setString(2, upper);
+
+            converted += SQLUtil.inTransaction(connection, x -> statement.executeUpdate());
+
+            if (upper == null) break;
+            lower = upper;
+
+            logger.info("Converted %d users so far".formatted(converted));
+        }
+
+        finishBinaryUUIDConversion(connection);
+
+        var ps = connection.prepareStatement("DELETE FROM librelogin_schema WHERE version=?");
+        ps.setInt(1, UUID_CONVERSION_SCHEDULED);
+        ps.executeUpdate();
+
+        logger.info("Converted %d users to binary UUIDs".formatted(converted));
+    }
+
+    /**
+     * The steps of the schema, see {@link SchemaMigration}. Never change a released step, append a
+     * new one instead.
+     *
+     * @return The steps of the schema
+     */
+    protected List<SchemaMigration> getMigrations() {
+        var migrations = new ArrayList<SchemaMigration>();
+        // Databases created before the schema was versioned may be in any of the legacy states,
+        // so the first steps probe the existing columns and indexes
+        migrations.add(SchemaMigration.of(1, "Create the user table", this::createUserTable));
+        migrations.add(
+                SchemaMigration.of(
+                        2,
+                        "Index lowercase names",
+                        connection ->
+                                addLowercaseNameIndex(connection, getColumnNames(connection))));
+        migrations.add(
+                SchemaMigration.of(
+                        3, "Index last seen", connection -> createIndex(connection, "last_seen")));
+        migrations.add(
+                SchemaMigration.of(
+                        4,
+                        "Create the change log",
+                        "CREATE TABLE librelogin_changes("
+                                + getAutoIncrementKey("id")
+                                + ","
+                                + "origin VARCHAR(36) NOT NULL,"
+                                + "kind VARCHAR(16) NOT NULL,"
+                                + "user_key VARCHAR(255) NOT NULL,"
+                                + "changed TIMESTAMP NULL DEFAULT NULL"
+                                + ")",
+                        "CREATE INDEX librelogin_changes_changed_index"
+                                + " ON librelogin_changes(changed)"));
+        migrations.add(
+                SchemaMigration.of(
+                        5,
+                        "Add the row version",
+                        "ALTER TABLE librepremium_data ADD COLUMN version BIGINT NOT NULL DEFAULT"
+                                + " 0"));
+        // The primary key serves the lookups by the player, the index the lookups by the IP
+        migrations.add(
+                SchemaMigration.of(
+                        6,
+                        "Create the IP history",
+                        "CREATE TABLE librelogin_ip_history("
+                                + "uuid VARCHAR(36) NOT NULL,"
+                                + "ip VARCHAR(255) NOT NULL,"
+                                + "first_seen TIMESTAMP NULL DEFAULT NULL,"
+                                + "last_seen TIMESTAMP NULL DEFAULT NULL,"
+                                + "hits INT NOT NULL DEFAULT 0,"
+                                + "PRIMARY KEY (uuid, ip)"
+                                + ")",
+                        "CREATE INDEX librelogin_ip_history_ip_index"
+                                + " ON librelogin_ip_history(ip, uuid, last_seen)"));
+        migrations.add(SchemaMigration.of(7, "Backfill the IP history", this::backfillIPHistory));
+        migrations.add(
+                SchemaMigration.of(
+                        8,
+                        "Index the IP history by last seen",
+                        "CREATE INDEX librelogin_ip_history_last_seen_index"
+                                + " ON librelogin_ip_history(last_seen)"));
+        return migrations;
+    }
+
+    /**
+     * Adds the last IP of every user to the IP history, in chunks, so the alts of the users who
+     * have joined before the history existed are found too.
+     */
+    private void backfillIPHistory(Connection connection) throws SQLException {
+        var binary = isBinaryUUIDFormat(connection);
+        if (binary == null) return;
+        // The UUIDs are read in the format they are currently stored in
+        binaryUUIDs = binary;
+
+        var columns = "SELECT uuid, ip, joined, last_seen FROM librepremium_data";
+        var order = " ORDER BY uuid LIMIT " + IP_HISTORY_BACKFILL_CHUNK_SIZE;
+        var first = connection.prepareStatement(columns + order);
+        var next = connection.prepareStatement(columns + " WHERE uuid>?" + order);
+        var insert = connection.prepareStatement(getIPHistoryUpsertStatement());
+
+        UUID lower = null;
+        while (true) {
+            var select = lower == null ? first : next;
+            if (lower != null) setUUID(select, 1, lower);
+
+            var rs = select.executeQuery();
+            var rows = 0;
+            while (rs.next()) {
+                rows++;
+                lower = getUUID(rs, 1);
+
+                var ip = rs.getString(2);
+                var lastSeen = rs.getTimestamp(4);
+                if (ip == null || lastSeen == null) continue;
+
+                var joined = rs.getTimestamp(3);
+                bindIPHistory(
+                        insert,
+                        new IPHistoryEntry(
+                                lower, ip, joined == null ? lastSeen : joined, lastSeen, 1));
+                insert.addBatch();
+            }
+
+            SQLUtil.inTransaction(connection, x -> insert.executeBatch());
+
+            if (rows < IP_HISTORY_BACKFILL_CHUNK_SIZE) break;
+        }
+    }
+
+    private void createUserTable(Connection connection) throws SQLException {
+        connection
+                .prepareStatement(
+                        "CREATE TABLE IF NOT EXISTS librepremium_data("
+                                + "uuid VARCHAR(255) NOT NULL PRIMARY KEY,"
+                                + "premium_uuid VARCHAR(255) UNIQUE,"
+                                + "hashed_password VARCHAR(255),"
+                                + "salt VARCHAR(255),"
+                                + "algo VARCHAR(255),"
+                                + "last_nickname VARCHAR(255) NOT NULL UNIQUE,"
+                                + "joined TIMESTAMP NULL DEFAULT NULL,"
+                                + "last_seen TIMESTAMP NULL DEFAULT NULL,"
+                                + "last_server VARCHAR(255)"
+                                + ")")
+                .executeUpdate();
+
+        var columns = getColumnNames(connection);
+
+        try {
+            connection.prepareStatement(addUnique("premium_uuid")).executeUpdate();
+        } catch (SQLException ignored) {
+        }
+
+        if (!columns.contains("secret"))
+            connection
+                    .prepareStatement(
+                            "ALTER TABLE librepremium_data ADD COLUMN secret"
+                                    + " VARCHAR(255) NULL DEFAULT NULL")
+                    .executeUpdate();
+        if (!columns.contains("ip"))
+            connection
+                    .prepareStatement(
+                            "ALTER TABLE librepremium_data ADD COLUMN ip VARCHAR(255)"
+                                    + " NULL DEFAULT NULL")
+                    .executeUpdate();
+        if (!columns.contains("last_authentication"))
+            connection
+                    .prepareStatement(
+                            "ALTER TABLE librepremium_data ADD COLUMN last_authentication"
+                                    + " TIMESTAMP NULL DEFAULT NULL")
+                    .executeUpdate();
+        if (!columns.contains("last_server")) {
+            connection
+                    .prepareStatement(
+                            "ALTER TABLE librepremium_data ADD COLUMN last_server"
+                                    + " VARCHAR(255) NULL DEFAULT NULL")
+                    .executeUpdate();
+        }
+        if (!columns.contains("email")) {
+            connection
+                    .prepareStatement(
+                            "ALTER TABLE librepremium_data ADD COLUMN email"
+                                    + " VARCHAR(255) NULL DEFAULT NULL")
+                    .executeUpdate();
+        }
+
+        try {
+            connection.prepareStatement(addUnique("last_nickname")).executeUpdate();
+        } catch (SQLException ignored) {
+        }
+
+        try {
+            createIndex(connection, "ip");
+        } catch (SQLException ignored) {
+            // The index already exists
+        }
+    }
+
+    /**
+     * Acquires a database-wide lock, so proxies sharing the database do not migrate its schema
+     * concurrently. Blocks until the lock is available.
+     *
+     * @param connection The connection, the lock is released on the same one
+     */
+    protected void lockSchema(Connection connection) throws SQLException {}
+
+    protected void unlockSchema(Connection connection) throws SQLException {}
+
+    /**
+     * Whether several proxies may use the database at the same time.
+     *
+     * @return True unless the database belongs to a single proxy
+     */
+    protected boolean isShared() {
+        return true;
+    }
+
+    /**
+     * Takes the lock held while pruning inactive users, without waiting for it. Only called if the
+     * database {@link #isShared() is shared}.
+     *
+     * @return Whether the lock has been taken
+     */
+    protected boolean tryLockPruning(Connection connection) throws SQLException {
+        return true;
+    }
+
+    protected void unlockPruning(Connection connection) throws SQLException {}
+
+    /**
+     * Detects the format of the stored UUIDs.
+     *
+     * @param connection The connection
+     * @return True if the UUIDs are binary, false if they are strings, null if it does not matter
+     */
+    protected @Nullable Boolean isBinaryUUIDFormat(Connection connection) throws SQLException {
+        var type =
+                connection
+                        .prepareStatement("SELECT uuid FROM librepremium_data WHERE 1=0")
+                        .executeQuery()
+                        .getMetaData()
+                        .getColumnType(1);
+
+        return switch (type) {
+            case Types.CHAR, Types.VARCHAR, Types.LONGVARCHAR, Types.NCHAR, Types.NVARCHAR -> false;
+            default -> true;
+        };
+    }
+
+    /**
+     * Adds the binary columns the UUIDs are converted into, if they do not exist yet.
+     *
+     * @param connection The connection
+     */
+    protected void prepareBinaryUUIDConversion(Connection connection) throws SQLException {
+        var columns = getColumnNames(connection);
+        for (var column : List.of("uuid_bin", "premium_uuid_bin")) {
+            if (!columns.contains(column)) {
+                connection
+                        .prepareStatement(
+                                "ALTER TABLE librepremium_data ADD COLUMN %s %s NULL DEFAULT NULL"
+                                        .formatted(column, getBinaryUUIDType()))
+                        .executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * @return The condition matching the rows which have not been converted yet
+     */
+    protected String getUnconvertedUUIDCondition() {
+        return "uuid_bin IS NULL";
+    }
+
+    /**
+     * @return The statement converting the rows with a UUID greater than the first parameter
+     */
+    protected String getBinaryUUIDConversion() {
+        return "UPDATE librepremium_data SET uuid_bin=%s, premium_uuid_bin=%s WHERE uuid>?"
+                .formatted(toBinaryUUID("uuid"), toBinaryUUID("premium_uuid"));
+    }
+
+    /**
+     * @return The SQL type of the binary UUID columns
+     */
+    protected abstract String getBinaryUUIDType();
+
+    /**
+     * @param column The column with the string UUID
+     * @return The SQL expression converting the column to a binary UUID
+     */
+    protected abstract String toBinaryUUID(String column);
+
+    /**
+     * Replaces the string UUID columns with the converted ones. The rows written since the chunks
+     * have been converted must be converted too, while nothing else writes to the table.
+     *
+     * @param connection The connection
+     */
+    protected abstract void finishBinaryUUIDConversion(Connection connection) throws SQLException;
+
+    protected void setUUID(PreparedStatement ps, int index, @Nullable UUID uuid)
+            throws SQLException {
+        if (!binaryUUIDs) {
+            ps.setString(index, uuid == null ? null : uuid.toString());
+        } else if (uuid == null) {
+            ps.setNull(index, Types.BINARY);
+        } else {
+            ps.setBytes(index, GeneralUtil.toBytes(uuid));
+        }
+    }
+
+    protected @Nullable UUID getUUID(ResultSet rs, int column) throws SQLException {
+        if (!binaryUUIDs) {
+            var uuid = rs.getString(column);
+            return uuid == null ? null : UUID.fromString(uuid);
+        }
+        var bytes = rs.getBytes(column);
+        return bytes == null ? null : GeneralUtil.fromBytes(bytes);
     }
 
+    protected boolean isBinaryUUIDs() {
+        return binaryUUIDs;
+    }
+
+    /**
+     * Called on every startup once the schema is up to date.
+     *
+     * @param connection The connection
+     */
+    protected void onSchemaMigrated(Connection connection) throws SQLException {}
+
+    protected abstract List<String> getColumnNames(Connection connection) throws SQLException;
+
+    /**
+     * @return The clause appended to an insert statement, which skips the rows conflicting with any
+     *     unique key
+     */
     protected String getIgnoreSuffix() {
         return "";
     }
 
+    /**
+     * Turns the insert of a row into an upsert keyed by the UUID.
+     *
+     * @param columns The columns to overwrite if the row already exists
+     * @return The clause appended to the insert statement
+     */
+    protected String getUpsertSuffix(List<String> columns) {
+        var assignments = new StringJoiner(", ");
+        for (var column : columns) {
+            assignments.add(column + "=excluded." + column);
+        }
+        return " ON CONFLICT(uuid) DO UPDATE SET " + assignments;
+    }
+
     protected abstract String addUnique(String column);
+
+    /**
+     * Makes sure the case-insensitive name lookup done by {@link #getByName(String)} is backed by
+     * an index, so it does not have to scan the whole table.
+     *
+     * @param connection The connection
+     * @param columns The current columns of the table
+     */
+    protected abstract void addLowercaseNameIndex(Connection connection, List<String> columns)
+            throws SQLException;
+
+    /**
+     * @return The lowercase name, backed by the index added by {@link #addLowercaseNameIndex}
+     */
+    protected String getNameColumn() {
+        return "LOWER(last_nickname)";
+    }
+
+    /**
+     * @return The condition matching the name passed as the only parameter, ignoring case
+     */
+    protected String getNameCondition() {
+        return getNameColumn() + "=LOWER(?)";
+    }
+
+    /**
+     * @param expression The expression to match
+     * @param count The amount of values
+     * @return The condition matching any of the values bound by {@link #bindInValues}
+     */
+    protected String getInCondition(String expression, int count) {
+        return expression + " IN (" + "?, ".repeat(count - 1) + "?)";
+    }
+
+    /**
+     * Binds the values of the condition returned by {@link #getInCondition(String, int)}.
+     *
+     * @param ps The statement
+     * @param index The index of the first parameter of the condition
+     * @param values The values, either UUIDs or strings
+     * @return The index of the first parameter after the condition
+     */
+    protected int bindInValues(PreparedStatement ps, int index, List<?> values)
+            throws SQLException {
+        for (var value : values) {
+            if (value instanceof UUID uuid) {
+                setUUID(ps, index++, uuid);
+            } else {
+                ps.setString(index++, value.toString());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param column The name of the column
+     * @return The definition of a primary key column, which is assigned increasing numbers
+     */
+    protected String getAutoIncrementKey(String column) {
+        return column + " BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY";
+    }
+
+    /**
+     * Turns the insert of an IP history entry into an upsert keyed by the player and the IP.
+     *
+     * @return The clause appended to the insert statement
+     */
+    protected String getIPHistoryUpsertSuffix() {
+        return " ON CONFLICT(uuid, ip) DO UPDATE SET last_seen=excluded.last_seen,"
+                + " hits=librelogin_ip_history.hits+excluded.hits";
+    }
+
+    /**
+     * Indexes a column of the user table as a migration step. Databases which can build the index
+     * without blocking writes to the table do so, as it takes a while on large tables.
+     */
+    protected void createIndex(Connection connection, String column) throws SQLException {
+        connection.prepareStatement(addIndex(column)).executeUpdate();
+    }
+
+    protected String addIndex(String column) {
+        return "CREATE INDEX %s_index ON librepremium_data(%s)".formatted(column, column);
+    }
+
+    /**
+     * An update done by this proxy.
+     *
+     * @param previous The version the update has been based on
+     * @param state The user after the update
+     */
+    private record Update(long previous, AuthenticUser state) {}
 }
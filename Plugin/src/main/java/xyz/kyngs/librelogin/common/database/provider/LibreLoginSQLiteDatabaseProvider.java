@@ -10,6 +10,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import org.jetbrains.annotations.Nullable;
 import xyz.kyngs.librelogin.api.database.connector.SQLiteDatabaseConnector;
 import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
 
@@ -33,12 +34,85 @@ public class LibreLoginSQLiteDatabaseProvider extends LibreLoginSQLDatabaseProvi
     }
 
     @Override
-    protected String getIgnoreSyntax() {
-        return "OR IGNORE";
+    protected String getIgnoreSuffix() {
+        // Unlike OR IGNORE, only skips the conflicts, other violations are still reported
+        return " ON CONFLICT DO NOTHING";
+    }
+
+    @Override
+    protected void addLowercaseNameIndex(Connection connection, List<String> columns)
+            throws SQLException {
+        // Expression index matching the condition of getByName
+        connection
+                .prepareStatement(
+                        "CREATE INDEX IF NOT EXISTS last_nickname_lower_index ON"
+                                + " librepremium_data(LOWER(last_nickname))")
+                .executeUpdate();
+    }
+
+    @Override
+    protected @Nullable Boolean isBinaryUUIDFormat(Connection connection) throws SQLException {
+        // SQLite does not enforce column types, the UUIDs are converted in place. Strings sort
+        // before blobs, so a partially converted table is reported as not converted.
+        var rs =
+                connection
+                        .prepareStatement(
+                                "SELECT typeof(uuid) FROM librepremium_data ORDER BY uuid LIMIT 1")
+                        .executeQuery();
+
+        return rs.next() ? rs.getString(1).equals("blob") : null;
+    }
+
+    @Override
+    protected void prepareBinaryUUIDConversion(Connection connection) {}
+
+    @Override
+    protected String getUnconvertedUUIDCondition() {
+        return "typeof(uuid)='text'";
+    }
+
+    @Override
+    protected String getBinaryUUIDConversion() {
+        return "UPDATE librepremium_data SET uuid=%s, premium_uuid=%s WHERE %s AND uuid>?"
+                .formatted(
+                        toBinaryUUID("uuid"),
+                        toBinaryUUID("premium_uuid"),
+                        getUnconvertedUUIDCondition());
+    }
+
+    @Override
+    protected String getBinaryUUIDType() {
+        return "BLOB";
+    }
+
+    @Override
+    protected String toBinaryUUID(String column) {
+        return "unhex(replace(%s, '-', ''))".formatted(column);
+    }
+
+    @Override
+    protected void finishBinaryUUIDConversion(Connection connection) {}
+
+    @Override
+    protected boolean isShared() {
+        // The database file belongs to this proxy alone. Holding a connection for the whole prune
+        // would also turn it into a single write task of the writer thread.
+        return false;
+    }
+
+    @Override
+    protected boolean requiresOfflineUUIDConversion() {
+        // The database file belongs to this proxy alone
+        return false;
     }
 
     @Override
     protected String addUnique(String column) {
         return "CREATE UNIQUE INDEX %s_index ON librepremium_data(%s);".formatted(column, column);
     }
+
+    @Override
+    protected String getAutoIncrementKey(String column) {
+        return column + " INTEGER PRIMARY KEY AUTOINCREMENT";
+    }
 }
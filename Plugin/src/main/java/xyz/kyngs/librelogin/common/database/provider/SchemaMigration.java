@@ -0,0 +1,62 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.provider;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.api.util.ThrowableConsumer;
+
+/**
+ * A single step of the SQL schema. Steps are applied in the order of their versions, each of them
+ * exactly once per database.
+ *
+ * <p>Once released, a step must never be changed, a new step has to be added instead. The checksum
+ * of the statements is stored alongside the version, so changes are detected.
+ *
+ * @param version The version, unique and increasing
+ * @param description A short, human-readable description
+ * @param statements The statements executed by this step
+ * @param action Executed instead of the statements, if they cannot express the step
+ */
+public record SchemaMigration(
+        int version,
+        String description,
+        List<String> statements,
+        @Nullable ThrowableConsumer<Connection, SQLException> action) {
+
+    public static SchemaMigration of(int version, String description, String... statements) {
+        return new SchemaMigration(version, description, List.of(statements), null);
+    }
+
+    public static SchemaMigration of(
+            int version, String description, ThrowableConsumer<Connection, SQLException> action) {
+        return new SchemaMigration(version, description, List.of(), action);
+    }
+
+    public long checksum() {
+        var crc = new CRC32();
+        crc.update(description.getBytes(StandardCharsets.UTF_8));
+        for (var statement : statements) {
+            crc.update(statement.getBytes(StandardCharsets.UTF_8));
+        }
+        return crc.getValue();
+    }
+
+    public void apply(Connection connection) throws SQLException {
+        if (action != null) {
+            action.accept(connection);
+            return;
+        }
+        for (var statement : statements) {
+            connection.prepareStatement(statement).executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.provider;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import xyz.kyngs.librelogin.api.Logger;
+import xyz.kyngs.librelogin.api.util.ThrowableConsumer;
+
+/**
+ * Brings the schema of a database up to date by applying the pending {@link SchemaMigration}s.
+ *
+ * <p>Applied versions are recorded in the {@code librelogin_schema} table. If the database is up to
+ * date, which is the case on every startup but the first one after an update, a single query is
+ * executed. Otherwise, the pending steps are applied while holding a database-wide lock, so proxies
+ * sharing the database do not migrate it concurrently.
+ */
+public class SchemaMigrator {
+
+    private final Logger logger;
+    private final ThrowableConsumer<Connection, SQLException> lock;
+    private final ThrowableConsumer<Connection, SQLException> unlock;
+
+    /**
+     * @param logger The logger
+     * @param lock Acquires the database-wide migration lock, blocking until it is available
+     * @param unlock Releases the lock acquired by {@code lock}
+     */
+    public SchemaMigrator(
+            Logger logger,
+            ThrowableConsumer<Connection, SQLException> lock,
+            ThrowableConsumer<Connection, SQLException> unlock) {
+        this.logger = logger;
+        this.lock = lock;
+        this.unlock = unlock;
+    }
+
+    public void migrate(Connection connection, List<SchemaMigration> migrations)
+            throws SQLException {
+        var sorted =
+                migrations.stream()
+                        .sorted(Comparator.comparingInt(SchemaMigration::version))
+                        .toList();
+
+        Map<Integer, Long> applied;
+        try {
+            applied = readApplied(connection);
+        } catch (SQLException e) {
+            // The table does not exist yet, it is created by the first migration
+            applied = null;
+        }
+
+        if (applied != null) {
+            verify(sorted, applied);
+            if (getPending(sorted, applied).isEmpty()) return;
+        }
+
+        lock.accept(connection);
+        try {
+            connection
+                    .prepareStatement(
+                            "CREATE TABLE IF NOT EXISTS librelogin_schema("
+                                    + "version INT NOT NULL PRIMARY KEY,"
+                                    + "description VARCHAR(255) NOT NULL,"
+                                    + "checksum BIGINT NOT NULL,"
+                                    + "applied TIMESTAMP NULL DEFAULT NULL"
+                                    + ")")
+                    .executeUpdate();
+
+            // Another proxy might have migrated the database while we were waiting for the lock
+            for (var migration : getPending(sorted, readApplied(connection))) {
+                logger.info(
+                        "Migrating the database schema to version %d: %s"
+                                .formatted(migration.version(), migration.description()));
+
+                migration.apply(connection);
+
+                var ps =
+                        connection.prepareStatement(
+                                "INSERT INTO librelogin_schema(version, description, checksum,"
+                                        + " applied) VALUES (?, ?, ?, ?)");
+
+                ps.setInt(1, migration.version());
+                ps.setString(2, migration.description());
+                ps.setLong(3, migration.checksum());
+                ps.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+
+                ps.executeUpdate();
+            }
+        } finally {
+            unlock.accept(connection);
+        }
+    }
+
+    private static Map<Integer, Long> readApplied(Connection connection) throws SQLException {
+        var rs =
+                connection
+                        .prepareStatement("SELECT version, checksum FROM librelogin_schema")
+                        .executeQuery();
+
+        var applied = new HashMap<Integer, Long>();
+        while (rs.next()) {
+            applied.put(rs.getInt("version"), rs.getLong("checksum"));
+        }
+        return applied;
+    }
+
+    private static List<SchemaMigration> getPending(
+            List<SchemaMigration> migrations, Map<Integer, Long> applied) {
+        return migrations.stream()
+                .filter(migration -> !applied.containsKey(migration.version()))
+                .toList();
+    }
+
+    private void verify(List<SchemaMigration> migrations, Map<Integer, Long> applied) {
+        var known = new HashSet<Integer>();
+        for (var migration : migrations) {
+            known.add(migration.version());
+            var checksum = applied.get(migration.version());
+            if (checksum != null && checksum != migration.checksum()) {
+                logger.warn(
+                        "Schema migration %d (%s) has been changed after it was applied, the"
+                                        .formatted(migration.version(), migration.description())
+                                + " database schema may differ from the expected one");
+            }
+        }
+        for (var version : applied.keySet()) {
+            // Versions below 1 record other states of the schema, they are not migrations
+            if (version > 0 && !known.contains(version)) {
+                logger.warn(
+                        "The database schema contains version %d, which is unknown to this version"
+                                        .formatted(version)
+                                + " of LibreLogin. Have you downgraded?");
+            }
+        }
+    }
+}
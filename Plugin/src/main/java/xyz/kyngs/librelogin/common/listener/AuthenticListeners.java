@@ -11,11 +11,13 @@ import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import xyz.kyngs.librelogin.api.BiHolder;
 import xyz.kyngs.librelogin.api.PlatformHandle;
+import xyz.kyngs.librelogin.api.database.DatabaseUnavailableException;
 import xyz.kyngs.librelogin.api.database.User;
 import xyz.kyngs.librelogin.api.event.events.AuthenticatedEvent;
 import xyz.kyngs.librelogin.api.premium.PremiumException;
@@ -34,10 +36,16 @@ public class AuthenticListeners<Plugin extends AuthenticLibreLogin<P, S>, P, S>
 
     protected final Plugin plugin;
     protected final PlatformHandle<P, S> platformHandle;
+    protected final LoginSessions sessions;
 
     public AuthenticListeners(Plugin plugin) {
         this.plugin = plugin;
         platformHandle = plugin.getPlatformHandle();
+        sessions = new LoginSessions();
+    }
+
+    public LoginSessions getSessions() {
+        return sessions;
     }
 
     protected void onPostLogin(P player, User user) {
@@ -46,7 +54,7 @@ public class AuthenticListeners<Plugin extends AuthenticLibreLogin<P, S>, P, S>
         if (plugin.fromFloodgate(uuid)) return;
 
         if (user == null) {
-            user = plugin.getDatabaseProvider().getByUUID(uuid);
+            user = getJoiningUser(uuid);
         }
         var sessionTime =
                 Duration.ofSeconds(
@@ -100,16 +108,101 @@ public class AuthenticListeners<Plugin extends AuthenticLibreLogin<P, S>, P, S>
 
         user.setLastSeen(Timestamp.valueOf(LocalDateTime.now()));
 
-        var finalUser = user;
-        plugin.delay(() -> plugin.getDatabaseProvider().updateUser(finalUser), 0);
+        plugin.getDatabaseProvider()
+                .updateUserAsync(user)
+                .exceptionally(
+                        e -> {
+                            plugin.getLogger()
+                                    .error("Failed to update the user of a joining player:");
+                            e.printStackTrace();
+                            return null;
+                        });
+    }
+
+    /**
+     * Gets the user of a joining player, preferring the one fetched during the pre-login.
+     *
+     * @param uuid The UUID of the player
+     * @return The user, or null if the user does not exist
+     */
+    protected @Nullable User getJoiningUser(UUID uuid) {
+        var user = sessions.getUser(uuid);
+        return user == null ? plugin.getDatabaseProvider().getByUUID(uuid) : user;
+    }
+
+    /**
+     * Gets the user of a joining player without blocking, completes right away if the user has been
+     * fetched during the pre-login.
+     *
+     * @param uuid The UUID of the player
+     * @return A future completed with the user, or with null if the user does not exist
+     */
+    protected CompletableFuture<User> getJoiningUserAsync(UUID uuid) {
+        var user = sessions.getUser(uuid);
+        return user == null
+                ? plugin.getDatabaseProvider().getByUUIDAsync(uuid)
+                : CompletableFuture.completedFuture(user);
     }
 
     protected void onPlayerDisconnect(P player) {
+        sessions.close(platformHandle.getUUIDForPlayer(player));
         plugin.onExit(player);
         plugin.getAuthorizationProvider().onExit(player);
     }
 
+    /**
+     * Runs {@link #onPreLogin(String, InetAddress)} on the login executor, for the platforms which
+     * can suspend the event instead of blocking its thread. The Mojang API lookups never hold the
+     * threads of the database executor.
+     *
+     * @param username The username of the connecting player
+     * @param address The address of the connecting player
+     * @return The result of the pre-login
+     */
+    protected CompletableFuture<PreLoginResult> onPreLoginAsync(
+            String username, InetAddress address) {
+        return CompletableFuture.supplyAsync(
+                () -> onPreLogin(username, address), plugin.getLoginExecutor());
+    }
+
+    /**
+     * Resolves the user of a connecting player and opens a {@link LoginSession} for them, so the
+     * later phases of the join can reuse the fetched user.
+     *
+     * @param username The username of the connecting player
+     * @param address The address of the connecting player
+     * @return The result of the pre-login
+     */
     protected PreLoginResult onPreLogin(String username, InetAddress address) {
+        PreLoginResult result;
+
+        if (!plugin.isDatabaseAvailable()) {
+            result = databaseUnavailable();
+        } else {
+            try {
+                result = resolvePreLogin(username, address);
+            } catch (DatabaseUnavailableException e) {
+                result = databaseUnavailable();
+            }
+        }
+
+        if (result.state() == PreLoginState.DENIED) {
+            sessions.close(username);
+        } else {
+            sessions.open(username, result.user());
+        }
+
+        return result;
+    }
+
+    private PreLoginResult databaseUnavailable() {
+        return new PreLoginResult(
+                PreLoginState.DENIED,
+                plugin.getMessages().getMessage("kick-database-unavailable"),
+                null);
+    }
+
+    private PreLoginResult resolvePreLogin(String username, InetAddress address) {
         if (username.length() > 16 || !NAME_PATTERN.matcher(username).matches()) {
             return new PreLoginResult(
                     PreLoginState.DENIED,
@@ -155,6 +248,8 @@ public class AuthenticListeners<Plugin extends AuthenticLibreLogin<P, S>, P, S>
                 // premium autologin
                 return new PreLoginResult(PreLoginState.FORCE_ONLINE, null, user);
             }
+
+            return new PreLoginResult(PreLoginState.FORCE_OFFLINE, null, user);
         } else {
 
             // A user with this name exists in the Mojang database, we need to figure out whether to
@@ -174,6 +269,8 @@ public class AuthenticListeners<Plugin extends AuthenticLibreLogin<P, S>, P, S>
                 //noinspection ConstantConditions //kyngs: There's no way IntelliJ is right
                 if (userByName.autoLoginEnabled())
                     return new PreLoginResult(PreLoginState.FORCE_ONLINE, null, userByName);
+
+                return new PreLoginResult(PreLoginState.FORCE_OFFLINE, null, userByName);
             } else {
                 User byName;
                 try {
@@ -206,8 +303,6 @@ public class AuthenticListeners<Plugin extends AuthenticLibreLogin<P, S>, P, S>
                 return new PreLoginResult(PreLoginState.FORCE_ONLINE, null, user);
             }
         }
-
-        return new PreLoginResult(PreLoginState.FORCE_OFFLINE, null, null);
     }
 
     private PreLoginResult handleProfileConflict(User conflicting, User conflicted) {
@@ -223,11 +318,9 @@ public class AuthenticListeners<Plugin extends AuthenticLibreLogin<P, S>, P, S>
                                             "%nickname%",
                                             conflicting.getLastNickname()),
                             null);
-            case USE_OFFLINE -> new PreLoginResult(PreLoginState.FORCE_OFFLINE, null, null);
+            case USE_OFFLINE -> new PreLoginResult(PreLoginState.FORCE_OFFLINE, null, conflicted);
             case OVERWRITE -> {
-                plugin.getDatabaseProvider().deleteUser(conflicted);
-                conflicting.setLastNickname(conflicted.getLastNickname());
-                plugin.getDatabaseProvider().updateUser(conflicting);
+                plugin.getDatabaseProvider().claimName(conflicting, conflicted.getLastNickname());
                 yield new PreLoginResult(PreLoginState.FORCE_ONLINE, null, conflicting);
             }
         };
@@ -275,12 +368,7 @@ public class AuthenticListeners<Plugin extends AuthenticLibreLogin<P, S>, P, S>
 
             var ipLimit = plugin.getConfiguration().get(ConfigurationKeys.IP_LIMIT);
             if (ipLimit > 0) {
-                var ipCount =
-                        plugin.getDatabaseProvider()
-                                .getByIP(ip.getHostAddress())
-                                .size(); // Ideally, this should be a count query, but I'm too lazy
-                // to implement that and the performance impact is
-                // negligible.
+                var ipCount = plugin.getDatabaseProvider().countByIP(ip.getHostAddress());
 
                 if (ipCount >= ipLimit) {
                     throw new InvalidCommandArgument(
@@ -294,17 +382,6 @@ public class AuthenticListeners<Plugin extends AuthenticLibreLogin<P, S>, P, S>
                     plugin.generateNewUUID(
                             username, premiumUser == null ? null : premiumUser.uuid());
 
-            var conflictingUser = plugin.getDatabaseProvider().getByUUID(newID);
-
-            if (conflictingUser != null) {
-                throw new InvalidCommandArgument(
-                        plugin.getMessages()
-                                .getMessage(
-                                        "kick-occupied-username",
-                                        "%username%",
-                                        conflictingUser.getLastNickname()));
-            }
-
             if (premiumUser != null
                     && premiumUser.reliable()
                     && plugin.getConfiguration().get(ConfigurationKeys.AUTO_REGISTER)) {
@@ -351,7 +428,29 @@ public class AuthenticListeners<Plugin extends AuthenticLibreLogin<P, S>, P, S>
                                 null);
             }
 
-            plugin.getDatabaseProvider().insertUser(user);
+            if (!plugin.getDatabaseProvider().insertUserIfAbsent(user)) {
+                // Either the UUID is occupied, or the name has been taken in the meantime
+                var conflictingUser = plugin.getDatabaseProvider().getByUUID(newID);
+                if (conflictingUser == null) {
+                    conflictingUser = plugin.getDatabaseProvider().getByName(username);
+                }
+
+                if (conflictingUser != null
+                        && conflictingUser.getUuid().equals(newID)
+                        && conflictingUser.getLastNickname().contentEquals(username)) {
+                    // The same player has been registered concurrently, e.g. by another proxy
+                    return conflictingUser;
+                }
+
+                throw new InvalidCommandArgument(
+                        plugin.getMessages()
+                                .getMessage(
+                                        "kick-occupied-username",
+                                        "%username%",
+                                        conflictingUser == null
+                                                ? username
+                                                : conflictingUser.getLastNickname()));
+            }
         } else return null;
 
         return user;
@@ -376,7 +475,7 @@ public class AuthenticListeners<Plugin extends AuthenticLibreLogin<P, S>, P, S>
         if (fromFloodgate) {
             user = null;
         } else if (user == null) {
-            user = plugin.getDatabaseProvider().getByUUID(uuid);
+            user = getJoiningUser(uuid);
         }
 
         if (fromFloodgate
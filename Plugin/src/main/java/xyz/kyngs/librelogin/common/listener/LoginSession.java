@@ -0,0 +1,51 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.listener;
+
+import java.util.UUID;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.api.database.User;
+
+/**
+ * Holds the data fetched during the pre-login phase of a single connection, so the later phases of
+ * the join do not have to query the database again.
+ */
+public class LoginSession {
+
+    private final String username;
+    private volatile @Nullable User user;
+    private volatile @Nullable UUID uuid;
+
+    public LoginSession(String username, @Nullable User user) {
+        this.username = username;
+        this.user = user;
+        this.uuid = user == null ? null : user.getUuid();
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public @Nullable User getUser() {
+        return user;
+    }
+
+    public void setUser(@Nullable User user) {
+        this.user = user;
+    }
+
+    /**
+     * @return The UUID the player will have on this server, or null if not known yet
+     */
+    public @Nullable UUID getUuid() {
+        return uuid;
+    }
+
+    void setUuid(@Nullable UUID uuid) {
+        this.uuid = uuid;
+    }
+}
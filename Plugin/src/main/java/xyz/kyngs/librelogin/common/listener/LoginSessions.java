@@ -0,0 +1,109 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.listener;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.api.database.User;
+
+/**
+ * Keeps track of the {@link LoginSession}s of connections which are currently joining.
+ *
+ * <p>A session is opened by the pre-login phase, when only the username is known. Once the final
+ * UUID of the player is known, the session is bound to it, the later phases look it up by the UUID.
+ * Sessions are closed when the join completes or the player disconnects, and expire on their own if
+ * neither happens (e.g. the connection was denied by another plugin).
+ */
+public class LoginSessions {
+
+    private final Cache<String, LoginSession> byName;
+    private final Cache<UUID, LoginSession> byUUID;
+
+    public LoginSessions() {
+        byName = Caffeine.newBuilder().expireAfterWrite(2, TimeUnit.MINUTES).build();
+        byUUID = Caffeine.newBuilder().expireAfterWrite(2, TimeUnit.MINUTES).build();
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase();
+    }
+
+    /**
+     * Opens a new session for the given username, replacing any previous one.
+     *
+     * @param username The username of the connecting player
+     * @param user The user fetched during the pre-login, may be null
+     * @return The opened session
+     */
+    public LoginSession open(String username, @Nullable User user) {
+        var session = new LoginSession(username, user);
+        byName.put(key(username), session);
+        return session;
+    }
+
+    /**
+     * Gets the session of the given username and binds it to the given UUID.
+     *
+     * @param username The username of the connecting player
+     * @param uuid The UUID the player will have on this server
+     * @return The session, or null if none exists
+     */
+    public @Nullable LoginSession bind(String username, UUID uuid) {
+        var session = byName.asMap().remove(key(username));
+        if (session == null) return null;
+        session.setUuid(uuid);
+        byUUID.put(uuid, session);
+        return session;
+    }
+
+    /**
+     * @param username The username of the connecting player
+     * @return The session which has not been bound yet, or null if none exists
+     */
+    public @Nullable LoginSession get(String username) {
+        return byName.getIfPresent(key(username));
+    }
+
+    /**
+     * @param uuid The UUID of the connecting player
+     * @return The bound session, or null if none exists
+     */
+    public @Nullable LoginSession get(UUID uuid) {
+        return byUUID.getIfPresent(uuid);
+    }
+
+    /**
+     * @param uuid The UUID of the connecting player
+     * @return The user of the bound session, or null if there is no session
+     */
+    public @Nullable User getUser(UUID uuid) {
+        var session = get(uuid);
+        return session == null ? null : session.getUser();
+    }
+
+    /**
+     * Closes the session of the given player.
+     *
+     * @param uuid The UUID of the player
+     */
+    public void close(UUID uuid) {
+        var session = byUUID.asMap().remove(uuid);
+        if (session != null) byName.asMap().remove(key(session.getUsername()), session);
+    }
+
+    /**
+     * Closes the unbound session of the given username.
+     *
+     * @param username The username of the player
+     */
+    public void close(String username) {
+        byName.invalidate(key(username));
+    }
+}
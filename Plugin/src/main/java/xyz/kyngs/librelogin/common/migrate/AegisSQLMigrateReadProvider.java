@@ -8,9 +8,8 @@ package xyz.kyngs.librelogin.common.migrate;
 
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.UUID;
+import java.util.function.Consumer;
 import xyz.kyngs.librelogin.api.Logger;
 import xyz.kyngs.librelogin.api.crypto.HashedPassword;
 import xyz.kyngs.librelogin.api.database.User;
@@ -26,15 +25,14 @@ public class AegisSQLMigrateReadProvider extends SQLMigrateReadProvider {
     }
 
     @Override
-    public Collection<User> getAllUsers() {
-        return connector.runQuery(
+    public void forEachUser(Consumer<User> consumer) {
+        connector.runReadQuery(
                 connection -> {
-                    var ps = connection.prepareStatement("SELECT * FROM `%s`".formatted(tableName));
+                    var ps =
+                            prepareStreaming(connection, "SELECT * FROM `%s`".formatted(tableName));
 
                     var rs = ps.executeQuery();
 
-                    var users = new HashSet<User>();
-
                     while (rs.next()) {
 
                         try {
@@ -61,7 +59,7 @@ public class AegisSQLMigrateReadProvider extends SQLMigrateReadProvider {
                                 }
                             }
 
-                            users.add(
+                            consumer.accept(
                                     new AuthenticUser(
                                             uuid,
                                             onlineID == null || !rs.getBoolean("premium")
@@ -85,8 +83,6 @@ public class AegisSQLMigrateReadProvider extends SQLMigrateReadProvider {
                             logger.error("Failed to read user from Aegis db, omitting");
                         }
                     }
-
-                    return users;
                 });
     }
 }
@@ -7,8 +7,7 @@
 package xyz.kyngs.librelogin.common.migrate;
 
 import java.sql.Timestamp;
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.function.Consumer;
 import xyz.kyngs.librelogin.api.Logger;
 import xyz.kyngs.librelogin.api.crypto.HashedPassword;
 import xyz.kyngs.librelogin.api.database.User;
@@ -25,15 +24,13 @@ public class AuthMeSQLMigrateReadProvider extends SQLMigrateReadProvider {
     }
 
     @Override
-    public Collection<User> getAllUsers() {
-        return connector.runQuery(
+    public void forEachUser(Consumer<User> consumer) {
+        connector.runReadQuery(
                 connection -> {
-                    var ps = connection.prepareStatement("SELECT * FROM %s".formatted(tableName));
+                    var ps = prepareStreaming(connection, "SELECT * FROM %s".formatted(tableName));
 
                     var rs = ps.executeQuery();
 
-                    var users = new HashSet<User>();
-
                     while (rs.next()) {
                         try {
                             var nickname = rs.getString("realname");
@@ -62,7 +59,7 @@ public class AuthMeSQLMigrateReadProvider extends SQLMigrateReadProvider {
                                 }
                             }
 
-                            users.add(
+                            consumer.accept(
                                     new AuthenticUser(
                                             GeneralUtil.getCrackedUUIDFromName(nickname),
                                             null,
@@ -80,8 +77,6 @@ public class AuthMeSQLMigrateReadProvider extends SQLMigrateReadProvider {
                             logger.error("Failed to read user from AuthMe db, omitting");
                         }
                     }
-
-                    return users;
                 });
     }
 }
@@ -8,9 +8,8 @@ package xyz.kyngs.librelogin.common.migrate;
 
 import java.sql.Timestamp;
 import java.time.Instant;
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.UUID;
+import java.util.function.Consumer;
 import xyz.kyngs.librelogin.api.Logger;
 import xyz.kyngs.librelogin.api.crypto.HashedPassword;
 import xyz.kyngs.librelogin.api.database.User;
@@ -24,15 +23,14 @@ public class AuthySQLMigrateReadProvider extends SQLMigrateReadProvider {
     }
 
     @Override
-    public Collection<User> getAllUsers() {
-        return connector.runQuery(
+    public void forEachUser(Consumer<User> consumer) {
+        connector.runReadQuery(
                 connection -> {
-                    var ps = connection.prepareStatement("SELECT * FROM `%s`".formatted(tableName));
+                    var ps =
+                            prepareStreaming(connection, "SELECT * FROM `%s`".formatted(tableName));
 
                     var rs = ps.executeQuery();
 
-                    var users = new HashSet<User>();
-
                     while (rs.next()) {
                         try {
                             var uuid = rs.getString("uuid");
@@ -44,7 +42,7 @@ public class AuthySQLMigrateReadProvider extends SQLMigrateReadProvider {
 
                             var password = new HashedPassword(passwordHash, null, "SHA-256");
 
-                            users.add(
+                            consumer.accept(
                                     new AuthenticUser(
                                             UUID.fromString(uuid),
                                             null,
@@ -61,8 +59,6 @@ public class AuthySQLMigrateReadProvider extends SQLMigrateReadProvider {
                             logger.error("Error while migrating user from Authy db, omitting");
                         }
                     }
-
-                    return users;
                 });
     }
 }
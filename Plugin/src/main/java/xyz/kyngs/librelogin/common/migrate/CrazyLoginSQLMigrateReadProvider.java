@@ -6,8 +6,7 @@
 
 package xyz.kyngs.librelogin.common.migrate;
 
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.function.Consumer;
 import xyz.kyngs.librelogin.api.Logger;
 import xyz.kyngs.librelogin.api.crypto.HashedPassword;
 import xyz.kyngs.librelogin.api.database.User;
@@ -23,15 +22,13 @@ public class CrazyLoginSQLMigrateReadProvider extends SQLMigrateReadProvider {
     }
 
     @Override
-    public Collection<User> getAllUsers() {
-        return connector.runQuery(
+    public void forEachUser(Consumer<User> consumer) {
+        connector.runReadQuery(
                 connection -> {
-                    var ps = connection.prepareStatement("SELECT * FROM %s".formatted(tableName));
+                    var ps = prepareStreaming(connection, "SELECT * FROM %s".formatted(tableName));
 
                     var rs = ps.executeQuery();
 
-                    var users = new HashSet<User>();
-
                     while (rs.next()) {
                         try {
                             var nickname = rs.getString("name");
@@ -57,7 +54,7 @@ public class CrazyLoginSQLMigrateReadProvider extends SQLMigrateReadProvider {
                                 }
                             }
 
-                            users.add(
+                            consumer.accept(
                                     new AuthenticUser(
                                             GeneralUtil.getCrackedUUIDFromName(nickname),
                                             null,
@@ -75,8 +72,6 @@ public class CrazyLoginSQLMigrateReadProvider extends SQLMigrateReadProvider {
                             logger.error("Failed to read user from CrazyLogin db, omitting");
                         }
                     }
-
-                    return users;
                 });
     }
 }
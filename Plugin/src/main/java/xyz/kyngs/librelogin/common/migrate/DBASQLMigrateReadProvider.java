@@ -6,9 +6,8 @@
 
 package xyz.kyngs.librelogin.common.migrate;
 
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.UUID;
+import java.util.function.Consumer;
 import xyz.kyngs.librelogin.api.Logger;
 import xyz.kyngs.librelogin.api.crypto.HashedPassword;
 import xyz.kyngs.librelogin.api.database.User;
@@ -23,15 +22,14 @@ public class DBASQLMigrateReadProvider extends SQLMigrateReadProvider {
     }
 
     @Override
-    public Collection<User> getAllUsers() {
-        return connector.runQuery(
+    public void forEachUser(Consumer<User> consumer) {
+        connector.runReadQuery(
                 connection -> {
-                    var ps = connection.prepareStatement("SELECT * FROM `%s`".formatted(tableName));
+                    var ps =
+                            prepareStreaming(connection, "SELECT * FROM `%s`".formatted(tableName));
 
                     var rs = ps.executeQuery();
 
-                    var users = new HashSet<User>();
-
                     while (rs.next()) {
                         try {
                             var uuid = UUID.fromString(rs.getString("uuid"));
@@ -46,7 +44,7 @@ public class DBASQLMigrateReadProvider extends SQLMigrateReadProvider {
                                 password = new HashedPassword(hash, salt, "SHA-512");
                             } else password = null;
 
-                            users.add(
+                            consumer.accept(
                                     new AuthenticUser(
                                             uuid,
                                             rs.getBoolean("premium") ? uuid : null,
@@ -65,8 +63,6 @@ public class DBASQLMigrateReadProvider extends SQLMigrateReadProvider {
                             logger.error("Failed to read user from DBA db, omitting");
                         }
                     }
-
-                    return users;
                 });
     }
 }
@@ -9,9 +9,10 @@ package xyz.kyngs.librelogin.common.migrate;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import java.util.*;
+import java.util.function.Consumer;
 import xyz.kyngs.librelogin.api.Logger;
+import xyz.kyngs.librelogin.api.database.ReadWriteDatabaseProvider;
 import xyz.kyngs.librelogin.api.database.User;
-import xyz.kyngs.librelogin.api.database.connector.DatabaseConnector;
 import xyz.kyngs.librelogin.api.database.connector.SQLDatabaseConnector;
 import xyz.kyngs.librelogin.api.premium.PremiumException;
 import xyz.kyngs.librelogin.api.premium.PremiumProvider;
@@ -19,14 +20,14 @@ import xyz.kyngs.librelogin.api.premium.PremiumUser;
 import xyz.kyngs.librelogin.common.util.GeneralUtil;
 
 public class FastLoginSQLMigrateReadProvider extends SQLMigrateReadProvider {
-    private final DatabaseConnector<?, ?> main;
+    private final ReadWriteDatabaseProvider main;
     private final PremiumProvider provider;
 
     public FastLoginSQLMigrateReadProvider(
             String tableName,
             Logger logger,
             SQLDatabaseConnector connector,
-            DatabaseConnector<?, ?> main,
+            ReadWriteDatabaseProvider main,
             PremiumProvider provider) {
         super(tableName, logger, connector);
         this.main = main;
@@ -34,10 +35,11 @@ public class FastLoginSQLMigrateReadProvider extends SQLMigrateReadProvider {
     }
 
     @Override
-    public Collection<User> getAllUsers() {
-        return connector.runQuery(
+    public void forEachUser(Consumer<User> consumer) {
+        connector.runReadQuery(
                 connection -> {
-                    var ps = connection.prepareStatement("SELECT * FROM `%s`".formatted(tableName));
+                    var ps =
+                            prepareStreaming(connection, "SELECT * FROM `%s`".formatted(tableName));
 
                     var rs = ps.executeQuery();
 
@@ -56,6 +58,8 @@ public class FastLoginSQLMigrateReadProvider extends SQLMigrateReadProvider {
                         }
                     }
 
+                    var owners = new HashMap<String, UUID>();
+
                     for (Map.Entry<UUID, Collection<String>> entry :
                             premiumUsers.asMap().entrySet()) {
                         var names = entry.getValue();
@@ -133,23 +137,21 @@ public class FastLoginSQLMigrateReadProvider extends SQLMigrateReadProvider {
 
                         assert name != null;
 
-                        if (main instanceof SQLDatabaseConnector sqlMain) {
-                            String finalName = name;
-                            sqlMain.runQuery(
-                                    connection2 -> {
-                                        var ps2 =
-                                                connection2.prepareStatement(
-                                                        "UPDATE librepremium_data SET"
-                                                                + " premium_uuid=? WHERE"
-                                                                + " last_nickname=?");
-                                        ps2.setString(1, premiumUUID.toString());
-                                        ps2.setString(2, finalName);
-                                        ps2.executeUpdate();
-                                    });
-                        }
+                        owners.put(name, premiumUUID);
                     }
 
-                    return List.of();
+                    // Goes through the provider, so the storage format of the UUID is respected
+                    var users = main.getByNames(owners.keySet());
+                    var updated = new ArrayList<User>();
+                    for (var entry : owners.entrySet()) {
+                        var user = users.get(entry.getKey());
+                        if (user == null || !user.getLastNickname().equals(entry.getKey())) {
+                            continue;
+                        }
+                        user.setPremiumUUID(entry.getValue());
+                        updated.add(user);
+                    }
+                    main.updateUsers(updated);
                 });
     }
 }
@@ -7,8 +7,7 @@
 package xyz.kyngs.librelogin.common.migrate;
 
 import java.sql.PreparedStatement;
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.function.Consumer;
 import xyz.kyngs.librelogin.api.Logger;
 import xyz.kyngs.librelogin.api.crypto.HashedPassword;
 import xyz.kyngs.librelogin.api.database.User;
@@ -25,16 +24,14 @@ public class JPremiumSQLMigrateReadProvider extends SQLMigrateReadProvider {
     }
 
     @Override
-    public Collection<User> getAllUsers() {
-        return connector.runQuery(
+    public void forEachUser(Consumer<User> consumer) {
+        connector.runReadQuery(
                 connection -> {
                     PreparedStatement ps =
-                            connection.prepareStatement("SELECT * FROM `%s`".formatted(tableName));
+                            prepareStreaming(connection, "SELECT * FROM `%s`".formatted(tableName));
 
                     var rs = ps.executeQuery();
 
-                    var users = new HashSet<User>();
-
                     while (rs.next()) {
                         try {
                             var uniqueIdString = rs.getString("uniqueId");
@@ -71,7 +68,7 @@ public class JPremiumSQLMigrateReadProvider extends SQLMigrateReadProvider {
                                                 }
                                             };
 
-                            users.add(
+                            consumer.accept(
                                     new AuthenticUser(
                                             GeneralUtil.fromUnDashedUUID(uniqueIdString),
                                             premiumIdString == null
@@ -91,8 +88,6 @@ public class JPremiumSQLMigrateReadProvider extends SQLMigrateReadProvider {
                             logger.error("Failed to read user from JPremium db, omitting");
                         }
                     }
-
-                    return users;
                 });
     }
 }
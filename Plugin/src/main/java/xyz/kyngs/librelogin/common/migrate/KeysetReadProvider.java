@@ -0,0 +1,28 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.migrate;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.api.database.User;
+
+/**
+ * A source which can pass its users in the order of their UUIDs, so an interrupted {@link
+ * MigrationPipeline} continues after the last UUID written, instead of reading everything again.
+ */
+public interface KeysetReadProvider {
+
+    /**
+     * Passes the users with a UUID after the given one to the consumer, one by one, in the order of
+     * their UUIDs. The order is the one of the source, which must be stable across runs.
+     *
+     * @param after The UUID to start after, or null to start from the beginning
+     * @param consumer The consumer of the users
+     */
+    void forEachUserAfter(@Nullable UUID after, Consumer<User> consumer);
+}
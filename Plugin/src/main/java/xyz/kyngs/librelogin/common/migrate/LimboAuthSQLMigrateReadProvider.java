@@ -8,9 +8,8 @@ package xyz.kyngs.librelogin.common.migrate;
 
 import java.sql.PreparedStatement;
 import java.sql.Timestamp;
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.UUID;
+import java.util.function.Consumer;
 import xyz.kyngs.librelogin.api.Logger;
 import xyz.kyngs.librelogin.api.crypto.HashedPassword;
 import xyz.kyngs.librelogin.api.database.User;
@@ -26,16 +25,14 @@ public class LimboAuthSQLMigrateReadProvider extends SQLMigrateReadProvider {
     }
 
     @Override
-    public Collection<User> getAllUsers() {
-        return connector.runQuery(
+    public void forEachUser(Consumer<User> consumer) {
+        connector.runReadQuery(
                 connection -> {
                     PreparedStatement ps =
-                            connection.prepareStatement("SELECT * FROM `%s`".formatted(tableName));
+                            prepareStreaming(connection, "SELECT * FROM `%s`".formatted(tableName));
 
                     var rs = ps.executeQuery();
 
-                    var users = new HashSet<User>();
-
                     while (rs.next()) {
                         try {
                             var uniqueIdString = rs.getString("UUID");
@@ -87,7 +84,7 @@ public class LimboAuthSQLMigrateReadProvider extends SQLMigrateReadProvider {
                                 }
                             }
 
-                            users.add(
+                            consumer.accept(
                                     new AuthenticUser(
                                             UUID.fromString(uniqueIdString),
                                             premiumIdString == null
@@ -109,8 +106,6 @@ public class LimboAuthSQLMigrateReadProvider extends SQLMigrateReadProvider {
                                             + e.getMessage());
                         }
                     }
-
-                    return users;
                 });
     }
 }
@@ -7,9 +7,8 @@
 package xyz.kyngs.librelogin.common.migrate;
 
 import java.sql.Timestamp;
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.UUID;
+import java.util.function.Consumer;
 import xyz.kyngs.librelogin.api.Logger;
 import xyz.kyngs.librelogin.api.crypto.HashedPassword;
 import xyz.kyngs.librelogin.api.database.User;
@@ -24,15 +23,13 @@ public class LogItSQLMigrateReadProvider extends SQLMigrateReadProvider {
     }
 
     @Override
-    public Collection<User> getAllUsers() {
-        return connector.runQuery(
+    public void forEachUser(Consumer<User> consumer) {
+        connector.runReadQuery(
                 connection -> {
-                    var ps = connection.prepareStatement("SELECT * FROM %s".formatted(tableName));
+                    var ps = prepareStreaming(connection, "SELECT * FROM %s".formatted(tableName));
 
                     var rs = ps.executeQuery();
 
-                    var users = new HashSet<User>();
-
                     while (rs.next()) {
                         try {
                             var nickname = rs.getString("username");
@@ -62,7 +59,7 @@ public class LogItSQLMigrateReadProvider extends SQLMigrateReadProvider {
                                                 + nickname);
                             }
 
-                            users.add(
+                            consumer.accept(
                                     new AuthenticUser(
                                             UUID.fromString(uuid),
                                             null,
@@ -80,8 +77,6 @@ public class LogItSQLMigrateReadProvider extends SQLMigrateReadProvider {
                             logger.error("Failed to read user from LogIt db, omitting");
                         }
                     }
-
-                    return users;
                 });
     }
 }
@@ -6,9 +6,8 @@
 
 package xyz.kyngs.librelogin.common.migrate;
 
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.UUID;
+import java.util.function.Consumer;
 import xyz.kyngs.librelogin.api.Logger;
 import xyz.kyngs.librelogin.api.crypto.HashedPassword;
 import xyz.kyngs.librelogin.api.database.User;
@@ -23,15 +22,14 @@ public class LoginSecuritySQLMigrateReadProvider extends SQLMigrateReadProvider
     }
 
     @Override
-    public Collection<User> getAllUsers() {
-        return connector.runQuery(
+    public void forEachUser(Consumer<User> consumer) {
+        connector.runReadQuery(
                 connection -> {
-                    var ps = connection.prepareStatement("SELECT * FROM `%s`".formatted(tableName));
+                    var ps =
+                            prepareStreaming(connection, "SELECT * FROM `%s`".formatted(tableName));
 
                     var rs = ps.executeQuery();
 
-                    var users = new HashSet<User>();
-
                     while (rs.next()) {
                         var uniqueId = UUID.fromString(rs.getString("unique_user_id"));
                         var lastNickname = rs.getString("last_name");
@@ -51,7 +49,7 @@ public class LoginSecuritySQLMigrateReadProvider extends SQLMigrateReadProvider
                             continue;
                         }
 
-                        users.add(
+                        consumer.accept(
                                 new AuthenticUser(
                                         uniqueId,
                                         null,
@@ -65,8 +63,6 @@ public class LoginSecuritySQLMigrateReadProvider extends SQLMigrateReadProvider
                                         null,
                                         null));
                     }
-
-                    return users;
                 });
     }
 }
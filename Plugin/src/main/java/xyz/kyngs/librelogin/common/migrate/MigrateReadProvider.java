@@ -6,13 +6,25 @@
 
 package xyz.kyngs.librelogin.common.migrate;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.UUID;
+import java.util.function.Consumer;
 import xyz.kyngs.librelogin.api.database.ReadDatabaseProvider;
 import xyz.kyngs.librelogin.api.database.User;
 
 public abstract class MigrateReadProvider implements ReadDatabaseProvider {
 
+    @Override
+    public abstract void forEachUser(Consumer<User> consumer);
+
+    @Override
+    public Collection<User> getAllUsers() {
+        var users = new ArrayList<User>();
+        forEachUser(users::add);
+        return users;
+    }
+
     @Override
     public User getByName(String name) {
         throw new UnsupportedOperationException();
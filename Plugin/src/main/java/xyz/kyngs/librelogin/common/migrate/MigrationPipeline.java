@@ -0,0 +1,371 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.migrate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import org.jetbrains.annotations.Nullable;
+import xyz.kyngs.librelogin.api.Logger;
+import xyz.kyngs.librelogin.api.database.ReadDatabaseProvider;
+import xyz.kyngs.librelogin.api.database.User;
+import xyz.kyngs.librelogin.api.database.WriteDatabaseProvider;
+import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
+
+/**
+ * Copies all users from one provider to another.
+ *
+ * <p>A single reader streams the users from the source and splits them into chunks, which are
+ * passed through a bounded queue to several writers. Each chunk is inserted as one batch.
+ *
+ * <p>If the source is a {@link KeysetReadProvider} and a checkpoint file is given, the UUID of the
+ * last user written without gaps is stored there, an interrupted migration then continues after it.
+ * Other sources are read again from the beginning, the users which have been written already are
+ * skipped by {@link WriteDatabaseProvider#insertUsers(java.util.Collection)}.
+ */
+public class MigrationPipeline {
+
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    private final Logger logger;
+    private final int chunkSize;
+    private final int writers;
+    private final @Nullable File checkpointFile;
+    private final @Nullable String source;
+
+    /**
+     * @param logger The logger used to report progress
+     * @param chunkSize The amount of users inserted at once
+     * @param writers The amount of threads inserting the users
+     * @param checkpointFile The file to store the progress in, or null to not store it
+     * @param source Identifies the source, a checkpoint of a different source is ignored
+     */
+    public MigrationPipeline(
+            Logger logger,
+            int chunkSize,
+            int writers,
+            @Nullable File checkpointFile,
+            @Nullable String source) {
+        this.logger = logger;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.writers = Math.max(1, writers);
+        this.checkpointFile = checkpointFile;
+        this.source = source;
+    }
+
+    /**
+     * Runs the migration, blocking until it is complete.
+     *
+     * @param from The provider to read from
+     * @param to The provider to write to
+     * @return The amount of users written by this run
+     * @throws RuntimeException If the migration fails, the checkpoint is kept
+     */
+    public long run(ReadDatabaseProvider from, WriteDatabaseProvider to) {
+        var keyset = from instanceof KeysetReadProvider provider ? provider : null;
+        var after = keyset == null ? null : readCheckpoint();
+
+        if (after != null) {
+            logger.info("Resuming the migration after the user %s".formatted(after));
+        }
+
+        var progress = new Progress(keyset != null);
+        var failure = new AtomicReference<Throwable>();
+        var queue = new ArrayBlockingQueue<Chunk>(writers * 2);
+        var threadCounter = new AtomicInteger();
+        ExecutorService executor =
+                Executors.newFixedThreadPool(
+                        writers,
+                        runnable -> {
+                            var thread =
+                                    new Thread(
+                                            runnable,
+                                            "LibreLogin Migration Writer #"
+                                                    + threadCounter.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+
+        for (int i = 0; i < writers; i++) {
+            executor.execute(() -> write(queue, to, progress, failure));
+        }
+
+        try {
+            read(from, keyset, after, queue, failure);
+        } finally {
+            for (int i = 0; i < writers; i++) {
+                putUninterruptibly(queue, Chunk.END);
+            }
+            executor.shutdown();
+            try {
+                //noinspection ResultOfMethodCallIgnored
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        var cause = failure.get();
+        if (cause != null) {
+            throw new RuntimeException(
+                    "Migration failed after %d users, %s"
+                            .formatted(
+                                    progress.written(),
+                                    keyset == null
+                                            ? "the users migrated already are skipped next time"
+                                            : "it will resume from this point next time"),
+                    cause);
+        }
+
+        deleteCheckpoint();
+        logger.info(
+                "Migrated %d users in %d seconds"
+                        .formatted(progress.written(), progress.elapsedSeconds()));
+
+        return progress.written();
+    }
+
+    private void read(
+            ReadDatabaseProvider from,
+            @Nullable KeysetReadProvider keyset,
+            @Nullable UUID after,
+            BlockingQueue<Chunk> queue,
+            AtomicReference<Throwable> failure) {
+        var index = new long[1];
+        var chunk = new ArrayList<User>(chunkSize);
+
+        Consumer<User> consumer =
+                user -> {
+                    chunk.add(user);
+
+                    if (chunk.size() >= chunkSize) {
+                        enqueue(queue, new Chunk(index[0]++, List.copyOf(chunk)), failure);
+                        chunk.clear();
+                    }
+                };
+
+        try {
+            if (keyset != null) {
+                keyset.forEachUserAfter(after, consumer);
+            } else {
+                from.forEachUser(consumer);
+            }
+
+            if (!chunk.isEmpty()) {
+                enqueue(queue, new Chunk(index[0], List.copyOf(chunk)), failure);
+            }
+        } catch (Aborted ignored) {
+            // A writer has failed, the failure is reported by the caller
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    private void enqueue(
+            BlockingQueue<Chunk> queue, Chunk chunk, AtomicReference<Throwable> failure) {
+        try {
+            while (!queue.offer(chunk, 1, TimeUnit.SECONDS)) {
+                if (failure.get() != null) throw new Aborted();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+            throw new Aborted();
+        }
+        if (failure.get() != null) throw new Aborted();
+    }
+
+    private void write(
+            BlockingQueue<Chunk> queue,
+            WriteDatabaseProvider to,
+            Progress progress,
+            AtomicReference<Throwable> failure) {
+        while (true) {
+            Chunk chunk;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (chunk == Chunk.END) return;
+            // Keep draining the queue, so the reader does not block forever
+            if (failure.get() != null) continue;
+
+            try {
+                to.insertUsers(chunk.users());
+                progress.completed(chunk);
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    /**
+     * @return The UUID of the last user written by an interrupted migration, or null if there is
+     *     none
+     */
+    private @Nullable UUID readCheckpoint() {
+        if (checkpointFile == null || !checkpointFile.exists()) return null;
+
+        try {
+            var checkpoint =
+                    AuthenticLibreLogin.GSON.fromJson(
+                            Files.readString(checkpointFile.toPath()), Checkpoint.class);
+
+            // Checkpoints of older versions counted the rows, the order was not stable though
+            if (checkpoint == null || checkpoint.after == null) return null;
+
+            if (source != null && !source.equals(checkpoint.source)) {
+                logger.warn(
+                        "Found a checkpoint of a migration from %s, ignoring it"
+                                .formatted(checkpoint.source));
+                return null;
+            }
+
+            return UUID.fromString(checkpoint.after);
+        } catch (Exception e) {
+            logger.warn("Failed to read the migration checkpoint, starting from the beginning");
+            return null;
+        }
+    }
+
+    private void writeCheckpoint(UUID after) {
+        if (checkpointFile == null) return;
+
+        try {
+            var temp = new File(checkpointFile.getPath() + ".tmp");
+            Files.writeString(
+                    temp.toPath(),
+                    AuthenticLibreLogin.GSON.toJson(new Checkpoint(source, after.toString())));
+            Files.move(
+                    temp.toPath(),
+                    checkpointFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Failed to save the migration checkpoint: " + e.getMessage());
+        }
+    }
+
+    private void deleteCheckpoint() {
+        if (checkpointFile == null) return;
+
+        try {
+            Files.deleteIfExists(checkpointFile.toPath());
+        } catch (IOException e) {
+            logger.warn("Failed to delete the migration checkpoint: " + e.getMessage());
+        }
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Chunk> queue, Chunk chunk) {
+        var interrupted = false;
+        while (true) {
+            try {
+                queue.put(chunk);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private record Chunk(long index, List<User> users) {
+        private static final Chunk END = new Chunk(-1, List.of());
+    }
+
+    private static final class Checkpoint {
+        private @Nullable String source;
+        private @Nullable String after;
+
+        private Checkpoint() {}
+
+        private Checkpoint(@Nullable String source, String after) {
+            this.source = source;
+            this.after = after;
+        }
+    }
+
+    private static final class Aborted extends RuntimeException {
+        private Aborted() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Tracks the written chunks. Chunks may complete out of order, only the users up to the first
+     * missing chunk count as committed.
+     */
+    private final class Progress {
+
+        private final boolean checkpoints;
+        private final long startTime;
+        private final Map<Long, Chunk> completed;
+        private long nextIndex;
+        private long written;
+        private long lastReport;
+        private long lastReportWritten;
+
+        private Progress(boolean checkpoints) {
+            this.checkpoints = checkpoints;
+            this.startTime = System.nanoTime();
+            this.completed = new TreeMap<>();
+            this.lastReport = startTime;
+        }
+
+        private synchronized void completed(Chunk chunk) {
+            written += chunk.users().size();
+
+            if (checkpoints) {
+                completed.put(chunk.index(), chunk);
+
+                Chunk last = null;
+                Chunk next;
+                while ((next = completed.remove(nextIndex)) != null) {
+                    last = next;
+                    nextIndex++;
+                }
+
+                if (last != null) {
+                    writeCheckpoint(last.users().get(last.users().size() - 1).getUuid());
+                }
+            }
+
+            var now = System.nanoTime();
+            if (now - lastReport >= PROGRESS_INTERVAL) {
+                var rate = (written - lastReportWritten) * 1_000_000_000L / (now - lastReport);
+                logger.info("Migrated %d users so far (%d users/s)".formatted(written, rate));
+                lastReport = now;
+                lastReportWritten = written;
+            }
+        }
+
+        private synchronized long written() {
+            return written;
+        }
+
+        private long elapsedSeconds() {
+            return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime);
+        }
+    }
+}
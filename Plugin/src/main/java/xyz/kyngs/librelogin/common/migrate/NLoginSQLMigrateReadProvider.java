@@ -8,8 +8,7 @@ package xyz.kyngs.librelogin.common.migrate;
 
 import java.sql.Timestamp;
 import java.time.Instant;
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.function.Consumer;
 import xyz.kyngs.librelogin.api.Logger;
 import xyz.kyngs.librelogin.api.crypto.HashedPassword;
 import xyz.kyngs.librelogin.api.database.User;
@@ -25,15 +24,14 @@ public class NLoginSQLMigrateReadProvider extends SQLMigrateReadProvider {
     }
 
     @Override
-    public Collection<User> getAllUsers() {
-        return connector.runQuery(
+    public void forEachUser(Consumer<User> consumer) {
+        connector.runReadQuery(
                 connection -> {
-                    var ps = connection.prepareStatement("SELECT * FROM `%s`".formatted(tableName));
+                    var ps =
+                            prepareStreaming(connection, "SELECT * FROM `%s`".formatted(tableName));
 
                     var rs = ps.executeQuery();
 
-                    var users = new HashSet<User>();
-
                     while (rs.next()) {
                         try {
                             var uniqueIdString = rs.getString("unique_id");
@@ -63,7 +61,7 @@ public class NLoginSQLMigrateReadProvider extends SQLMigrateReadProvider {
                                 }
                             }
 
-                            users.add(
+                            consumer.accept(
                                     new AuthenticUser(
                                             GeneralUtil.fromUnDashedUUID(uniqueIdString),
                                             premiumIdString == null
@@ -84,8 +82,6 @@ public class NLoginSQLMigrateReadProvider extends SQLMigrateReadProvider {
                             logger.error("Error while reading user from database");
                         }
                     }
-
-                    return users;
                 });
     }
 }
@@ -6,18 +6,32 @@
 
 package xyz.kyngs.librelogin.common.migrate;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import xyz.kyngs.librelogin.api.Logger;
 import xyz.kyngs.librelogin.api.database.connector.SQLDatabaseConnector;
+import xyz.kyngs.librelogin.common.util.SQLUtil;
 
 public abstract class SQLMigrateReadProvider extends MigrateReadProvider {
 
     protected final String tableName;
     protected final Logger logger;
     protected final SQLDatabaseConnector connector;
+    protected int fetchSize = 1000;
 
     public SQLMigrateReadProvider(String tableName, Logger logger, SQLDatabaseConnector connector) {
         this.tableName = tableName;
         this.logger = logger;
         this.connector = connector;
     }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    protected PreparedStatement prepareStreaming(Connection connection, String sql)
+            throws SQLException {
+        return SQLUtil.prepareStreaming(connection, sql, fetchSize);
+    }
 }
@@ -6,9 +6,8 @@
 
 package xyz.kyngs.librelogin.common.migrate;
 
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.UUID;
+import java.util.function.Consumer;
 import xyz.kyngs.librelogin.api.Logger;
 import xyz.kyngs.librelogin.api.database.User;
 import xyz.kyngs.librelogin.api.database.connector.SQLDatabaseConnector;
@@ -31,15 +30,14 @@ public class UniqueCodeAuthSQLMigrateReadProvider extends SQLMigrateReadProvider
     }
 
     @Override
-    public Collection<User> getAllUsers() {
-        return connector.runQuery(
+    public void forEachUser(Consumer<User> consumer) {
+        connector.runReadQuery(
                 connection -> {
-                    var ps = connection.prepareStatement("SELECT * FROM `%s`".formatted(tableName));
+                    var ps =
+                            prepareStreaming(connection, "SELECT * FROM `%s`".formatted(tableName));
 
                     var rs = ps.executeQuery();
 
-                    var users = new HashSet<User>();
-
                     while (rs.next()) {
                         try {
                             var name = rs.getString("name");
@@ -84,7 +82,7 @@ public class UniqueCodeAuthSQLMigrateReadProvider extends SQLMigrateReadProvider
                                 }
                             }
 
-                            users.add(
+                            consumer.accept(
                                     new AuthenticUser(
                                             premiumUUID == null ? uuid : premiumUUID,
                                             premiumUUID,
@@ -102,8 +100,6 @@ public class UniqueCodeAuthSQLMigrateReadProvider extends SQLMigrateReadProvider
                             logger.error("Error while reading user from database");
                         }
                     }
-
-                    return users;
                 });
     }
 }
@@ -6,13 +6,16 @@
 
 package xyz.kyngs.librelogin.common.util;
 
+import static xyz.kyngs.librelogin.common.config.ConfigurationKeys.DATABASE_FETCH_SIZE;
 import static xyz.kyngs.librelogin.common.config.ConfigurationKeys.DATABASE_TYPE;
 import static xyz.kyngs.librelogin.common.config.ConfigurationKeys.MIGRATION_TYPE;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.util.ArrayList;
@@ -32,6 +35,8 @@ import xyz.kyngs.librelogin.common.command.InvalidCommandArgument;
 import xyz.kyngs.librelogin.common.config.ConfigurationKeys;
 import xyz.kyngs.librelogin.common.config.HoconPluginConfiguration;
 import xyz.kyngs.librelogin.common.config.key.ConfigurationKey;
+import xyz.kyngs.librelogin.common.database.AuthenticDatabaseProvider;
+import xyz.kyngs.librelogin.common.migrate.SQLMigrateReadProvider;
 
 public class GeneralUtil {
 
@@ -61,6 +66,18 @@ public class GeneralUtil {
                         new BigInteger(id.substring(16, 32), 16).longValue());
     }
 
+    public static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    public static UUID fromBytes(byte[] bytes) {
+        var buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
     @Nullable
     public static TextComponent formatComponent(
             @Nullable TextComponent component, Map<String, String> replacements) {
@@ -131,6 +148,14 @@ public class GeneralUtil {
 
                     provider = registration.create(connector);
 
+                    if (provider instanceof AuthenticDatabaseProvider<?> authentic) {
+                        authentic.detectSchema();
+                    }
+
+                    if (provider instanceof SQLMigrateReadProvider sqlProvider) {
+                        sqlProvider.setFetchSize(configuration.get(DATABASE_FETCH_SIZE));
+                    }
+
                     logger.info("Connected to the OLD database");
 
                 } catch (Exception e) {
@@ -148,7 +173,11 @@ public class GeneralUtil {
                 try {
                     logger.info("Starting data conversion... This may take a while!");
 
-                    plugin.migrate(provider, plugin.getDatabaseProvider());
+                    plugin.migrate(
+                            provider,
+                            plugin.getDatabaseProvider(),
+                            new File(plugin.getDataFolder(), "migration-checkpoint.json"),
+                            configuration.get(MIGRATION_TYPE));
 
                     logger.info("Migration complete, cleaning up!");
 
@@ -0,0 +1,68 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import xyz.kyngs.librelogin.api.util.ThrowableFunction;
+
+public class SQLUtil {
+
+    /**
+     * Runs the function inside an explicit transaction, which is committed if the function succeeds
+     * and rolled back otherwise. If the connection is already inside a transaction, the function
+     * simply joins it.
+     *
+     * @param connection The connection
+     * @param function The function
+     * @return The result of the function
+     */
+    public static <V> V inTransaction(
+            Connection connection, ThrowableFunction<Connection, V, SQLException> function)
+            throws SQLException {
+        if (!connection.getAutoCommit()) return function.apply(connection);
+
+        connection.setAutoCommit(false);
+        try {
+            var result = function.apply(connection);
+            connection.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Prepares a statement whose result set is fetched from the server in chunks instead of being
+     * loaded into memory at once.
+     *
+     * <p>PostgreSQL only uses a cursor inside a transaction, so auto-commit is disabled on its
+     * connections. The pool restores it once the connection is returned.
+     *
+     * @param connection The connection
+     * @param sql The query
+     * @param fetchSize The amount of rows fetched at once
+     * @return The statement
+     */
+    public static PreparedStatement prepareStreaming(
+            Connection connection, String sql, int fetchSize) throws SQLException {
+        if (connection.getMetaData().getDatabaseProductName().equalsIgnoreCase("PostgreSQL")) {
+            connection.setAutoCommit(false);
+        }
+
+        var ps =
+                connection.prepareStatement(
+                        sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        ps.setFetchSize(fetchSize);
+        return ps;
+    }
+}
@@ -79,7 +79,6 @@ public class PaperListeners extends AuthenticListeners<PaperLibreLogin, Player,
             Caffeine.newBuilder().expireAfterWrite(2, TimeUnit.MINUTES).build();
     private final FloodgateHelper floodgateHelper;
     private final Cache<UUID, String> ipCache;
-    private final Cache<UUID, User> readOnlyUserCache;
     private final Cache<UUID, Location> spawnLocationCache;
     private final Cache<UUID, Location> joinedWhileDead;
 
@@ -90,8 +89,6 @@ public class PaperListeners extends AuthenticListeners<PaperLibreLogin, Player,
 
         ipCache = Caffeine.newBuilder().expireAfterWrite(2, TimeUnit.MINUTES).build();
 
-        readOnlyUserCache = Caffeine.newBuilder().expireAfterWrite(2, TimeUnit.MINUTES).build();
-
         spawnLocationCache = Caffeine.newBuilder().expireAfterWrite(2, TimeUnit.MINUTES).build();
 
         joinedWhileDead = Caffeine.newBuilder().expireAfterWrite(2, TimeUnit.MINUTES).build();
@@ -130,13 +127,13 @@ public class PaperListeners extends AuthenticListeners<PaperLibreLogin, Player,
         var player = event.getPlayer();
         var puuid = player.getUniqueId();
 
-        var data = readOnlyUserCache.getIfPresent(puuid);
+        var data = sessions.getUser(puuid);
         if (data == null && !plugin.fromFloodgate(player.getName())) {
             player.kick(Component.text("Internal error, please try again later."));
             return;
         }
 
-        readOnlyUserCache.invalidate(puuid);
+        sessions.close(puuid);
         if (player.isDead()) {
             spawnLocationCache.invalidate(puuid);
             player.spigot().respawn();
@@ -151,13 +148,19 @@ public class PaperListeners extends AuthenticListeners<PaperLibreLogin, Player,
     public void onPreLogin(AsyncPlayerPreLoginEvent event) {
         if (plugin.fromFloodgate(event.getName())) return;
 
-        var user = plugin.getDatabaseProvider().getByName(event.getName());
+        var session = sessions.get(event.getName());
+        User user = session == null ? null : session.getUser();
+
+        if (user == null) {
+            user = plugin.getDatabaseProvider().getByName(event.getName());
+            sessions.open(event.getName(), user);
+        }
 
         var newProfile = Bukkit.createProfileExact(user.getUuid(), event.getName());
 
         event.setPlayerProfile(newProfile);
 
-        readOnlyUserCache.put(user.getUuid(), user);
+        sessions.bind(event.getName(), user.getUuid());
     }
 
     // Changed to an async variant of this event
@@ -181,7 +184,7 @@ public class PaperListeners extends AuthenticListeners<PaperLibreLogin, Player,
             return;
         }
 
-        var world = chooseServer(puuid, ip, readOnlyUserCache.getIfPresent(puuid));
+        var world = chooseServer(puuid, ip, sessions.getUser(puuid));
         ipCache.invalidate(puuid);
         if (world.value() == null) {
             Bukkit.getScheduler()
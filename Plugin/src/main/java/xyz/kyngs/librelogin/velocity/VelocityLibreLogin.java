@@ -37,6 +37,7 @@ import xyz.kyngs.librelogin.api.event.exception.EventCancelledException;
 import xyz.kyngs.librelogin.api.integration.LimboIntegration;
 import xyz.kyngs.librelogin.common.AuthenticLibreLogin;
 import xyz.kyngs.librelogin.common.SLF4JLogger;
+import xyz.kyngs.librelogin.common.database.invalidation.InvalidationBus;
 import xyz.kyngs.librelogin.common.image.AuthenticImageProjector;
 import xyz.kyngs.librelogin.common.image.protocolize.ProtocolizeImageProjector;
 import xyz.kyngs.librelogin.common.util.CancellableTask;
@@ -248,6 +249,14 @@ public class VelocityLibreLogin extends AuthenticLibreLogin<Player, RegisteredSe
         return redisBungee != null;
     }
 
+    @Override
+    protected @Nullable InvalidationBus createRedisBungeeInvalidationBus() {
+        return redisBungee == null
+                ? null
+                : new VelocityRedisBungeeInvalidationBus(
+                        getLogger(), redisBungee, server.getEventManager(), bootstrap);
+    }
+
     @Override
     public Player getPlayerForUUID(UUID uuid) {
         return server.getPlayer(uuid).orElse(null);
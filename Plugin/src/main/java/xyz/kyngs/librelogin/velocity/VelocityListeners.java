@@ -25,11 +25,13 @@ import java.util.NoSuchElementException;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import net.kyori.adventure.text.Component;
+import org.jetbrains.annotations.Nullable;
 import xyz.kyngs.librelogin.api.BiHolder;
 import xyz.kyngs.librelogin.api.database.User;
 import xyz.kyngs.librelogin.api.event.exception.EventCancelledException;
 import xyz.kyngs.librelogin.common.config.ConfigurationKeys;
 import xyz.kyngs.librelogin.common.listener.AuthenticListeners;
+import xyz.kyngs.librelogin.common.listener.PreLoginResult;
 
 public class VelocityListeners
         extends AuthenticListeners<VelocityLibreLogin, Player, RegisteredServer> {
@@ -55,15 +57,30 @@ public class VelocityListeners
     }
 
     @Subscribe(order = PostOrder.NORMAL)
-    public void onProfileRequest(GameProfileRequestEvent event) {
+    public @Nullable EventTask onProfileRequest(GameProfileRequestEvent event) {
         var existing = event.getGameProfile();
 
-        if (existing != null && plugin.fromFloodgate(existing.getId())) return;
+        if (existing != null && plugin.fromFloodgate(existing.getId())) return null;
 
-        var profile = plugin.getDatabaseProvider().getByName(event.getUsername());
+        var session = sessions.get(event.getUsername());
+        User profile = session == null ? null : session.getUser();
 
+        if (profile != null) {
+            applyProfile(event, profile);
+            return null;
+        }
+
+        return EventTask.resumeWhenComplete(
+                plugin.getDatabaseProvider()
+                        .getByNameAsync(event.getUsername())
+                        .thenAccept(user -> applyProfile(event, user)));
+    }
+
+    private void applyProfile(GameProfileRequestEvent event, @Nullable User profile) {
         if (profile == null) return;
 
+        sessions.bind(event.getUsername(), profile.getUuid());
+
         var gProfile = event.getOriginalProfile();
 
         event.setGameProfile(
@@ -71,9 +88,9 @@ public class VelocityListeners
     }
 
     @Subscribe(order = PostOrder.EARLY)
-    public void onPreLogin(PreLoginEvent event) {
+    public @Nullable EventTask onPreLogin(PreLoginEvent event) {
 
-        if (!event.getResult().isAllowed()) return;
+        if (!event.getResult().isAllowed()) return null;
 
         // If floodgate is present, attempt to extract the floodgate player from the connection
         // channel.
@@ -88,7 +105,7 @@ public class VelocityListeners
                     Channel channel = (Channel) user.getChannel();
 
                     if (channel != null && channel.attr(FLOODGATE_ATTR).get() != null) {
-                        return; // Player is coming from Floodgate
+                        return null; // Player is coming from Floodgate
                     }
                 }
             } catch (Exception e) {
@@ -97,14 +114,26 @@ public class VelocityListeners
                 event.setResult(
                         PreLoginEvent.PreLoginComponentResult.denied(
                                 Component.text("Internal LibreLogin error")));
-                return;
+                return null;
             }
         }
 
-        var result =
-                onPreLogin(
-                        event.getUsername(), event.getConnection().getRemoteAddress().getAddress());
+        return EventTask.resumeWhenComplete(
+                onPreLoginAsync(
+                                event.getUsername(),
+                                event.getConnection().getRemoteAddress().getAddress())
+                        .thenAccept(result -> applyPreLoginResult(event, result))
+                        .exceptionally(
+                                e -> {
+                                    plugin.getLogger().error("Failed to pre-login a player", e);
+                                    event.setResult(
+                                            PreLoginEvent.PreLoginComponentResult.denied(
+                                                    Component.text("Internal LibreLogin error")));
+                                    return null;
+                                }));
+    }
 
+    private void applyPreLoginResult(PreLoginEvent event, PreLoginResult result) {
         event.setResult(
                 switch (result.state()) {
                     case DENIED -> {
@@ -119,48 +148,54 @@ public class VelocityListeners
     @Subscribe(order = PostOrder.LAST)
     public EventTask chooseServer(PlayerChooseInitialServerEvent event) {
         return EventTask.withContinuation(
-                continuation -> {
-                    Player player = event.getPlayer();
-                    var authProvider = plugin.getAuthorizationProvider();
-
-                    if (authProvider == null
-                            || authProvider.isAuthorized(player)
-                            || plugin.fromFloodgate(player.getUniqueId())) {
-                        var dbUser = plugin.getDatabaseProvider().getByUUID(player.getUniqueId());
-                        handleInitialServer(event, continuation, dbUser, true);
-                        return;
-                    }
+                continuation ->
+                        getJoiningUserAsync(event.getPlayer().getUniqueId())
+                                .thenAccept(
+                                        dbUser -> selectInitialServer(event, continuation, dbUser))
+                                .exceptionally(
+                                        e -> {
+                                            continuation.resumeWithException(e);
+                                            return null;
+                                        }));
+    }
 
-                    var user =
-                            com.github.retrooper.packetevents.PacketEvents.getAPI()
-                                    .getPlayerManager()
-                                    .getUser(player);
-
-                    if (user != null && user.getClientVersion().getProtocolVersion() >= 771) {
-                        // Tunda koneksi dan kirim dialog
-                        // JANGAN panggil handleInitialServer di sini agar event tidak dianggap
-                        // 'selesai' dengan server null
-                        continuations.put(
-                                player.getUniqueId(), new BiHolder<>(event, continuation));
-                        var dbUser = plugin.getDatabaseProvider().getByUUID(player.getUniqueId());
-                        if (dbUser != null) {
-                            authProvider.startTracking(dbUser, player);
-                        }
-                        authProvider
-                                .getDialogPrompt()
-                                .checkAndSend(player, dbUser != null && dbUser.isRegistered());
-                    } else {
-                        // Versi lama, lanjutkan ke Limbo/Lobby as usual
-                        var dbUser = plugin.getDatabaseProvider().getByUUID(player.getUniqueId());
-                        handleInitialServer(event, continuation, dbUser, false);
-                    }
-                });
+    private void selectInitialServer(
+            PlayerChooseInitialServerEvent event, Continuation continuation, User dbUser) {
+        Player player = event.getPlayer();
+        var authProvider = plugin.getAuthorizationProvider();
+
+        if (authProvider == null
+                || authProvider.isAuthorized(player)
+                || plugin.fromFloodgate(player.getUniqueId())) {
+            handleInitialServer(event, continuation, dbUser, true);
+            return;
+        }
+
+        var user =
+                com.github.retrooper.packetevents.PacketEvents.getAPI()
+                        .getPlayerManager()
+                        .getUser(player);
+
+        if (user != null && user.getClientVersion().getProtocolVersion() >= 771) {
+            // Tunda koneksi dan kirim dialog
+            // JANGAN panggil handleInitialServer di sini agar event tidak dianggap
+            // 'selesai' dengan server null
+            continuations.put(player.getUniqueId(), new BiHolder<>(event, continuation));
+            if (dbUser != null) {
+                authProvider.startTracking(dbUser, player);
+            }
+            authProvider
+                    .getDialogPrompt()
+                    .checkAndSend(player, dbUser != null && dbUser.isRegistered());
+        } else {
+            // Versi lama, lanjutkan ke Limbo/Lobby as usual
+            handleInitialServer(event, continuation, dbUser, false);
+        }
     }
 
-    public void resumeConnection(UUID uuid) {
-        var holder = continuations.remove(uuid);
+    public void resumeConnection(User user) {
+        var holder = continuations.remove(user.getUuid());
         if (holder != null) {
-            var user = plugin.getDatabaseProvider().getByUUID(uuid);
             handleInitialServer(holder.key(), holder.value(), user, true);
         }
     }
@@ -195,6 +230,7 @@ public class VelocityListeners
         } else {
             event.setInitialServer(server.value());
         }
+        sessions.close(event.getPlayer().getUniqueId());
         continuation.resume();
     }
 
@@ -21,4 +21,16 @@ public class VelocityRedisBungeeIntegration {
     public boolean isPlayerOnline(@NonNull UUID player) {
         return redisBungeeAPI.isPlayerOnline(player);
     }
+
+    public void registerChannel(@NonNull String channel) {
+        redisBungeeAPI.registerPubSubChannels(channel);
+    }
+
+    public void unregisterChannel(@NonNull String channel) {
+        redisBungeeAPI.unregisterPubSubChannels(channel);
+    }
+
+    public void sendChannelMessage(@NonNull String channel, @NonNull String message) {
+        redisBungeeAPI.sendChannelMessage(channel, message);
+    }
 }
@@ -0,0 +1,79 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.velocity;
+
+import com.imaginarycode.minecraft.redisbungee.events.PubSubMessageEvent;
+import com.velocitypowered.api.event.EventManager;
+import com.velocitypowered.api.event.Subscribe;
+import java.util.Collection;
+import java.util.StringJoiner;
+import xyz.kyngs.librelogin.api.Logger;
+import xyz.kyngs.librelogin.common.database.invalidation.Invalidation;
+import xyz.kyngs.librelogin.common.database.invalidation.InvalidationBus;
+
+/**
+ * Exchanges the invalidations through a RedisBungee pub/sub channel. Invalidations are delivered
+ * right away, but only to the proxies connected at the time, which is fine, as a proxy starts with
+ * an empty cache.
+ *
+ * <p>A message is the origin, followed by the encoded invalidations, one per line.
+ */
+public class VelocityRedisBungeeInvalidationBus extends InvalidationBus {
+
+    private static final String CHANNEL = "librelogin:invalidation";
+
+    private final VelocityRedisBungeeIntegration redisBungee;
+    private final EventManager eventManager;
+    private final Object plugin;
+
+    public VelocityRedisBungeeInvalidationBus(
+            Logger logger,
+            VelocityRedisBungeeIntegration redisBungee,
+            EventManager eventManager,
+            Object plugin) {
+        super(logger);
+        this.redisBungee = redisBungee;
+        this.eventManager = eventManager;
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void start() {
+        eventManager.register(plugin, this);
+        redisBungee.registerChannel(CHANNEL);
+    }
+
+    @Override
+    protected void send(Collection<Invalidation> invalidations) {
+        var message = new StringJoiner("\n");
+        message.add(origin);
+        for (var invalidation : invalidations) {
+            message.add(invalidation.encode());
+        }
+        redisBungee.sendChannelMessage(CHANNEL, message.toString());
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        redisBungee.unregisterChannel(CHANNEL);
+        eventManager.unregisterListener(plugin, this);
+    }
+
+    @Subscribe
+    public void onPubSubMessage(PubSubMessageEvent event) {
+        if (!CHANNEL.equals(event.getChannel())) return;
+        var lines = event.getMessage().split("\n");
+        for (var i = 1; i < lines.length; i++) {
+            try {
+                receive(lines[0], Invalidation.decode(lines[i]));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Received a malformed invalidation: " + lines[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import xyz.kyngs.librelogin.api.Logger;
+
+/** Collects the logged warnings and errors, so tests can check them. */
+public class TestLogger implements Logger {
+
+    private final List<String> warnings = new CopyOnWriteArrayList<>();
+    private final List<String> errors = new CopyOnWriteArrayList<>();
+
+    public List<String> getWarnings() {
+        return warnings;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    @Override
+    public void info(String message) {}
+
+    @Override
+    public void info(String message, Throwable throwable) {}
+
+    @Override
+    public void warn(String message) {
+        warnings.add(message);
+    }
+
+    @Override
+    public void warn(String message, Throwable throwable) {
+        warnings.add(message);
+    }
+
+    @Override
+    public void error(String message) {
+        errors.add(message);
+    }
+
+    @Override
+    public void error(String message, Throwable throwable) {
+        errors.add(message);
+    }
+
+    @Override
+    public void debug(String message) {}
+
+    @Override
+    public void debug(String message, Throwable throwable) {}
+}
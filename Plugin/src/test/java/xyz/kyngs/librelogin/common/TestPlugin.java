@@ -0,0 +1,62 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import org.spongepowered.configurate.CommentedConfigurationNode;
+import xyz.kyngs.librelogin.common.config.ConfigurateHelper;
+import xyz.kyngs.librelogin.common.config.HoconPluginConfiguration;
+import xyz.kyngs.librelogin.common.config.key.ConfigurationKey;
+
+/**
+ * A mocked plugin for the tests of the components which need one. The configuration starts empty,
+ * so every key has its default value until it is {@link #set(ConfigurationKey, Object) set}.
+ */
+public class TestPlugin {
+
+    private final AuthenticLibreLogin<?, ?> plugin;
+    private final ConfigurateHelper helper;
+    private final TestLogger logger;
+
+    public TestPlugin(File dataFolder) {
+        this.helper = new ConfigurateHelper(CommentedConfigurationNode.root());
+        this.logger = new TestLogger();
+
+        var configuration = mock(HoconPluginConfiguration.class);
+        when(configuration.getHelper()).thenReturn(helper);
+        when(configuration.get(any()))
+                .thenAnswer(
+                        invocation -> helper.get(invocation.<ConfigurationKey<?>>getArgument(0)));
+
+        plugin = mock(AuthenticLibreLogin.class);
+        when(plugin.getConfiguration()).thenReturn(configuration);
+        when(plugin.getLogger()).thenReturn(logger);
+        when(plugin.getDataFolder()).thenReturn(dataFolder);
+        when(plugin.getDatabaseExecutor()).thenReturn(Runnable::run);
+    }
+
+    public <T> TestPlugin set(ConfigurationKey<T> key, T value) {
+        return set(key.key(), value);
+    }
+
+    public TestPlugin set(String path, Object value) {
+        helper.set(path, value);
+        return this;
+    }
+
+    public AuthenticLibreLogin<?, ?> get() {
+        return plugin;
+    }
+
+    public TestLogger getLogger() {
+        return logger;
+    }
+}
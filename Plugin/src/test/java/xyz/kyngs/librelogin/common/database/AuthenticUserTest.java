@@ -0,0 +1,60 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static xyz.kyngs.librelogin.common.database.TestDatabaseProvider.user;
+
+import java.sql.Timestamp;
+import java.util.EnumSet;
+import org.junit.jupiter.api.Test;
+import xyz.kyngs.librelogin.common.database.AuthenticUser.Field;
+
+class AuthenticUserTest {
+
+    @Test
+    void keepsTheFieldsChangedDuringAWrite() {
+        var user = user("Alice");
+        user.markClean();
+
+        user.setIp("10.0.0.1");
+        user.setLastSeen(new Timestamp(1000));
+        var changes = user.getChanges();
+
+        // Changed while the write is in progress
+        user.setIp("10.0.0.2");
+
+        user.markClean(changes);
+
+        assertEquals(EnumSet.of(Field.IP), user.getDirtyFields());
+    }
+
+    @Test
+    void keepsTheFieldsMarkedDirtyDuringAWrite() {
+        var user = user("Alice");
+        var changes = user.getChanges();
+
+        user.markDirty(EnumSet.of(Field.EMAIL));
+        user.markClean(changes);
+
+        assertEquals(EnumSet.of(Field.EMAIL), user.getDirtyFields());
+    }
+
+    @Test
+    void cleansOnlyTheWrittenFields() {
+        var user = user("Alice");
+        user.markClean();
+
+        user.setIp("10.0.0.1");
+        var changes = user.getChanges();
+        user.setEmail("alice@example.com");
+
+        user.markClean(changes);
+
+        assertEquals(EnumSet.of(Field.EMAIL), user.getDirtyFields());
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import xyz.kyngs.librelogin.api.database.DatabaseUnavailableException;
+import xyz.kyngs.librelogin.api.database.ReadWriteDatabaseProvider;
+import xyz.kyngs.librelogin.api.database.User;
+
+/** Stores the users in a map, and can be told to fail, so the layers above can be tested. */
+public class TestDatabaseProvider implements ReadWriteDatabaseProvider {
+
+    private final Map<UUID, AuthenticUser> users = new ConcurrentHashMap<>();
+    private final AtomicInteger reads = new AtomicInteger();
+    private final AtomicInteger writes = new AtomicInteger();
+    private volatile Predicate<User> failing = user -> false;
+    private volatile boolean unavailable;
+
+    public static AuthenticUser user(String name) {
+        return new AuthenticUser(
+                UUID.randomUUID(),
+                null,
+                null,
+                name,
+                new Timestamp(0),
+                new Timestamp(0),
+                null,
+                "127.0.0.1",
+                null,
+                null,
+                null);
+    }
+
+    /** Makes the writes of the matching users fail. */
+    public void setFailing(Predicate<User> failing) {
+        this.failing = failing;
+    }
+
+    /** Makes every operation throw a {@link DatabaseUnavailableException}. */
+    public void setUnavailable(boolean unavailable) {
+        this.unavailable = unavailable;
+    }
+
+    /** Returns the stored state of the user, without counting it as a read. */
+    public AuthenticUser stored(UUID uuid) {
+        return users.get(uuid);
+    }
+
+    public int getReads() {
+        return reads.get();
+    }
+
+    public int getWrites() {
+        return writes.get();
+    }
+
+    @Override
+    public User getByName(String name) {
+        read();
+        return users.values().stream()
+                .filter(user -> user.getLastNickname().equalsIgnoreCase(name))
+                .map(this::copy)
+                .findFirst()
+                .orElse(null);
+    }
+
+    @Override
+    public User getByUUID(UUID uuid) {
+        read();
+        var user = users.get(uuid);
+        return user == null ? null : copy(user);
+    }
+
+    @Override
+    public User getByPremiumUUID(UUID uuid) {
+        read();
+        return users.values().stream()
+                .filter(user -> uuid.equals(user.getPremiumUUID()))
+                .map(this::copy)
+                .findFirst()
+                .orElse(null);
+    }
+
+    @Override
+    public Collection<User> getAllUsers() {
+        read();
+        return new ArrayList<>(users.values().stream().map(this::copy).toList());
+    }
+
+    @Override
+    public Collection<User> getByIP(String ip) {
+        read();
+        return new ArrayList<>(
+                users.values().stream()
+                        .filter(user -> ip.equals(user.getIp()))
+                        .map(this::copy)
+                        .toList());
+    }
+
+    @Override
+    public void insertUser(User user) {
+        write(user);
+        if (users.putIfAbsent(user.getUuid(), copy(user)) != null) {
+            throw new IllegalStateException("User already exists");
+        }
+        markClean(user);
+    }
+
+    @Override
+    public void insertUsers(Collection<User> users) {
+        users.forEach(this::write);
+        // The existing users are skipped, like the database providers do
+        for (var user : users) {
+            this.users.putIfAbsent(user.getUuid(), copy(user));
+            markClean(user);
+        }
+    }
+
+    @Override
+    public void updateUser(User user) {
+        write(user);
+        users.computeIfPresent(user.getUuid(), (uuid, stored) -> copy(user));
+        markClean(user);
+    }
+
+    @Override
+    public void updateUsers(Collection<User> users) {
+        // Like a single statement, either all users are written or none
+        for (var user : users) {
+            write(user);
+        }
+        users.forEach(this::updateUser);
+    }
+
+    @Override
+    public void deleteUser(User user) {
+        write(user);
+        users.remove(user.getUuid());
+    }
+
+    private void read() {
+        if (unavailable) throw new DatabaseUnavailableException("Unavailable");
+        reads.incrementAndGet();
+    }
+
+    private void write(User user) {
+        if (unavailable) throw new DatabaseUnavailableException("Unavailable");
+        if (failing.test(user)) throw new IllegalStateException("Bad row " + user.getUuid());
+        writes.incrementAndGet();
+    }
+
+    private AuthenticUser copy(User user) {
+        var copy = new AuthenticUser(user);
+        copy.markClean();
+        return copy;
+    }
+
+    private static void markClean(User user) {
+        if (user instanceof AuthenticUser authentic) authentic.markClean();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static xyz.kyngs.librelogin.common.database.TestDatabaseProvider.user;
+
+import java.sql.Timestamp;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import xyz.kyngs.librelogin.api.crypto.HashedPassword;
+import xyz.kyngs.librelogin.api.database.DatabaseUnavailableException;
+import xyz.kyngs.librelogin.common.TestLogger;
+
+class WriteBehindDatabaseProviderTest {
+
+    private TestDatabaseProvider store;
+    private TestLogger logger;
+    private AtomicBoolean closed;
+    private WriteBehindDatabaseProvider writeBehind;
+
+    @BeforeEach
+    void setUp() {
+        store = new TestDatabaseProvider();
+        logger = new TestLogger();
+        closed = new AtomicBoolean();
+        var bottom =
+                new ForwardingDatabaseProvider(store) {
+                    @Override
+                    public void close() {
+                        closed.set(true);
+                    }
+                };
+        // Never flushed by the scheduler during a test
+        writeBehind = new WriteBehindDatabaseProvider(bottom, logger, 3_600_000, 100, 3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.setFailing(user -> false);
+        store.setUnavailable(false);
+        writeBehind.close();
+    }
+
+    private AuthenticUser insert(String name) {
+        var user = user(name);
+        writeBehind.insertUser(user);
+        return user;
+    }
+
+    @Test
+    void defersOnlyTheFieldsChangedOnJoin() {
+        var user = insert("Alice");
+
+        user.setLastSeen(new Timestamp(1000));
+        user.setLastServer("lobby");
+        writeBehind.updateUser(user);
+
+        assertEquals(1, writeBehind.getQueueSize());
+        assertEquals(new Timestamp(0), store.stored(user.getUuid()).getLastSeen());
+        // Read your own writes
+        assertEquals(new Timestamp(1000), writeBehind.getByUUID(user.getUuid()).getLastSeen());
+        assertEquals("lobby", writeBehind.getByName("alice").getLastServer());
+
+        writeBehind.flush();
+
+        assertEquals(0, writeBehind.getQueueSize());
+        assertEquals(new Timestamp(1000), store.stored(user.getUuid()).getLastSeen());
+    }
+
+    @Test
+    void writesSecurityFieldsSynchronously() {
+        var user = insert("Alice");
+
+        user.setLastSeen(new Timestamp(1000));
+        writeBehind.updateUser(user);
+
+        user.setHashedPassword(new HashedPassword("hash", null, "BCrypt-2A"));
+        writeBehind.updateUser(user);
+
+        var stored = store.stored(user.getUuid());
+        assertEquals("hash", stored.getHashedPassword().hash());
+        // The queued update is written along with it
+        assertEquals(new Timestamp(1000), stored.getLastSeen());
+        assertEquals(0, writeBehind.getQueueSize());
+        assertFalse(user.isDirty());
+    }
+
+    @Test
+    void badRowDoesNotBlockTheQueue() {
+        var good = insert("Good");
+        var bad = insert("Bad");
+        store.setFailing(user -> user.getUuid().equals(bad.getUuid()));
+
+        good.setLastSeen(new Timestamp(1000));
+        bad.setLastSeen(new Timestamp(1000));
+        writeBehind.updateUser(good);
+        writeBehind.updateUser(bad);
+
+        writeBehind.flush();
+
+        assertEquals(new Timestamp(1000), store.stored(good.getUuid()).getLastSeen());
+        // The bad row is retried on the next flushes, then dropped
+        assertEquals(1, writeBehind.getQueueSize());
+        writeBehind.flush();
+        assertEquals(1, writeBehind.getQueueSize());
+        writeBehind.flush();
+        assertEquals(0, writeBehind.getQueueSize());
+        assertEquals(2, logger.getWarnings().size());
+        assertEquals(1, logger.getErrors().size());
+        assertTrue(logger.getErrors().get(0).contains(bad.getUuid().toString()));
+    }
+
+    @Test
+    void keepsTheQueueWhileTheDatabaseIsUnavailable() {
+        var user = insert("Alice");
+        user.setLastSeen(new Timestamp(1000));
+        writeBehind.updateUser(user);
+
+        store.setUnavailable(true);
+        assertThrows(DatabaseUnavailableException.class, writeBehind::flush);
+        assertEquals(1, writeBehind.getQueueSize());
+
+        store.setUnavailable(false);
+        writeBehind.flush();
+        assertEquals(new Timestamp(1000), store.stored(user.getUuid()).getLastSeen());
+    }
+
+    @Test
+    void writesDirectlyOnceTheQueueIsFull() {
+        for (var i = 0; i < 5; i++) {
+            var user = insert("User" + i);
+            user.setLastSeen(new Timestamp(1000));
+            writeBehind.updateUser(user);
+            if (i >= 3) {
+                assertEquals(new Timestamp(1000), store.stored(user.getUuid()).getLastSeen());
+            }
+        }
+
+        assertEquals(3, writeBehind.getQueueSize());
+    }
+
+    @Test
+    void closesTheDelegateIfTheLastFlushFails() {
+        var user = insert("Alice");
+        user.setLastSeen(new Timestamp(1000));
+        writeBehind.updateUser(user);
+
+        store.setUnavailable(true);
+        writeBehind.close();
+
+        assertTrue(closed.get());
+        assertTrue(logger.getErrors().stream().anyMatch(error -> error.contains("lost")));
+    }
+
+    @Test
+    void deleteOnlyDiscardsTheUsersOwnUpdate() {
+        var deleted = insert("Deleted");
+        var other = insert("Other");
+        deleted.setLastSeen(new Timestamp(1000));
+        other.setLastSeen(new Timestamp(1000));
+        writeBehind.updateUser(deleted);
+        writeBehind.updateUser(other);
+
+        writeBehind.deleteUser(deleted);
+
+        assertNull(store.stored(deleted.getUuid()));
+        assertNull(writeBehind.getByUUID(deleted.getUuid()));
+        // The other update stays queued
+        assertEquals(1, writeBehind.getQueueSize());
+        assertEquals(new Timestamp(0), store.stored(other.getUuid()).getLastSeen());
+    }
+
+    @Test
+    void claimNameKeepsTheQueuedUpdate() {
+        var holder = insert("Name");
+        var claimer = insert("Claimer");
+        claimer.setLastSeen(new Timestamp(1000));
+        writeBehind.updateUser(claimer);
+
+        var stale = new AuthenticUser(store.stored(claimer.getUuid()));
+        writeBehind.claimName(stale, "Name");
+
+        assertNull(store.stored(holder.getUuid()));
+        assertEquals(new Timestamp(1000), store.stored(claimer.getUuid()).getLastSeen());
+        assertEquals(0, writeBehind.getQueueSize());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.connector;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static xyz.kyngs.librelogin.common.database.connector.CircuitBreaker.State.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import xyz.kyngs.librelogin.common.database.connector.CircuitBreaker.State;
+
+class CircuitBreakerTest {
+
+    private final List<State> transitions = new ArrayList<>();
+
+    private CircuitBreaker breaker(long openDuration) {
+        return new CircuitBreaker(3, openDuration, (from, to) -> transitions.add(to));
+    }
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        var breaker = breaker(60_000);
+
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+
+        assertEquals(CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+
+        assertEquals(OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertFalse(breaker.isAvailable());
+        assertEquals(List.of(OPEN), transitions);
+    }
+
+    @Test
+    void letsASingleProbeThrough() {
+        var breaker = breaker(0);
+        for (var i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+
+        assertTrue(breaker.isAvailable());
+        assertTrue(breaker.allowRequest());
+        assertEquals(HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        breaker.recordSuccess();
+
+        assertEquals(CLOSED, breaker.getState());
+        assertEquals(0, breaker.getFailures());
+        assertEquals(List.of(OPEN, HALF_OPEN, CLOSED), transitions);
+    }
+
+    @Test
+    void reopensWhenTheProbeFails() {
+        var breaker = breaker(0);
+        for (var i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+
+        assertEquals(OPEN, breaker.getState());
+        assertEquals(List.of(OPEN, HALF_OPEN, OPEN), transitions);
+        // The next probe is let through once the open duration elapses again
+        assertTrue(breaker.allowRequest());
+    }
+}
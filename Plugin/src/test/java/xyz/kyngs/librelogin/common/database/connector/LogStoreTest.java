@@ -0,0 +1,150 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.connector;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static xyz.kyngs.librelogin.common.database.TestDatabaseProvider.user;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.kyngs.librelogin.common.TestLogger;
+
+class LogStoreTest {
+
+    @TempDir Path directory;
+
+    private TestLogger logger;
+    private LogStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        logger = new TestLogger();
+        store = open(1000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        store.close();
+    }
+
+    private LogStore open(long compactionThreshold) throws IOException {
+        return LogStore.open(directory, logger, compactionThreshold, true);
+    }
+
+    /** Closes the store, and drops its indexes, so the next open replays the log. */
+    private void crash() throws IOException {
+        store.close();
+        for (var name : new String[] {"uuid", "name", "premium", "ip"}) {
+            Files.delete(directory.resolve(name + "-0.idx"));
+        }
+    }
+
+    @Test
+    void skipsDamagedRecords() throws IOException {
+        var alice = user("Alice");
+        var bob = user("Bob");
+        var carol = user("Carol");
+        store.put(alice);
+        store.put(bob);
+        store.put(carol);
+        store.sync();
+        crash();
+
+        // A byte in the middle of the record of Bob
+        var offset = UserLog.HEADER_SIZE + 9 + UserCodec.encode(alice).length + 20;
+        var log = directory.resolve("users-0.log");
+        try (var channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0x55}), offset);
+        }
+
+        store = open(1000);
+
+        assertEquals("Alice", store.getByUUID(alice.getUuid()).getLastNickname());
+        assertNull(store.getByUUID(bob.getUuid()));
+        assertEquals("Carol", store.getByName("carol").getLastNickname());
+        assertEquals(1, logger.getErrors().size());
+    }
+
+    @Test
+    void cutsOffATornRecord() throws IOException {
+        var alice = user("Alice");
+        store.put(alice);
+        crash();
+
+        var log = directory.resolve("users-0.log");
+        var size = Files.size(log);
+        // The header of a record whose body has not been written
+        Files.write(log, new byte[] {0, 0, 1, 0, 1, 2, 3, 4, 1, 0}, StandardOpenOption.APPEND);
+
+        store = open(1000);
+
+        assertEquals(alice.getUuid(), store.getByName("alice").getUuid());
+        assertEquals(size, Files.size(log));
+        assertEquals(1, logger.getWarnings().size());
+    }
+
+    @Test
+    void compactsTheLog() throws IOException {
+        store.close();
+        store = open(1);
+
+        var alice = user("Alice");
+        var bob = user("Bob");
+        store.put(bob);
+        for (var i = 0; i < 10; i++) {
+            alice.setIp("10.0.0." + i);
+            store.put(alice);
+        }
+        store.delete(bob.getUuid());
+        // Waits for the compaction
+        store.close();
+
+        assertNotEquals("0", Files.readString(directory.resolve("CURRENT")));
+
+        store = open(1000);
+
+        assertEquals(1, store.size());
+        assertEquals("10.0.0.9", store.getByUUID(alice.getUuid()).getIp());
+        assertNull(store.getByName("bob"));
+    }
+
+    @Test
+    void findsUsersByIP() throws IOException {
+        var alice = user("Alice");
+        var bob = user("Bob");
+        var carol = user("Carol");
+        carol.setIp("10.0.0.2");
+        store.put(alice);
+        store.put(bob);
+        store.put(carol);
+
+        assertEquals(2, store.getByIP("127.0.0.1").size());
+
+        bob.setIp("10.0.0.2");
+        store.put(bob);
+        store.delete(alice.getUuid());
+
+        assertTrue(store.getByIP("127.0.0.1").isEmpty());
+        assertEquals(2, store.getByIP("10.0.0.2").size());
+
+        // The index is kept, and rebuilt
+        store.close();
+        store = open(1000);
+        assertEquals(2, store.getByIP("10.0.0.2").size());
+        crash();
+        store = open(1000);
+        assertEquals(2, store.getByIP("10.0.0.2").size());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.connector;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedHashIndexTest {
+
+    // The header, and the slots of the initial capacity
+    private static final long INITIAL_SIZE = 64 + 1024 * 16;
+
+    @TempDir Path directory;
+
+    private Path file;
+    private MappedHashIndex index;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = directory.resolve("test.idx");
+        index = MappedHashIndex.open(file);
+        index.clear();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    void doesNotGrowForTombstones() throws IOException {
+        for (var i = 0; i < 100_000; i++) {
+            index.put(i, 100 + i, 0);
+            index.remove(i, 100 + i);
+        }
+
+        assertEquals(0, index.size());
+        assertEquals(INITIAL_SIZE, Files.size(file));
+        assertNull(index.<Long>find(5, offset -> offset));
+    }
+
+    @Test
+    void growsForLiveEntries() throws IOException {
+        for (var i = 0; i < 2000; i++) {
+            index.put(i, 100 + i, 0);
+            // Tombstones in between
+            if (i % 2 == 0) index.remove(i, 100 + i);
+        }
+
+        assertEquals(1000, index.size());
+        assertTrue(Files.size(file) > INITIAL_SIZE);
+        for (var i = 0; i < 2000; i++) {
+            var expected = i % 2 == 0 ? null : 100L + i;
+            assertEquals(expected, index.<Long>find(i, offset -> offset));
+        }
+    }
+
+    @Test
+    void keepsTheEntriesOfACleanClose() throws IOException {
+        for (var i = 0; i < 1000; i++) {
+            index.put(i, 100 + i, 0);
+        }
+        index.put(7, 5000, 107);
+        index.checkpoint(3, 6000, 1001);
+        index.close();
+
+        index = MappedHashIndex.open(file);
+
+        assertTrue(index.isComplete(3, 6000));
+        assertFalse(index.isComplete(3, 7000));
+        assertEquals(1000, index.size());
+        assertEquals(Long.valueOf(5000), index.<Long>find(7, offset -> offset));
+    }
+
+    @Test
+    void passesAllTheEntriesOfAHash() throws IOException {
+        index.put(1, 100, 0);
+        index.put(1, 200, 0);
+        index.put(2, 300, 0);
+        index.remove(1, 100);
+        index.put(1, 400, 0);
+
+        List<Long> offsets = new ArrayList<>();
+        index.forEach(1, offsets::add);
+
+        assertEquals(List.of(200L, 400L), offsets.stream().sorted().toList());
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.connector;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static xyz.kyngs.librelogin.common.database.TestDatabaseProvider.user;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.kyngs.librelogin.api.database.User;
+import xyz.kyngs.librelogin.common.TestLogger;
+import xyz.kyngs.librelogin.common.database.AuthenticUser;
+
+class MemorySnapshotTest {
+
+    @TempDir Path directory;
+
+    private Path file;
+    private TestLogger logger;
+
+    @BeforeEach
+    void setUp() {
+        file = directory.resolve("users.snapshot");
+        logger = new TestLogger();
+    }
+
+    private MemorySnapshot snapshot() {
+        return new MemorySnapshot(file, logger, true);
+    }
+
+    private Map<UUID, AuthenticUser> replay() throws IOException {
+        var users = new LinkedHashMap<UUID, AuthenticUser>();
+        var snapshot = snapshot();
+        snapshot.replay(user -> users.put(user.getUuid(), user), users::remove);
+        snapshot.close();
+        return users;
+    }
+
+    @Test
+    void cutsOffAtTheFirstDamagedRecord() throws IOException {
+        var alice = user("Alice");
+        var bob = user("Bob");
+        var snapshot = snapshot();
+        synchronized (snapshot) {
+            snapshot.rewrite(List.of(alice));
+            snapshot.appendPut(bob);
+            snapshot.appendDelete(alice.getUuid());
+        }
+        snapshot.sync();
+        snapshot.close();
+
+        // A byte in the middle of the record of Bob
+        var offset = 5 + 9 + UserCodec.encode(alice).length + 9 + 20;
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0x55}), offset);
+        }
+
+        var users = replay();
+
+        assertEquals(List.of(alice.getUuid()), List.copyOf(users.keySet()));
+        assertEquals(offset - 20 - 9, Files.size(file));
+        assertEquals(1, logger.getWarnings().size());
+    }
+
+    @Test
+    void ignoresAHugeDamagedLength() throws IOException {
+        var snapshot = snapshot();
+        synchronized (snapshot) {
+            snapshot.rewrite(List.of(user("Alice")));
+        }
+        snapshot.close();
+
+        // A record claiming to be two gigabytes long
+        Files.write(file, new byte[] {1, 0x7f, -1, -1, -1, 0, 0, 0, 0}, StandardOpenOption.APPEND);
+
+        assertEquals(1, replay().size());
+    }
+
+    @Test
+    void keepsTheRecordsAppendedDuringARewrite() throws IOException, InterruptedException {
+        var alice = user("Alice");
+        var bob = user("Bob");
+        var snapshot = snapshot();
+        synchronized (snapshot) {
+            snapshot.rewrite(List.of(alice));
+        }
+
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        Iterable<User> users =
+                () -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return List.<User>of(alice).iterator();
+                };
+
+        synchronized (snapshot) {
+            snapshot.rewriteInBackground(users);
+        }
+        started.await();
+
+        // Not blocked by the rewrite
+        synchronized (snapshot) {
+            snapshot.appendPut(bob);
+            snapshot.appendDelete(alice.getUuid());
+        }
+        snapshot.sync();
+        release.countDown();
+        snapshot.close();
+
+        assertEquals(List.of(bob.getUuid()), List.copyOf(replay().keySet()));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.invalidation;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import xyz.kyngs.librelogin.common.TestLogger;
+
+class DatabaseInvalidationBusTest {
+
+    private TestChangeLog log;
+    private AtomicLong clock;
+    private TestLogger logger;
+    private DatabaseInvalidationBus bus;
+    private List<Invalidation> received;
+
+    @BeforeEach
+    void setUp() {
+        log = new TestChangeLog();
+        clock = new AtomicLong(TimeUnit.DAYS.toMillis(1));
+        logger = new TestLogger();
+        received = new CopyOnWriteArrayList<>();
+        // Polled by the tests only
+        bus = new DatabaseInvalidationBus(logger, log, TimeUnit.HOURS.toMillis(1), clock::get);
+        bus.subscribe(received::add);
+        bus.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        log.failing = false;
+        bus.close();
+    }
+
+    @Test
+    void receivesOnlyTheInvalidationsOfOtherProxies() {
+        var other = Invalidation.user(UUID.randomUUID());
+        log.append("other", other, true);
+        bus.publish(List.of(Invalidation.name("alice")));
+
+        bus.poll();
+
+        assertEquals(List.of(other), received);
+    }
+
+    @Test
+    void receivesChangesCommittedOutOfOrder() {
+        var late = log.append("other", Invalidation.name("alice"), false);
+        var early = Invalidation.name("bob");
+        log.append("other", early, true);
+
+        bus.poll();
+        assertEquals(List.of(early), received);
+
+        late.visible = true;
+        bus.poll();
+        assertEquals(List.of(early, late.invalidation), received);
+    }
+
+    @Test
+    void dropsTheCacheAfterAMissedRetention() {
+        clock.addAndGet(TimeUnit.HOURS.toMillis(2));
+
+        bus.poll();
+
+        assertEquals(List.of(Invalidation.all()), received);
+        assertEquals(1, logger.getWarnings().size());
+
+        // Only once
+        clock.addAndGet(1000);
+        bus.poll();
+        assertEquals(1, received.size());
+    }
+
+    @Test
+    void retriesFailedPublishes() {
+        var first = Invalidation.name("alice");
+        var second = Invalidation.name("bob");
+
+        log.failing = true;
+        bus.publish(List.of(first));
+        assertTrue(log.changes.isEmpty());
+        assertEquals(1, logger.getWarnings().size());
+
+        log.failing = false;
+        bus.publish(List.of(second));
+
+        assertEquals(
+                List.of(first, second),
+                log.changes.stream().map(change -> change.invalidation).toList());
+    }
+
+    @Test
+    void collapsesTooManyFailedPublishes() {
+        log.failing = true;
+        for (var i = 0; i < 11; i++) {
+            var batch = new ArrayList<Invalidation>();
+            for (var j = 0; j < 1000; j++) {
+                batch.add(Invalidation.user(UUID.randomUUID()));
+            }
+            bus.publish(batch);
+        }
+
+        log.failing = false;
+        bus.close();
+
+        assertEquals(1, log.changes.size());
+        assertEquals(Invalidation.all(), log.changes.get(0).invalidation);
+    }
+
+    @Test
+    void reportsInvalidationsLostOnClose() {
+        log.failing = true;
+        bus.publish(List.of(Invalidation.name("alice")));
+
+        bus.close();
+
+        assertEquals(1, logger.getErrors().size());
+    }
+
+    private static class TestChangeLog implements ChangeLog {
+
+        private final List<Entry> changes = new CopyOnWriteArrayList<>();
+        private volatile boolean failing;
+
+        private Entry append(String origin, Invalidation invalidation, boolean visible) {
+            var entry = new Entry(changes.size() + 1, origin, invalidation);
+            entry.visible = visible;
+            changes.add(entry);
+            return entry;
+        }
+
+        @Override
+        public long getLatestChange() {
+            return changes.size();
+        }
+
+        @Override
+        public void appendChanges(String origin, Collection<Invalidation> invalidations) {
+            if (failing) throw new IllegalStateException("Failing");
+            for (var invalidation : invalidations) {
+                append(origin, invalidation, true);
+            }
+        }
+
+        @Override
+        public List<Change> readChanges(long after, long before, int limit) {
+            return changes.stream()
+                    .filter(entry -> entry.visible && entry.id > after && entry.id < before)
+                    .limit(limit)
+                    .map(entry -> new Change(entry.id, entry.origin, entry.invalidation))
+                    .toList();
+        }
+
+        @Override
+        public int pruneChanges(Timestamp before) {
+            return 0;
+        }
+
+        private static class Entry {
+            private final long id;
+            private final String origin;
+            private final Invalidation invalidation;
+            private volatile boolean visible;
+
+            private Entry(long id, String origin, Invalidation invalidation) {
+                this.id = id;
+                this.origin = origin;
+                this.invalidation = invalidation;
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.provider;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static xyz.kyngs.librelogin.common.database.TestDatabaseProvider.user;
+
+import java.io.File;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.kyngs.librelogin.api.crypto.HashedPassword;
+import xyz.kyngs.librelogin.api.database.IPHistoryEntry;
+import xyz.kyngs.librelogin.api.database.PruneResult;
+import xyz.kyngs.librelogin.api.database.User;
+import xyz.kyngs.librelogin.common.TestPlugin;
+import xyz.kyngs.librelogin.common.database.AuthenticUser;
+import xyz.kyngs.librelogin.common.database.connector.AuthenticSQLiteDatabaseConnector;
+
+/** Runs the SQL provider against an SQLite database file. */
+class LibreLoginSQLiteDatabaseProviderTest {
+
+    @TempDir File folder;
+
+    private TestPlugin plugin;
+    private AuthenticSQLiteDatabaseConnector connector;
+    private LibreLoginSQLiteDatabaseProvider provider;
+
+    @BeforeEach
+    void setUp() {
+        plugin = new TestPlugin(folder);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        if (connector != null) connector.disconnect();
+    }
+
+    private LibreLoginSQLiteDatabaseProvider connect() throws SQLException {
+        connector = new AuthenticSQLiteDatabaseConnector(plugin.get(), "");
+        connector.connect();
+        provider = new LibreLoginSQLiteDatabaseProvider(connector, plugin.get());
+        return provider;
+    }
+
+    private void execute(String... statements) throws SQLException {
+        try (var connection =
+                DriverManager.getConnection("jdbc:sqlite:" + new File(folder, "user-data.db"))) {
+            for (var statement : statements) {
+                connection.prepareStatement(statement).executeUpdate();
+            }
+        }
+    }
+
+    @Test
+    void updatesOnlyTheChangedColumns() throws SQLException {
+        connect().validateSchema();
+
+        var user = user("Alice");
+        provider.insertUser(user);
+
+        // Two proxies holding their own copy of the user
+        var first = (AuthenticUser) provider.getByUUID(user.getUuid());
+        var second = (AuthenticUser) provider.getByUUID(user.getUuid());
+
+        first.setHashedPassword(new HashedPassword("hash", "salt", "SHA-256"));
+        second.setLastSeen(new Timestamp(1000));
+
+        provider.updateUser(first);
+        provider.updateUser(second);
+
+        var stored = provider.getByUUID(user.getUuid());
+        assertEquals("hash", stored.getHashedPassword().hash());
+        assertEquals(new Timestamp(1000), stored.getLastSeen());
+    }
+
+    @Test
+    void insertsOnlyAbsentUsers() throws SQLException {
+        connect().validateSchema();
+
+        var alice = user("Alice");
+        assertTrue(provider.insertUserIfAbsent(alice));
+        assertFalse(provider.insertUserIfAbsent(alice));
+        // The name is taken
+        assertFalse(provider.insertUserIfAbsent(user("Alice")));
+
+        var bob = user("Bob");
+        provider.insertUsers(List.of(alice, bob));
+
+        assertEquals(2, provider.getAllUsers().size());
+    }
+
+    @Test
+    void upsertsOnlyTheRowOfTheUser() throws SQLException {
+        connect().validateSchema();
+
+        var premium = UUID.randomUUID();
+        var alice = user("Alice");
+        alice.setPremiumUUID(premium);
+        provider.insertUser(alice);
+
+        var bob = user("Bob");
+        provider.upsertUser(bob);
+        bob.setIp("10.0.0.1");
+        provider.upsertUser(bob);
+        assertEquals("10.0.0.1", provider.getByUUID(bob.getUuid()).getIp());
+
+        // Conflicts with the premium UUID of another user
+        var mallory = user("Mallory");
+        mallory.setPremiumUUID(premium);
+        assertThrows(RuntimeException.class, () -> provider.upsertUser(mallory));
+
+        assertEquals("Alice", provider.getByPremiumUUID(premium).getLastNickname());
+        assertNull(provider.getByUUID(mallory.getUuid()));
+    }
+
+    @Test
+    void readsTheUsersAfterAUUID() throws SQLException {
+        connect().validateSchema();
+
+        for (var i = 0; i < 5; i++) {
+            provider.insertUser(user("User" + i));
+        }
+
+        var all = new ArrayList<User>();
+        provider.forEachUserAfter(null, all::add);
+        assertEquals(5, all.size());
+
+        var rest = new ArrayList<User>();
+        provider.forEachUserAfter(all.get(1).getUuid(), rest::add);
+        assertEquals(all.subList(2, 5), rest);
+    }
+
+    @Test
+    void prunesInactiveUsersInChunks() throws SQLException {
+        connect().validateSchema();
+
+        for (var i = 0; i < 5; i++) {
+            var user = user("User" + i);
+            user.setLastSeen(new Timestamp(1000));
+            provider.insertUser(user);
+        }
+        var active = user("Active");
+        active.setLastSeen(new Timestamp(5000));
+        provider.insertUser(active);
+
+        var before = new Timestamp(2000);
+
+        assertEquals(new PruneResult(3, 3), provider.pruneInactiveUsers(before, 3));
+        assertEquals(new PruneResult(2, 2), provider.pruneInactiveUsers(before, 3));
+        assertEquals(1, provider.getAllUsers().size());
+        assertNotNull(provider.getByUUID(active.getUuid()));
+    }
+
+    @Test
+    void commitsEveryChunkOfAPrune() throws SQLException {
+        connect().validateSchema();
+
+        for (var i = 0; i < 2; i++) {
+            var user = user("User" + i);
+            user.setLastSeen(new Timestamp(1000));
+            provider.insertUser(user);
+        }
+
+        int visible =
+                provider.runPruneExclusively(
+                        () -> {
+                            provider.pruneInactiveUsers(new Timestamp(2000), 1);
+                            // Read on another connection, sees only what has been committed
+                            return provider.getAllUsers().size();
+                        });
+
+        assertEquals(1, visible);
+    }
+
+    @Test
+    void prunesTheIPHistory() throws SQLException {
+        connect().validateSchema();
+
+        var user = user("Alice");
+        provider.insertUser(user);
+        var uuid = user.getUuid();
+        provider.recordIPs(
+                List.of(
+                        new IPHistoryEntry(
+                                uuid, "10.0.0.1", new Timestamp(500), new Timestamp(1000), 1),
+                        new IPHistoryEntry(
+                                uuid, "10.0.0.2", new Timestamp(500), new Timestamp(1000), 1),
+                        new IPHistoryEntry(
+                                uuid, "10.0.0.3", new Timestamp(500), new Timestamp(5000), 1)));
+
+        var before = new Timestamp(2000);
+
+        assertEquals(new PruneResult(1, 1), provider.pruneIPHistory(before, 1));
+        assertEquals(new PruneResult(1, 1), provider.pruneIPHistory(before, 2));
+        assertEquals(
+                List.of("10.0.0.3"),
+                connector.runQuery(
+                        connection -> {
+                            var rs =
+                                    connection
+                                            .prepareStatement(
+                                                    "SELECT ip FROM librelogin_ip_history")
+                                            .executeQuery();
+                            var ips = new ArrayList<String>();
+                            while (rs.next()) ips.add(rs.getString(1));
+                            return ips;
+                        }));
+    }
+
+    @Test
+    void rebasesAConcurrentUpdate() throws SQLException {
+        connect().validateSchema();
+
+        var user = user("Alice");
+        provider.insertUser(user);
+
+        // Two proxies holding their own copy of the user
+        var first = (AuthenticUser) provider.getByUUID(user.getUuid());
+        var second = (AuthenticUser) provider.getByUUID(user.getUuid());
+
+        first.setHashedPassword(new HashedPassword("first", "salt", "SHA-256"));
+        provider.updateUser(first);
+
+        second.setHashedPassword(new HashedPassword("second", "salt", "SHA-256"));
+        second.setLastServer("lobby");
+        provider.updateUsers(List.of(second));
+
+        var stored = (AuthenticUser) provider.getByUUID(user.getUuid());
+        assertEquals("second", stored.getHashedPassword().hash());
+        assertEquals("lobby", stored.getLastServer());
+        assertEquals(second.getRowVersion(), stored.getRowVersion());
+        assertNotEquals(first.getRowVersion(), stored.getRowVersion());
+        assertTrue(second.getDirtyFields().isEmpty());
+    }
+
+    @Test
+    void keepsTheFieldsOfAConcurrentUpdate() throws SQLException {
+        connect().validateSchema();
+
+        var user = user("Alice");
+        provider.insertUser(user);
+
+        // Another proxy, which does not know the updates of this one
+        var other = new LibreLoginSQLiteDatabaseProvider(connector, plugin.get());
+        var first = (AuthenticUser) other.getByUUID(user.getUuid());
+        var second = (AuthenticUser) provider.getByUUID(user.getUuid());
+
+        first.setEmail("alice@example.com");
+        other.updateUser(first);
+
+        // Based on the version before the other update, so the row is read again
+        second.setLastSeen(new Timestamp(1000));
+        provider.updateUser(second);
+
+        assertEquals("alice@example.com", second.getEmail());
+        var stored = provider.getByUUID(user.getUuid());
+        assertEquals("alice@example.com", stored.getEmail());
+        assertEquals(new Timestamp(1000), stored.getLastSeen());
+    }
+
+    @Test
+    void readsAnOldSchemaAsAMigrationSource() throws SQLException {
+        var uuid = UUID.randomUUID();
+        execute(
+                "CREATE TABLE librepremium_data(uuid VARCHAR(255) NOT NULL PRIMARY KEY,"
+                        + " premium_uuid VARCHAR(255), hashed_password VARCHAR(255),"
+                        + " salt VARCHAR(255), algo VARCHAR(255), last_nickname VARCHAR(255),"
+                        + " joined TIMESTAMP, last_seen TIMESTAMP)",
+                "INSERT INTO librepremium_data(uuid, hashed_password, salt, algo, last_nickname)"
+                        + " VALUES ('%s', 'hash', 'salt', 'SHA-256', 'Alice')".formatted(uuid));
+
+        connect().detectSchema();
+
+        var users = provider.getAllUsers();
+
+        assertEquals(1, users.size());
+        var user = users.iterator().next();
+        assertEquals(uuid, user.getUuid());
+        assertEquals("Alice", user.getLastNickname());
+        assertEquals("hash", user.getHashedPassword().hash());
+        assertNull(user.getEmail());
+        assertNull(user.getSecret());
+    }
+
+    @Test
+    void readsBinaryUUIDsAsAMigrationSource() throws SQLException {
+        plugin.set("database.binary-uuids", true);
+        connect().validateSchema();
+
+        var user = user("Alice");
+        provider.insertUser(user);
+        connector.disconnect();
+
+        // A fresh provider, as created for the old database of a migration
+        plugin.set("database.binary-uuids", false);
+        connect().detectSchema();
+
+        assertEquals(user.getUuid(), provider.getByName("Alice").getUuid());
+    }
+}
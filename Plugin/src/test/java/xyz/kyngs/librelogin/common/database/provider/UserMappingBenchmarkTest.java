@@ -0,0 +1,163 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.database.provider;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static xyz.kyngs.librelogin.common.database.TestDatabaseProvider.user;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.UUID;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.kyngs.librelogin.api.crypto.HashedPassword;
+import xyz.kyngs.librelogin.api.database.User;
+import xyz.kyngs.librelogin.common.TestPlugin;
+import xyz.kyngs.librelogin.common.database.AuthenticUser;
+import xyz.kyngs.librelogin.common.database.connector.AuthenticSQLiteDatabaseConnector;
+
+/**
+ * Measures the cost of mapping a user row by position, as the provider does, against resolving the
+ * columns by their names. Both read the same result set, so the difference is the mapping alone.
+ * Run with {@code ./gradlew :Plugin:test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class UserMappingBenchmarkTest {
+
+    private static final int ROWS = 10_000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    private static final String SELECT =
+            "SELECT uuid, premium_uuid, hashed_password, salt, algo, last_nickname, joined,"
+                    + " last_seen, secret, ip, last_authentication, last_server, email, version"
+                    + " FROM librepremium_data";
+
+    @TempDir File folder;
+
+    private AuthenticSQLiteDatabaseConnector connector;
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        if (connector != null) connector.disconnect();
+    }
+
+    @Test
+    void mapsRowsByPosition() throws SQLException {
+        var plugin = new TestPlugin(folder);
+        connector = new AuthenticSQLiteDatabaseConnector(plugin.get(), "");
+        connector.connect();
+        var provider = new LibreLoginSQLiteDatabaseProvider(connector, plugin.get());
+        provider.validateSchema();
+
+        var users = new ArrayList<User>(ROWS);
+        for (var i = 0; i < ROWS; i++) {
+            var user = user("User" + i);
+            user.setHashedPassword(new HashedPassword("hash" + i, "salt", "SHA-256"));
+            user.setLastServer("lobby");
+            users.add(user);
+        }
+        provider.insertUsers(users);
+
+        long byPosition = 0;
+        long byName = 0;
+        for (var round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            var positional = time(rs -> provider.mapUser(rs));
+            var named = time(UserMappingBenchmarkTest::mapByName);
+            if (round >= WARMUP_ROUNDS) {
+                byPosition += positional;
+                byName += named;
+            }
+        }
+
+        var rows = (double) ROWS * ROUNDS;
+        System.out.printf(
+                "Reading and mapping a user row: %.0f ns by position, %.0f ns by name%n",
+                byPosition / rows, byName / rows);
+
+        // Both mappings must agree, or the comparison means nothing
+        connector.runReadQuery(
+                connection -> {
+                    var positional = connection.prepareStatement(SELECT).executeQuery();
+                    var named = connection.prepareStatement(SELECT).executeQuery();
+                    while (positional.next()) {
+                        assertTrue(named.next());
+                        assertSameUser(mapByName(named), provider.mapUser(positional));
+                    }
+                    assertFalse(named.next());
+                });
+    }
+
+    /**
+     * Reads all the rows, mapping each of them.
+     *
+     * @return The nanoseconds taken
+     */
+    private long time(Mapper mapper) {
+        return connector.runReadQuery(
+                (Connection connection) -> {
+                    var rs = connection.prepareStatement(SELECT).executeQuery();
+                    var start = System.nanoTime();
+                    var count = 0;
+                    while (rs.next()) {
+                        if (mapper.map(rs) != null) count++;
+                    }
+                    var elapsed = System.nanoTime() - start;
+                    assertEquals(ROWS, count);
+                    return elapsed;
+                });
+    }
+
+    /** The mapping the provider used to do, resolving every column by its name. */
+    private static User mapByName(ResultSet rs) throws SQLException {
+        var premiumUUID = rs.getString("premium_uuid");
+        var hashedPassword = rs.getString("hashed_password");
+
+        var user =
+                new AuthenticUser(
+                        UUID.fromString(rs.getString("uuid")),
+                        premiumUUID == null ? null : UUID.fromString(premiumUUID),
+                        hashedPassword == null
+                                ? null
+                                : new HashedPassword(
+                                        hashedPassword, rs.getString("salt"), rs.getString("algo")),
+                        rs.getString("last_nickname"),
+                        rs.getTimestamp("joined"),
+                        rs.getTimestamp("last_seen"),
+                        rs.getString("secret"),
+                        rs.getString("ip"),
+                        rs.getTimestamp("last_authentication"),
+                        rs.getString("last_server"),
+                        rs.getString("email"));
+        user.setRowVersion(rs.getLong("version"));
+        return user;
+    }
+
+    private static void assertSameUser(User expected, User actual) {
+        assertEquals(expected.getUuid(), actual.getUuid());
+        assertEquals(expected.getPremiumUUID(), actual.getPremiumUUID());
+        assertEquals(expected.getHashedPassword(), actual.getHashedPassword());
+        assertEquals(expected.getLastNickname(), actual.getLastNickname());
+        assertEquals(expected.getJoinDate(), actual.getJoinDate());
+        assertEquals(expected.getLastSeen(), actual.getLastSeen());
+        assertEquals(expected.getIp(), actual.getIp());
+        assertEquals(expected.getLastServer(), actual.getLastServer());
+        assertEquals(
+                ((AuthenticUser) expected).getRowVersion(),
+                ((AuthenticUser) actual).getRowVersion());
+    }
+
+    @FunctionalInterface
+    private interface Mapper {
+        User map(ResultSet rs) throws SQLException;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package xyz.kyngs.librelogin.common.migrate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static xyz.kyngs.librelogin.common.database.TestDatabaseProvider.user;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Consumer;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.kyngs.librelogin.api.database.User;
+import xyz.kyngs.librelogin.common.TestLogger;
+import xyz.kyngs.librelogin.common.database.TestDatabaseProvider;
+
+class MigrationPipelineTest {
+
+    @TempDir File folder;
+
+    private File checkpoint;
+    private KeysetSource source;
+    private TestDatabaseProvider target;
+
+    @BeforeEach
+    void setUp() {
+        checkpoint = new File(folder, "checkpoint.json");
+        source = new KeysetSource();
+        for (var i = 0; i < 10; i++) {
+            source.add(user("User" + i));
+        }
+        target = new TestDatabaseProvider();
+    }
+
+    private MigrationPipeline pipeline() {
+        // A single writer, so the chunks are written in order
+        return new MigrationPipeline(new TestLogger(), 3, 1, checkpoint, "test");
+    }
+
+    @Test
+    void migratesAllUsers() {
+        assertEquals(10, pipeline().run(source, target));
+
+        assertEquals(10, target.getAllUsers().size());
+        assertFalse(checkpoint.exists());
+    }
+
+    @Test
+    void resumesAfterTheLastWrittenUser() {
+        var users = source.ordered();
+        // The third chunk fails
+        var bad = users.get(7).getUuid();
+        target.setFailing(user -> user.getUuid().equals(bad));
+
+        assertThrows(RuntimeException.class, () -> pipeline().run(source, target));
+        assertEquals(6, target.getAllUsers().size());
+        assertTrue(checkpoint.exists());
+
+        target.setFailing(user -> false);
+        source.read.clear();
+
+        assertEquals(4, pipeline().run(source, target));
+
+        assertEquals(10, target.getAllUsers().size());
+        assertEquals(users.subList(6, 10), source.read);
+        assertFalse(checkpoint.exists());
+    }
+
+    @Test
+    void ignoresTheCheckpointOfAnotherSource() throws Exception {
+        Files.writeString(
+                checkpoint.toPath(),
+                "{\"source\":\"other\",\"after\":\"%s\"}"
+                        .formatted(source.ordered().get(5).getUuid()));
+
+        assertEquals(10, pipeline().run(source, target));
+    }
+
+    @Test
+    void rereadsSourcesWhichCannotResume() {
+        var users = source.ordered();
+        var bad = users.get(7).getUuid();
+        target.setFailing(user -> user.getUuid().equals(bad));
+
+        var plain = new PlainSource(source);
+        assertThrows(RuntimeException.class, () -> pipeline().run(plain, target));
+        assertFalse(checkpoint.exists());
+
+        target.setFailing(user -> false);
+
+        assertEquals(10, pipeline().run(plain, target));
+        assertEquals(10, target.getAllUsers().size());
+    }
+
+    private static class KeysetSource extends MigrateReadProvider implements KeysetReadProvider {
+
+        private final TreeMap<UUID, User> users = new TreeMap<>();
+        private final List<User> read = new ArrayList<>();
+
+        private void add(User user) {
+            users.put(user.getUuid(), user);
+        }
+
+        private List<User> ordered() {
+            return List.copyOf(users.values());
+        }
+
+        @Override
+        public void forEachUser(Consumer<User> consumer) {
+            forEachUserAfter(null, consumer);
+        }
+
+        @Override
+        public void forEachUserAfter(@Nullable UUID after, Consumer<User> consumer) {
+            var users = after == null ? this.users : this.users.tailMap(after, false);
+            for (var user : users.values()) {
+                read.add(user);
+                consumer.accept(user);
+            }
+        }
+    }
+
+    private static class PlainSource extends MigrateReadProvider {
+
+        private final Collection<User> users;
+
+        private PlainSource(KeysetSource source) {
+            this.users = source.ordered();
+        }
+
+        @Override
+        public void forEachUser(Consumer<User> consumer) {
+            users.forEach(consumer);
+        }
+    }
+}